@@ -0,0 +1,68 @@
+package com.myprojecticaro.poc_s3_file_uploader.benchmark;
+
+import com.myprojecticaro.poc_s3_file_uploader.service.AntivirusService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.mock.web.MockMultipartFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the checks {@link AntivirusService} runs on every upload.
+ * <p>
+ * {@code upload} is what {@code POST /files/upload} pays: the name rules of
+ * {@code scanFile}, then the content scanned while it is drained through a 64 KiB
+ * buffer. {@code inMemory} is {@code scanContent}, used for content that is already
+ * buffered. Each invocation covers 1 MiB, so ops/s is the throughput in MiB/s;
+ * {@link ScannerBenchmark} has the raw scanner numbers to compare against.
+ * </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class AntivirusServiceBenchmark {
+
+    private static final int PAYLOAD = 1024 * 1024;
+
+    private AntivirusService antivirusService;
+    private byte[] payload;
+    private byte[] buffer;
+    private MockMultipartFile file;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        antivirusService = new AntivirusService();
+        payload = new byte[PAYLOAD];
+        new Random(42).nextBytes(payload);
+        buffer = new byte[64 * 1024];
+        file = new MockMultipartFile("file", "report.pdf", "application/pdf", payload);
+    }
+
+    @Benchmark
+    public long upload() throws IOException {
+        antivirusService.scanFile(file);
+        long total = 0;
+        try (InputStream in = antivirusService.scanning(file.getInputStream(), file.getOriginalFilename())) {
+            int n;
+            while ((n = in.read(buffer, 0, buffer.length)) != -1) {
+                total += n;
+            }
+        }
+        return total;
+    }
+
+    @Benchmark
+    public byte[] inMemory() throws IOException {
+        antivirusService.scanContent(payload, "report.pdf");
+        return payload;
+    }
+}
@@ -0,0 +1,94 @@
+package com.myprojecticaro.poc_s3_file_uploader.benchmark;
+
+import com.myprojecticaro.poc_s3_file_uploader.io.BufferPool;
+import com.myprojecticaro.poc_s3_file_uploader.service.ObjectDownload;
+import com.myprojecticaro.poc_s3_file_uploader.service.ParallelDownloadService;
+import com.myprojecticaro.poc_s3_file_uploader.support.InMemoryS3Client;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.test.util.ReflectionTestUtils;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares a single GetObject stream with the parallel ranged-GET engine.
+ * <p>
+ * The in-memory S3 stand-in caps every response stream at {@code streamMbPerSecond}
+ * and adds {@code latencyMs} per request, so the numbers reflect how throughput
+ * scales with the number of concurrent streams rather than local memory speed.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ParallelDownloadBenchmark {
+
+    private static final String KEY = "benchmark.bin";
+
+    @Param({"64"})
+    public int objectMb;
+
+    @Param({"1", "4", "8"})
+    public int parallelism;
+
+    @Param({"50"})
+    public int streamMbPerSecond;
+
+    @Param({"20"})
+    public int latencyMs;
+
+    private InMemoryS3Client s3Client;
+    private ExecutorService executor;
+    private ParallelDownloadService service;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        s3Client = new InMemoryS3Client()
+                .withLatency(Duration.ofMillis(latencyMs))
+                .withBandwidthPerStream(streamMbPerSecond * 1024L * 1024);
+        s3Client.putObject(KEY, new byte[objectMb * 1024 * 1024], "application/octet-stream");
+
+        executor = Executors.newFixedThreadPool(parallelism);
+        service = new ParallelDownloadService(s3Client, executor, new BufferPool(64 * 1024, parallelism + 1));
+        ReflectionTestUtils.setField(service, "partSize", 8L * 1024 * 1024);
+        ReflectionTestUtils.setField(service, "threshold", 16L * 1024 * 1024);
+        ReflectionTestUtils.setField(service, "parallelism", parallelism);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    public long singleStream() throws Exception {
+        GetObjectRequest request = GetObjectRequest.builder().bucket("bucket").key(KEY).build();
+        try (ResponseInputStream<GetObjectResponse> in = s3Client.getObject(request)) {
+            return in.transferTo(OutputStream.nullOutputStream());
+        }
+    }
+
+    @Benchmark
+    public long parallelRanges() throws Exception {
+        try (ObjectDownload download = service.download("bucket", KEY);
+             InputStream in = download.body()) {
+            return in.transferTo(OutputStream.nullOutputStream());
+        }
+    }
+}
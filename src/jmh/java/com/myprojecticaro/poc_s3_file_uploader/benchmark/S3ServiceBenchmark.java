@@ -0,0 +1,128 @@
+package com.myprojecticaro.poc_s3_file_uploader.benchmark;
+
+import com.myprojecticaro.poc_s3_file_uploader.io.BufferPool;
+import com.myprojecticaro.poc_s3_file_uploader.service.MultipartUploadService;
+import com.myprojecticaro.poc_s3_file_uploader.service.ObjectDownload;
+import com.myprojecticaro.poc_s3_file_uploader.service.ParallelDownloadService;
+import com.myprojecticaro.poc_s3_file_uploader.service.S3Service;
+import com.myprojecticaro.poc_s3_file_uploader.support.InMemoryS3AsyncClient;
+import com.myprojecticaro.poc_s3_file_uploader.support.InMemoryS3Client;
+import com.myprojecticaro.poc_s3_file_uploader.support.S3ServiceFixture;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the upload and download paths of {@link S3Service} end to end, content
+ * scan included, against the in-memory S3 stand-in.
+ * <p>
+ * Invocations are sampled, so the report has the p50/p99/p99.9 latency of each path
+ * per file size; with {@code -prof gc} (on by default in {@code build.gradle}) it also
+ * has the allocation rate per operation. {@code latencyMs} and {@code streamMbPerSecond}
+ * make the stand-in behave like a remote S3: at {@code 0} the numbers are the
+ * service's own CPU and memory cost, otherwise they show how much of the network
+ * time the pipelining hides.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class S3ServiceBenchmark {
+
+    private static final String DOWNLOAD_KEY = "benchmark.bin";
+
+    @Param({"65536", "8388608"})
+    public int fileSize;
+
+    /** {@code aws.s3.upload.streaming}: pooled-buffer streaming or a whole-file byte array. */
+    @Param({"true", "false"})
+    public boolean streaming;
+
+    @Param({"0"})
+    public int latencyMs;
+
+    /** Per-stream bandwidth of the stand-in; {@code 0} means unlimited. */
+    @Param({"0"})
+    public int streamMbPerSecond;
+
+    private byte[] content;
+    private MockMultipartFile file;
+    private InMemoryS3Client s3Client;
+    private ExecutorService executor;
+    private S3Service service;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        content = new byte[fileSize];
+        new Random(42).nextBytes(content);
+        file = new MockMultipartFile("file", "report.bin", "application/octet-stream", content);
+
+        // Uploads only keep their size, so they do not fill the heap; the download object is stored directly.
+        s3Client = new InMemoryS3Client(false)
+                .withLatency(Duration.ofMillis(latencyMs))
+                .withBandwidthPerStream(streamMbPerSecond * 1024L * 1024);
+        executor = Executors.newFixedThreadPool(8);
+        BufferPool bufferPool = new BufferPool(64 * 1024, 16);
+
+        service = S3ServiceFixture.on(s3Client)
+                .asyncClient(new InMemoryS3AsyncClient(s3Client))
+                .bufferPool(bufferPool)
+                .parallelDownloads(new ParallelDownloadService(s3Client, executor, bufferPool))
+                .multipartUploads(new MultipartUploadService(s3Client, executor, new BufferPool(8 * 1024 * 1024, 4)))
+                .executor(executor)
+                .build();
+        ReflectionTestUtils.setField(service, "streamingUpload", streaming);
+
+        s3Client.putObject(DOWNLOAD_KEY, content, "application/octet-stream");
+    }
+
+    @TearDown(Level.Iteration)
+    public void forgetUploads() {
+        s3Client.objects().keySet().removeIf(key -> !key.equals(DOWNLOAD_KEY));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    /** {@code POST /files/upload}: name check, content scan and {@code PutObject}. */
+    @Benchmark
+    public String upload() throws IOException {
+        return service.uploadFile(file);
+    }
+
+    /** {@code POST /files/upload/large} with a raw body: scanned and sent as pipelined multipart parts. */
+    @Benchmark
+    public String uploadLarge() throws IOException {
+        return service.uploadLargeFile("report.bin", "application/octet-stream", new ByteArrayInputStream(content));
+    }
+
+    /** {@code GET /files/{name}}: the S3 response copied to the client. */
+    @Benchmark
+    public long download() throws IOException {
+        try (ObjectDownload download = service.downloadFile(DOWNLOAD_KEY, null);
+             InputStream in = download.body()) {
+            return in.transferTo(OutputStream.nullOutputStream());
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.myprojecticaro.poc_s3_file_uploader.benchmark;
+
+import com.myprojecticaro.poc_s3_file_uploader.io.ScanningInputStream;
+import com.myprojecticaro.poc_s3_file_uploader.io.SignatureScanner;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures what the streaming content scan costs an upload.
+ * <p>
+ * Each invocation reads 1 MiB through a 64 KiB buffer, the way the SDK drains an
+ * upload stream, so the reported ops/s is the throughput in MiB/s. {@code plain}
+ * is the same read without scanning; the difference is the scanner's overhead.
+ * </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ScannerBenchmark {
+
+    private static final int PAYLOAD = 1024 * 1024;
+
+    /** {@code bundled} is the shipped signature file; a number means that many random 16-byte signatures. */
+    @Param({"bundled", "1000"})
+    public String signatures;
+
+    @Param({"text", "random"})
+    public String content;
+
+    private byte[] payload;
+    private byte[] buffer;
+    private SignatureScanner scanner;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Random random = new Random(42);
+        payload = new byte[PAYLOAD];
+        if (content.equals("random")) {
+            random.nextBytes(payload);
+        } else {
+            StringBuilder text = new StringBuilder();
+            while (text.length() < PAYLOAD) {
+                text.append("invoice ").append(random.nextInt(1_000_000))
+                        .append(" for customer-").append(random.nextInt(500)).append(" paid in full\n");
+            }
+            System.arraycopy(text.toString().getBytes(StandardCharsets.US_ASCII), 0, payload, 0, PAYLOAD);
+        }
+        buffer = new byte[64 * 1024];
+
+        if (signatures.equals("bundled")) {
+            try (InputStream in = getClass().getResourceAsStream("/antivirus/signatures.txt")) {
+                scanner = SignatureScanner.load(in);
+            }
+        } else {
+            Map<String, byte[]> generated = new LinkedHashMap<>();
+            Random signatureRandom = new Random(7);
+            for (int i = 0; i < Integer.parseInt(signatures); i++) {
+                byte[] signature = new byte[16];
+                signatureRandom.nextBytes(signature);
+                generated.put("Generated-" + i, signature);
+            }
+            scanner = SignatureScanner.of(generated);
+        }
+    }
+
+    @Benchmark
+    public long plain() throws IOException {
+        return drain(new ByteArrayInputStream(payload));
+    }
+
+    @Benchmark
+    public long scanned() throws IOException {
+        return drain(new ScanningInputStream(new ByteArrayInputStream(payload), "payload", scanner, true));
+    }
+
+    private long drain(InputStream in) throws IOException {
+        long total = 0;
+        int n;
+        while ((n = in.read(buffer, 0, buffer.length)) != -1) {
+            total += n;
+        }
+        return total;
+    }
+}
@@ -0,0 +1,97 @@
+package com.myprojecticaro.poc_s3_file_uploader.benchmark;
+
+import com.myprojecticaro.poc_s3_file_uploader.service.ParallelZipWriter;
+import com.myprojecticaro.poc_s3_file_uploader.service.ZipService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the single-threaded {@code ZipOutputStream} path with {@link ParallelZipWriter}.
+ * <p>
+ * The bundle mixes compressible text with random "photos" carrying a JPEG signature, so
+ * the parallel writer also benefits from storing those as-is; {@code storedPercent} sets
+ * the share of the bundle that is already compressed.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ZipBenchmark {
+
+    @Param({"8"})
+    public int files;
+
+    @Param({"16"})
+    public int fileMb;
+
+    @Param({"0", "50"})
+    public int storedPercent;
+
+    @Param({"1", "4", "8"})
+    public int parallelism;
+
+    private MultipartFile[] bundle;
+    private ForkJoinPool pool;
+    private ZipService zipService;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(42);
+        StringBuilder line = new StringBuilder();
+        bundle = new MultipartFile[files];
+        int stored = files * storedPercent / 100;
+        for (int i = 0; i < files; i++) {
+            byte[] content = new byte[fileMb * 1024 * 1024];
+            if (i < stored) {
+                random.nextBytes(content);
+                content[0] = (byte) 0xFF;
+                content[1] = (byte) 0xD8;
+                content[2] = (byte) 0xFF;
+                bundle[i] = new MockMultipartFile("files", "photo-" + i + ".jpg", "image/jpeg", content);
+            } else {
+                for (int pos = 0; pos < content.length; ) {
+                    line.setLength(0);
+                    line.append(random.nextInt(100_000)).append(";customer-").append(random.nextInt(500)).append(";ok\n");
+                    byte[] bytes = line.toString().getBytes(StandardCharsets.US_ASCII);
+                    int n = Math.min(bytes.length, content.length - pos);
+                    System.arraycopy(bytes, 0, content, pos, n);
+                    pos += n;
+                }
+                bundle[i] = new MockMultipartFile("files", "report-" + i + ".csv", "text/csv", content);
+            }
+        }
+        pool = new ForkJoinPool(parallelism);
+        zipService = new ZipService(pool);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        pool.shutdownNow();
+    }
+
+    @Benchmark
+    public void serial() throws Exception {
+        zipService.zipFilesSerially(bundle, OutputStream.nullOutputStream());
+    }
+
+    @Benchmark
+    public void parallel() throws Exception {
+        new ParallelZipWriter(pool, 6, 1024 * 1024, 2 * parallelism).write(bundle, OutputStream.nullOutputStream());
+    }
+}
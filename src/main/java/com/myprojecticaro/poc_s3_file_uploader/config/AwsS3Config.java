@@ -1,12 +1,22 @@
 package com.myprojecticaro.poc_s3_file_uploader.config;
 
+import com.myprojecticaro.poc_s3_file_uploader.service.S3RequestScheduler;
+import com.myprojecticaro.poc_s3_file_uploader.service.SchedulingS3Client;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
 import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.awscore.retry.AwsRetryStrategy;
+import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
 import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.S3AsyncClientBuilder;
 import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.S3CrtAsyncClientBuilder;
+import software.amazon.awssdk.services.s3.multipart.MultipartConfiguration;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+import software.amazon.awssdk.transfer.s3.S3TransferManager;
 
 import java.net.URI;
 
@@ -29,6 +39,12 @@ import java.net.URI;
  *   s3:
  *     bucket-name: my-bucket
  *     endpoint: http://localhost:4566   # Optional (for LocalStack)
+ *     async:
+ *       client: crt                     # crt or netty
+ *       max-concurrency: 64
+ *       target-throughput-gbps: 10.0
+ *       minimum-part-size: 8388608
+ *       max-connections: 128            # netty connection pool size
  * </pre>
  * </p>
  *
@@ -37,6 +53,23 @@ import java.net.URI;
  * to that endpoint instead of the default AWS S3 endpoint.
  * </p>
  *
+ * <p>
+ * Besides the synchronous {@link S3Client}, an {@link S3AsyncClient} is exposed for
+ * non-blocking operations and as the engine of the {@link S3TransferManager}, which
+ * needs an async client to transfer parts in parallel.
+ * </p>
+ *
+ * <p>
+ * With {@code aws.s3.scheduler.enabled}, the {@link S3Client} is wrapped in a
+ * {@link SchedulingS3Client}, which limits, retries and hedges its requests per key
+ * prefix; the SDK client underneath then does not retry on its own.
+ * </p>
+ *
+ * <p>
+ * An {@link S3Presigner} signs URLs with the same credentials, so clients can
+ * transfer content to and from S3 without going through the application.
+ * </p>
+ *
  * @author Icaro
  * @version 1.0
  * @since 2025-10-13
@@ -63,6 +96,26 @@ public class AwsS3Config {
     @Value("${aws.s3.endpoint:}")
     private String endpoint;
 
+    /** Async client implementation: {@code crt} (AWS Common Runtime) or {@code netty}. */
+    @Value("${aws.s3.async.client:crt}")
+    private String asyncClient;
+
+    /** Maximum number of concurrent requests issued by the async client. */
+    @Value("${aws.s3.async.max-concurrency:64}")
+    private int maxConcurrency;
+
+    /** Throughput the CRT client sizes its connection pool for, in gigabits per second. */
+    @Value("${aws.s3.async.target-throughput-gbps:10.0}")
+    private double targetThroughputGbps;
+
+    /** Smallest part the async client uses when it splits transfers into parts. */
+    @Value("${aws.s3.async.minimum-part-size:8388608}")
+    private long minimumPartSize;
+
+    /** Size of the Netty connection pool (ignored by the CRT client). */
+    @Value("${aws.s3.async.max-connections:128}")
+    private int maxConnections;
+
     /**
      * Creates and configures an {@link S3Client} bean for interacting with AWS S3.
      *
@@ -70,10 +123,15 @@ public class AwsS3Config {
      * If a custom endpoint is provided (e.g., for testing), it overrides
      * the default AWS endpoint.</p>
      *
+     * <p>When the {@link S3RequestScheduler} is enabled it takes over retries, so the
+     * SDK's own retries are turned off and the client is returned wrapped in a
+     * {@link SchedulingS3Client}.</p>
+     *
+     * @param scheduler the request scheduler
      * @return a configured instance of {@link S3Client}
      */
     @Bean
-    public S3Client s3Client() {
+    public S3Client s3Client(S3RequestScheduler scheduler) {
         S3Client.Builder builder = S3Client.builder()
                 .region(Region.of(region))
                 .credentialsProvider(
@@ -86,13 +144,96 @@ public class AwsS3Config {
             builder.endpointOverride(URI.create(endpoint));
         }
 
+        if (scheduler.isEnabled()) {
+            builder.overrideConfiguration(o -> o.retryStrategy(AwsRetryStrategy.doNotRetry()));
+            return new SchedulingS3Client(builder.build(), scheduler);
+        }
         return builder.build();
     }
 
-    @Bean
-    public S3TransferManager transferManager(S3Client s3Client) {
+    /**
+     * Creates the {@link S3AsyncClient} used for non-blocking calls and by the
+     * {@link S3TransferManager}.
+     *
+     * <p>The CRT-based client (the default) splits large transfers into parts and runs
+     * them over a pool of connections sized for {@code target-throughput-gbps}. The
+     * Netty-based client uses the SDK's Java multipart support and a connection pool of
+     * {@code max-connections}.</p>
+     *
+     * @return a configured instance of {@link S3AsyncClient}
+     */
+    @Bean(destroyMethod = "close")
+    public S3AsyncClient s3AsyncClient() {
+        StaticCredentialsProvider credentials = StaticCredentialsProvider.create(
+                AwsBasicCredentials.create(accessKey, secretKey)
+        );
+
+        if ("netty".equalsIgnoreCase(asyncClient)) {
+            S3AsyncClientBuilder builder = S3AsyncClient.builder()
+                    .region(Region.of(region))
+                    .credentialsProvider(credentials)
+                    .httpClientBuilder(NettyNioAsyncHttpClient.builder()
+                            .maxConcurrency(maxConnections))
+                    .multipartEnabled(true)
+                    .multipartConfiguration(MultipartConfiguration.builder()
+                            .minimumPartSizeInBytes(minimumPartSize)
+                            .thresholdInBytes(minimumPartSize)
+                            .build());
+            if (!endpoint.isEmpty()) {
+                builder.endpointOverride(URI.create(endpoint));
+            }
+            return builder.build();
+        }
+
+        S3CrtAsyncClientBuilder builder = S3AsyncClient.crtBuilder()
+                .region(Region.of(region))
+                .credentialsProvider(credentials)
+                .maxConcurrency(maxConcurrency)
+                .targetThroughputInGbps(targetThroughputGbps)
+                .minimumPartSizeInBytes(minimumPartSize);
+
+        if (!endpoint.isEmpty()) {
+            builder.endpointOverride(URI.create(endpoint));
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * Creates the {@link S3Presigner} used to issue presigned URLs.
+     *
+     * <p>Signing happens locally, with no request to S3, using the same credentials,
+     * region and endpoint as the clients.</p>
+     *
+     * @return a configured instance of {@link S3Presigner}
+     */
+    @Bean(destroyMethod = "close")
+    public S3Presigner s3Presigner() {
+        S3Presigner.Builder builder = S3Presigner.builder()
+                .region(Region.of(region))
+                .credentialsProvider(
+                        StaticCredentialsProvider.create(
+                                AwsBasicCredentials.create(accessKey, secretKey)
+                        )
+                );
+
+        if (!endpoint.isEmpty()) {
+            builder.endpointOverride(URI.create(endpoint));
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * Creates the {@link S3TransferManager} on top of the async client.
+     *
+     * @param s3AsyncClient the async client performing the transfers
+     * @return a configured instance of {@link S3TransferManager}
+     */
+    @Bean(destroyMethod = "close")
+    public S3TransferManager transferManager(S3AsyncClient s3AsyncClient) {
         return S3TransferManager.builder()
-                .s3Client(s3Client)
+                .s3Client(s3AsyncClient)
                 .build();
     }
 }
@@ -0,0 +1,185 @@
+package com.myprojecticaro.poc_s3_file_uploader.config;
+
+import com.myprojecticaro.poc_s3_file_uploader.io.BufferPool;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Configuration class that provides the shared resources used by file transfers
+ * between the HTTP layer and Amazon S3.
+ *
+ * <p>
+ * Example configuration in <b>application.yml</b>:
+ * <pre>
+ * aws:
+ *   s3:
+ *     upload:
+ *       buffer-size: 65536      # bytes per pooled buffer
+ *       buffer-pool-size: 512   # buffers shared by all concurrent uploads
+ *       multipart:
+ *         part-size: 8388608     # at least 5MB, the smallest part S3 accepts
+ *         buffer-budget: 268435456  # bytes of part buffers shared by all multipart uploads
+ *       zip:
+ *         parallelism: 0        # compression workers; 0 uses every available core
+ *     download:
+ *       buffer-size: 65536
+ *       buffer-pool-size: 512
+ *     transfer:
+ *       threads: 32             # workers shared by parallel part transfers (platform threads only)
+ *                               # code writing into multipart uploads runs on s3WriterExecutor instead
+ * </pre>
+ * </p>
+ *
+ * @author Icaro
+ * @version 1.0
+ */
+@Configuration
+public class TransferConfig {
+
+    /** Smallest part S3 accepts for every part of a multipart upload but the last. */
+    static final int MIN_PART_SIZE = 5 * 1024 * 1024;
+
+    /** Size in bytes of each buffer used to stream uploads into S3. */
+    @Value("${aws.s3.upload.buffer-size:65536}")
+    private int uploadBufferSize;
+
+    /** Maximum number of upload buffers in use at the same time. */
+    @Value("${aws.s3.upload.buffer-pool-size:512}")
+    private int uploadBufferPoolSize;
+
+    /** Size in bytes of each part of a pipelined multipart upload. */
+    @Value("${aws.s3.upload.multipart.part-size:8388608}")
+    private int partSize;
+
+    /** Total bytes of part buffers that all multipart uploads may hold at once. */
+    @Value("${aws.s3.upload.multipart.buffer-budget:268435456}")
+    private long partBufferBudget;
+
+    /** Size in bytes of each buffer used to stream downloads to the client. */
+    @Value("${aws.s3.download.buffer-size:65536}")
+    private int downloadBufferSize;
+
+    /** Maximum number of download buffers in use at the same time. */
+    @Value("${aws.s3.download.buffer-pool-size:512}")
+    private int downloadBufferPoolSize;
+
+    /** Number of worker threads shared by all parallel part transfers. */
+    @Value("${aws.s3.transfer.threads:32}")
+    private int transferThreads;
+
+    /** Number of workers compressing ZIP entries; 0 uses every available core. */
+    @Value("${aws.s3.upload.zip.parallelism:0}")
+    private int zipParallelism;
+
+    /** Whether the application runs blocking work on virtual threads. */
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualThreads;
+
+    /**
+     * Creates the {@link BufferPool} shared by all streaming uploads.
+     *
+     * <p>Each in-progress upload borrows one buffer, so the heap cost of uploads is
+     * capped at {@code buffer-size * buffer-pool-size} regardless of file size.</p>
+     *
+     * @return the upload buffer pool
+     */
+    @Bean
+    public BufferPool uploadBufferPool() {
+        return new BufferPool(uploadBufferSize, uploadBufferPoolSize);
+    }
+
+    /**
+     * Creates the {@link BufferPool} holding the part buffers of pipelined multipart uploads.
+     *
+     * <p>Its capacity is {@code buffer-budget / part-size}; once every part buffer is in
+     * flight, writers block until a part finishes uploading.</p>
+     *
+     * @return the part buffer pool
+     * @throws IllegalStateException if {@code part-size} is below the S3 minimum of 5MB,
+     *                               which would otherwise only fail when the first upload completes
+     */
+    @Bean
+    public BufferPool partBufferPool() {
+        if (partSize < MIN_PART_SIZE) {
+            throw new IllegalStateException("aws.s3.upload.multipart.part-size must be at least "
+                    + MIN_PART_SIZE + " bytes (the S3 minimum part size), but is " + partSize);
+        }
+        return new BufferPool(partSize, (int) Math.max(1, partBufferBudget / partSize));
+    }
+
+    /**
+     * Creates the {@link BufferPool} used to copy S3 object bodies into HTTP responses.
+     *
+     * @return the download buffer pool
+     */
+    @Bean
+    public BufferPool downloadBufferPool() {
+        return new BufferPool(downloadBufferSize, downloadBufferPoolSize);
+    }
+
+    /**
+     * Creates the executor that runs part transfers (ranged GETs, multipart parts)
+     * concurrently.
+     *
+     * <p>The pool is shared by every request; each transfer limits how many of its
+     * parts it submits at once, so a single large file cannot take every worker.</p>
+     *
+     * <p>When {@code spring.threads.virtual.enabled} is set, every part runs on its own
+     * virtual thread instead: blocking S3 calls then cost no platform thread, and the
+     * per-transfer limits and buffer budgets are what bound the work in flight.</p>
+     *
+     * @return the transfer executor
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService s3TransferExecutor() {
+        if (virtualThreads) {
+            return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("s3-transfer-", 0).factory());
+        }
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("s3-transfer-");
+        threadFactory.setDaemon(true);
+        return Executors.newFixedThreadPool(transferThreads, threadFactory);
+    }
+
+    /**
+     * Creates the executor for background tasks that write into a multipart upload, such
+     * as compressing an upload or storing one file of a batch.
+     *
+     * <p>Such a task blocks until the parts it produced have been sent, and those parts
+     * run on {@link #s3TransferExecutor()}. Running the task on that same pool would let
+     * enough concurrent writers take every worker and then wait forever for parts queued
+     * behind them. Each writer gets a virtual thread of its own instead; how many run at
+     * once is bounded by the callers' own limits and by the part buffer budget.</p>
+     *
+     * @return the writer executor
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService s3WriterExecutor() {
+        return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("s3-writer-", 0).factory());
+    }
+
+    /**
+     * Creates the {@link ForkJoinPool} that deflates ZIP entries in parallel.
+     *
+     * <p>Compression is pure CPU work, so the pool is sized to the cores rather than to
+     * the number of requests, and kept apart from the transfer executor so bundling a
+     * ZIP never delays S3 part transfers.</p>
+     *
+     * @return the ZIP compression pool
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ForkJoinPool zipCompressionPool() {
+        int parallelism = zipParallelism > 0 ? zipParallelism : Runtime.getRuntime().availableProcessors();
+        return new ForkJoinPool(parallelism, pool -> {
+            var worker = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            worker.setName("zip-compress-" + worker.getPoolIndex());
+            worker.setDaemon(true);
+            return worker;
+        }, null, false);
+    }
+}
@@ -1,11 +1,49 @@
 package com.myprojecticaro.poc_s3_file_uploader.controller;
 
-import com.myprojecticaro.awsupload.service.S3Service;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import com.myprojecticaro.poc_s3_file_uploader.io.BufferPool;
+import com.myprojecticaro.poc_s3_file_uploader.io.TimedInputStream;
+import com.myprojecticaro.poc_s3_file_uploader.metrics.TransferMetrics;
+import com.myprojecticaro.poc_s3_file_uploader.metrics.TransferMetrics.Operation;
+import com.myprojecticaro.poc_s3_file_uploader.metrics.TransferMetrics.Phase;
+import com.myprojecticaro.poc_s3_file_uploader.service.BatchDeleteService;
+import com.myprojecticaro.poc_s3_file_uploader.service.FileListing;
+import com.myprojecticaro.poc_s3_file_uploader.service.ObjectCache;
+import com.myprojecticaro.poc_s3_file_uploader.service.ObjectDownload;
+import com.myprojecticaro.poc_s3_file_uploader.service.PresignedUrlService;
+import com.myprojecticaro.poc_s3_file_uploader.service.QuarantineService;
+import com.myprojecticaro.poc_s3_file_uploader.service.ResumableUploadService;
+import com.myprojecticaro.poc_s3_file_uploader.service.S3Service;
+import com.myprojecticaro.poc_s3_file_uploader.service.UploadResult;
+import com.myprojecticaro.poc_s3_file_uploader.service.ZipExtractionService;
+import com.myprojecticaro.poc_s3_file_uploader.service.ZipService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.regex.Pattern;
 
 /**
  * Controller responsável por gerenciar operações relacionadas a arquivos no AWS S3.
@@ -29,6 +67,12 @@ import org.springframework.web.multipart.MultipartFile;
  * em caso de falha durante o upload.
  * </p>
  *
+ * <p>
+ * Cada upload, listagem, download, ZIP e exclusão é medido pelo {@link TransferMetrics}
+ * (duração, bytes, vazão e transferências em andamento), exportado em
+ * {@code /actuator/prometheus}.
+ * </p>
+ *
  * @author Icaro
  * @version 1.0
  * @since 2025-10-13
@@ -39,17 +83,58 @@ public class FileController {
 
     private static final Logger logger = LoggerFactory.getLogger(FileController.class);
 
+    /** Single byte range as accepted by S3 ranged GETs, e.g. {@code bytes=0-99}, {@code bytes=100-} or {@code bytes=-500}. */
+    private static final Pattern SINGLE_BYTE_RANGE = Pattern.compile("bytes=(\\d+-\\d*|-\\d+)");
+
     private final S3Service s3Service;
     private final ZipService zipService;
+    private final ZipExtractionService zipExtractionService;
+    private final BufferPool downloadBufferPool;
+    private final ObjectMapper objectMapper;
+    private final ObjectCache objectCache;
+    private final QuarantineService quarantineService;
+    private final ResumableUploadService resumableUploadService;
+    private final PresignedUrlService presignedUrlService;
+    private final TransferMetrics transferMetrics;
+
+    /** Whether ZIP bundles are streamed into S3 while being compressed, instead of built in memory. */
+    @Value("${aws.s3.upload.zip.streaming:true}")
+    private boolean streamingZip = true;
 
     /**
      * Construtor que injeta a dependência {@link S3Service}.
      *
      * @param s3Service serviço responsável por realizar operações no AWS S3.
+     * @param zipService serviço responsável por compactar arquivos em ZIP.
+     * @param zipExtractionService extrai arquivos ZIP para o S3, um objeto por entrada.
+     * @param downloadBufferPool buffers usados para copiar downloads para a resposta HTTP.
+     * @param objectMapper serializa as linhas da listagem em NDJSON.
+     * @param objectCache cache de leitura dos objetos pequenos mais baixados.
+     * @param quarantineService fila de verificação dos arquivos enviados em quarentena.
+     * @param resumableUploadService sessões de upload retomável.
+     * @param presignedUrlService emite URLs pré-assinadas para transferências direto com o S3.
+     * @param transferMetrics métricas de duração, vazão e transferências em andamento.
      */
-      public FileController(S3Service s3Service, ZipService zipService) {
+    public FileController(S3Service s3Service,
+                          ZipService zipService,
+                          ZipExtractionService zipExtractionService,
+                          @Qualifier("downloadBufferPool") BufferPool downloadBufferPool,
+                          ObjectMapper objectMapper,
+                          ObjectCache objectCache,
+                          QuarantineService quarantineService,
+                          ResumableUploadService resumableUploadService,
+                          PresignedUrlService presignedUrlService,
+                          TransferMetrics transferMetrics) {
         this.s3Service = s3Service;
         this.zipService = zipService;
+        this.zipExtractionService = zipExtractionService;
+        this.downloadBufferPool = downloadBufferPool;
+        this.objectMapper = objectMapper;
+        this.objectCache = objectCache;
+        this.quarantineService = quarantineService;
+        this.resumableUploadService = resumableUploadService;
+        this.presignedUrlService = presignedUrlService;
+        this.transferMetrics = transferMetrics;
     }
 
     /**
@@ -58,57 +143,316 @@ public class FileController {
      * <p>Recebe um arquivo via formulário multipart e retorna a URL
      * pública do arquivo armazenado.</p>
      *
+     * <p>O envio para o S3 é feito pelo cliente assíncrono, liberando a thread do
+     * Tomcat enquanto a transferência acontece.</p>
+     *
+     * <p>Com a quarentena habilitada ({@code app.antivirus.quarantine.enabled}) a resposta
+     * é <strong>202 Accepted</strong>: o arquivo só aparece na URL retornada depois de
+     * verificado, o que pode ser acompanhado em {@code GET /files/scan/{filename}}.</p>
+     *
      * @param file o arquivo a ser enviado para o S3.
      * @return {@link ResponseEntity} contendo a URL do arquivo em caso de sucesso
      * ou uma mensagem de erro em caso de falha.
      */
     @PostMapping("/upload")
-    public ResponseEntity<String> uploadFile(@RequestParam("file") MultipartFile file) {
+    public CompletableFuture<ResponseEntity<String>> uploadFile(@RequestParam("file") MultipartFile file) {
         logger.info("Received upload request for file: {}", file.getOriginalFilename());
-        try {
-            String fileUrl = s3Service.uploadFile(file);
+        long started = transferMetrics.started(Operation.UPLOAD);
+        return s3Service.uploadFileAsync(file).handle((fileUrl, error) -> {
+            transferMetrics.completed(Operation.UPLOAD, started, file.getSize(), error);
+            if (error != null) {
+                Throwable cause = unwrap(error);
+                logger.error("Upload failed for file: {}", file.getOriginalFilename(), cause);
+                return ResponseEntity.internalServerError().body("Upload failed: " + cause.getMessage());
+            }
             logger.info("File uploaded successfully: {}", fileUrl);
-            return ResponseEntity.ok(fileUrl);
+            return quarantineService.isEnabled() ? ResponseEntity.accepted().body(fileUrl) : ResponseEntity.ok(fileUrl);
+        });
+    }
+
+    /**
+     * Endpoint responsável por fazer upload de vários arquivos em uma única requisição.
+     *
+     * <p>Cada arquivo é verificado e enviado ao S3 em paralelo, com um limite de envios
+     * simultâneos ({@code aws.s3.upload.batch.max-in-flight}). Uma falha em um arquivo
+     * não impede o envio dos demais.</p>
+     *
+     * <pre>
+     * curl -X POST http://localhost:8080/files/upload/batch -F "files=@a.png" -F "files=@b.png"
+     * </pre>
+     *
+     * @param files os arquivos a serem enviados para o S3.
+     * @return o resultado de cada arquivo, na ordem recebida: 200 se todos foram enviados,
+     * 207 se apenas parte deles foi enviada ou 500 se nenhum foi enviado.
+     */
+    @PostMapping(value = "/upload/batch", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public ResponseEntity<List<UploadResult>> uploadFiles(@RequestParam("files") MultipartFile[] files) {
+        logger.info("Received batch upload request with {} files", files.length);
+        List<UploadResult> results;
+        long started = transferMetrics.started(Operation.UPLOAD);
+        try {
+            results = s3Service.uploadFiles(files);
         } catch (Exception e) {
-            logger.error("Upload failed for file: {}", file.getOriginalFilename(), e);
-            return ResponseEntity.internalServerError().body("Upload failed: " + e.getMessage());
+            transferMetrics.completed(Operation.UPLOAD, started, 0, e);
+            logger.error("Batch upload failed", e);
+            return ResponseEntity.internalServerError().build();
+        }
+        long bytes = 0;
+        for (int i = 0; i < files.length; i++) {
+            if (results.get(i).uploaded()) {
+                bytes += files[i].getSize();
+            }
         }
+        transferMetrics.completed(Operation.UPLOAD, started, bytes, null);
+        long uploaded = results.stream().filter(UploadResult::uploaded).count();
+        logger.info("Batch upload finished: {} of {} files uploaded", uploaded, results.size());
+        HttpStatus status = uploaded == results.size() ? HttpStatus.OK
+                : uploaded > 0 ? HttpStatus.MULTI_STATUS
+                : HttpStatus.INTERNAL_SERVER_ERROR;
+        return ResponseEntity.status(status).body(results);
     }
 
     /**
-     * Lists all files available in the S3 bucket.
+     * Lists the files in the S3 bucket, one page at a time.
+     *
+     * <p>Example: {@code GET /files?prefix=reports/&delimiter=/&pageSize=100}. The response
+     * carries {@code nextContinuationToken}; pass it back as {@code continuationToken}
+     * to fetch the following page.</p>
      *
-     * @return a list of filenames
+     * @param prefix            only keys starting with this prefix are listed
+     * @param delimiter         rolls keys up into {@code commonPrefixes} at this character
+     * @param continuationToken token returned with the previous page
+     * @param pageSize          maximum number of entries on the page (1-1000)
+     * @return one page of the listing
      */
     @GetMapping
-    public ResponseEntity<List<String>> listFiles() {
-        logger.info("Listing all files in S3 bucket");
-        List<String> files = s3Service.listFiles();
-        return ResponseEntity.ok(files);
+    public ResponseEntity<FileListing> listFiles(@RequestParam(required = false) String prefix,
+                                                 @RequestParam(required = false) String delimiter,
+                                                 @RequestParam(required = false) String continuationToken,
+                                                 @RequestParam(defaultValue = "1000") int pageSize) {
+        logger.info("Listing files in S3 bucket (prefix: {}, continuation: {})", prefix, continuationToken != null);
+        long started = transferMetrics.started(Operation.LIST);
+        try {
+            FileListing listing = s3Service.listFiles(prefix, delimiter, continuationToken, pageSize);
+            transferMetrics.completed(Operation.LIST, started, 0, null);
+            return ResponseEntity.ok(listing);
+        } catch (RuntimeException e) {
+            transferMetrics.completed(Operation.LIST, started, 0, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Streams the whole listing as NDJSON, one object per line.
+     *
+     * <p>Example: {@code GET /files?stream=true&prefix=reports/}. Each page is written and
+     * flushed as soon as S3 returns it while the next one is being fetched, so the first
+     * line arrives after one round trip and memory stays constant whatever the bucket
+     * size. Files are written as {@code {"key":..,"size":..,"eTag":..,"lastModified":..}}
+     * and, when a delimiter is given, common prefixes as {@code {"prefix":..}}.</p>
+     *
+     * @param prefix    only keys starting with this prefix are listed
+     * @param delimiter rolls keys up into prefixes at this character
+     * @param pageSize  number of keys requested from S3 per page (1-1000)
+     * @return the listing as {@code application/x-ndjson}
+     */
+    @GetMapping(params = "stream=true", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamFiles(@RequestParam(required = false) String prefix,
+                                                             @RequestParam(required = false) String delimiter,
+                                                             @RequestParam(defaultValue = "1000") int pageSize) {
+        logger.info("Streaming listing of S3 bucket (prefix: {})", prefix);
+        StreamingResponseBody body = outputStream -> {
+            long started = transferMetrics.started(Operation.LIST);
+            Throwable error = null;
+            try (SequenceWriter lines = objectMapper.writer().withRootValueSeparator("\n").writeValues(outputStream)) {
+                s3Service.streamFiles(prefix, delimiter, pageSize, page -> {
+                    for (String commonPrefix : page.commonPrefixes()) {
+                        lines.write(Map.of("prefix", commonPrefix));
+                    }
+                    lines.writeAll(page.files());
+                    lines.flush();
+                });
+                outputStream.write('\n');
+            } catch (IOException | RuntimeException e) {
+                error = e;
+                throw e;
+            } finally {
+                transferMetrics.completed(Operation.LIST, started, 0, error);
+            }
+        };
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .body(body);
+    }
+
+    /**
+     * Returns the counters of the hot-object read cache.
+     *
+     * @return hits, misses, revalidations, evictions and off-heap usage
+     */
+    @GetMapping("/cache/stats")
+    public ResponseEntity<ObjectCache.Stats> cacheStats() {
+        return ResponseEntity.ok(objectCache.stats());
+    }
+
+    /**
+     * Returns the scan status of a file uploaded in quarantine mode.
+     *
+     * @param filename the final key of the file, as in the URL returned by the upload
+     * @return {@code PENDING}, {@code CLEAN}, {@code INFECTED} or {@code FAILED}, or 404 if the file is unknown
+     */
+    @GetMapping("/scan/{filename}")
+    public ResponseEntity<QuarantineService.ScanStatus> scanStatus(@PathVariable String filename) {
+        return quarantineService.status(filename)
+                .map(ResponseEntity::ok)
+                .orElseGet(() -> ResponseEntity.notFound().build());
     }
 
     /**
      * Downloads a specific file from S3 by its name.
      *
+     * <p>The object is streamed from S3 to the client through a pooled buffer, so it is
+     * never held in memory. {@code Content-Length}, {@code ETag} and {@code Last-Modified}
+     * are passed through from S3.</p>
+     *
+     * <p>A single {@code Range} header (e.g. {@code bytes=1048576-}) is mapped to an S3
+     * ranged GET and answered with <strong>206 Partial Content</strong>, so clients can
+     * resume downloads or fetch segments in parallel. Multi-range requests are served
+     * as a full download.</p>
+     *
+     * <p>Files stored compressed are sent as they are, with a {@code Content-Encoding},
+     * when the client's {@code Accept-Encoding} lists their codec, and decompressed on
+     * the fly otherwise. Ranges of compressed files are answered with the whole file.</p>
+     *
      * @param filename the name of the file to download
-     * @return the file content as a byte array
+     * @param range the optional HTTP {@code Range} header
+     * @param acceptEncoding the optional HTTP {@code Accept-Encoding} header
+     * @return the file content streamed as the response body
      */
     @GetMapping("/{filename}")
-    public ResponseEntity<byte[]> downloadFile(@PathVariable String filename) {
-        logger.info("Downloading file from S3: {}", filename);
+    public ResponseEntity<StreamingResponseBody> downloadFile(
+            @PathVariable String filename,
+            @RequestHeader(value = HttpHeaders.RANGE, required = false) String range,
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
+        logger.info("Downloading file from S3: {} (range: {})", filename, range);
+        ObjectDownload download;
+        long started = transferMetrics.started(Operation.DOWNLOAD);
         try {
-            byte[] fileBytes = s3Service.downloadFile(filename);
-            return ResponseEntity.ok()
-                    .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"")
-                    .contentType(MediaType.APPLICATION_OCTET_STREAM)
-                    .body(fileBytes);
+            download = s3Service.downloadFile(filename, singleByteRange(range), acceptEncoding);
+        } catch (NoSuchKeyException e) {
+            transferMetrics.completed(Operation.DOWNLOAD, started, 0, e);
+            return ResponseEntity.notFound().build();
+        } catch (S3Exception e) {
+            transferMetrics.completed(Operation.DOWNLOAD, started, 0, e);
+            if (e.statusCode() == HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value()) {
+                return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE).build();
+            }
+            logger.error("Error downloading file: {}", filename, e);
+            return ResponseEntity.internalServerError().build();
         } catch (Exception e) {
+            transferMetrics.completed(Operation.DOWNLOAD, started, 0, e);
             logger.error("Error downloading file: {}", filename, e);
-            return ResponseEntity.internalServerError().body(null);
+            return ResponseEntity.internalServerError().build();
+        }
+        return streamingResponse(filename, download, started);
+    }
+
+    /**
+     * Returns the headers of a file without its content.
+     *
+     * <p>Answered from the in-memory metadata index when possible, so dashboards and
+     * clients checking for a file's existence, size or ETag do not cost an S3 request.
+     * A file compressed as it streamed in has no recorded original length, so its
+     * response carries neither {@code Content-Length} nor {@code Accept-Ranges}.</p>
+     *
+     * @param filename the name of the file
+     * @return 200 with {@code Content-Length}, {@code ETag}, {@code Last-Modified} and {@code Content-Type}, or 404
+     */
+    @RequestMapping(value = "/{filename}", method = RequestMethod.HEAD)
+    public ResponseEntity<Void> statFile(@PathVariable String filename) {
+        try {
+            return s3Service.statFile(filename)
+                    .map(metadata -> {
+                        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+                        if (metadata.size() >= 0) {
+                            response.header(HttpHeaders.ACCEPT_RANGES, "bytes").contentLength(metadata.size());
+                        }
+                        if (metadata.contentType() != null) {
+                            response.contentType(MediaType.parseMediaType(metadata.contentType()));
+                        }
+                        if (metadata.eTag() != null) {
+                            response.eTag(metadata.eTag());
+                        }
+                        if (metadata.lastModified() != null) {
+                            response.lastModified(metadata.lastModified());
+                        }
+                        return response.<Void>build();
+                    })
+                    .orElseGet(() -> ResponseEntity.notFound().build());
+        } catch (Exception e) {
+            logger.error("Error reading metadata of file: {}", filename, e);
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+
+    private ResponseEntity<StreamingResponseBody> streamingResponse(String filename, ObjectDownload download, long started) {
+        ResponseEntity.BodyBuilder response = ResponseEntity
+                .status(download.isPartial() ? HttpStatus.PARTIAL_CONTENT : HttpStatus.OK)
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"")
+                .header(HttpHeaders.ACCEPT_RANGES, "bytes")
+                .contentType(download.contentType() != null
+                        ? MediaType.parseMediaType(download.contentType())
+                        : MediaType.APPLICATION_OCTET_STREAM);
+
+        if (download.contentLength() >= 0) {
+            response.contentLength(download.contentLength());
+        }
+        if (download.isEncoded()) {
+            response.header(HttpHeaders.CONTENT_ENCODING, download.encoding().codec().token())
+                    .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
         }
+
+        if (download.eTag() != null) {
+            response.eTag(download.eTag());
+        }
+        if (download.lastModified() != null) {
+            response.lastModified(download.lastModified());
+        }
+        if (download.isPartial()) {
+            response.header(HttpHeaders.CONTENT_RANGE, download.contentRange());
+        }
+
+        StreamingResponseBody body = outputStream -> {
+            long copied = 0;
+            Throwable error = null;
+            try {
+                copied = downloadBufferPool.copy(download.body(), outputStream);
+                download.close();
+            } catch (IOException | RuntimeException e) {
+                error = e;
+                // The client is gone or the copy broke: do not read the rest of the object from S3.
+                download.abort();
+                throw e;
+            } finally {
+                transferMetrics.completed(Operation.DOWNLOAD, started, copied, error);
+            }
+        };
+        return response.body(body);
+    }
+
+    /**
+     * Returns the header if it is a single byte range S3 can serve, otherwise {@code null}
+     * so the whole file is returned, as RFC 9110 allows.
+     */
+    private static String singleByteRange(String range) {
+        return range != null && SINGLE_BYTE_RANGE.matcher(range.trim()).matches() ? range.trim() : null;
+    }
+
+    /** Strips the {@link CompletionException} wrapper added by {@link CompletableFuture} stages. */
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
     }
 
-    
     /**
      * Deletes a file from Amazon S3 based on the provided filename.
      *
@@ -123,9 +467,79 @@ public class FileController {
      * @return a success message indicating that the file was removed
      */
     @DeleteMapping("/{filename}")
-    public ResponseEntity<String> deleteFile(@PathVariable String filename) {
-        s3Service.deleteFile(filename);
-        return ResponseEntity.ok("File deleted successfully: " + filename);
+    public CompletableFuture<ResponseEntity<String>> deleteFile(@PathVariable String filename) {
+        long started = transferMetrics.started(Operation.DELETE);
+        return s3Service.deleteFileAsync(filename)
+                .whenComplete((ignored, error) -> transferMetrics.completed(Operation.DELETE, started, 0, error))
+                .thenApply(ignored -> ResponseEntity.ok("File deleted successfully: " + filename));
+    }
+
+    /**
+     * Deletes a list of files in bulk.
+     *
+     * <p>Example: {@code POST /files/delete} with the body {@code ["a.png", "b.png"]}.
+     * Keys are deleted with batched {@code DeleteObjects} requests of up to 1000 keys,
+     * several at a time, and the outcome of each key is streamed back as NDJSON
+     * ({@code {"key":..,"deleted":true,..}}) as soon as its batch completes. The last line
+     * holds the totals: {@code {"deleted":..,"failed":..}}.</p>
+     *
+     * @param filenames the keys to delete
+     * @return the per-key results as {@code application/x-ndjson}
+     */
+    @PostMapping(value = "/delete", consumes = MediaType.APPLICATION_JSON_VALUE,
+            produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> deleteFiles(@RequestBody List<String> filenames) {
+        logger.info("Received bulk delete request for {} files", filenames.size());
+        return bulkDeleteResponse(handler -> s3Service.deleteFiles(filenames, handler));
+    }
+
+    /**
+     * Deletes every file under a prefix.
+     *
+     * <p>Example: {@code DELETE /files?prefix=tmp/2024/}. The listing and the deletes are
+     * pipelined: each page of keys is deleted while the next one is being listed. The
+     * response has the same NDJSON format as {@code POST /files/delete}.</p>
+     *
+     * @param prefix the key prefix; required and not blank
+     * @return the per-key results as {@code application/x-ndjson}, or 400 for a blank prefix
+     */
+    @DeleteMapping(params = "prefix", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> deleteFilesByPrefix(@RequestParam String prefix) {
+        if (prefix.isBlank()) {
+            return ResponseEntity.badRequest().build();
+        }
+        logger.info("Received delete request for prefix: {}", prefix);
+        return bulkDeleteResponse(handler -> s3Service.deleteFilesByPrefix(prefix, handler));
+    }
+
+    private ResponseEntity<StreamingResponseBody> bulkDeleteResponse(BulkDelete delete) {
+        StreamingResponseBody body = outputStream -> {
+            long started = transferMetrics.started(Operation.DELETE);
+            Throwable error = null;
+            try (SequenceWriter lines = objectMapper.writer().withRootValueSeparator("\n").writeValues(outputStream)) {
+                BatchDeleteService.DeleteSummary summary = delete.run(results -> {
+                    lines.writeAll(results);
+                    lines.flush();
+                });
+                lines.write(summary);
+                outputStream.write('\n');
+                logger.info("Bulk delete finished: {} deleted, {} failed", summary.deleted(), summary.failed());
+            } catch (IOException | RuntimeException e) {
+                error = e;
+                throw e;
+            } finally {
+                transferMetrics.completed(Operation.DELETE, started, 0, error);
+            }
+        };
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .body(body);
+    }
+
+    /** A bulk delete started once the response is being written. */
+    @FunctionalInterface
+    private interface BulkDelete {
+        BatchDeleteService.DeleteSummary run(BatchDeleteService.DeleteResultHandler handler) throws IOException;
     }
 
     /**
@@ -139,19 +553,346 @@ public class FileController {
      * @return {@link ResponseEntity} containing the public S3 URL of the uploaded file if successful,
      *         or an error message with HTTP 500 status in case of failure.
      */
-    @PostMapping("/upload/large")
+    @PostMapping(value = "/upload/large", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
     public ResponseEntity<String> uploadLargeFile(@RequestParam("file") MultipartFile file) {
+        long started = transferMetrics.started(Operation.LARGE_UPLOAD);
         try {
             String url = s3Service.uploadLargeFile(file);
+            transferMetrics.completed(Operation.LARGE_UPLOAD, started, file.getSize(), null);
             return ResponseEntity.ok(url);
         } catch (Exception e) {
+            transferMetrics.completed(Operation.LARGE_UPLOAD, started, 0, e);
             return ResponseEntity.internalServerError().body("Large upload failed: " + e.getMessage());
         }
     }
 
+    /**
+     * Handles the upload of large files sent as a raw request body.
+     * <p>
+     * The multipart form above is fully spooled to local disk by the servlet container
+     * before any byte reaches S3. This variant reads the body as it arrives instead,
+     * cutting it into parts that are uploaded to S3 concurrently while the client is
+     * still sending, with memory bounded by the multipart buffer budget.
+     * </p>
+     *
+     * <p>Example request:</p>
+     * <pre>
+     * curl -X POST "http://localhost:8080/files/upload/large?filename=disk.iso" \
+     *   -H "Content-Type: application/octet-stream" --data-binary @disk.iso
+     * </pre>
+     *
+     * @param filename the original file name
+     * @param contentType optional content type to store with the object
+     * @param body the raw request body
+     * @return {@link ResponseEntity} containing the public S3 URL of the uploaded file if successful,
+     *         or an error message with HTTP 500 status in case of failure.
+     */
+    @PostMapping(value = "/upload/large", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<String> uploadLargeFileStream(@RequestParam("filename") String filename,
+                                                        @RequestParam(value = "contentType", required = false) String contentType,
+                                                        InputStream body) {
+        logger.info("Received streaming large upload request for file: {}", filename);
+        long started = transferMetrics.started(Operation.LARGE_UPLOAD);
+        TimedInputStream received = transferMetrics.receiving(body, Operation.LARGE_UPLOAD);
+        try {
+            String url = s3Service.uploadLargeFile(filename, contentType, received);
+            transferMetrics.completed(Operation.LARGE_UPLOAD, started, received.bytesRead(), null);
+            logger.info("Streaming large upload completed: {}", url);
+            return ResponseEntity.ok(url);
+        } catch (Exception e) {
+            transferMetrics.completed(Operation.LARGE_UPLOAD, started, received.bytesRead(), e);
+            logger.error("Streaming large upload failed for file: {}", filename, e);
+            return ResponseEntity.internalServerError().body("Large upload failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Creates a resumable upload session (tus-style).
+     * <p>
+     * The file is then sent with {@code PATCH /files/uploads/{id}} in one or more chunks,
+     * and a client that gets disconnected asks for the current offset with
+     * {@code HEAD /files/uploads/{id}} and resumes from there. Chunks must start at a
+     * multiple of the {@code Upload-Part-Size} returned here; chunks starting at
+     * different multiples may be sent in parallel. The file name and content type come
+     * from the query string or from a tus {@code Upload-Metadata} header
+     * ({@code filename} and {@code filetype}).
+     * </p>
+     *
+     * <pre>
+     * curl -i -X POST "http://localhost:8080/files/uploads?filename=disk.iso" -H "Upload-Length: 4294967296"
+     * </pre>
+     *
+     * @param length the total length of the file
+     * @param uploadMetadata the optional tus metadata header
+     * @param filename the original file name, if not in the metadata
+     * @param contentType optional content type to store with the object
+     * @return 201 with the session in {@code Location} and the future URL of the file as body
+     */
+    @PostMapping("/uploads")
+    public ResponseEntity<String> createUpload(@RequestHeader("Upload-Length") long length,
+                                               @RequestHeader(value = "Upload-Metadata", required = false) String uploadMetadata,
+                                               @RequestParam(value = "filename", required = false) String filename,
+                                               @RequestParam(value = "contentType", required = false) String contentType) {
+        Map<String, String> metadata = tusMetadata(uploadMetadata);
+        String name = filename != null ? filename : metadata.get("filename");
+        if (name == null || name.isBlank()) {
+            return ResponseEntity.badRequest().body("A filename is required");
+        }
+        try {
+            ResumableUploadService.UploadStatus upload = resumableUploadService.create(
+                    name, contentType != null ? contentType : metadata.get("filetype"), length);
+            logger.info("Created resumable upload {} for {} ({} bytes)", upload.id(), upload.key(), length);
+            return ResponseEntity.status(HttpStatus.CREATED)
+                    .header(HttpHeaders.LOCATION, "/files/uploads/" + upload.id())
+                    .headers(uploadHeaders(upload))
+                    .body(s3Service.fileUrl(upload.key()));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (Exception e) {
+            logger.error("Could not create a resumable upload for file: {}", name, e);
+            return ResponseEntity.internalServerError().body("Upload failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Returns how much of a resumable upload has been received.
+     *
+     * @param id the session id
+     * @return 200 with {@code Upload-Offset} and {@code Upload-Length}, or 404 if the session is unknown or expired
+     */
+    @RequestMapping(value = "/uploads/{id}", method = RequestMethod.HEAD)
+    public ResponseEntity<Void> uploadOffset(@PathVariable String id) {
+        return resumableUploadService.status(id)
+                .map(upload -> ResponseEntity.ok()
+                        .header(HttpHeaders.CACHE_CONTROL, "no-store")
+                        .headers(uploadHeaders(upload))
+                        .<Void>build())
+                .orElseGet(() -> ResponseEntity.notFound().build());
+    }
+
+    /**
+     * Sends a chunk of a resumable upload.
+     * <p>
+     * Every complete part of the chunk is streamed to S3 as it arrives. The
+     * {@code Upload-Offset} answered is where this chunk's data stored ends; if the
+     * connection drops, the parts completed before it are kept. The file is stored as
+     * soon as its last part arrives.
+     * </p>
+     *
+     * <pre>
+     * curl -X PATCH http://localhost:8080/files/uploads/{id} -H "Upload-Offset: 0" \
+     *   -H "Content-Type: application/offset+octet-stream" --data-binary @disk.iso
+     * </pre>
+     *
+     * @param id the session id
+     * @param offset where the chunk starts in the file
+     * @param contentLength the chunk length, if declared
+     * @param body the chunk content
+     * @return 204 with the new {@code Upload-Offset}; 404 for an unknown session; 409 if the
+     *         offset is not at a part boundary or the part is already being sent
+     */
+    @PatchMapping(value = "/uploads/{id}", consumes = "application/offset+octet-stream")
+    public ResponseEntity<String> uploadChunk(@PathVariable String id,
+                                              @RequestHeader("Upload-Offset") long offset,
+                                              @RequestHeader(value = HttpHeaders.CONTENT_LENGTH, required = false) Long contentLength,
+                                              InputStream body) {
+        long started = transferMetrics.started(Operation.LARGE_UPLOAD);
+        TimedInputStream received = transferMetrics.receiving(body, Operation.LARGE_UPLOAD);
+        try (received) {
+            long stored = resumableUploadService.write(id, offset, received, contentLength != null ? contentLength : -1);
+            transferMetrics.completed(Operation.LARGE_UPLOAD, started, received.bytesRead(), null);
+            return ResponseEntity.noContent().header("Upload-Offset", Long.toString(stored)).build();
+        } catch (NoSuchElementException e) {
+            transferMetrics.completed(Operation.LARGE_UPLOAD, started, 0, e);
+            return ResponseEntity.notFound().build();
+        } catch (IllegalStateException e) {
+            transferMetrics.completed(Operation.LARGE_UPLOAD, started, 0, e);
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(e.getMessage());
+        } catch (Exception e) {
+            transferMetrics.completed(Operation.LARGE_UPLOAD, started, received.bytesRead(), e);
+            logger.error("Chunk of resumable upload {} failed at offset {}", id, offset, e);
+            return ResponseEntity.internalServerError().body("Upload failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Cancels a resumable upload and discards what was received.
+     *
+     * @param id the session id
+     * @return 204, or 404 if the session is unknown
+     */
+    @DeleteMapping("/uploads/{id}")
+    public ResponseEntity<Void> cancelUpload(@PathVariable String id) {
+        return resumableUploadService.cancel(id) ? ResponseEntity.noContent().build() : ResponseEntity.notFound().build();
+    }
+
+    /**
+     * Returns a presigned URL to upload a file straight to S3, without sending it through the application.
+     *
+     * <pre>
+     * curl -X POST "http://localhost:8080/files/presigned/upload?filename=photo.jpg&amp;contentType=image/jpeg"
+     * curl -X PUT -H "Content-Type: image/jpeg" --upload-file photo.jpg "{url}"
+     * curl -X POST http://localhost:8080/files/presigned/upload/complete \
+     *   -H "Content-Type: application/json" -d '{"key": "{key}"}'
+     * </pre>
+     *
+     * @param filename the original file name
+     * @param contentType optional content type; the PUT must send the same {@code Content-Type}
+     * @return the key, the URL and when it expires; 403 if uploads must be content-scanned and quarantine
+     *         is off; 500 if the file name is rejected
+     */
+    @PostMapping("/presigned/upload")
+    public ResponseEntity<PresignedUrlService.PresignedUpload> presignUpload(
+            @RequestParam("filename") String filename,
+            @RequestParam(value = "contentType", required = false) String contentType) {
+        try {
+            return ResponseEntity.ok(presignedUrlService.presignUpload(filename, contentType));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        } catch (Exception e) {
+            logger.error("Could not presign an upload for file: {}", filename, e);
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+
+    /**
+     * Starts a multipart upload and returns one presigned URL per part, so a large file
+     * can be sent to S3 directly, in parallel. The ETag S3 answers for each part is sent
+     * back to {@code /files/presigned/upload/complete}.
+     *
+     * @param filename the original file name
+     * @param contentType optional content type to store with the object
+     * @param size the total size of the file
+     * @return the key, the upload id, the part size and the part URLs; 403 if uploads must be
+     *         content-scanned and quarantine is off
+     */
+    @PostMapping("/presigned/upload/multipart")
+    public ResponseEntity<PresignedUrlService.PresignedMultipartUpload> presignMultipartUpload(
+            @RequestParam("filename") String filename,
+            @RequestParam(value = "contentType", required = false) String contentType,
+            @RequestParam("size") long size) {
+        try {
+            return ResponseEntity.ok(presignedUrlService.presignMultipartUpload(filename, contentType, size));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        } catch (Exception e) {
+            logger.error("Could not presign a multipart upload for file: {}", filename, e);
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+
+    /**
+     * Completes an upload sent to presigned URLs.
+     *
+     * @param completion the key, plus the upload id and part ETags for a multipart upload
+     * @return the public URL of the file, or 404 if no such upload was presigned or nothing was uploaded
+     */
+    @PostMapping(value = "/presigned/upload/complete", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<String> completePresignedUpload(@RequestBody PresignedUrlService.Completion completion) {
+        try {
+            presignedUrlService.complete(completion.key(), completion.uploadId(),
+                    completion.parts() != null ? completion.parts() : List.of());
+            return quarantineService.isEnabled()
+                    ? ResponseEntity.accepted().body(s3Service.fileUrl(completion.key()))
+                    : ResponseEntity.ok(s3Service.fileUrl(completion.key()));
+        } catch (NoSuchElementException | NoSuchKeyException e) {
+            return ResponseEntity.notFound().build();
+        } catch (Exception e) {
+            logger.error("Could not complete the presigned upload of: {}", completion.key(), e);
+            return ResponseEntity.internalServerError().body("Upload failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Abandons a presigned multipart upload.
+     *
+     * @param key the key returned when the upload was presigned
+     * @param uploadId the multipart upload id
+     * @return 204, or 404 if no such upload was presigned
+     */
+    @DeleteMapping("/presigned/upload/multipart")
+    public ResponseEntity<Void> abortPresignedUpload(@RequestParam("key") String key,
+                                                     @RequestParam("uploadId") String uploadId) {
+        try {
+            presignedUrlService.abort(key, uploadId);
+        } catch (NoSuchElementException e) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.noContent().build();
+    }
+
+    /**
+     * Returns a presigned URL to download a file straight from S3.
+     *
+     * <p>With {@code redirect=true} the answer is a <strong>302</strong> to that URL, so
+     * browsers and plain HTTP clients download from S3 without any change.</p>
+     *
+     * <p>A file stored compressed with a codec the client's {@code Accept-Encoding} does
+     * not list is not sent from S3: the URL is then the application download, which
+     * decompresses it, and has no expiry.</p>
+     *
+     * @param filename the name of the file
+     * @param redirect whether to redirect instead of returning the URL
+     * @param acceptEncoding the optional HTTP {@code Accept-Encoding} header
+     * @return the URL and when it expires, or a redirect to it
+     */
+    @GetMapping("/presigned/{filename}")
+    public ResponseEntity<PresignedUrlService.PresignedDownload> presignDownload(
+            @PathVariable String filename,
+            @RequestParam(value = "redirect", defaultValue = "false") boolean redirect,
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
+        PresignedUrlService.PresignedDownload download = presignedUrlService.presignDownload(filename, acceptEncoding)
+                .orElseGet(() -> new PresignedUrlService.PresignedDownload(ServletUriComponentsBuilder
+                        .fromCurrentContextPath()
+                        .path("/files/{filename}")
+                        .buildAndExpand(filename)
+                        .toUriString(), null));
+        if (redirect) {
+            return ResponseEntity.status(HttpStatus.FOUND).header(HttpHeaders.LOCATION, download.url()).build();
+        }
+        return ResponseEntity.ok(download);
+    }
+
+    private static HttpHeaders uploadHeaders(ResumableUploadService.UploadStatus upload) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set("Tus-Resumable", "1.0.0");
+        headers.set("Upload-Offset", Long.toString(upload.offset()));
+        headers.set("Upload-Length", Long.toString(upload.length()));
+        headers.set("Upload-Part-Size", Long.toString(upload.partSize()));
+        return headers;
+    }
+
+    /** Decodes a tus {@code Upload-Metadata} header: comma-separated {@code key base64value} pairs. */
+    private static Map<String, String> tusMetadata(String header) {
+        Map<String, String> metadata = new HashMap<>();
+        if (header == null) {
+            return metadata;
+        }
+        for (String pair : header.split(",")) {
+            String[] parts = pair.trim().split(" ", 2);
+            if (parts[0].isEmpty()) {
+                continue;
+            }
+            try {
+                metadata.put(parts[0], parts.length > 1
+                        ? new String(Base64.getDecoder().decode(parts[1].trim()), StandardCharsets.UTF_8)
+                        : "");
+            } catch (IllegalArgumentException e) {
+                // not valid base64; ignore the pair
+            }
+        }
+        return metadata;
+    }
+
     /**
      * Compresses multiple uploaded files into a ZIP archive and uploads it to AWS S3.
      *
+     * <p>In streaming mode (the default) the archive is written directly into an S3
+     * multipart upload while it is being compressed, so memory stays bounded by the
+     * part buffers instead of growing with the bundle size.</p>
+     *
      * @param files array of files to be zipped and uploaded
      * @return URL of the generated ZIP file stored in S3
      */
@@ -159,20 +900,87 @@ public class FileController {
     public ResponseEntity<String> uploadZip(@RequestParam("files") MultipartFile[] files) {
         logger.info("Received ZIP upload request with {} files", files.length);
 
+        long started = transferMetrics.started(Operation.ZIP);
+        long bytes = 0;
+        for (MultipartFile file : files) {
+            bytes += file.getSize();
+        }
         try {
-            byte[] zipBytes = zipService.zipFiles(files);
-
             String zipName = System.currentTimeMillis() + "_bundle.zip";
 
-            String fileUrl = s3Service.uploadZip(zipBytes, zipName);
+            String fileUrl = streamingZip
+                    ? s3Service.uploadZip(zipName, out -> zipService.zipFiles(files, out))
+                    : s3Service.uploadZip(zipInMemory(files), zipName);
 
+            transferMetrics.completed(Operation.ZIP, started, bytes, null);
             logger.info("ZIP uploaded successfully: {}", fileUrl);
             return ResponseEntity.ok(fileUrl);
 
         } catch (Exception e) {
+            transferMetrics.completed(Operation.ZIP, started, 0, e);
             logger.error("ZIP upload failed", e);
             return ResponseEntity.internalServerError()
                     .body("ZIP upload failed: " + e.getMessage());
         }
     }
+
+    private byte[] zipInMemory(MultipartFile[] files) throws IOException {
+        long started = System.nanoTime();
+        byte[] zip = zipService.zipFiles(files);
+        transferMetrics.record(Operation.ZIP, Phase.COMPRESS, System.nanoTime() - started);
+        return zip;
+    }
+
+    /**
+     * Extracts a ZIP archive sent as the raw request body into S3, one object per entry.
+     *
+     * <p>The inverse of {@code POST /files/upload/zip}. The archive is read as it
+     * arrives and its entries are inflated and uploaded several at a time under
+     * {@code prefix} (by default {@code <timestamp>/}); see {@link ZipExtractionService}
+     * for the limits that stop decompression bombs. The outcome of each entry is
+     * streamed back as NDJSON ({@code {"entry":..,"key":..,"extracted":true,..}}) as soon
+     * as it is stored. The last line holds the totals, {@code {"extracted":..,"failed":..,"error":..}},
+     * where {@code error} says why the archive could not be read to its end.</p>
+     *
+     * <pre>
+     * curl -X POST "http://localhost:8080/files/upload/unzip?prefix=site/" \
+     *   -H "Content-Type: application/zip" --data-binary @site.zip
+     * </pre>
+     *
+     * @param prefix the key prefix of the extracted objects
+     * @param body   the archive
+     * @return the per-entry results as {@code application/x-ndjson}
+     */
+    @PostMapping(value = "/upload/unzip", consumes = {"application/zip", MediaType.APPLICATION_OCTET_STREAM_VALUE},
+            produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> extractZip(@RequestParam(value = "prefix", required = false) String prefix,
+                                                            InputStream body) {
+        String keyPrefix = prefix != null ? prefix : System.currentTimeMillis() + "/";
+        logger.info("Received ZIP extraction request for prefix: {}", keyPrefix);
+
+        StreamingResponseBody response = outputStream -> {
+            long started = transferMetrics.started(Operation.EXTRACT);
+            TimedInputStream received = transferMetrics.receiving(body, Operation.EXTRACT);
+            Throwable error = null;
+            try (SequenceWriter lines = objectMapper.writer().withRootValueSeparator("\n").writeValues(outputStream)) {
+                ZipExtractionService.ExtractionSummary summary = zipExtractionService.extract(received, keyPrefix,
+                        result -> {
+                            lines.write(result);
+                            lines.flush();
+                        });
+                lines.write(summary);
+                outputStream.write('\n');
+                logger.info("ZIP extraction to {} finished: {} extracted, {} failed", keyPrefix,
+                        summary.extracted(), summary.failed());
+            } catch (IOException | RuntimeException e) {
+                error = e;
+                throw e;
+            } finally {
+                transferMetrics.completed(Operation.EXTRACT, started, received.bytesRead(), error);
+            }
+        };
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .body(response);
+    }
 }
@@ -0,0 +1,21 @@
+package com.myprojecticaro.poc_s3_file_uploader.io;
+
+import java.util.zip.ZipException;
+
+/**
+ * Thrown when an archive being extracted exceeds a limit meant to stop decompression
+ * bombs: too many entries, too much content in total, or an entry that expands far
+ * more than real data does.
+ * <p>
+ * It is a {@link ZipException}, so it is handled like any other malformed archive.
+ * </p>
+ *
+ * @author Icaro
+ * @version 1.0
+ */
+public class ArchiveLimitException extends ZipException {
+
+    public ArchiveLimitException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,114 @@
+package com.myprojecticaro.poc_s3_file_uploader.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Fixed-size pool of reusable byte buffers used to move data between streams
+ * without allocating a new array for every transfer.
+ * <p>
+ * The pool never hands out more than {@code capacity} buffers at the same time.
+ * When every buffer is in use, {@link #acquire()} blocks until another transfer
+ * releases one, which bounds the total memory used by all concurrent transfers
+ * to {@code bufferSize * capacity} bytes.
+ * </p>
+ *
+ * <p>Buffers are allocated lazily, so an idle pool costs nothing.</p>
+ *
+ * @author Icaro
+ * @version 1.0
+ */
+public class BufferPool {
+
+    private final int bufferSize;
+    private final int capacity;
+    private final Semaphore permits;
+    private final ConcurrentLinkedQueue<byte[]> free = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Creates a new pool.
+     *
+     * @param bufferSize size in bytes of every buffer handed out by the pool
+     * @param capacity   maximum number of buffers that may be in use at once
+     */
+    public BufferPool(int bufferSize, int capacity) {
+        if (bufferSize <= 0 || capacity <= 0) {
+            throw new IllegalArgumentException("bufferSize and capacity must be positive");
+        }
+        this.bufferSize = bufferSize;
+        this.capacity = capacity;
+        this.permits = new Semaphore(capacity, true);
+    }
+
+    /**
+     * Borrows a buffer from the pool, blocking while all buffers are in use.
+     *
+     * @return a buffer of exactly {@link #bufferSize()} bytes
+     * @throws InterruptedIOException if the calling thread is interrupted while waiting
+     */
+    public byte[] acquire() throws InterruptedIOException {
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a pooled buffer");
+        }
+        byte[] buffer = free.poll();
+        return buffer != null ? buffer : new byte[bufferSize];
+    }
+
+    /**
+     * Returns a buffer previously obtained from {@link #acquire()}.
+     *
+     * @param buffer the buffer to give back; must not be used by the caller afterwards
+     */
+    public void release(byte[] buffer) {
+        if (buffer == null || buffer.length != bufferSize) {
+            throw new IllegalArgumentException("Buffer does not belong to this pool");
+        }
+        free.offer(buffer);
+        permits.release();
+    }
+
+    /**
+     * Copies a stream into another through a single pooled buffer.
+     *
+     * @param in  the source; not closed by this method
+     * @param out the destination; not closed by this method
+     * @return the number of bytes copied
+     * @throws IOException if reading or writing fails
+     */
+    public long copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = acquire();
+        try {
+            long total = 0;
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+                total += n;
+            }
+            return total;
+        } finally {
+            release(buffer);
+        }
+    }
+
+    /** @return size in bytes of each pooled buffer */
+    public int bufferSize() {
+        return bufferSize;
+    }
+
+    /** @return maximum number of buffers that can be borrowed at once */
+    public int capacity() {
+        return capacity;
+    }
+
+    /** @return number of buffers currently borrowed */
+    public int inUse() {
+        return capacity - permits.availablePermits();
+    }
+}
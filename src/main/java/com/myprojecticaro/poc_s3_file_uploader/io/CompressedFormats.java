@@ -0,0 +1,86 @@
+package com.myprojecticaro.poc_s3_file_uploader.io;
+
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Recognises content that is already compressed (images, video, archives), for which
+ * running another compressor only burns CPU.
+ * <p>
+ * Detection uses the declared content type first and falls back to the magic bytes at
+ * the start of the content, so mislabelled uploads are still recognised.
+ * </p>
+ *
+ * @author Icaro
+ * @version 1.0
+ */
+public final class CompressedFormats {
+
+    /** Number of leading bytes {@link #hasCompressedSignature(byte[], int)} needs to look at. */
+    public static final int HEADER_LENGTH = 12;
+
+    private static final Set<String> COMPRESSED_TYPES = Set.of(
+            "image/jpeg", "image/png", "image/gif", "image/webp", "image/avif", "image/heic",
+            "application/zip", "application/gzip", "application/x-gzip", "application/x-7z-compressed",
+            "application/x-rar-compressed", "application/vnd.rar", "application/x-bzip2", "application/x-xz",
+            "application/zstd", "application/java-archive",
+            "application/vnd.openxmlformats-officedocument.wordprocessingml.document",
+            "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet",
+            "application/vnd.openxmlformats-officedocument.presentationml.presentation"
+    );
+
+    private CompressedFormats() {
+    }
+
+    /**
+     * @param contentType a MIME type, possibly with parameters; may be {@code null}
+     * @return {@code true} if the type denotes already-compressed content
+     */
+    public static boolean isCompressedType(String contentType) {
+        if (contentType == null) {
+            return false;
+        }
+        String type = contentType.toLowerCase(Locale.ROOT);
+        int parameters = type.indexOf(';');
+        if (parameters >= 0) {
+            type = type.substring(0, parameters);
+        }
+        type = type.trim();
+        return COMPRESSED_TYPES.contains(type) || type.startsWith("video/") || type.startsWith("audio/");
+    }
+
+    /**
+     * @param header the first bytes of the content
+     * @param length number of valid bytes in {@code header}
+     * @return {@code true} if the bytes start with the signature of a compressed format
+     */
+    public static boolean hasCompressedSignature(byte[] header, int length) {
+        return startsWith(header, length, 0, 0xFF, 0xD8, 0xFF)                 // JPEG
+                || startsWith(header, length, 0, 0x89, 'P', 'N', 'G')          // PNG
+                || startsWith(header, length, 0, 'G', 'I', 'F', '8')           // GIF
+                || startsWith(header, length, 0, 'P', 'K', 0x03, 0x04)         // ZIP, JAR, OOXML
+                || startsWith(header, length, 0, 0x1F, 0x8B)                   // GZIP
+                || startsWith(header, length, 0, '7', 'z', 0xBC, 0xAF, 0x27, 0x1C)
+                || startsWith(header, length, 0, 'R', 'a', 'r', '!')
+                || startsWith(header, length, 0, 'B', 'Z', 'h')                // BZIP2
+                || startsWith(header, length, 0, 0xFD, '7', 'z', 'X', 'Z', 0x00)
+                || startsWith(header, length, 0, 0x28, 0xB5, 0x2F, 0xFD)       // Zstandard
+                || startsWith(header, length, 4, 'f', 't', 'y', 'p')           // MP4, MOV, HEIC
+                || (startsWith(header, length, 0, 'R', 'I', 'F', 'F')
+                    && startsWith(header, length, 8, 'W', 'E', 'B', 'P'))
+                || startsWith(header, length, 0, 'I', 'D', '3')                // MP3
+                || startsWith(header, length, 0, 0x1A, 0x45, 0xDF, 0xA3);      // Matroska / WebM
+    }
+
+    private static boolean startsWith(byte[] header, int length, int offset, int... signature) {
+        if (length < offset + signature.length) {
+            return false;
+        }
+        for (int i = 0; i < signature.length; i++) {
+            if ((header[offset + i] & 0xFF) != signature[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
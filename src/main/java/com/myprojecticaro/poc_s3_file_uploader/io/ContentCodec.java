@@ -0,0 +1,180 @@
+package com.myprojecticaro.poc_s3_file_uploader.io;
+
+import com.github.luben.zstd.ZstdInputStream;
+import com.github.luben.zstd.ZstdOutputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Stream compressors an object can be stored with.
+ * <p>
+ * The {@link #token()} of each codec is its HTTP content-coding name, so a stored
+ * object can be handed to a client that accepts that {@code Content-Encoding} without
+ * being decoded first.
+ * </p>
+ *
+ * @author Icaro
+ * @version 1.0
+ */
+public enum ContentCodec {
+
+    /** Zstandard: gzip-like ratios at several times the speed; levels 1 to 22. */
+    ZSTD("zstd", 3) {
+        @Override
+        OutputStream encoder(OutputStream out, int level) throws IOException {
+            return new ZstdOutputStream(out, level);
+        }
+
+        @Override
+        public InputStream decoding(InputStream in) throws IOException {
+            return new ZstdInputStream(in);
+        }
+    },
+
+    /** Gzip, understood by every HTTP client; levels 1 to 9. */
+    GZIP("gzip", 6) {
+        @Override
+        OutputStream encoder(OutputStream out, int level) throws IOException {
+            return new GZIPOutputStream(out, BUFFER_SIZE) {
+                {
+                    def.setLevel(level);
+                }
+            };
+        }
+
+        @Override
+        public InputStream decoding(InputStream in) throws IOException {
+            return new GZIPInputStream(in, BUFFER_SIZE);
+        }
+    };
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final String token;
+    private final int defaultLevel;
+
+    ContentCodec(String token, int defaultLevel) {
+        this.token = token;
+        this.defaultLevel = defaultLevel;
+    }
+
+    /** @return the content-coding name, as used in {@code Content-Encoding} and in object metadata */
+    public String token() {
+        return token;
+    }
+
+    /** @return the level used when none is configured */
+    public int defaultLevel() {
+        return defaultLevel;
+    }
+
+    /**
+     * @param token a content-coding name, case-insensitive
+     * @return the matching codec
+     * @throws IllegalArgumentException if no codec has that name
+     */
+    public static ContentCodec of(String token) {
+        for (ContentCodec codec : values()) {
+            if (codec.token.equalsIgnoreCase(token.trim())) {
+                return codec;
+            }
+        }
+        throw new IllegalArgumentException("Unknown content codec: " + token);
+    }
+
+    /**
+     * Wraps a stream so that what is written to it is compressed.
+     * <p>
+     * Closing the returned stream writes the end of the compressed data but leaves
+     * {@code out} open, so the caller can still complete or abort the destination.
+     * </p>
+     *
+     * @param out   where the compressed bytes go
+     * @param level the compression level, or {@code 0} for {@link #defaultLevel()}
+     * @return the compressing stream
+     * @throws IOException if the compressor cannot be set up
+     */
+    public OutputStream encoding(OutputStream out, int level) throws IOException {
+        return encoder(new UnclosedOutputStream(out), level > 0 ? level : defaultLevel);
+    }
+
+    /**
+     * Wraps a compressed stream so that reading it returns the original bytes.
+     *
+     * @param in the compressed bytes; closed with the returned stream
+     * @return the decompressing stream
+     * @throws IOException if the start of the compressed data cannot be read
+     */
+    public abstract InputStream decoding(InputStream in) throws IOException;
+
+    abstract OutputStream encoder(OutputStream out, int level) throws IOException;
+
+    /**
+     * Checks an {@code Accept-Encoding} header for this codec.
+     *
+     * @param acceptEncoding the header value; may be {@code null}
+     * @return {@code true} if the codec (or {@code *}) is listed without {@code q=0}
+     */
+    public boolean isAcceptedBy(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parameters = coding.split(";");
+            String name = parameters[0].trim().toLowerCase(Locale.ROOT);
+            if ((name.equals(token) || name.equals("*")) && !refused(parameters)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean refused(String[] parameters) {
+        for (int i = 1; i < parameters.length; i++) {
+            String parameter = parameters[i].trim();
+            if (parameter.startsWith("q=")) {
+                try {
+                    return Double.parseDouble(parameter.substring(2)) <= 0;
+                } catch (NumberFormatException e) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /** Passes writes through but only flushes on close, so the compressor cannot close the destination. */
+    private static final class UnclosedOutputStream extends OutputStream {
+
+        private final OutputStream out;
+
+        UnclosedOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.myprojecticaro.poc_s3_file_uploader.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Produces content by writing it to an {@link OutputStream}.
+ * <p>
+ * Used where content is generated on the fly (e.g. a ZIP archive) and handed to a
+ * streaming upload, so it never has to be materialized in memory first.
+ * </p>
+ *
+ * @author Icaro
+ * @version 1.0
+ */
+@FunctionalInterface
+public interface ContentWriter {
+
+    /**
+     * Writes the content to the given stream.
+     *
+     * @param out the destination; must not be closed by the writer
+     * @throws IOException if the content cannot be produced or written
+     */
+    void writeTo(OutputStream out) throws IOException;
+}
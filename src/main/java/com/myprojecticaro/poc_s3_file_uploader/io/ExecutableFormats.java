@@ -0,0 +1,47 @@
+package com.myprojecticaro.poc_s3_file_uploader.io;
+
+/**
+ * Recognises native executables by their magic bytes, whatever the file is called.
+ *
+ * @author Icaro
+ * @version 1.0
+ */
+public final class ExecutableFormats {
+
+    /** Number of leading bytes {@link #detect(byte[], int)} needs to look at. */
+    public static final int HEADER_LENGTH = 4;
+
+    private ExecutableFormats() {
+    }
+
+    /**
+     * @param header the first bytes of the content
+     * @param length number of valid bytes in {@code header}
+     * @return the executable format the bytes start with, or {@code null}
+     */
+    public static String detect(byte[] header, int length) {
+        if (startsWith(header, length, 'M', 'Z')) {
+            return "Windows PE";
+        }
+        if (startsWith(header, length, 0x7F, 'E', 'L', 'F')) {
+            return "ELF";
+        }
+        if (startsWith(header, length, 0xFE, 0xED, 0xFA, 0xCE) || startsWith(header, length, 0xFE, 0xED, 0xFA, 0xCF)
+                || startsWith(header, length, 0xCE, 0xFA, 0xED, 0xFE) || startsWith(header, length, 0xCF, 0xFA, 0xED, 0xFE)) {
+            return "Mach-O";
+        }
+        return null;
+    }
+
+    private static boolean startsWith(byte[] header, int length, int... signature) {
+        if (length < signature.length) {
+            return false;
+        }
+        for (int i = 0; i < signature.length; i++) {
+            if ((header[i] & 0xFF) != signature[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
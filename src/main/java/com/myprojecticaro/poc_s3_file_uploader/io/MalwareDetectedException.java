@@ -0,0 +1,44 @@
+package com.myprojecticaro.poc_s3_file_uploader.io;
+
+import java.io.IOException;
+
+/**
+ * Thrown by a {@link ScanningInputStream} when the content matches a signature.
+ * <p>
+ * It is an {@link IOException} so upload code that already aborts on read failures,
+ * such as a multipart upload, stops and cleans up as soon as the match is found.
+ * </p>
+ *
+ * @author Icaro
+ * @version 1.0
+ */
+public class MalwareDetectedException extends IOException {
+
+    private final String signature;
+
+    public MalwareDetectedException(String filename, String signature) {
+        super("Malicious file detected: " + filename + " (" + signature + ")");
+        this.signature = signature;
+    }
+
+    /** @return the name of the signature that matched */
+    public String signature() {
+        return signature;
+    }
+
+    /**
+     * Finds the scan failure behind an error, e.g. an SDK exception raised because an
+     * upload body could not be read.
+     *
+     * @param error the error to inspect
+     * @return the {@link MalwareDetectedException} in its cause chain, or {@code null}
+     */
+    public static MalwareDetectedException in(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof MalwareDetectedException detected) {
+                return detected;
+            }
+        }
+        return null;
+    }
+}
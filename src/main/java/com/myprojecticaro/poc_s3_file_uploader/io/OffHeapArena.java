@@ -0,0 +1,229 @@
+package com.myprojecticaro.poc_s3_file_uploader.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fixed-size pool of off-heap memory handed out in equal blocks.
+ * <p>
+ * The whole capacity is reserved up front as direct {@link ByteBuffer} slabs, so
+ * contents stored here never move, are never scanned by the garbage collector and
+ * do not count against the heap. An {@link Allocation} spans as many blocks as it
+ * needs; blocks do not have to be contiguous, so the arena never fragments. Unused
+ * blocks are kept on a free list and reused.
+ * </p>
+ *
+ * <p>
+ * Allocations are reference counted: readers {@link Allocation#retain()} one while
+ * they stream it, and its blocks only return to the free list once the owner and
+ * every reader have released it.
+ * </p>
+ *
+ * @author Icaro
+ * @version 1.0
+ */
+public final class OffHeapArena {
+
+    /** Largest slab; a single direct buffer is limited to {@code Integer.MAX_VALUE} bytes. */
+    private static final int MAX_SLAB_SIZE = 1 << 30;
+
+    private final int blockSize;
+    private final int blocksPerSlab;
+    private final ByteBuffer[] slabs;
+    private final int[] freeBlocks;
+    private int freeCount;
+
+    /**
+     * @param capacity  total bytes to reserve
+     * @param blockSize size of each block; allocations are rounded up to a multiple of it
+     */
+    public OffHeapArena(long capacity, int blockSize) {
+        if (blockSize <= 0 || blockSize > MAX_SLAB_SIZE) {
+            throw new IllegalArgumentException("blockSize must be between 1 and " + MAX_SLAB_SIZE);
+        }
+        long blocks = capacity / blockSize;
+        if (blocks > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many blocks: " + blocks);
+        }
+        this.blockSize = blockSize;
+        this.blocksPerSlab = MAX_SLAB_SIZE / blockSize;
+        int totalBlocks = (int) blocks;
+        this.slabs = new ByteBuffer[(totalBlocks + blocksPerSlab - 1) / blocksPerSlab];
+        for (int i = 0; i < slabs.length; i++) {
+            int slabBlocks = Math.min(blocksPerSlab, totalBlocks - i * blocksPerSlab);
+            slabs[i] = ByteBuffer.allocateDirect(slabBlocks * blockSize);
+        }
+        this.freeBlocks = new int[totalBlocks];
+        for (int i = 0; i < totalBlocks; i++) {
+            freeBlocks[i] = totalBlocks - 1 - i;
+        }
+        this.freeCount = totalBlocks;
+    }
+
+    /** @return the total number of bytes the arena can hold */
+    public long capacity() {
+        return (long) freeBlocks.length * blockSize;
+    }
+
+    /** @return the number of bytes currently allocated */
+    public synchronized long used() {
+        return (long) (freeBlocks.length - freeCount) * blockSize;
+    }
+
+    /** @return the bytes an allocation of {@code length} bytes takes, including the unused end of its last block */
+    public long footprint(int length) {
+        return (long) blocksFor(length) * blockSize;
+    }
+
+    /**
+     * Reads {@code length} bytes from a stream straight into newly allocated blocks, so
+     * the content is never staged on the heap.
+     *
+     * @param source the stream to read; it is left open
+     * @param length the number of bytes to read
+     * @return the allocation, owned by the caller, or {@code null} if the arena does not have
+     *         enough free blocks, in which case nothing is read
+     * @throws EOFException if {@code source} ends before {@code length} bytes
+     * @throws IOException  if reading fails; the blocks taken are freed again
+     */
+    public Allocation read(InputStream source, int length) throws IOException {
+        int[] blocks = take(blocksFor(length));
+        if (blocks == null) {
+            return null;
+        }
+        // Not closed: that would close the source, which belongs to the caller.
+        ReadableByteChannel channel = Channels.newChannel(source);
+        try {
+            for (int i = 0, offset = 0; offset < length; i++, offset += blockSize) {
+                ByteBuffer target = slab(blocks[i]).slice(position(blocks[i]), Math.min(blockSize, length - offset));
+                while (target.hasRemaining()) {
+                    if (channel.read(target) < 0) {
+                        throw new EOFException("Stream ended after " + (offset + target.position())
+                                + " of " + length + " bytes");
+                    }
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            free(blocks);
+            throw e;
+        }
+        return new Allocation(blocks, length);
+    }
+
+    private int blocksFor(int length) {
+        return Math.max(1, (length + blockSize - 1) / blockSize);
+    }
+
+    private synchronized int[] take(int count) {
+        if (count > freeCount) {
+            return null;
+        }
+        int[] blocks = new int[count];
+        for (int i = 0; i < count; i++) {
+            blocks[i] = freeBlocks[--freeCount];
+        }
+        return blocks;
+    }
+
+    private synchronized void free(int[] blocks) {
+        for (int block : blocks) {
+            freeBlocks[freeCount++] = block;
+        }
+    }
+
+    private ByteBuffer slab(int block) {
+        return slabs[block / blocksPerSlab];
+    }
+
+    private int position(int block) {
+        return (block % blocksPerSlab) * blockSize;
+    }
+
+    /** Content stored in the arena. */
+    public final class Allocation {
+
+        private final int[] blocks;
+        private final int length;
+        private final AtomicInteger references = new AtomicInteger(1);
+
+        private Allocation(int[] blocks, int length) {
+            this.blocks = blocks;
+            this.length = length;
+        }
+
+        /** @return the number of bytes stored */
+        public int length() {
+            return length;
+        }
+
+        /**
+         * Takes an additional reference, unless the allocation has already been freed.
+         *
+         * @return {@code true} if the caller now holds a reference it must {@link #release()}
+         */
+        public boolean retain() {
+            int current;
+            do {
+                current = references.get();
+                if (current == 0) {
+                    return false;
+                }
+            } while (!references.compareAndSet(current, current + 1));
+            return true;
+        }
+
+        /** Drops a reference; the blocks are freed when the last one is gone. */
+        public void release() {
+            if (references.decrementAndGet() == 0) {
+                free(blocks);
+            }
+        }
+
+        /**
+         * Opens a stream over the content. The stream does not hold a reference of its own:
+         * the caller must keep one until it is done reading.
+         *
+         * @return a stream over the stored bytes
+         */
+        public InputStream openStream() {
+            return new InputStream() {
+                private int position;
+
+                @Override
+                public int read() {
+                    if (position >= length) {
+                        return -1;
+                    }
+                    int block = blocks[position / blockSize];
+                    return slab(block).get(position(block) + position++ % blockSize) & 0xFF;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) {
+                    if (len == 0) {
+                        return 0;
+                    }
+                    if (position >= length) {
+                        return -1;
+                    }
+                    int within = position % blockSize;
+                    int n = Math.min(len, Math.min(blockSize - within, length - position));
+                    int block = blocks[position / blockSize];
+                    slab(block).get(position(block) + within, b, off, n);
+                    position += n;
+                    return n;
+                }
+
+                @Override
+                public int available() {
+                    return length - position;
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.myprojecticaro.poc_s3_file_uploader.io;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Buffered {@link InputStream} whose read-ahead buffer is borrowed from a
+ * {@link BufferPool} and returned to it when the stream is closed.
+ * <p>
+ * It behaves like {@link java.io.BufferedInputStream} (without mark/reset support),
+ * but many concurrent transfers share a bounded set of buffers instead of each
+ * one allocating its own.
+ * </p>
+ *
+ * @author Icaro
+ * @version 1.0
+ */
+public class PooledInputStream extends FilterInputStream {
+
+    private final BufferPool pool;
+    private byte[] buffer;
+    private int position;
+    private int count;
+
+    /**
+     * Wraps the given stream, borrowing a buffer from the pool.
+     *
+     * @param in   the source stream
+     * @param pool the pool providing the read-ahead buffer
+     * @throws IOException if interrupted while waiting for a buffer
+     */
+    public PooledInputStream(InputStream in, BufferPool pool) throws IOException {
+        super(in);
+        this.pool = pool;
+        this.buffer = pool.acquire();
+    }
+
+    private boolean fill() throws IOException {
+        ensureOpen();
+        position = 0;
+        count = 0;
+        int n = in.read(buffer, 0, buffer.length);
+        if (n > 0) {
+            count = n;
+        }
+        return n > 0;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (position >= count && !fill()) {
+            return -1;
+        }
+        return buffer[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        if (len == 0) {
+            return 0;
+        }
+        int available = count - position;
+        if (available <= 0) {
+            // Large reads bypass the buffer entirely, as BufferedInputStream does.
+            if (len >= buffer.length) {
+                return in.read(b, off, len);
+            }
+            if (!fill()) {
+                return -1;
+            }
+            available = count;
+        }
+        int n = Math.min(available, len);
+        System.arraycopy(buffer, position, b, off, n);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        ensureOpen();
+        if (n <= 0) {
+            return 0;
+        }
+        int available = count - position;
+        if (available <= 0) {
+            return in.skip(n);
+        }
+        long skipped = Math.min(available, n);
+        position += (int) skipped;
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        ensureOpen();
+        return (count - position) + in.available();
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+        byte[] borrowed = buffer;
+        if (borrowed == null) {
+            return;
+        }
+        buffer = null;
+        try {
+            in.close();
+        } finally {
+            pool.release(borrowed);
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (buffer == null) {
+            throw new IOException("Stream closed");
+        }
+    }
+}
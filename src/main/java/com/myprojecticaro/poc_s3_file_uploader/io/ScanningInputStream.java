@@ -0,0 +1,162 @@
+package com.myprojecticaro.poc_s3_file_uploader.io;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.function.LongConsumer;
+
+/**
+ * {@link InputStream} decorator that scans the bytes read through it.
+ * <p>
+ * Every byte handed to the reader first goes through a {@link SignatureScanner}, and
+ * the first bytes are also checked for an executable header. The read that completes
+ * a match throws {@link MalwareDetectedException} instead of returning the bytes, so
+ * the content is scanned in the same pass that uploads it and the upload stops at the
+ * first malicious byte. Skipped bytes are read and scanned as well.
+ * </p>
+ * <p>
+ * The time spent in the scanner can be reported to a listener, once, when the end of
+ * the stream is reached or the stream is closed. It is summed with
+ * {@link System#nanoTime()} around each block, so measuring allocates nothing.
+ * </p>
+ *
+ * @author Icaro
+ * @version 1.0
+ */
+public class ScanningInputStream extends FilterInputStream {
+
+    private final String filename;
+    private final SignatureScanner.Scan scan;
+    private final boolean blockExecutables;
+    private final LongConsumer scanNanos;
+    private final byte[] header = new byte[ExecutableFormats.HEADER_LENGTH];
+    private int headerLength;
+    private long position;
+    private MalwareDetectedException detected;
+    private long nanos;
+    private boolean reported;
+
+    /**
+     * @param in               the content
+     * @param filename         the file name, for the error message
+     * @param scanner          the signatures to look for
+     * @param blockExecutables whether content starting with an executable header is rejected
+     */
+    public ScanningInputStream(InputStream in, String filename, SignatureScanner scanner, boolean blockExecutables) {
+        this(in, filename, scanner, blockExecutables, null);
+    }
+
+    /**
+     * @param in               the content
+     * @param filename         the file name, for the error message
+     * @param scanner          the signatures to look for
+     * @param blockExecutables whether content starting with an executable header is rejected
+     * @param scanNanos        receives the total time spent scanning, in nanoseconds; may be {@code null}
+     */
+    public ScanningInputStream(InputStream in, String filename, SignatureScanner scanner, boolean blockExecutables,
+                               LongConsumer scanNanos) {
+        super(in);
+        this.filename = filename;
+        this.scan = scanner.newScan();
+        this.blockExecutables = blockExecutables;
+        this.scanNanos = scanNanos;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] one = new byte[1];
+        int n = read(one, 0, 1);
+        return n == 1 ? one[0] & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (detected != null) {
+            throw detected;
+        }
+        int n = in.read(b, off, len);
+        if (n > 0) {
+            inspect(b, off, n);
+        } else if (n < 0) {
+            report();
+            if (headerLength > 0 && headerLength < ExecutableFormats.HEADER_LENGTH) {
+                checkHeader();
+            }
+        }
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        byte[] discard = new byte[(int) Math.min(n, 8192)];
+        long skipped = 0;
+        while (skipped < n) {
+            int r = read(discard, 0, (int) Math.min(discard.length, n - skipped));
+            if (r < 0) {
+                break;
+            }
+            skipped += r;
+        }
+        return skipped;
+    }
+
+    @Override
+    public void close() throws IOException {
+        report();
+        super.close();
+    }
+
+    /** Marking is not supported: a reset would feed the same bytes to the scanner twice. */
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public synchronized void mark(int readlimit) {
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        throw new IOException("mark/reset not supported");
+    }
+
+    /** @return the number of bytes scanned so far */
+    public long position() {
+        return position;
+    }
+
+    private void inspect(byte[] b, int off, int n) throws IOException {
+        long started = System.nanoTime();
+        if (headerLength < ExecutableFormats.HEADER_LENGTH) {
+            int take = Math.min(n, ExecutableFormats.HEADER_LENGTH - headerLength);
+            System.arraycopy(b, off, header, headerLength, take);
+            headerLength += take;
+            if (headerLength == ExecutableFormats.HEADER_LENGTH) {
+                checkHeader();
+            }
+        }
+        String match = scan.update(b, off, n);
+        position += n;
+        nanos += System.nanoTime() - started;
+        if (match != null) {
+            detected = new MalwareDetectedException(filename, match);
+            throw detected;
+        }
+    }
+
+    private void report() {
+        if (!reported && scanNanos != null) {
+            reported = true;
+            scanNanos.accept(nanos);
+        }
+    }
+
+    private void checkHeader() throws MalwareDetectedException {
+        String format = blockExecutables ? ExecutableFormats.detect(header, headerLength) : null;
+        if (format != null) {
+            detected = new MalwareDetectedException(filename, "executable content: " + format);
+            throw detected;
+        }
+    }
+}
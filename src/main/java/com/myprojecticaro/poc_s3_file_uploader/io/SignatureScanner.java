@@ -0,0 +1,232 @@
+package com.myprojecticaro.poc_s3_file_uploader.io;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Multi-pattern byte signature matcher built as an Aho-Corasick automaton.
+ * <p>
+ * All signatures are compiled into a single deterministic automaton, so content is
+ * scanned in one pass with one table lookup per byte, however many signatures there
+ * are. A match is reported even when it straddles two buffers, since the automaton
+ * state is carried from one {@link Scan#update(byte[], int, int)} call to the next.
+ * </p>
+ *
+ * <p>
+ * To keep the table small, bytes that appear in no signature share one input class,
+ * so the table has one column per distinct signature byte rather than 256. Rows are
+ * stored pre-multiplied by the number of columns and accepting states are stored
+ * complemented, so the inner loop is an add, a load and a sign test.
+ * </p>
+ *
+ * <p>
+ * Signature files hold one signature per line, {@code <name> <hex bytes>}; blank lines
+ * and lines starting with {@code #} are ignored:
+ * <pre>
+ * # EICAR anti-virus test file
+ * Eicar-Test-Signature 58354f2150254041505b345c505a58353428505e2937434329377d24
+ * </pre>
+ * </p>
+ *
+ * @author Icaro
+ * @version 1.0
+ */
+public final class SignatureScanner {
+
+    private final String[] names;
+    private final int[] delta;
+    private final int[] classOf;
+    private final int columns;
+    /** Name of the signature each accepting state reports, by state number. */
+    private final String[] matchOf;
+
+    private SignatureScanner(Map<String, byte[]> signatures) {
+        this.names = signatures.keySet().toArray(String[]::new);
+
+        classOf = new int[256];
+        int classes = 1;
+        for (byte[] pattern : signatures.values()) {
+            for (byte b : pattern) {
+                if (classOf[b & 0xFF] == 0) {
+                    classOf[b & 0xFF] = classes++;
+                }
+            }
+        }
+        columns = classes;
+
+        // Trie, with -1 for missing edges.
+        List<int[]> edges = new ArrayList<>();
+        List<String> terminal = new ArrayList<>();
+        edges.add(newRow());
+        terminal.add(null);
+        for (Map.Entry<String, byte[]> signature : signatures.entrySet()) {
+            int state = 0;
+            for (byte b : signature.getValue()) {
+                int c = classOf[b & 0xFF];
+                if (edges.get(state)[c] < 0) {
+                    edges.get(state)[c] = edges.size();
+                    edges.add(newRow());
+                    terminal.add(null);
+                }
+                state = edges.get(state)[c];
+            }
+            if (terminal.get(state) == null) {
+                terminal.set(state, signature.getKey());
+            }
+        }
+
+        // Breadth-first: failure links, inherited matches, and the missing transitions.
+        int states = edges.size();
+        int[] fail = new int[states];
+        matchOf = terminal.toArray(String[]::new);
+        int[][] next = edges.toArray(int[][]::new);
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        for (int c = 0; c < columns; c++) {
+            if (next[0][c] < 0) {
+                next[0][c] = 0;
+            } else {
+                queue.add(next[0][c]);
+            }
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            if (matchOf[state] == null) {
+                matchOf[state] = matchOf[fail[state]];
+            }
+            for (int c = 0; c < columns; c++) {
+                int child = next[state][c];
+                if (child < 0) {
+                    next[state][c] = next[fail[state]][c];
+                } else {
+                    fail[child] = next[fail[state]][c];
+                    queue.add(child);
+                }
+            }
+        }
+
+        delta = new int[states * columns];
+        for (int state = 0; state < states; state++) {
+            for (int c = 0; c < columns; c++) {
+                int target = next[state][c];
+                delta[state * columns + c] = matchOf[target] != null ? ~(target * columns) : target * columns;
+            }
+        }
+    }
+
+    private int[] newRow() {
+        int[] row = new int[columns];
+        Arrays.fill(row, -1);
+        return row;
+    }
+
+    /**
+     * @param signatures signature names and their bytes; none may be empty
+     * @return the compiled scanner
+     */
+    public static SignatureScanner of(Map<String, byte[]> signatures) {
+        for (Map.Entry<String, byte[]> signature : signatures.entrySet()) {
+            if (signature.getValue().length == 0) {
+                throw new IllegalArgumentException("Empty signature: " + signature.getKey());
+            }
+        }
+        return new SignatureScanner(new LinkedHashMap<>(signatures));
+    }
+
+    /**
+     * Reads a signature file in the format described above.
+     *
+     * @param in the file content; not closed
+     * @return the compiled scanner
+     * @throws IOException if the file cannot be read or a line is malformed
+     */
+    public static SignatureScanner load(InputStream in) throws IOException {
+        Map<String, byte[]> signatures = new LinkedHashMap<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        String line;
+        int number = 0;
+        while ((line = reader.readLine()) != null) {
+            number++;
+            line = line.strip();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] parts = line.split("\\s+");
+            if (parts.length != 2) {
+                throw new IOException("Line " + number + ": expected '<name> <hex bytes>'");
+            }
+            try {
+                byte[] pattern = HexFormat.of().parseHex(parts[1].toLowerCase());
+                if (pattern.length == 0) {
+                    throw new IllegalArgumentException("empty signature");
+                }
+                signatures.put(parts[0], pattern);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Line " + number + ": invalid signature bytes", e);
+            }
+        }
+        return of(signatures);
+    }
+
+    /** @return the number of signatures */
+    public int size() {
+        return names.length;
+    }
+
+    /** @return the number of automaton states */
+    public int states() {
+        return delta.length / columns;
+    }
+
+    /** @return a new scan positioned at the start of the content */
+    public Scan newScan() {
+        return new Scan();
+    }
+
+    /** The progress of one piece of content through the automaton. */
+    public final class Scan {
+
+        private int state;
+        private String match;
+
+        private Scan() {
+        }
+
+        /**
+         * Feeds the next bytes of the content.
+         *
+         * @return the name of the first signature found so far, or {@code null}
+         */
+        public String update(byte[] bytes, int offset, int length) {
+            if (match != null) {
+                return match;
+            }
+            int[] delta = SignatureScanner.this.delta;
+            int[] classOf = SignatureScanner.this.classOf;
+            int s = state;
+            for (int i = offset, end = offset + length; i < end; i++) {
+                s = delta[s + classOf[bytes[i] & 0xFF]];
+                if (s < 0) {
+                    match = matchOf[~s / columns];
+                    return match;
+                }
+            }
+            state = s;
+            return null;
+        }
+
+        /** @return the name of the signature found, or {@code null} */
+        public String match() {
+            return match;
+        }
+    }
+}
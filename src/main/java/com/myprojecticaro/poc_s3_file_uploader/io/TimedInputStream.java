@@ -0,0 +1,88 @@
+package com.myprojecticaro.poc_s3_file_uploader.io;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.function.LongConsumer;
+
+/**
+ * {@link InputStream} decorator that measures how long its reader waits for data.
+ * <p>
+ * The time spent inside the wrapped stream's reads is added up with
+ * {@link System#nanoTime()} and handed to the listener once, when the end of the
+ * stream is reached or the stream is closed, whichever comes first. Reads themselves
+ * allocate nothing, so the decorator can sit on a request body without slowing it down.
+ * </p>
+ *
+ * @author Icaro
+ * @version 1.0
+ */
+public class TimedInputStream extends FilterInputStream {
+
+    private final LongConsumer elapsedNanos;
+    private long nanos;
+    private long bytesRead;
+    private boolean reported;
+
+    /**
+     * @param in           the stream to measure
+     * @param elapsedNanos receives the total time spent reading, in nanoseconds
+     */
+    public TimedInputStream(InputStream in, LongConsumer elapsedNanos) {
+        super(in);
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    @Override
+    public int read() throws IOException {
+        long started = System.nanoTime();
+        int b = in.read();
+        nanos += System.nanoTime() - started;
+        if (b < 0) {
+            report();
+        } else {
+            bytesRead++;
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        long started = System.nanoTime();
+        int n = in.read(b, off, len);
+        nanos += System.nanoTime() - started;
+        if (n < 0) {
+            report();
+        } else {
+            bytesRead += n;
+        }
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long started = System.nanoTime();
+        long skipped = in.skip(n);
+        nanos += System.nanoTime() - started;
+        bytesRead += skipped;
+        return skipped;
+    }
+
+    @Override
+    public void close() throws IOException {
+        report();
+        super.close();
+    }
+
+    /** @return the number of bytes read (or skipped) so far */
+    public long bytesRead() {
+        return bytesRead;
+    }
+
+    private void report() {
+        if (!reported) {
+            reported = true;
+            elapsedNanos.accept(nanos);
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.myprojecticaro.poc_s3_file_uploader.metrics;
+
+import com.myprojecticaro.poc_s3_file_uploader.io.BufferPool;
+import com.myprojecticaro.poc_s3_file_uploader.service.ObjectCache;
+import com.myprojecticaro.poc_s3_file_uploader.service.QuarantineService;
+import com.myprojecticaro.poc_s3_file_uploader.service.S3RequestScheduler;
+import com.myprojecticaro.poc_s3_file_uploader.service.WriteBehindSpool;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Gauges over the shared resources the transfers compete for.
+ * <p>
+ * The buffer pools report how many buffers are borrowed against their capacity, which
+ * shows whether uploads and downloads are waiting for memory rather than for S3. The
+ * {@link ObjectCache} counters, the {@link QuarantineService} and {@link WriteBehindSpool}
+ * backlogs and the {@link S3RequestScheduler} throttle and hedge counters are exported
+ * next to them. Values are read when the registry is scraped, never on the transfer path.
+ * </p>
+ *
+ * <table>
+ *   <caption>Meters</caption>
+ *   <tr><td>{@code uploader.buffer.pool.in.use}, {@code uploader.buffer.pool.capacity}</td><td>gauges, tag {@code pool}</td></tr>
+ *   <tr><td>{@code uploader.cache.requests}</td><td>counter, tag {@code result} ({@code hit}, {@code miss}, {@code revalidation})</td></tr>
+ *   <tr><td>{@code uploader.cache.evictions}</td><td>counter</td></tr>
+ *   <tr><td>{@code uploader.cache.size}</td><td>gauge of cached bytes</td></tr>
+ *   <tr><td>{@code uploader.quarantine.backlog}</td><td>gauge of files waiting for their scan</td></tr>
+ *   <tr><td>{@code uploader.spool.backlog}, {@code uploader.spool.backlog.bytes}</td><td>gauges of uploads waiting in the spool</td></tr>
+ *   <tr><td>{@code uploader.s3.throttled}, {@code uploader.s3.retried}</td><td>counters of S3 requests</td></tr>
+ *   <tr><td>{@code uploader.s3.hedged}</td><td>counter, tag {@code result} ({@code won}, {@code lost})</td></tr>
+ *   <tr><td>{@code uploader.s3.concurrency.limit}</td><td>gauge of the lowest per-prefix limit</td></tr>
+ * </table>
+ *
+ * @author Icaro
+ * @version 1.0
+ */
+@Component
+public class ResourceMetrics implements MeterBinder {
+
+    private final BufferPool uploadBufferPool;
+    private final BufferPool partBufferPool;
+    private final BufferPool downloadBufferPool;
+    private final ObjectCache objectCache;
+    private final QuarantineService quarantineService;
+    private final S3RequestScheduler scheduler;
+    private final WriteBehindSpool writeBehindSpool;
+
+    public ResourceMetrics(@Qualifier("uploadBufferPool") BufferPool uploadBufferPool,
+                           @Qualifier("partBufferPool") BufferPool partBufferPool,
+                           @Qualifier("downloadBufferPool") BufferPool downloadBufferPool,
+                           ObjectCache objectCache,
+                           QuarantineService quarantineService,
+                           S3RequestScheduler scheduler,
+                           WriteBehindSpool writeBehindSpool) {
+        this.uploadBufferPool = uploadBufferPool;
+        this.partBufferPool = partBufferPool;
+        this.downloadBufferPool = downloadBufferPool;
+        this.objectCache = objectCache;
+        this.quarantineService = quarantineService;
+        this.scheduler = scheduler;
+        this.writeBehindSpool = writeBehindSpool;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        bufferPool(registry, "upload", uploadBufferPool);
+        bufferPool(registry, "part", partBufferPool);
+        bufferPool(registry, "download", downloadBufferPool);
+
+        cacheRequests(registry, "hit", cache -> cache.stats().hits());
+        cacheRequests(registry, "miss", cache -> cache.stats().misses());
+        cacheRequests(registry, "revalidation", cache -> cache.stats().revalidations());
+        FunctionCounter.builder("uploader.cache.evictions", objectCache, cache -> cache.stats().evictions())
+                .description("Objects evicted from the read cache")
+                .register(registry);
+        Gauge.builder("uploader.cache.size", objectCache, cache -> cache.stats().usedBytes())
+                .description("Off-heap bytes held by the read cache")
+                .baseUnit("bytes")
+                .register(registry);
+
+        Gauge.builder("uploader.quarantine.backlog", quarantineService, QuarantineService::backlog)
+                .description("Uploads waiting for their quarantine scan")
+                .register(registry);
+
+        if (writeBehindSpool.isEnabled()) {
+            Gauge.builder("uploader.spool.backlog", writeBehindSpool, WriteBehindSpool::backlog)
+                    .description("Uploads acknowledged from the spool and not in S3 yet")
+                    .register(registry);
+            Gauge.builder("uploader.spool.backlog.bytes", writeBehindSpool, WriteBehindSpool::backlogBytes)
+                    .description("Bytes acknowledged from the spool and not in S3 yet")
+                    .baseUnit("bytes")
+                    .register(registry);
+        }
+
+        if (scheduler.isEnabled()) {
+            FunctionCounter.builder("uploader.s3.throttled", scheduler, s -> s.stats().throttled())
+                    .description("S3 requests answered with SlowDown or another throttling error")
+                    .register(registry);
+            FunctionCounter.builder("uploader.s3.retried", scheduler, s -> s.stats().retried())
+                    .description("S3 requests sent again after a throttle or transient failure")
+                    .register(registry);
+            FunctionCounter.builder("uploader.s3.hedged", scheduler, s -> s.stats().hedgesWon())
+                    .description("GETs sent a second time because the first was slower than the p95")
+                    .tag("result", "won")
+                    .register(registry);
+            FunctionCounter.builder("uploader.s3.hedged", scheduler, s -> s.stats().hedged() - s.stats().hedgesWon())
+                    .description("GETs sent a second time because the first was slower than the p95")
+                    .tag("result", "lost")
+                    .register(registry);
+            Gauge.builder("uploader.s3.concurrency.limit", scheduler, s -> s.stats().lowestLimit())
+                    .description("Lowest concurrency limit over the S3 key prefixes")
+                    .register(registry);
+        }
+    }
+
+    private static void bufferPool(MeterRegistry registry, String name, BufferPool pool) {
+        Gauge.builder("uploader.buffer.pool.in.use", pool, BufferPool::inUse)
+                .description("Buffers currently borrowed from the pool")
+                .tag("pool", name)
+                .register(registry);
+        Gauge.builder("uploader.buffer.pool.capacity", pool, BufferPool::capacity)
+                .description("Buffers the pool may hand out at once")
+                .tag("pool", name)
+                .register(registry);
+    }
+
+    private void cacheRequests(MeterRegistry registry, String result,
+                               ToDoubleFunction<ObjectCache> count) {
+        FunctionCounter.builder("uploader.cache.requests", objectCache, count)
+                .description("Downloads looked up in the read cache")
+                .tag("result", result)
+                .register(registry);
+    }
+}
@@ -0,0 +1,242 @@
+package com.myprojecticaro.poc_s3_file_uploader.metrics;
+
+import com.myprojecticaro.poc_s3_file_uploader.io.TimedInputStream;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import org.springframework.stereotype.Component;
+
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongConsumer;
+
+/**
+ * Micrometer meters for the file transfers, exported through Actuator at
+ * {@code /actuator/prometheus}.
+ * <p>
+ * Every {@link Operation} has a latency timer split by outcome, a timer per
+ * {@link Phase}, a byte counter, a throughput distribution in bytes per second and a
+ * gauge of the transfers in flight. The multipart part retries of uploads and parallel
+ * downloads are counted as well. Timers and the throughput distribution publish
+ * histogram buckets, so percentiles can be aggregated across instances.
+ * </p>
+ *
+ * <p>
+ * All meters are registered up front and kept in arrays indexed by the enum ordinals.
+ * Recording is a {@link System#nanoTime()} difference and an array lookup: no tags are
+ * resolved, no {@link Timer.Sample} or lambda is created, so the instrumentation does
+ * not allocate on the transfer path.
+ * </p>
+ *
+ * <table>
+ *   <caption>Meters</caption>
+ *   <tr><td>{@code uploader.transfer}</td><td>timer, tags {@code operation}, {@code outcome}</td></tr>
+ *   <tr><td>{@code uploader.transfer.phase}</td><td>timer, tags {@code operation}, {@code phase}</td></tr>
+ *   <tr><td>{@code uploader.transfer.bytes}</td><td>counter, tag {@code operation}</td></tr>
+ *   <tr><td>{@code uploader.transfer.throughput}</td><td>distribution in bytes/s, tag {@code operation}</td></tr>
+ *   <tr><td>{@code uploader.transfer.active}</td><td>gauge, tag {@code operation}</td></tr>
+ *   <tr><td>{@code uploader.part.retries}</td><td>counter, tag {@code direction}</td></tr>
+ * </table>
+ *
+ * @author Icaro
+ * @version 1.0
+ */
+@Component
+public class TransferMetrics {
+
+    /** The transfers that are measured, used as the {@code operation} tag. */
+    public enum Operation {
+        UPLOAD, LARGE_UPLOAD, ZIP, EXTRACT, LIST, DOWNLOAD, DELETE;
+
+        String tag() {
+            return name().toLowerCase(Locale.ROOT).replace('_', '-');
+        }
+    }
+
+    /**
+     * The parts of a transfer that are timed separately, used as the {@code phase} tag.
+     * <p>
+     * Phases of a streamed transfer overlap: the body is scanned while it is being
+     * received and sent, so phase times do not add up to the operation time.
+     * </p>
+     */
+    public enum Phase {
+        /** Waiting for the client to send the request body. */
+        RECEIVE,
+        /** Running the content through the signature scanner. */
+        SCAN,
+        /** Building a ZIP archive. */
+        COMPRESS,
+        /** Writing the content to the local write-behind spool. */
+        SPOOL,
+        /** Waiting for S3: a whole request, or what is left of a pipelined upload once the input ends. */
+        S3;
+
+        String tag() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    private static final int OPERATIONS = Operation.values().length;
+    private static final int PHASES = Phase.values().length;
+
+    private final Timer[] succeeded = new Timer[OPERATIONS];
+    private final Timer[] failed = new Timer[OPERATIONS];
+    private final Timer[][] phases = new Timer[OPERATIONS][PHASES];
+    private final LongConsumer[][] phaseRecorders = new LongConsumer[OPERATIONS][PHASES];
+    private final Counter[] bytes = new Counter[OPERATIONS];
+    private final DistributionSummary[] throughput = new DistributionSummary[OPERATIONS];
+    private final AtomicInteger[] active = new AtomicInteger[OPERATIONS];
+    private final Counter uploadPartRetries;
+    private final Counter downloadPartRetries;
+
+    public TransferMetrics(MeterRegistry registry) {
+        for (Operation operation : Operation.values()) {
+            int i = operation.ordinal();
+            succeeded[i] = operationTimer(registry, operation, "success");
+            failed[i] = operationTimer(registry, operation, "error");
+            for (Phase phase : Phase.values()) {
+                Timer timer = Timer.builder("uploader.transfer.phase")
+                        .description("Time spent in one phase of a file transfer")
+                        .tag("operation", operation.tag())
+                        .tag("phase", phase.tag())
+                        .publishPercentileHistogram()
+                        .minimumExpectedValue(Duration.ofMillis(1))
+                        .maximumExpectedValue(Duration.ofHours(1))
+                        .register(registry);
+                phases[i][phase.ordinal()] = timer;
+                phaseRecorders[i][phase.ordinal()] = nanos -> timer.record(nanos, TimeUnit.NANOSECONDS);
+            }
+            bytes[i] = Counter.builder("uploader.transfer.bytes")
+                    .description("Bytes transferred")
+                    .baseUnit("bytes")
+                    .tag("operation", operation.tag())
+                    .register(registry);
+            throughput[i] = DistributionSummary.builder("uploader.transfer.throughput")
+                    .description("Throughput of completed transfers")
+                    .baseUnit("bytes.per.second")
+                    .tag("operation", operation.tag())
+                    .publishPercentileHistogram()
+                    .minimumExpectedValue(1024.0)
+                    .maximumExpectedValue(16.0 * 1024 * 1024 * 1024)
+                    .register(registry);
+            active[i] = new AtomicInteger();
+            Gauge.builder("uploader.transfer.active", active[i], AtomicInteger::get)
+                    .description("Transfers in flight")
+                    .tag("operation", operation.tag())
+                    .register(registry);
+        }
+        uploadPartRetries = partRetries(registry, "upload");
+        downloadPartRetries = partRetries(registry, "download");
+    }
+
+    /**
+     * Meters that record into nothing, for code that runs without a registry.
+     *
+     * @return a {@code TransferMetrics} whose meters are no-ops
+     */
+    public static TransferMetrics disabled() {
+        return new TransferMetrics(new CompositeMeterRegistry());
+    }
+
+    /**
+     * Marks the start of a transfer.
+     *
+     * @param operation the kind of transfer
+     * @return the start time, to hand to {@link #completed(Operation, long, long, Throwable)}
+     */
+    public long started(Operation operation) {
+        active[operation.ordinal()].incrementAndGet();
+        return System.nanoTime();
+    }
+
+    /**
+     * Records the end of a transfer started with {@link #started(Operation)}.
+     *
+     * @param operation the kind of transfer
+     * @param started   the value returned by {@link #started(Operation)}
+     * @param byteCount the bytes transferred, or 0 if not applicable
+     * @param error     the failure, or {@code null} if the transfer succeeded
+     */
+    public void completed(Operation operation, long started, long byteCount, Throwable error) {
+        long elapsed = System.nanoTime() - started;
+        int i = operation.ordinal();
+        active[i].decrementAndGet();
+        (error == null ? succeeded[i] : failed[i]).record(elapsed, TimeUnit.NANOSECONDS);
+        if (byteCount > 0) {
+            bytes[i].increment(byteCount);
+            if (error == null && elapsed > 0) {
+                throughput[i].record(byteCount * 1e9 / elapsed);
+            }
+        }
+    }
+
+    /**
+     * Records the time spent in one phase of a transfer.
+     *
+     * @param operation the kind of transfer
+     * @param phase     the phase
+     * @param nanos     the time spent, in nanoseconds
+     */
+    public void record(Operation operation, Phase phase, long nanos) {
+        phases[operation.ordinal()][phase.ordinal()].record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns a shared listener that records into a phase timer, for streams that report
+     * their time when they end.
+     *
+     * @param operation the kind of transfer
+     * @param phase     the phase
+     * @return a listener taking nanoseconds
+     */
+    public LongConsumer recorder(Operation operation, Phase phase) {
+        return phaseRecorders[operation.ordinal()][phase.ordinal()];
+    }
+
+    /**
+     * Wraps a request body so the time spent waiting for the client is recorded as the
+     * {@link Phase#RECEIVE} phase when the body ends or is closed.
+     *
+     * @param body      the request body
+     * @param operation the kind of transfer
+     * @return the measured body, which also counts the bytes read
+     */
+    public TimedInputStream receiving(InputStream body, Operation operation) {
+        return new TimedInputStream(body, recorder(operation, Phase.RECEIVE));
+    }
+
+    /** Counts a multipart upload part that is sent again after a failure. */
+    public void uploadPartRetried() {
+        uploadPartRetries.increment();
+    }
+
+    /** Counts a parallel download part that is fetched again after a failure. */
+    public void downloadPartRetried() {
+        downloadPartRetries.increment();
+    }
+
+    private static Timer operationTimer(MeterRegistry registry, Operation operation, String outcome) {
+        return Timer.builder("uploader.transfer")
+                .description("Duration of file transfers")
+                .tag("operation", operation.tag())
+                .tag("outcome", outcome)
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofMillis(1))
+                .maximumExpectedValue(Duration.ofHours(1))
+                .register(registry);
+    }
+
+    private static Counter partRetries(MeterRegistry registry, String direction) {
+        return Counter.builder("uploader.part.retries")
+                .description("Multipart parts retried after a failed request")
+                .tag("direction", direction)
+                .register(registry);
+    }
+}
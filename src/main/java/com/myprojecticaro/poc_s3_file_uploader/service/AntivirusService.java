@@ -0,0 +1,194 @@
+package com.myprojecticaro.poc_s3_file_uploader.service;
+
+import com.myprojecticaro.poc_s3_file_uploader.io.ExecutableFormats;
+import com.myprojecticaro.poc_s3_file_uploader.io.MalwareDetectedException;
+import com.myprojecticaro.poc_s3_file_uploader.io.ScanningInputStream;
+import com.myprojecticaro.poc_s3_file_uploader.io.SignatureScanner;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.function.LongConsumer;
+
+/**
+ * Antivirus service used to reject malware before it is uploaded to S3.
+ * In real-world scenarios, this would call a virus scanning engine such as ClamAV, Sophos, or a Lambda function.
+ * <p>
+ * Besides the file name rules of {@link #scanFile(MultipartFile)}, the content itself is
+ * scanned while it streams to S3: {@link #scanning(InputStream, String)} wraps the upload
+ * stream in a {@link ScanningInputStream} that runs every byte through a multi-pattern
+ * {@link SignatureScanner} and rejects content starting with an executable header,
+ * whatever its extension. A match fails the read in progress, so the upload is aborted
+ * at that point and the file is never read twice.
+ * </p>
+ *
+ * <p><strong>Configuration:</strong>
+ * <pre>
+ * app:
+ *   antivirus:
+ *     content-scan: true
+ *     block-executables: true
+ *     signatures: classpath:antivirus/signatures.txt   # or file:/etc/uploader/signatures.txt
+ * </pre>
+ * </p>
+ */
+@Service
+public class AntivirusService {
+
+    private static final Logger logger = LoggerFactory.getLogger(AntivirusService.class);
+
+    private static final String DEFAULT_SIGNATURES = "antivirus/signatures.txt";
+
+    private final boolean contentScan;
+    private final boolean blockExecutables;
+    private final SignatureScanner scanner;
+
+    /** Scans content with the bundled signature set. */
+    public AntivirusService() {
+        this(true, true, new ClassPathResource(DEFAULT_SIGNATURES));
+    }
+
+    @Autowired
+    public AntivirusService(@Value("${app.antivirus.content-scan:true}") boolean contentScan,
+                            @Value("${app.antivirus.block-executables:true}") boolean blockExecutables,
+                            @Value("${app.antivirus.signatures:classpath:" + DEFAULT_SIGNATURES + "}") Resource signatures) {
+        this.contentScan = contentScan;
+        this.blockExecutables = blockExecutables;
+        try (InputStream in = signatures.getInputStream()) {
+            this.scanner = SignatureScanner.load(in);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot load antivirus signatures from " + signatures, e);
+        }
+        logger.info("Loaded {} antivirus signatures ({} automaton states) from {}",
+                scanner.size(), scanner.states(), signatures);
+    }
+
+    /**
+     * Simulates an antivirus scan by checking for forbidden patterns in file names.
+     * This is a mock implementation used only for demonstration.
+     *
+     * @param file the file to scan
+     * @throws RuntimeException if the file is considered malicious
+     */
+    public void scanFile(MultipartFile file) {
+        scanFilename(file.getOriginalFilename());
+
+        // Mock rule: If size is 0, treat as invalid
+        if (file.isEmpty()) {
+            throw new RuntimeException("Empty files are not allowed.");
+        }
+    }
+
+    /**
+     * Applies the file name rules of {@link #scanFile(MultipartFile)}, for uploads whose
+     * content is not available yet.
+     *
+     * @param filename the name of the file
+     * @throws RuntimeException if the name is considered malicious
+     */
+    public void scanFilename(String filename) {
+        // Mock rule: Block files containing the word "virus"
+        if (filename != null && filename.toLowerCase().contains("virus")) {
+            throw new RuntimeException("Malicious file detected: " + filename);
+        }
+
+        // Mock rule: Block .exe files as suspicious
+        if (filename != null && filename.endsWith(".exe")) {
+            throw new RuntimeException("Executable files are not allowed: " + filename);
+        }
+    }
+
+    /** @return {@code true} if upload content is scanned, not only file names */
+    public boolean isContentScanEnabled() {
+        return contentScan;
+    }
+
+    /**
+     * Wraps an upload stream so its content is scanned as it is read.
+     *
+     * @param in       the content on its way to S3
+     * @param filename the file name, reported when content is rejected
+     * @return a stream that throws {@link MalwareDetectedException} on a match,
+     *         or {@code in} itself if content scanning is disabled
+     */
+    public InputStream scanning(InputStream in, String filename) {
+        return scanning(in, filename, 0, null);
+    }
+
+    /**
+     * Wraps an upload stream so its content is scanned as it is read, reporting the time
+     * spent scanning once the stream ends or is closed.
+     *
+     * @param in        the content on its way to S3
+     * @param filename  the file name, reported when content is rejected
+     * @param scanNanos receives the scan time in nanoseconds; not called if content scanning is disabled
+     * @return a stream that throws {@link MalwareDetectedException} on a match,
+     *         or {@code in} itself if content scanning is disabled
+     */
+    public InputStream scanning(InputStream in, String filename, LongConsumer scanNanos) {
+        return scanning(in, filename, 0, scanNanos);
+    }
+
+    /**
+     * Wraps a piece of an upload stream that starts at {@code offset} in the file, e.g.
+     * one part of a resumable upload. The executable header check only applies to the
+     * piece at offset 0, and a signature spanning two pieces is not detected.
+     *
+     * @param in       the piece of content on its way to S3
+     * @param filename the file name, reported when content is rejected
+     * @param offset   where the piece starts in the file
+     * @return a stream that throws {@link MalwareDetectedException} on a match,
+     *         or {@code in} itself if content scanning is disabled
+     */
+    public InputStream scanning(InputStream in, String filename, long offset) {
+        return scanning(in, filename, offset, null);
+    }
+
+    /**
+     * Wraps a piece of an upload stream that starts at {@code offset} in the file,
+     * reporting the time spent scanning it once it ends or is closed.
+     *
+     * @param in        the piece of content on its way to S3
+     * @param filename  the file name, reported when content is rejected
+     * @param offset    where the piece starts in the file
+     * @param scanNanos receives the scan time in nanoseconds; may be {@code null}
+     * @return a stream that throws {@link MalwareDetectedException} on a match,
+     *         or {@code in} itself if content scanning is disabled
+     */
+    public InputStream scanning(InputStream in, String filename, long offset, LongConsumer scanNanos) {
+        return contentScan
+                ? new ScanningInputStream(in, filename, scanner, blockExecutables && offset == 0, scanNanos)
+                : in;
+    }
+
+    /**
+     * Scans content that is already in memory.
+     *
+     * @param content  the whole content
+     * @param filename the file name, reported when content is rejected
+     * @throws MalwareDetectedException if the content matches a signature or is an executable
+     */
+    public void scanContent(byte[] content, String filename) throws MalwareDetectedException {
+        if (!contentScan) {
+            return;
+        }
+        String format = blockExecutables
+                ? ExecutableFormats.detect(content, Math.min(content.length, ExecutableFormats.HEADER_LENGTH))
+                : null;
+        if (format != null) {
+            throw new MalwareDetectedException(filename, "executable content: " + format);
+        }
+        String match = scanner.newScan().update(content, 0, content.length);
+        if (match != null) {
+            throw new MalwareDetectedException(filename, match);
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package com.myprojecticaro.poc_s3_file_uploader.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Service;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.Delete;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsResponse;
+import software.amazon.awssdk.services.s3.model.ObjectIdentifier;
+import software.amazon.awssdk.services.s3.model.S3Error;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deletes many keys with {@code DeleteObjects}, several batches at a time.
+ * <p>
+ * Keys are grouped into batches of up to {@code batch-size} (S3 accepts at most
+ * 1000 per request), so deleting 100k keys takes 100 requests instead of 100k. Up
+ * to {@code max-concurrent-batches} requests run at once on the transfer executor
+ * while the caller keeps reading keys. The keys come from an iterator, so a listing
+ * can feed this service page by page and the next page is fetched while the previous
+ * batches are being deleted.
+ * </p>
+ *
+ * <p>
+ * Batches are started no faster than {@code keys-per-second} allows, keeping a large
+ * cleanup below the request rate S3 sustains for one prefix and leaving room for the
+ * rest of the traffic. Results are handed back one batch at a time on the calling
+ * thread, in completion order. Keys that did not exist count as deleted, as in S3.
+ * </p>
+ *
+ * <p><strong>Configuration:</strong>
+ * <pre>
+ * aws:
+ *   s3:
+ *     delete:
+ *       batch-size: 1000
+ *       max-concurrent-batches: 4
+ *       keys-per-second: 3000     # 0 disables the rate limit
+ * </pre>
+ * </p>
+ *
+ * @author Icaro
+ * @version 1.0
+ */
+@Service
+public class BatchDeleteService {
+
+    private static final Logger logger = LoggerFactory.getLogger(BatchDeleteService.class);
+
+    /** Most keys a single DeleteObjects request accepts. */
+    static final int MAX_BATCH_SIZE = 1000;
+
+    private final S3Client s3Client;
+    private final ExecutorService transferExecutor;
+    private final ApplicationEventPublisher eventPublisher;
+
+    @Value("${aws.s3.delete.batch-size:1000}")
+    private int batchSize = MAX_BATCH_SIZE;
+
+    @Value("${aws.s3.delete.max-concurrent-batches:4}")
+    private int maxConcurrentBatches = 4;
+
+    @Value("${aws.s3.delete.keys-per-second:3000}")
+    private int keysPerSecond = 3000;
+
+    /** When the rate limit lets the next batch start, in {@link System#nanoTime()} units. */
+    private long nextBatchAt = System.nanoTime();
+
+    public BatchDeleteService(S3Client s3Client,
+                              @Qualifier("s3TransferExecutor") ExecutorService transferExecutor,
+                              ApplicationEventPublisher eventPublisher) {
+        this.s3Client = s3Client;
+        this.transferExecutor = transferExecutor;
+        this.eventPublisher = eventPublisher;
+    }
+
+    /**
+     * Deletes every key the iterator returns.
+     *
+     * @param bucket  the bucket name
+     * @param keys    the keys to delete; read lazily, on the calling thread
+     * @param handler receives the result of each batch as soon as it completes
+     * @return how many keys were deleted and how many failed
+     * @throws IOException if the handler fails or the thread is interrupted
+     */
+    public DeleteSummary delete(String bucket, Iterator<String> keys, DeleteResultHandler handler) throws IOException {
+        int size = Math.max(1, Math.min(batchSize, MAX_BATCH_SIZE));
+        CompletionService<List<DeleteResult>> batches = new ExecutorCompletionService<>(transferExecutor);
+        List<Future<List<DeleteResult>>> running = new ArrayList<>();
+        long[] counts = new long[2];
+        try {
+            List<String> batch = new ArrayList<>(size);
+            while (keys.hasNext()) {
+                batch.add(keys.next());
+                if (batch.size() == size || !keys.hasNext()) {
+                    if (running.size() >= maxConcurrentBatches) {
+                        complete(batches.take(), running, handler, counts);
+                    }
+                    throttle(batch.size());
+                    List<String> submitted = batch;
+                    running.add(batches.submit(() -> deleteBatch(bucket, submitted)));
+                    batch = new ArrayList<>(size);
+                }
+            }
+            while (!running.isEmpty()) {
+                complete(batches.take(), running, handler, counts);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while deleting objects");
+        } finally {
+            running.forEach(future -> future.cancel(true));
+        }
+        return new DeleteSummary(counts[0], counts[1]);
+    }
+
+    /** Receives the results of {@link #delete(String, Iterator, DeleteResultHandler)} one batch at a time. */
+    @FunctionalInterface
+    public interface DeleteResultHandler {
+
+        /**
+         * @param results the outcome of every key of a batch
+         * @throws IOException if the results cannot be written out
+         */
+        void accept(List<DeleteResult> results) throws IOException;
+    }
+
+    /**
+     * Outcome of a bulk delete.
+     *
+     * @param deleted keys deleted, including keys that did not exist
+     * @param failed  keys S3 refused to delete
+     */
+    public record DeleteSummary(long deleted, long failed) {
+    }
+
+    private void complete(Future<List<DeleteResult>> done, List<Future<List<DeleteResult>>> running,
+                          DeleteResultHandler handler, long[] counts) throws IOException, InterruptedException {
+        running.remove(done);
+        List<DeleteResult> results;
+        try {
+            results = done.get();
+        } catch (ExecutionException e) {
+            // deleteBatch reports S3 failures as results, so anything else is a bug.
+            throw e.getCause() instanceof RuntimeException cause ? cause : new IllegalStateException(e.getCause());
+        }
+        for (DeleteResult result : results) {
+            counts[result.deleted() ? 0 : 1]++;
+        }
+        handler.accept(results);
+    }
+
+    private List<DeleteResult> deleteBatch(String bucket, List<String> keys) {
+        List<ObjectIdentifier> identifiers = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            identifiers.add(ObjectIdentifier.builder().key(key).build());
+        }
+        DeleteObjectsRequest request = DeleteObjectsRequest.builder()
+                .bucket(bucket)
+                .delete(Delete.builder().objects(identifiers).quiet(true).build())
+                .build();
+
+        List<DeleteResult> results = new ArrayList<>(keys.size());
+        DeleteObjectsResponse response;
+        try {
+            response = s3Client.deleteObjects(request);
+        } catch (SdkException e) {
+            logger.warn("DeleteObjects failed for a batch of {} keys starting at {}", keys.size(), keys.get(0), e);
+            String code = e instanceof S3Exception s3 && s3.awsErrorDetails() != null
+                    ? s3.awsErrorDetails().errorCode()
+                    : e.getClass().getSimpleName();
+            for (String key : keys) {
+                results.add(DeleteResult.failed(key, code, e.getMessage()));
+            }
+            return results;
+        }
+
+        // In quiet mode S3 only reports the keys it could not delete.
+        Map<String, S3Error> errors = new HashMap<>();
+        for (S3Error error : response.errors()) {
+            errors.put(error.key(), error);
+        }
+        for (String key : keys) {
+            S3Error error = errors.get(key);
+            if (error != null) {
+                results.add(DeleteResult.failed(key, error.code(), error.message()));
+            } else {
+                results.add(DeleteResult.deleted(key));
+                eventPublisher.publishEvent(ObjectChangedEvent.deleted(key));
+            }
+        }
+        return results;
+    }
+
+    /** Waits until the rate limit allows {@code keys} more deletes. */
+    private void throttle(int keys) throws InterruptedException {
+        if (keysPerSecond <= 0) {
+            return;
+        }
+        long wait;
+        synchronized (this) {
+            long now = System.nanoTime();
+            long start = Math.max(now, nextBatchAt);
+            nextBatchAt = start + TimeUnit.SECONDS.toNanos(keys) / keysPerSecond;
+            wait = start - now;
+        }
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package com.myprojecticaro.poc_s3_file_uploader.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.myprojecticaro.poc_s3_file_uploader.io.BufferPool;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers which object holds each piece of content, by SHA-256, so identical
+ * uploads can reuse it.
+ * <p>
+ * Every file uploaded in content-addressed mode is hashed before it is sent, and the
+ * digest is recorded here against the key it was stored under. When the same bytes
+ * are uploaded again, {@link S3Service} finds the existing key and creates the new
+ * one with a server-side {@code CopyObject}, or simply returns the existing object,
+ * instead of transferring the content a second time. The digest is also sent with
+ * the {@code PutObject} as {@code x-amz-checksum-sha256}, so S3 verifies the upload
+ * against it, and stored as the {@value #DIGEST_METADATA} user metadata.
+ * </p>
+ *
+ * <p>
+ * The index is held in memory and bounded to {@code max-entries} digests, the least
+ * recently used being dropped first. Deletes and overwrites made through
+ * {@link S3Service} remove the affected entries; an object removed behind the
+ * application's back is detected when the copy fails, and the file is then uploaded
+ * normally.
+ * </p>
+ *
+ * <p><strong>Configuration:</strong>
+ * <pre>
+ * aws:
+ *   s3:
+ *     upload:
+ *       dedup:
+ *         enabled: false
+ *         mode: copy            # copy: new key via CopyObject; reference: return the existing object's URL
+ *         max-entries: 1000000
+ * </pre>
+ * </p>
+ *
+ * @author Icaro
+ * @version 1.0
+ */
+@Component
+public class ContentHashIndex {
+
+    /** User metadata holding the hex SHA-256 of the object content. */
+    public static final String DIGEST_METADATA = "content-sha256";
+
+    /** How an upload of known content is stored. */
+    public enum Mode {
+        /** The new key is created with a server-side copy of the existing object. */
+        COPY,
+        /** No new object is created; the upload returns the existing object. */
+        REFERENCE
+    }
+
+    /**
+     * An object whose content has been seen.
+     *
+     * @param key      the object key
+     * @param eTag     the ETag of the object when it was recorded
+     * @param size     the content length
+     * @param encoding how the object is compressed, or {@code null} if it is stored as uploaded
+     */
+    public record StoredContent(String key, String eTag, long size, StoredEncoding encoding) {
+    }
+
+    private static final HexFormat HEX = HexFormat.of();
+
+    private final boolean enabled;
+    private final Mode mode;
+    private final BufferPool uploadBufferPool;
+    private final Cache<String, StoredContent> byDigest;
+    /** Reverse mapping, so a change to a key can find its digest. */
+    private final Map<String, String> digestByKey = new ConcurrentHashMap<>();
+
+    public ContentHashIndex(@Value("${aws.s3.upload.dedup.enabled:false}") boolean enabled,
+                            @Value("${aws.s3.upload.dedup.mode:copy}") Mode mode,
+                            @Value("${aws.s3.upload.dedup.max-entries:1000000}") long maxEntries,
+                            @Qualifier("uploadBufferPool") BufferPool uploadBufferPool) {
+        this.enabled = enabled;
+        this.mode = mode;
+        this.uploadBufferPool = uploadBufferPool;
+        this.byDigest = Caffeine.newBuilder()
+                .maximumSize(maxEntries)
+                .executor(Runnable::run)
+                .<String, StoredContent>removalListener((digest, content, cause) -> {
+                    if (content != null) {
+                        digestByKey.remove(content.key(), digest);
+                    }
+                })
+                .build();
+    }
+
+    /** @return {@code true} if uploads are deduplicated */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public Mode mode() {
+        return mode;
+    }
+
+    /**
+     * Computes the SHA-256 of a multipart part.
+     * <p>
+     * The part has already been received by the servlet container, so this is a local
+     * read through a pooled buffer, much cheaper than sending the bytes to S3 again.
+     * </p>
+     *
+     * @param file the part to hash
+     * @return the raw 32-byte digest
+     * @throws IOException if the part cannot be read
+     */
+    public byte[] digest(MultipartFile file) throws IOException {
+        MessageDigest sha256 = newDigest();
+        byte[] buffer = uploadBufferPool.acquire();
+        try (InputStream in = file.getInputStream()) {
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                sha256.update(buffer, 0, n);
+            }
+        } finally {
+            uploadBufferPool.release(buffer);
+        }
+        return sha256.digest();
+    }
+
+    /**
+     * @param digest a digest returned by {@link #digest(MultipartFile)}
+     * @param size   the content length, checked against the recorded one
+     * @return the object known to hold this content, or {@code null}
+     */
+    public StoredContent find(byte[] digest, long size) {
+        StoredContent content = byDigest.getIfPresent(HEX.formatHex(digest));
+        return content != null && content.size() == size ? content : null;
+    }
+
+    /** Records that {@code key} now holds the content with this digest, stored as uploaded. */
+    public void record(byte[] digest, String key, String eTag, long size) {
+        record(digest, key, eTag, size, null);
+    }
+
+    /** Records that {@code key} now holds the content with this digest, compressed as {@code encoding}. */
+    public void record(byte[] digest, String key, String eTag, long size, StoredEncoding encoding) {
+        String hex = HEX.formatHex(digest);
+        byDigest.put(hex, new StoredContent(key, eTag, size, encoding));
+        digestByKey.put(key, hex);
+    }
+
+    /** Drops an entry found to be stale, e.g. because its object no longer exists. */
+    public void forget(byte[] digest) {
+        byDigest.invalidate(HEX.formatHex(digest));
+    }
+
+    /** @return the hex form stored as {@link #DIGEST_METADATA} */
+    public static String hex(byte[] digest) {
+        return HEX.formatHex(digest);
+    }
+
+    /** @return the base64 form S3 expects in {@code x-amz-checksum-sha256} */
+    public static String base64(byte[] digest) {
+        return Base64.getEncoder().encodeToString(digest);
+    }
+
+    /**
+     * Drops the entry of an object that was deleted or overwritten with other content.
+     *
+     * @param event the change
+     */
+    @EventListener
+    public void onObjectChanged(ObjectChangedEvent event) {
+        String digest = digestByKey.get(event.key());
+        if (digest == null) {
+            return;
+        }
+        StoredContent content = byDigest.getIfPresent(digest);
+        if (content != null && content.key().equals(event.key())
+                && (event.isDeletion() || !Objects.equals(content.eTag(), event.metadata().eTag()))) {
+            byDigest.asMap().remove(digest, content);
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
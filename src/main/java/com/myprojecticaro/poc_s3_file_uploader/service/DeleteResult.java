@@ -0,0 +1,23 @@
+package com.myprojecticaro.poc_s3_file_uploader.service;
+
+/**
+ * Outcome of deleting a single key in a bulk delete.
+ *
+ * @param key       the object key
+ * @param deleted   {@code true} if the key is gone, including when it did not exist
+ * @param errorCode the S3 error code when the key could not be deleted, e.g. {@code AccessDenied}
+ * @param message   the S3 error message when the key could not be deleted
+ *
+ * @author Icaro
+ * @version 1.0
+ */
+public record DeleteResult(String key, boolean deleted, String errorCode, String message) {
+
+    public static DeleteResult deleted(String key) {
+        return new DeleteResult(key, true, null, null);
+    }
+
+    public static DeleteResult failed(String key, String errorCode, String message) {
+        return new DeleteResult(key, false, errorCode, message);
+    }
+}
@@ -0,0 +1,25 @@
+package com.myprojecticaro.poc_s3_file_uploader.service;
+
+/**
+ * Outcome of extracting a single entry of an archive to S3.
+ *
+ * @param entry     the entry name in the archive
+ * @param key       the object key it was stored under, or {@code null} if the name is not usable as a key
+ * @param extracted {@code true} if the object was stored
+ * @param size      the size of the entry content in bytes
+ * @param url       the public URL of the object, if stored
+ * @param error     why the entry was not stored
+ *
+ * @author Icaro
+ * @version 1.0
+ */
+public record ExtractionResult(String entry, String key, boolean extracted, long size, String url, String error) {
+
+    public static ExtractionResult extracted(String entry, String key, long size, String url) {
+        return new ExtractionResult(entry, key, true, size, url, null);
+    }
+
+    public static ExtractionResult failed(String entry, String key, long size, String error) {
+        return new ExtractionResult(entry, key, false, size, null, error);
+    }
+}
@@ -0,0 +1,26 @@
+package com.myprojecticaro.poc_s3_file_uploader.service;
+
+import java.util.List;
+
+/**
+ * One page of a bucket listing.
+ * <p>
+ * To fetch the following page, pass {@code nextContinuationToken} back with the same
+ * prefix and delimiter. When a delimiter is given, keys that contain it after the
+ * prefix are rolled up into {@code commonPrefixes} (the "folders") instead of being
+ * listed in {@code files}.
+ * </p>
+ *
+ * @param files                 the objects on this page
+ * @param commonPrefixes        the rolled-up prefixes on this page
+ * @param nextContinuationToken the token of the next page, or {@code null} on the last page
+ * @param truncated             {@code true} if more pages follow
+ *
+ * @author Icaro
+ * @version 1.0
+ */
+public record FileListing(List<FileSummary> files,
+                          List<String> commonPrefixes,
+                          String nextContinuationToken,
+                          boolean truncated) {
+}
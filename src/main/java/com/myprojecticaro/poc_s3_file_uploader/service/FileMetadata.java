@@ -0,0 +1,19 @@
+package com.myprojecticaro.poc_s3_file_uploader.service;
+
+import java.time.Instant;
+
+/**
+ * What is known about a stored object without reading it, as returned by a "stat" lookup.
+ *
+ * @param key          the object key
+ * @param size         the size of the content in bytes, or {@code -1} if the object is stored
+ *                     compressed without a record of its original length
+ * @param eTag         the entity tag of the object
+ * @param lastModified when the object was last written
+ * @param contentType  the stored content type, or {@code null} if unknown
+ *
+ * @author Icaro
+ * @version 1.0
+ */
+public record FileMetadata(String key, long size, String eTag, Instant lastModified, String contentType) {
+}
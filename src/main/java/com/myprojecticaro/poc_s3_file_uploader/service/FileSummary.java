@@ -0,0 +1,17 @@
+package com.myprojecticaro.poc_s3_file_uploader.service;
+
+import java.time.Instant;
+
+/**
+ * A single object as returned by a bucket listing.
+ *
+ * @param key          the object key
+ * @param size         the object size in bytes, or {@code -1} if it is not known
+ * @param eTag         the entity tag of the object
+ * @param lastModified when the object was last written
+ *
+ * @author Icaro
+ * @version 1.0
+ */
+public record FileSummary(String key, long size, String eTag, Instant lastModified) {
+}
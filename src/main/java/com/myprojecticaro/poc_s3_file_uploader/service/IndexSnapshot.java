@@ -0,0 +1,355 @@
+package com.myprojecticaro.poc_s3_file_uploader.service;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable, memory-compact table of object metadata sorted by key.
+ * <p>
+ * Keys are stored as UTF-8 in S3 listing order and front-coded: each key only keeps
+ * the bytes that differ from its predecessor, with a full key every
+ * {@value #RESTART_INTERVAL} entries so a lookup is a binary search over those
+ * restart points followed by a short scan. The other attributes live in parallel
+ * primitive arrays; ETags are kept as their 16-byte MD5 digest and content types as
+ * an index into a small table. An entry costs roughly its key suffix plus 40 bytes,
+ * against several hundred for a map of objects, so millions of keys fit in a few
+ * hundred megabytes at most.
+ * </p>
+ *
+ * @author Icaro
+ * @version 1.0
+ */
+final class IndexSnapshot {
+
+    static final IndexSnapshot EMPTY = new Builder().build();
+
+    private static final int RESTART_INTERVAL = 16;
+    private static final int DIGEST_LENGTH = 16;
+    private static final int RAW_ETAG = -1;
+    private static final HexFormat HEX = HexFormat.of();
+
+    private final int size;
+    private final byte[] keyData;
+    private final int[] restarts;
+    private final long[] sizes;
+    private final long[] lastModified;
+    private final byte[] digests;
+    /** {@code parts << 1 | quoted} for MD5-style ETags, {@link #RAW_ETAG} for anything else. */
+    private final int[] eTagShapes;
+    private final Map<Integer, String> rawETags;
+    private final short[] contentTypes;
+    private final String[] contentTypeTable;
+
+    private IndexSnapshot(Builder builder) {
+        this.size = builder.size;
+        this.keyData = Arrays.copyOf(builder.keyData, builder.keyDataLength);
+        this.restarts = Arrays.copyOf(builder.restarts, (builder.size + RESTART_INTERVAL - 1) / RESTART_INTERVAL);
+        this.sizes = Arrays.copyOf(builder.sizes, builder.size);
+        this.lastModified = Arrays.copyOf(builder.lastModified, builder.size);
+        this.digests = Arrays.copyOf(builder.digests, builder.size * DIGEST_LENGTH);
+        this.eTagShapes = Arrays.copyOf(builder.eTagShapes, builder.size);
+        this.rawETags = new HashMap<>(builder.rawETags);
+        this.contentTypes = Arrays.copyOf(builder.contentTypes, builder.size);
+        this.contentTypeTable = builder.contentTypeTable.toArray(String[]::new);
+    }
+
+    /** @return the number of entries */
+    int size() {
+        return size;
+    }
+
+    /** @return approximate heap footprint of the table in bytes */
+    long footprint() {
+        return keyData.length + 4L * restarts.length + 8L * sizes.length + 8L * lastModified.length
+                + digests.length + 4L * eTagShapes.length + 2L * contentTypes.length + 64L * rawETags.size();
+    }
+
+    /**
+     * @param key the key to look for
+     * @return the position of the key, or {@code -(insertion point) - 1} if it is absent
+     */
+    int find(String key) {
+        byte[] target = key.getBytes(StandardCharsets.UTF_8);
+        int low = 0;
+        int high = restarts.length - 1;
+        int block = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (compareRestart(mid, target) <= 0) {
+                block = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        if (block < 0) {
+            return -1;
+        }
+        Cursor cursor = cursor(block * RESTART_INTERVAL);
+        int end = Math.min(size, (block + 1) * RESTART_INTERVAL);
+        while (cursor.position() < end) {
+            int position = cursor.position();
+            int comparison = cursor.next().compareKey(target);
+            if (comparison == 0) {
+                return position;
+            }
+            if (comparison > 0) {
+                return -position - 1;
+            }
+        }
+        return -end - 1;
+    }
+
+    /** @return the position of the first key greater than or equal to {@code key} */
+    int lowerBound(String key) {
+        int position = find(key);
+        return position >= 0 ? position : -position - 1;
+    }
+
+    /** @return a cursor positioned on the entry at {@code position} */
+    Cursor cursor(int position) {
+        return new Cursor(position);
+    }
+
+    FileMetadata metadata(int position, String key) {
+        return new FileMetadata(key, sizes[position], eTag(position), Instant.ofEpochMilli(lastModified[position]),
+                contentTypeTable[contentTypes[position]]);
+    }
+
+    private String eTag(int position) {
+        int shape = eTagShapes[position];
+        if (shape == RAW_ETAG) {
+            return rawETags.get(position);
+        }
+        String digest = HEX.formatHex(digests, position * DIGEST_LENGTH, (position + 1) * DIGEST_LENGTH);
+        int parts = shape >>> 1;
+        String value = parts > 0 ? digest + "-" + parts : digest;
+        return (shape & 1) != 0 ? "\"" + value + "\"" : value;
+    }
+
+    private int compareRestart(int block, byte[] target) {
+        int offset = restarts[block];
+        int[] header = new int[2];
+        offset = readVarInt(keyData, offset, header, 0);
+        offset = readVarInt(keyData, offset, header, 1);
+        return Arrays.compareUnsigned(keyData, offset, offset + header[1], target, 0, target.length);
+    }
+
+    private static int readVarInt(byte[] data, int offset, int[] into, int slot) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = data[offset++];
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        into[slot] = value;
+        return offset;
+    }
+
+    /**
+     * Walks the table in key order, rebuilding each front-coded key in a reusable buffer.
+     */
+    final class Cursor {
+
+        private final int[] header = new int[2];
+        private byte[] key = new byte[64];
+        private int keyLength;
+        private int next;
+        private int offset;
+
+        private Cursor(int start) {
+            if (start >= size) {
+                next = size;
+                return;
+            }
+            int block = start / RESTART_INTERVAL;
+            next = block * RESTART_INTERVAL;
+            offset = restarts[block];
+            while (next < start) {
+                next();
+            }
+        }
+
+        /** @return the position of the entry the next call to {@link #next()} decodes */
+        int position() {
+            return next;
+        }
+
+        boolean hasNext() {
+            return next < size;
+        }
+
+        /** Decodes the next entry; its key is then available through {@link #key()}. */
+        Cursor next() {
+            offset = readVarInt(keyData, offset, header, 0);
+            offset = readVarInt(keyData, offset, header, 1);
+            int shared = header[0];
+            int suffix = header[1];
+            if (shared + suffix > key.length) {
+                key = Arrays.copyOf(key, Math.max(key.length * 2, shared + suffix));
+            }
+            System.arraycopy(keyData, offset, key, shared, suffix);
+            offset += suffix;
+            keyLength = shared + suffix;
+            next++;
+            return this;
+        }
+
+        String key() {
+            return new String(key, 0, keyLength, StandardCharsets.UTF_8);
+        }
+
+        int compareKey(byte[] other) {
+            return Arrays.compareUnsigned(key, 0, keyLength, other, 0, other.length);
+        }
+
+        /** @return the metadata of the entry just decoded */
+        FileMetadata metadata() {
+            return IndexSnapshot.this.metadata(next - 1, key());
+        }
+    }
+
+    /** Accumulates entries, which must be added in ascending key order. */
+    static final class Builder {
+
+        private int size;
+        private byte[] keyData = new byte[1024];
+        private int keyDataLength;
+        private int[] restarts = new int[16];
+        private long[] sizes = new long[256];
+        private long[] lastModified = new long[256];
+        private byte[] digests = new byte[256 * DIGEST_LENGTH];
+        private int[] eTagShapes = new int[256];
+        private short[] contentTypes = new short[256];
+        private final Map<Integer, String> rawETags = new HashMap<>();
+        /** Slot 0 stands for an unknown content type. */
+        private final List<String> contentTypeTable = new ArrayList<>(Collections.singletonList(null));
+        private final Map<String, Short> contentTypeIds = new HashMap<>();
+        private byte[] previousKey;
+
+        /**
+         * @throws IllegalArgumentException if {@code metadata.key()} does not sort after the previous key
+         */
+        Builder add(FileMetadata metadata) {
+            byte[] key = metadata.key().getBytes(StandardCharsets.UTF_8);
+            if (previousKey != null && Arrays.compareUnsigned(previousKey, key) >= 0) {
+                throw new IllegalArgumentException("Keys must be added in ascending order: " + metadata.key());
+            }
+            ensureCapacity();
+
+            int shared = 0;
+            if (size % RESTART_INTERVAL == 0) {
+                restarts[size / RESTART_INTERVAL] = keyDataLength;
+            } else {
+                shared = Arrays.mismatch(previousKey, key);
+            }
+            writeVarInt(shared);
+            writeVarInt(key.length - shared);
+            ensureKeyData(key.length - shared);
+            System.arraycopy(key, shared, keyData, keyDataLength, key.length - shared);
+            keyDataLength += key.length - shared;
+            previousKey = key;
+
+            sizes[size] = metadata.size();
+            lastModified[size] = metadata.lastModified() != null ? metadata.lastModified().toEpochMilli() : 0L;
+            eTagShapes[size] = encodeETag(metadata.eTag(), size);
+            contentTypes[size] = contentTypeId(metadata.contentType());
+            size++;
+            return this;
+        }
+
+        IndexSnapshot build() {
+            return new IndexSnapshot(this);
+        }
+
+        private int encodeETag(String eTag, int position) {
+            if (eTag == null) {
+                rawETags.put(position, null);
+                return RAW_ETAG;
+            }
+            boolean quoted = eTag.length() >= 2 && eTag.startsWith("\"") && eTag.endsWith("\"");
+            String value = quoted ? eTag.substring(1, eTag.length() - 1) : eTag;
+            int parts = 0;
+            int dash = value.indexOf('-');
+            if (dash == 2 * DIGEST_LENGTH) {
+                try {
+                    parts = Integer.parseInt(value.substring(dash + 1));
+                } catch (NumberFormatException e) {
+                    parts = -1;
+                }
+                value = value.substring(0, dash);
+            }
+            if (parts < 0 || parts > (Integer.MAX_VALUE >> 1) || value.length() != 2 * DIGEST_LENGTH
+                    || (dash >= 0 && parts == 0) || !isHex(value)) {
+                rawETags.put(position, eTag);
+                return RAW_ETAG;
+            }
+            System.arraycopy(HEX.parseHex(value), 0, digests, position * DIGEST_LENGTH, DIGEST_LENGTH);
+            return parts << 1 | (quoted ? 1 : 0);
+        }
+
+        private static boolean isHex(String value) {
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (!((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f'))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private short contentTypeId(String contentType) {
+            if (contentType == null) {
+                return 0;
+            }
+            Short id = contentTypeIds.get(contentType);
+            if (id == null) {
+                if (contentTypeTable.size() > Short.MAX_VALUE) {
+                    return 0;
+                }
+                id = (short) contentTypeTable.size();
+                contentTypeTable.add(contentType);
+                contentTypeIds.put(contentType, id);
+            }
+            return id;
+        }
+
+        private void writeVarInt(int value) {
+            ensureKeyData(5);
+            while ((value & ~0x7F) != 0) {
+                keyData[keyDataLength++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            keyData[keyDataLength++] = (byte) value;
+        }
+
+        private void ensureKeyData(int extra) {
+            if (keyDataLength + extra > keyData.length) {
+                keyData = Arrays.copyOf(keyData, Math.max(keyData.length * 2, keyDataLength + extra));
+            }
+        }
+
+        private void ensureCapacity() {
+            if (size == sizes.length) {
+                int capacity = sizes.length * 2;
+                sizes = Arrays.copyOf(sizes, capacity);
+                lastModified = Arrays.copyOf(lastModified, capacity);
+                digests = Arrays.copyOf(digests, capacity * DIGEST_LENGTH);
+                eTagShapes = Arrays.copyOf(eTagShapes, capacity);
+                contentTypes = Arrays.copyOf(contentTypes, capacity);
+            }
+            if (size / RESTART_INTERVAL == restarts.length) {
+                restarts = Arrays.copyOf(restarts, restarts.length * 2);
+            }
+        }
+    }
+}
@@ -0,0 +1,388 @@
+package com.myprojecticaro.poc_s3_file_uploader.service;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process index of the keys in the bucket with their size, ETag, last-modified
+ * date and content type, so listings and "stat" lookups are answered from memory
+ * instead of a round trip to S3.
+ * <p>
+ * The bulk of the index is an immutable {@link IndexSnapshot} of sorted, front-coded
+ * primitive arrays, rebuilt in the background from a full listing every
+ * {@code refresh-interval}. Writes and deletes made through {@link S3Service} arrive
+ * as {@link ObjectChangedEvent}s and go into a small sorted overlay that shadows the
+ * snapshot; once the overlay grows past {@code compaction-threshold} entries it is
+ * merged into a new snapshot. Readers never lock: they see the overlay and the
+ * current snapshot, both of which are safe to read concurrently.
+ * </p>
+ *
+ * <p>
+ * Changes made to the bucket by other writers show up at the next rebuild. Until the
+ * first rebuild completes the index reports {@link #isReady()} {@code false} and
+ * callers go to S3 directly.
+ * </p>
+ *
+ * <p><strong>Configuration:</strong>
+ * <pre>
+ * app:
+ *   index:
+ *     enabled: true
+ *     refresh-interval: 15m
+ *     compaction-threshold: 65536
+ * </pre>
+ * </p>
+ *
+ * @author Icaro
+ * @version 1.0
+ */
+@Component
+public class MetadataIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(MetadataIndex.class);
+
+    /** S3 lists keys in UTF-8 byte order, which is code point order rather than {@link String#compareTo}. */
+    static final Comparator<String> KEY_ORDER = MetadataIndex::compareCodePoints;
+
+    private static final String HIGHEST_CODE_POINT = Character.toString(Character.MAX_CODE_POINT);
+
+    private final S3Client s3Client;
+    private final ScheduledExecutorService maintenance;
+    private final ConcurrentNavigableMap<String, Change> overlay = new ConcurrentSkipListMap<>(KEY_ORDER);
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicBoolean compactionPending = new AtomicBoolean();
+    private volatile IndexSnapshot snapshot;
+
+    @Value("${aws.s3.bucket-name}")
+    private String bucketName;
+
+    @Value("${app.index.enabled:true}")
+    private boolean enabled = true;
+
+    @Value("${app.index.refresh-interval:15m}")
+    private Duration refreshInterval = Duration.ofMinutes(15);
+
+    @Value("${app.index.compaction-threshold:65536}")
+    private int compactionThreshold = 65536;
+
+    public MetadataIndex(S3Client s3Client) {
+        this.s3Client = s3Client;
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("metadata-index-");
+        threadFactory.setDaemon(true);
+        this.maintenance = Executors.newSingleThreadScheduledExecutor(threadFactory);
+    }
+
+    /** Starts the periodic rebuild once the application is up. */
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (enabled) {
+            maintenance.scheduleWithFixedDelay(this::refresh, 0, refreshInterval.toMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        maintenance.shutdownNow();
+    }
+
+    /** @return {@code true} once a full listing has been loaded */
+    public boolean isReady() {
+        return snapshot != null;
+    }
+
+    /** @return the number of keys in the index */
+    public int size() {
+        IndexSnapshot current = snapshot;
+        if (current == null) {
+            return 0;
+        }
+        int size = current.size();
+        for (Map.Entry<String, Change> entry : overlay.entrySet()) {
+            boolean inSnapshot = current.find(entry.getKey()) >= 0;
+            if (entry.getValue().metadata() == null) {
+                size -= inSnapshot ? 1 : 0;
+            } else {
+                size += inSnapshot ? 0 : 1;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Looks up a single key.
+     *
+     * @param key the object key
+     * @return the indexed metadata, or empty if the key is not in the index
+     */
+    public Optional<FileMetadata> stat(String key) {
+        Change change = overlay.get(key);
+        if (change != null) {
+            return Optional.ofNullable(change.metadata());
+        }
+        IndexSnapshot current = snapshot;
+        if (current == null) {
+            return Optional.empty();
+        }
+        int position = current.find(key);
+        return position >= 0 ? Optional.of(current.metadata(position, key)) : Optional.empty();
+    }
+
+    /**
+     * Lists one page of keys, with the same semantics as ListObjectsV2.
+     *
+     * @param prefix     only keys starting with this prefix; may be {@code null}
+     * @param delimiter  rolls keys up into common prefixes at this string; may be {@code null}
+     * @param startAfter only keys sorting after this one; may be {@code null}
+     * @param pageSize   maximum number of files and common prefixes on the page
+     * @return the page; its continuation token is the last key or prefix returned
+     */
+    public FileListing list(String prefix, String delimiter, String startAfter, int pageSize) {
+        String from = prefix != null ? prefix : "";
+        if (delimiter != null && delimiter.isEmpty()) {
+            delimiter = null;
+        }
+
+        List<FileSummary> files = new ArrayList<>();
+        List<String> commonPrefixes = new ArrayList<>();
+        String last = null;
+        boolean lastIsPrefix = false;
+        boolean truncated = false;
+
+        MergedCursor cursor = new MergedCursor(snapshot, overlay,
+                startAfter != null && compareCodePoints(startAfter, from) >= 0 ? startAfter : from,
+                startAfter != null && compareCodePoints(startAfter, from) >= 0);
+        while (cursor.advance()) {
+            String key = cursor.key();
+            if (!key.startsWith(from)) {
+                break;
+            }
+            int rollUp = delimiter != null ? key.indexOf(delimiter, from.length()) : -1;
+            String commonPrefix = rollUp >= 0 ? key.substring(0, rollUp + delimiter.length()) : null;
+            if (commonPrefix != null && commonPrefix.equals(last)) {
+                continue;
+            }
+            if (files.size() + commonPrefixes.size() == pageSize) {
+                truncated = true;
+                break;
+            }
+            if (commonPrefix != null) {
+                commonPrefixes.add(commonPrefix);
+                last = commonPrefix;
+                lastIsPrefix = true;
+            } else {
+                FileMetadata metadata = cursor.metadata();
+                files.add(new FileSummary(key, metadata.size(), metadata.eTag(), metadata.lastModified()));
+                last = key;
+                lastIsPrefix = false;
+            }
+        }
+        // After a common prefix, resume past every key under it.
+        String resumeAfter = lastIsPrefix ? last + HIGHEST_CODE_POINT : last;
+        return new FileListing(files, commonPrefixes, truncated ? resumeAfter : null, truncated);
+    }
+
+    /**
+     * Records a write or delete made through {@link S3Service}.
+     *
+     * @param event the change
+     */
+    @EventListener
+    public void onObjectChanged(ObjectChangedEvent event) {
+        if (!enabled) {
+            return;
+        }
+        overlay.put(event.key(), new Change(sequence.incrementAndGet(), event.metadata()));
+        if (overlay.size() >= compactionThreshold && snapshot != null && compactionPending.compareAndSet(false, true)) {
+            maintenance.execute(this::compact);
+        }
+    }
+
+    /**
+     * Replaces the snapshot with a fresh full listing of the bucket.
+     * <p>
+     * Overlay entries recorded before the listing started are already reflected in it
+     * and are dropped; later ones keep shadowing the new snapshot.
+     * </p>
+     */
+    void rebuild() {
+        long mark = sequence.get();
+        long started = System.nanoTime();
+        IndexSnapshot.Builder builder = new IndexSnapshot.Builder();
+        String previous = null;
+        for (S3Object object : s3Client.listObjectsV2Paginator(ListObjectsV2Request.builder()
+                .bucket(bucketName)
+                .maxKeys(1000)
+                .build()).contents()) {
+            if (previous != null && compareCodePoints(previous, object.key()) >= 0) {
+                continue;
+            }
+            builder.add(known(object.key(), object.eTag())
+                    .map(metadata -> new FileMetadata(object.key(), metadata.size(), object.eTag(),
+                            object.lastModified(), metadata.contentType()))
+                    .orElseGet(() -> new FileMetadata(object.key(), object.size(), object.eTag(),
+                            object.lastModified(), null)));
+            previous = object.key();
+        }
+        IndexSnapshot rebuilt = builder.build();
+        snapshot = rebuilt;
+        overlay.entrySet().removeIf(entry -> entry.getValue().sequence() <= mark);
+        logger.info("Metadata index rebuilt: {} keys, ~{} KB, in {} ms", rebuilt.size(),
+                rebuilt.footprint() / 1024, Duration.ofNanos(System.nanoTime() - started).toMillis());
+    }
+
+    /** Folds the overlay into a new snapshot without going to S3. */
+    void compact() {
+        compactionPending.set(false);
+        IndexSnapshot current = snapshot;
+        if (current == null) {
+            return;
+        }
+        long mark = sequence.get();
+        IndexSnapshot.Builder builder = new IndexSnapshot.Builder();
+        MergedCursor cursor = new MergedCursor(current, overlay, "", false);
+        try {
+            while (cursor.advance()) {
+                builder.add(cursor.metadata());
+            }
+        } catch (RuntimeException e) {
+            logger.warn("Metadata index compaction failed, keeping the overlay: {}", e.getMessage());
+            return;
+        }
+        snapshot = builder.build();
+        overlay.entrySet().removeIf(entry -> entry.getValue().sequence() <= mark);
+    }
+
+    private void refresh() {
+        try {
+            rebuild();
+        } catch (RuntimeException e) {
+            logger.warn("Metadata index rebuild failed, keeping the previous index: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Content types are not part of a listing, and a compressed object is listed with its stored size rather
+     * than the decoded size the service reports; keep both as already known if the object is unchanged.
+     */
+    private Optional<FileMetadata> known(String key, String eTag) {
+        return stat(key).filter(metadata -> eTag != null && eTag.equals(metadata.eTag()));
+    }
+
+    static int compareCodePoints(String a, String b) {
+        int i = 0;
+        int j = 0;
+        while (i < a.length() && j < b.length()) {
+            int ca = a.codePointAt(i);
+            int cb = b.codePointAt(j);
+            if (ca != cb) {
+                return Integer.compare(ca, cb);
+            }
+            i += Character.charCount(ca);
+            j += Character.charCount(cb);
+        }
+        return Boolean.compare(i < a.length(), j < b.length());
+    }
+
+    /** An overlay entry; {@code metadata} is {@code null} for a deletion. */
+    private record Change(long sequence, FileMetadata metadata) {
+    }
+
+    /**
+     * Walks the snapshot and the overlay together in key order, letting overlay entries
+     * replace or delete snapshot entries with the same key.
+     */
+    private static final class MergedCursor {
+
+        private final IndexSnapshot snapshot;
+        private final IndexSnapshot.Cursor base;
+        private final Iterator<Map.Entry<String, Change>> changes;
+        private String baseKey;
+        private int basePosition;
+        private Map.Entry<String, Change> change;
+        private String key;
+        private FileMetadata metadata;
+        private int position;
+
+        MergedCursor(IndexSnapshot snapshot, ConcurrentNavigableMap<String, Change> overlay, String from, boolean exclusive) {
+            this.snapshot = snapshot != null ? snapshot : IndexSnapshot.EMPTY;
+            int start = this.snapshot.lowerBound(from);
+            if (exclusive && start < this.snapshot.size() && this.snapshot.find(from) == start) {
+                start++;
+            }
+            this.base = this.snapshot.cursor(start);
+            this.changes = overlay.tailMap(from, !exclusive).entrySet().iterator();
+            nextBase();
+            nextChange();
+        }
+
+        /** Moves to the next live key; returns {@code false} at the end. */
+        boolean advance() {
+            while (baseKey != null || change != null) {
+                int order = baseKey == null ? 1 : change == null ? -1 : compareCodePoints(baseKey, change.getKey());
+                if (order < 0) {
+                    key = baseKey;
+                    position = basePosition;
+                    metadata = null;
+                    nextBase();
+                    return true;
+                }
+                Map.Entry<String, Change> current = change;
+                nextChange();
+                if (order == 0) {
+                    nextBase();
+                }
+                if (current.getValue().metadata() != null) {
+                    key = current.getKey();
+                    metadata = current.getValue().metadata();
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        String key() {
+            return key;
+        }
+
+        /** Snapshot entries are only decoded in full when their metadata is needed. */
+        FileMetadata metadata() {
+            if (metadata == null) {
+                metadata = snapshot.metadata(position, key);
+            }
+            return metadata;
+        }
+
+        private void nextBase() {
+            basePosition = base.position();
+            baseKey = base.hasNext() ? base.next().key() : null;
+        }
+
+        private void nextChange() {
+            change = changes.hasNext() ? changes.next() : null;
+        }
+    }
+}
@@ -0,0 +1,337 @@
+package com.myprojecticaro.poc_s3_file_uploader.service;
+
+import com.myprojecticaro.poc_s3_file_uploader.io.BufferPool;
+import com.myprojecticaro.poc_s3_file_uploader.metrics.TransferMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompletedMultipartUpload;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+
+/**
+ * {@link OutputStream} that uploads everything written to it as an S3 multipart upload.
+ * <p>
+ * Bytes are collected into part-sized buffers borrowed from a shared {@link BufferPool}.
+ * As soon as a buffer is full it is sent with {@code UploadPart} on the transfer
+ * executor while the caller keeps writing into the next one, so reading the source
+ * and uploading to S3 overlap. At most {@code maxInFlightParts} buffers are held per
+ * stream and the pool bounds the total across streams: when the budget is used up
+ * {@link #write} blocks until a part finishes, which pushes back on the producer
+ * (ultimately the client's TCP connection) and keeps memory flat.
+ * </p>
+ *
+ * <p>
+ * The multipart upload is created lazily. Content smaller than one part is sent
+ * with a single {@code PutObject} on {@link #close()}. If anything fails the upload
+ * is aborted so no orphaned parts are left behind.
+ * </p>
+ *
+ * <p>
+ * A part is retried up to {@code maxAttempts} times, and only after a throttle, a 5xx
+ * or an I/O error; an access or validation error, or a {@code NoSuchUpload}, fails the
+ * upload at once. Through a {@link SchedulingS3Client}, which already retries its own
+ * calls, each part is sent once from here.
+ * </p>
+ *
+ * @author Icaro
+ * @version 1.0
+ */
+public class MultipartUploadOutputStream extends OutputStream {
+
+    private static final Logger logger = LoggerFactory.getLogger(MultipartUploadOutputStream.class);
+
+    private final S3Client s3Client;
+    private final ExecutorService executor;
+    private final BufferPool partPool;
+    private final Semaphore inFlight;
+    private final int maxAttempts;
+    private final String bucket;
+    private final String key;
+    private final String contentType;
+    private final Map<String, String> metadata;
+    private final TransferMetrics metrics;
+
+    private final List<CompletableFuture<CompletedPart>> parts = new ArrayList<>();
+    private String uploadId;
+    private byte[] buffer;
+    private int position;
+    private long bytesWritten;
+    private String eTag;
+    private volatile Throwable failure;
+    private boolean closed;
+
+    MultipartUploadOutputStream(S3Client s3Client, ExecutorService executor, BufferPool partPool,
+                                int maxInFlightParts, int maxAttempts,
+                                String bucket, String key, String contentType, Map<String, String> metadata,
+                                TransferMetrics metrics) {
+        this.s3Client = s3Client;
+        this.executor = executor;
+        this.partPool = partPool;
+        this.inFlight = new Semaphore(maxInFlightParts);
+        this.maxAttempts = s3Client instanceof SchedulingS3Client ? 1 : maxAttempts;
+        this.bucket = bucket;
+        this.key = key;
+        this.contentType = contentType;
+        this.metadata = metadata;
+        this.metrics = metrics;
+    }
+
+    /** @return the object key being written */
+    public String key() {
+        return key;
+    }
+
+    /** @return the number of bytes written so far */
+    public long bytesWritten() {
+        return bytesWritten;
+    }
+
+    /** @return the ETag of the stored object once {@link #close()} has succeeded, otherwise {@code null} */
+    public String eTag() {
+        return eTag;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureWritable();
+        if (buffer == null) {
+            buffer = nextBuffer();
+        }
+        buffer[position++] = (byte) b;
+        bytesWritten++;
+        if (position == buffer.length) {
+            submitPart();
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureWritable();
+        while (len > 0) {
+            if (buffer == null) {
+                buffer = nextBuffer();
+            }
+            int n = Math.min(len, buffer.length - position);
+            System.arraycopy(b, off, buffer, position, n);
+            position += n;
+            off += n;
+            len -= n;
+            bytesWritten += n;
+            if (position == buffer.length) {
+                submitPart();
+            }
+        }
+    }
+
+    /**
+     * Reads the given stream to its end straight into the part buffers, avoiding the
+     * intermediate copy a plain {@code in.transferTo(this)} would make.
+     *
+     * @param in the source; not closed by this method
+     * @return the number of bytes read
+     * @throws IOException if reading fails or a part upload has already failed
+     */
+    public long writeFrom(InputStream in) throws IOException {
+        long total = 0;
+        while (true) {
+            ensureWritable();
+            if (buffer == null) {
+                buffer = nextBuffer();
+            }
+            int n = in.read(buffer, position, buffer.length - position);
+            if (n == -1) {
+                return total;
+            }
+            position += n;
+            total += n;
+            bytesWritten += n;
+            if (position == buffer.length) {
+                submitPart();
+            }
+        }
+    }
+
+    /**
+     * Uploads the remaining bytes and completes the multipart upload.
+     *
+     * @throws IOException if any part failed; the upload is aborted in that case
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        ensureWritable();
+        closed = true;
+        try {
+            if (uploadId == null) {
+                putSinglePart();
+                return;
+            }
+            if (position > 0) {
+                submitPart();
+            }
+            List<CompletedPart> completed = new ArrayList<>(parts.size());
+            for (CompletableFuture<CompletedPart> part : parts) {
+                completed.add(part.join());
+            }
+            completed.sort(Comparator.comparingInt(CompletedPart::partNumber));
+            eTag = s3Client.completeMultipartUpload(CompleteMultipartUploadRequest.builder()
+                    .bucket(bucket)
+                    .key(key)
+                    .uploadId(uploadId)
+                    .multipartUpload(CompletedMultipartUpload.builder().parts(completed).build())
+                    .build()).eTag();
+            logger.info("Completed multipart upload of {} ({} bytes in {} parts)", key, bytesWritten, completed.size());
+        } catch (CompletionException | SdkException e) {
+            abort();
+            throw new IOException("Multipart upload failed: " + key, e instanceof CompletionException ? e.getCause() : e);
+        } finally {
+            releaseBuffer();
+        }
+    }
+
+    /**
+     * Abandons the upload: pending parts are cancelled and the multipart upload is
+     * aborted on S3. Safe to call more than once.
+     */
+    public void abort() {
+        closed = true;
+        parts.forEach(part -> part.cancel(false));
+        releaseBuffer();
+        if (uploadId != null) {
+            try {
+                s3Client.abortMultipartUpload(AbortMultipartUploadRequest.builder()
+                        .bucket(bucket)
+                        .key(key)
+                        .uploadId(uploadId)
+                        .build());
+            } catch (SdkException e) {
+                logger.warn("Failed to abort multipart upload {} of {}", uploadId, key, e);
+            }
+            uploadId = null;
+        }
+    }
+
+    private void putSinglePart() {
+        int length = position;
+        byte[] data = buffer;
+        PutObjectRequest request = PutObjectRequest.builder()
+                .bucket(bucket)
+                .key(key)
+                .contentType(contentType)
+                .metadata(metadata)
+                .contentLength((long) length)
+                .build();
+        eTag = s3Client.putObject(request, RequestBody.fromContentProvider(
+                () -> data != null ? new ByteArrayInputStream(data, 0, length) : new ByteArrayInputStream(new byte[0]),
+                length, contentType)).eTag();
+    }
+
+    private void submitPart() throws IOException {
+        if (uploadId == null) {
+            uploadId = s3Client.createMultipartUpload(CreateMultipartUploadRequest.builder()
+                    .bucket(bucket)
+                    .key(key)
+                    .contentType(contentType)
+                    .metadata(metadata)
+                    .build()).uploadId();
+        }
+        byte[] data = buffer;
+        int length = position;
+        int partNumber = parts.size() + 1;
+        buffer = null;
+        position = 0;
+
+        CompletableFuture<CompletedPart> part = CompletableFuture
+                .supplyAsync(() -> uploadPart(partNumber, data, length), executor)
+                .whenComplete((result, error) -> {
+                    partPool.release(data);
+                    inFlight.release();
+                    if (error != null && failure == null) {
+                        failure = error;
+                    }
+                });
+        parts.add(part);
+    }
+
+    private CompletedPart uploadPart(int partNumber, byte[] data, int length) {
+        UploadPartRequest request = UploadPartRequest.builder()
+                .bucket(bucket)
+                .key(key)
+                .uploadId(uploadId)
+                .partNumber(partNumber)
+                .contentLength((long) length)
+                .build();
+        for (int attempt = 1; ; attempt++) {
+            try {
+                String eTag = s3Client.uploadPart(request, RequestBody.fromContentProvider(
+                        () -> new ByteArrayInputStream(data, 0, length), length, "application/octet-stream")).eTag();
+                return CompletedPart.builder().partNumber(partNumber).eTag(eTag).build();
+            } catch (SdkException e) {
+                if (attempt >= maxAttempts || failure != null || !(e.retryable() || S3RequestScheduler.isRetryable(e))) {
+                    throw e;
+                }
+                logger.warn("Retrying part {} of {} (attempt {} of {}): {}",
+                        partNumber, key, attempt + 1, maxAttempts, e.getMessage());
+                metrics.uploadPartRetried();
+            }
+        }
+    }
+
+    /** Waits for room in this stream's and the shared part budget, then borrows a buffer. */
+    private byte[] nextBuffer() throws IOException {
+        try {
+            inFlight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a part buffer");
+        }
+        try {
+            return partPool.acquire();
+        } catch (IOException e) {
+            inFlight.release();
+            throw e;
+        }
+    }
+
+    private void releaseBuffer() {
+        if (buffer != null) {
+            partPool.release(buffer);
+            inFlight.release();
+            buffer = null;
+            position = 0;
+        }
+    }
+
+    private void ensureWritable() throws IOException {
+        if (failure != null) {
+            abort();
+            throw new IOException("Multipart upload failed: " + key, failure);
+        }
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+    }
+}
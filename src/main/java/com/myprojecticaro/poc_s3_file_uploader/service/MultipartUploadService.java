@@ -0,0 +1,86 @@
+package com.myprojecticaro.poc_s3_file_uploader.service;
+
+import com.myprojecticaro.poc_s3_file_uploader.io.BufferPool;
+import com.myprojecticaro.poc_s3_file_uploader.metrics.TransferMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import software.amazon.awssdk.services.s3.S3Client;
+
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Service that opens pipelined S3 multipart uploads.
+ * <p>
+ * Every {@link MultipartUploadOutputStream} it creates shares the same part buffer
+ * pool and transfer executor, so the memory used by all uploads together is bounded
+ * by {@code aws.s3.upload.multipart.buffer-budget} however many are running.
+ * </p>
+ *
+ * <p><strong>Configuration:</strong>
+ * <pre>
+ * aws:
+ *   s3:
+ *     upload:
+ *       multipart:
+ *         part-size: 8388608          # bytes per UploadPart (S3 minimum is 5MB)
+ *         buffer-budget: 268435456    # part buffers shared by all uploads
+ *         max-in-flight-parts: 4      # parts a single upload may have in flight
+ *         max-attempts: 3
+ * </pre>
+ * </p>
+ *
+ * @author Icaro
+ * @version 1.0
+ */
+@Service
+public class MultipartUploadService {
+
+    private final S3Client s3Client;
+    private final ExecutorService transferExecutor;
+    private final BufferPool partBufferPool;
+    private final TransferMetrics transferMetrics;
+
+    @Value("${aws.s3.upload.multipart.max-in-flight-parts:4}")
+    private int maxInFlightParts = 4;
+
+    @Value("${aws.s3.upload.multipart.max-attempts:3}")
+    private int maxAttempts = 3;
+
+    public MultipartUploadService(S3Client s3Client,
+                                  @Qualifier("s3TransferExecutor") ExecutorService transferExecutor,
+                                  @Qualifier("partBufferPool") BufferPool partBufferPool) {
+        this(s3Client, transferExecutor, partBufferPool, TransferMetrics.disabled());
+    }
+
+    @Autowired
+    public MultipartUploadService(S3Client s3Client,
+                                  @Qualifier("s3TransferExecutor") ExecutorService transferExecutor,
+                                  @Qualifier("partBufferPool") BufferPool partBufferPool,
+                                  TransferMetrics transferMetrics) {
+        this.s3Client = s3Client;
+        this.transferExecutor = transferExecutor;
+        this.partBufferPool = partBufferPool;
+        this.transferMetrics = transferMetrics;
+    }
+
+    /**
+     * Opens a multipart upload to the given key.
+     * <p>
+     * The caller writes the content, then either closes the stream to complete the
+     * upload or calls {@link MultipartUploadOutputStream#abort()} to discard it.
+     * </p>
+     *
+     * @param bucket      the target bucket
+     * @param key         the object key
+     * @param contentType the content type stored with the object
+     * @param metadata    user metadata stored with the object
+     * @return the stream to write the object content to
+     */
+    public MultipartUploadOutputStream open(String bucket, String key, String contentType, Map<String, String> metadata) {
+        return new MultipartUploadOutputStream(s3Client, transferExecutor, partBufferPool,
+                maxInFlightParts, maxAttempts, bucket, key, contentType, metadata, transferMetrics);
+    }
+}
@@ -0,0 +1,268 @@
+package com.myprojecticaro.poc_s3_file_uploader.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.myprojecticaro.poc_s3_file_uploader.io.OffHeapArena;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Read-through cache of small, frequently downloaded objects, kept off-heap.
+ * <p>
+ * Object contents live in an {@link OffHeapArena} of direct memory reserved at
+ * startup, so caching thousands of thumbnails adds no garbage-collection work. The
+ * index of cached entries is a Caffeine cache weighted by the bytes each entry
+ * occupies, whose W-TinyLFU policy only admits a new object if it is requested more
+ * often than the one it would evict, so a burst of one-off downloads cannot flush
+ * the hot set. Only whole-object downloads up to {@code max-object-size} bytes are
+ * cached.
+ * </p>
+ *
+ * <p>
+ * An entry is served without contacting S3 for {@code revalidate-after}; after that
+ * the next request sends a conditional GET with its ETag, and a {@code 304 Not Modified}
+ * keeps it for another period without transferring the body again. Writes and
+ * deletes made through {@link S3Service} invalidate the entry immediately.
+ * </p>
+ *
+ * <p><strong>Configuration:</strong>
+ * <pre>
+ * aws:
+ *   s3:
+ *     download:
+ *       cache:
+ *         enabled: false
+ *         max-bytes: 268435456      # direct memory reserved for cached content
+ *         max-object-size: 1048576  # larger objects are never cached
+ *         block-size: 16384
+ *         revalidate-after: 5s
+ * </pre>
+ * The JVM's {@code -XX:MaxDirectMemorySize} must leave room for {@code max-bytes}.
+ * </p>
+ *
+ * @author Icaro
+ * @version 1.0
+ */
+@Component
+public class ObjectCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(ObjectCache.class);
+
+    private static final int NOT_MODIFIED = 304;
+
+    private final boolean enabled;
+    private final int maxObjectSize;
+    private final long revalidateAfterNanos;
+    private final OffHeapArena arena;
+    private final Cache<String, CachedObject> entries;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder revalidations = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public ObjectCache(@Value("${aws.s3.download.cache.enabled:false}") boolean enabled,
+                       @Value("${aws.s3.download.cache.max-bytes:268435456}") long maxBytes,
+                       @Value("${aws.s3.download.cache.max-object-size:1048576}") int maxObjectSize,
+                       @Value("${aws.s3.download.cache.block-size:16384}") int blockSize,
+                       @Value("${aws.s3.download.cache.revalidate-after:5s}") Duration revalidateAfter) {
+        this.enabled = enabled;
+        this.maxObjectSize = maxObjectSize;
+        this.revalidateAfterNanos = revalidateAfter.toNanos();
+        this.arena = enabled ? new OffHeapArena(maxBytes, blockSize) : null;
+        this.entries = Caffeine.newBuilder()
+                .maximumWeight(enabled ? maxBytes : 0)
+                .weigher((String key, CachedObject value) -> (int) Math.min(Integer.MAX_VALUE, value.footprint))
+                .executor(Runnable::run)
+                .removalListener((String key, CachedObject value, RemovalCause cause) -> {
+                    if (value != null) {
+                        value.content.release();
+                    }
+                    if (cause.wasEvicted()) {
+                        evictions.increment();
+                    }
+                })
+                .build();
+    }
+
+    /** @return {@code true} if downloads go through the cache */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns the object from the cache, or fetches it and caches it if it is small enough.
+     *
+     * @param key   the object key
+     * @param fetch performs the GET, conditional when given an ETag
+     * @return the open download; closing it releases the cached copy it reads from
+     * @throws IOException if the fetch fails
+     */
+    public ObjectDownload download(String key, ConditionalFetch fetch) throws IOException {
+        CachedObject cached = entries.getIfPresent(key);
+        if (cached != null && cached.content.retain()) {
+            if (System.nanoTime() - cached.validatedAt < revalidateAfterNanos) {
+                hits.increment();
+                return cached.open();
+            }
+            ObjectDownload fresh;
+            try {
+                fresh = fetch.fetch(cached.eTag);
+            } catch (S3Exception e) {
+                if (e.statusCode() == NOT_MODIFIED) {
+                    cached.validatedAt = System.nanoTime();
+                    revalidations.increment();
+                    hits.increment();
+                    return cached.open();
+                }
+                cached.content.release();
+                throw e;
+            } catch (IOException | RuntimeException e) {
+                cached.content.release();
+                throw e;
+            }
+            cached.content.release();
+            entries.asMap().remove(key, cached);
+            misses.increment();
+            return fill(key, fresh);
+        }
+        misses.increment();
+        return fill(key, fetch.fetch(null));
+    }
+
+    /**
+     * Drops the cached copy when a change made through {@link S3Service} makes it stale.
+     *
+     * @param event the change
+     */
+    @EventListener
+    public void onObjectChanged(ObjectChangedEvent event) {
+        if (!enabled) {
+            return;
+        }
+        CachedObject cached = entries.getIfPresent(event.key());
+        if (cached != null && (event.isDeletion() || !cached.eTag.equals(event.metadata().eTag()))) {
+            entries.asMap().remove(event.key(), cached);
+        }
+    }
+
+    /** @return a snapshot of the cache counters */
+    public Stats stats() {
+        return new Stats(hits.sum(), misses.sum(), revalidations.sum(), evictions.sum(),
+                entries.estimatedSize(), arena != null ? arena.used() : 0, arena != null ? arena.capacity() : 0);
+    }
+
+    /**
+     * Cache counters.
+     *
+     * @param hits           downloads served from the cache, including revalidated ones
+     * @param misses         downloads that had to transfer the body from S3
+     * @param revalidations  conditional GETs answered with 304 Not Modified
+     * @param evictions      entries dropped to make room for others
+     * @param entries        objects currently cached
+     * @param usedBytes      off-heap bytes in use, including entries still being streamed after eviction
+     * @param capacityBytes  off-heap bytes reserved
+     */
+    public record Stats(long hits, long misses, long revalidations, long evictions,
+                        long entries, long usedBytes, long capacityBytes) {
+    }
+
+    /** Performs the GET behind the cache. */
+    @FunctionalInterface
+    public interface ConditionalFetch {
+
+        /**
+         * @param ifNoneMatch the ETag of the cached copy, or {@code null} for an unconditional GET
+         * @return the open download
+         * @throws IOException if the download cannot be opened
+         * @throws S3Exception with status 304 if the object still matches {@code ifNoneMatch}
+         */
+        ObjectDownload fetch(String ifNoneMatch) throws IOException;
+    }
+
+    /**
+     * Reads a small response straight from the network into the arena; anything else,
+     * or a response the arena has no room for, is passed through untouched.
+     */
+    private ObjectDownload fill(String key, ObjectDownload download) throws IOException {
+        if (!enabled || download.isPartial() || download.eTag() == null
+                || download.contentLength() > maxObjectSize || download.contentLength() < 0) {
+            return download;
+        }
+        int length = (int) download.contentLength();
+        OffHeapArena.Allocation content;
+        try {
+            content = arena.read(download.body(), length);
+        } catch (EOFException e) {
+            download.abort();
+            throw new IOException("Truncated response for " + key, e);
+        } catch (IOException | RuntimeException e) {
+            download.abort();
+            throw e;
+        }
+        if (content == null) {
+            logger.debug("Off-heap cache is full, serving {} without caching it", key);
+            return download;
+        }
+        try {
+            download.close();
+        } catch (IOException e) {
+            content.release();
+            throw e;
+        }
+
+        CachedObject cached = new CachedObject(content, arena.footprint(length), download.contentType(),
+                download.eTag(), download.lastModified(), download.encoding());
+        content.retain();
+        entries.put(key, cached);
+        return cached.open();
+    }
+
+    /** A cached object; {@code content} carries one reference for the cache itself. */
+    private static final class CachedObject {
+        final OffHeapArena.Allocation content;
+        final long footprint;
+        final String contentType;
+        final String eTag;
+        final Instant lastModified;
+        final StoredEncoding encoding;
+        volatile long validatedAt = System.nanoTime();
+
+        CachedObject(OffHeapArena.Allocation content, long footprint, String contentType, String eTag,
+                     Instant lastModified, StoredEncoding encoding) {
+            this.content = content;
+            this.footprint = footprint;
+            this.contentType = contentType;
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+            this.encoding = encoding;
+        }
+
+        /** Opens a download over the content; the caller must already hold a reference, which closing it releases. */
+        ObjectDownload open() {
+            AtomicBoolean released = new AtomicBoolean();
+            InputStream body = new FilterInputStream(content.openStream()) {
+                @Override
+                public void close() {
+                    if (released.compareAndSet(false, true)) {
+                        content.release();
+                    }
+                }
+            };
+            return new ObjectDownload(body, content.length(), contentType, eTag, lastModified, null, encoding);
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.myprojecticaro.poc_s3_file_uploader.service;
+
+/**
+ * Published by {@link S3Service} and {@link BatchDeleteService} after an object has been written to or
+ * deleted from the bucket.
+ * <p>
+ * Components that keep derived state about the bucket, such as the {@link MetadataIndex},
+ * listen for it to stay in sync without having to poll S3.
+ * </p>
+ *
+ * @param key      the object key
+ * @param metadata the new metadata of the object, or {@code null} if it was deleted
+ *
+ * @author Icaro
+ * @version 1.0
+ */
+public record ObjectChangedEvent(String key, FileMetadata metadata) {
+
+    public static ObjectChangedEvent written(FileMetadata metadata) {
+        return new ObjectChangedEvent(metadata.key(), metadata);
+    }
+
+    public static ObjectChangedEvent deleted(String key) {
+        return new ObjectChangedEvent(key, null);
+    }
+
+    /** @return {@code true} if the object no longer exists */
+    public boolean isDeletion() {
+        return metadata == null;
+    }
+}
@@ -0,0 +1,74 @@
+package com.myprojecticaro.poc_s3_file_uploader.service;
+
+import software.amazon.awssdk.http.Abortable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Instant;
+
+/**
+ * An open download of an S3 object (or a byte range of it).
+ * <p>
+ * The body is not read eagerly: callers stream it to its destination and must
+ * {@link #close()} the download afterwards to release the underlying connection,
+ * or {@link #abort()} it if they stop before the end.
+ * </p>
+ *
+ * @param body          the object content, positioned at the start of the requested range
+ * @param contentLength number of bytes that {@code body} will return
+ * @param contentType   the stored content type, or {@code null} if unknown
+ * @param eTag          the entity tag of the object
+ * @param lastModified  when the object was last written
+ * @param contentRange  the {@code Content-Range} of a ranged download, or {@code null} for the whole object
+ * @param encoding      how {@code body} is compressed, or {@code null} if it is the content as uploaded
+ *
+ * @author Icaro
+ * @version 1.0
+ */
+public record ObjectDownload(InputStream body,
+                             long contentLength,
+                             String contentType,
+                             String eTag,
+                             Instant lastModified,
+                             String contentRange,
+                             StoredEncoding encoding) implements Closeable {
+
+    /** A download of content that is not compressed. */
+    public ObjectDownload(InputStream body, long contentLength, String contentType, String eTag,
+                          Instant lastModified, String contentRange) {
+        this(body, contentLength, contentType, eTag, lastModified, contentRange, null);
+    }
+
+    /** @return {@code true} if only part of the object is being returned */
+    public boolean isPartial() {
+        return contentRange != null;
+    }
+
+    /** @return {@code true} if {@code body} returns the compressed bytes of a {@link StoredEncoding} */
+    public boolean isEncoded() {
+        return encoding != null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        body.close();
+    }
+
+    /**
+     * Releases the download without reading the rest of the body, for callers that stop
+     * part way, e.g. because the client went away. An S3 response is aborted, which
+     * drops its connection: closing it instead would first read the remainder of the
+     * object, however large, so the connection could be reused.
+     */
+    public void abort() {
+        if (body instanceof Abortable abortable) {
+            abortable.abort();
+        }
+        try {
+            body.close();
+        } catch (IOException ignored) {
+            // the body is being abandoned
+        }
+    }
+}
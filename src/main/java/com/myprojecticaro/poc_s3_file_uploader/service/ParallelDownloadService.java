@@ -0,0 +1,411 @@
+package com.myprojecticaro.poc_s3_file_uploader.service;
+
+import com.myprojecticaro.poc_s3_file_uploader.io.BufferPool;
+import com.myprojecticaro.poc_s3_file_uploader.metrics.TransferMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.http.Abortable;
+import software.amazon.awssdk.http.AbortableInputStream;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Downloads large S3 objects as several concurrent ranged GETs.
+ * <p>
+ * A single GetObject is limited to the throughput of one TCP stream. For objects
+ * above {@code aws.s3.download.parallel.threshold} this service splits the object
+ * into {@code part-size} ranges and fetches up to {@code parallelism} of them at the
+ * same time. Every range is written directly to its own position of a preallocated
+ * temporary file with {@link FileChannel} positional writes, and the finished file
+ * is returned as an {@link ObjectDownload} that deletes it once closed.
+ * </p>
+ *
+ * <p>
+ * The first part is always fetched with a ranged GET. Its {@code Content-Range}
+ * reveals the object size, so small objects are served by that single request and
+ * no extra HEAD round trip is needed. Later parts are requested with
+ * {@code If-Match} on the first part's ETag, so an object overwritten during the
+ * download fails instead of producing a mixed file. Each part is retried on its own
+ * up to {@code max-attempts} times.
+ * </p>
+ *
+ * <p>
+ * Staging costs local disk for the size of every object in flight, so it is off by
+ * default and bounded by {@code max-staged-bytes} across all downloads. A download
+ * that would go over the budget is streamed from S3 as one response instead.
+ * </p>
+ *
+ * <p><strong>Configuration:</strong>
+ * <pre>
+ * aws:
+ *   s3:
+ *     download:
+ *       parallel:
+ *         enabled: false
+ *         threshold: 67108864   # objects at least this large are fetched in parallel
+ *         part-size: 8388608
+ *         parallelism: 8        # concurrent ranged GETs per download
+ *         max-attempts: 3
+ *         max-staged-bytes: 2147483648   # temp file space shared by all downloads
+ * </pre>
+ * </p>
+ *
+ * @author Icaro
+ * @version 1.0
+ */
+@Service
+public class ParallelDownloadService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ParallelDownloadService.class);
+
+    private static final int RANGE_NOT_SATISFIABLE = 416;
+
+    private final S3Client s3Client;
+    private final ExecutorService transferExecutor;
+    private final BufferPool downloadBufferPool;
+    private final TransferMetrics transferMetrics;
+    private final AtomicLong stagedBytes = new AtomicLong();
+
+    @Value("${aws.s3.download.parallel.enabled:false}")
+    private boolean enabled;
+
+    @Value("${aws.s3.download.parallel.threshold:67108864}")
+    private long threshold = 64L * 1024 * 1024;
+
+    @Value("${aws.s3.download.parallel.part-size:8388608}")
+    private long partSize = 8L * 1024 * 1024;
+
+    @Value("${aws.s3.download.parallel.parallelism:8}")
+    private int parallelism = 8;
+
+    @Value("${aws.s3.download.parallel.max-attempts:3}")
+    private int maxAttempts = 3;
+
+    @Value("${aws.s3.download.parallel.max-staged-bytes:2147483648}")
+    private long maxStagedBytes = 2L * 1024 * 1024 * 1024;
+
+    @Value("${aws.s3.download.parallel.temp-dir:${java.io.tmpdir}}")
+    private String tempDir = System.getProperty("java.io.tmpdir");
+
+    public ParallelDownloadService(S3Client s3Client,
+                                   @Qualifier("s3TransferExecutor") ExecutorService transferExecutor,
+                                   @Qualifier("downloadBufferPool") BufferPool downloadBufferPool) {
+        this(s3Client, transferExecutor, downloadBufferPool, TransferMetrics.disabled());
+    }
+
+    @Autowired
+    public ParallelDownloadService(S3Client s3Client,
+                                   @Qualifier("s3TransferExecutor") ExecutorService transferExecutor,
+                                   @Qualifier("downloadBufferPool") BufferPool downloadBufferPool,
+                                   TransferMetrics transferMetrics) {
+        this.s3Client = s3Client;
+        this.transferExecutor = transferExecutor;
+        this.downloadBufferPool = downloadBufferPool;
+        this.transferMetrics = transferMetrics;
+    }
+
+    /** @return {@code true} if parallel downloads are enabled */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Downloads a whole object, in parallel if it is larger than the threshold.
+     *
+     * @param bucket the bucket name
+     * @param key    the object key
+     * @return the open download; must be closed by the caller
+     * @throws IOException if the temporary file cannot be written or a part keeps failing
+     */
+    public ObjectDownload download(String bucket, String key) throws IOException {
+        ResponseInputStream<GetObjectResponse> first;
+        try {
+            first = s3Client.getObject(rangeRequest(bucket, key, 0, partSize - 1, null));
+        } catch (S3Exception e) {
+            if (e.statusCode() != RANGE_NOT_SATISFIABLE) {
+                throw e;
+            }
+            // Empty objects cannot be fetched with a range.
+            return whole(s3Client.getObject(GetObjectRequest.builder().bucket(bucket).key(key).build()));
+        }
+
+        GetObjectResponse head = first.response();
+        long size = totalSize(head.contentRange(), head.contentLength());
+
+        if (size <= partSize) {
+            return whole(first, head, size);
+        }
+        if (size < threshold) {
+            return sequential(bucket, key, first, head, size);
+        }
+        if (!reserve(size)) {
+            logger.info("Streaming {} ({} bytes) as a single response: {} of {} staging bytes in use",
+                    key, size, stagedBytes.get(), maxStagedBytes);
+            return sequential(bucket, key, first, head, size);
+        }
+        try {
+            return downloadParts(bucket, key, first, head, size);
+        } catch (IOException | RuntimeException e) {
+            stagedBytes.addAndGet(-size);
+            throw e;
+        }
+    }
+
+    /** Streams the rest of the object after the first part as one more GET. */
+    private ObjectDownload sequential(String bucket, String key, ResponseInputStream<GetObjectResponse> first,
+                                      GetObjectResponse head, long size) {
+        ResponseInputStream<GetObjectResponse> rest;
+        try {
+            rest = s3Client.getObject(rangeRequest(bucket, key, partSize, size - 1, head.eTag()));
+        } catch (RuntimeException e) {
+            first.abort();
+            closeQuietly(first);
+            throw e;
+        }
+        return whole(AbortableInputStream.create(new SequenceInputStream(first, rest), () -> {
+            first.abort();
+            rest.abort();
+        }), head, size);
+    }
+
+    /** Claims staging space for an object, unless that would exceed {@code max-staged-bytes}. */
+    private boolean reserve(long size) {
+        long current;
+        do {
+            current = stagedBytes.get();
+            if (current + size > maxStagedBytes) {
+                return false;
+            }
+        } while (!stagedBytes.compareAndSet(current, current + size));
+        return true;
+    }
+
+    /** @return bytes of temporary files currently held by parallel downloads */
+    long stagedBytes() {
+        return stagedBytes.get();
+    }
+
+    private ObjectDownload downloadParts(String bucket, String key,
+                                         ResponseInputStream<GetObjectResponse> first,
+                                         GetObjectResponse head,
+                                         long size) throws IOException {
+        int partCount = (int) ((size + partSize - 1) / partSize);
+        int workers = Math.min(parallelism, partCount);
+        long started = System.nanoTime();
+
+        Path target;
+        try {
+            target = Files.createTempFile(Paths.get(tempDir), "s3-download-", ".part");
+        } catch (IOException e) {
+            first.abort();
+            closeQuietly(first);
+            throw e;
+        }
+        try (FileChannel channel = FileChannel.open(target, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // Preallocate so every part can be written at its final position.
+            channel.write(ByteBuffer.wrap(new byte[1]), size - 1);
+
+            AtomicInteger nextPart = new AtomicInteger(1);
+            List<CompletableFuture<Void>> tasks = new ArrayList<>(workers);
+            tasks.add(CompletableFuture.runAsync(() -> {
+                try {
+                    fetchPart(bucket, key, head.eTag(), 0, size, channel, first);
+                } catch (RuntimeException e) {
+                    nextPart.set(partCount);
+                    throw e;
+                }
+                drainParts(bucket, key, head.eTag(), partCount, size, channel, nextPart);
+            }, transferExecutor));
+            for (int i = 1; i < workers; i++) {
+                tasks.add(CompletableFuture.runAsync(
+                        () -> drainParts(bucket, key, head.eTag(), partCount, size, channel, nextPart),
+                        transferExecutor));
+            }
+            CompletableFuture.allOf(tasks.toArray(CompletableFuture[]::new)).join();
+            channel.force(false);
+        } catch (CompletionException e) {
+            Files.deleteIfExists(target);
+            Throwable cause = e.getCause();
+            if (cause instanceof SdkException sdkException) {
+                throw sdkException;
+            }
+            throw new IOException("Parallel download failed: " + key, cause);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(target);
+            throw e;
+        }
+
+        logger.info("Downloaded {} ({} bytes) in {} parts using {} streams in {} ms",
+                key, size, partCount, workers, (System.nanoTime() - started) / 1_000_000);
+
+        InputStream staged = Files.newInputStream(target, StandardOpenOption.DELETE_ON_CLOSE);
+        InputStream body = new FilterInputStream(staged) {
+            private final AtomicBoolean released = new AtomicBoolean();
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    if (released.compareAndSet(false, true)) {
+                        stagedBytes.addAndGet(-size);
+                    }
+                }
+            }
+        };
+        return new ObjectDownload(body, size, head.contentType(), head.eTag(), head.lastModified(), null,
+                StoredEncoding.from(head.metadata()));
+    }
+
+    /** Fetches parts until none are left; several of these run concurrently per download. */
+    private void drainParts(String bucket, String key, String eTag, int partCount, long size,
+                            FileChannel channel, AtomicInteger nextPart) {
+        int part;
+        while ((part = nextPart.getAndIncrement()) < partCount) {
+            try {
+                fetchPart(bucket, key, eTag, part, size, channel, null);
+            } catch (RuntimeException e) {
+                // Stop the other workers: the download has already failed.
+                nextPart.set(partCount);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Fetches one part and writes it at its offset, retrying the whole part on failure.
+     *
+     * @param initial an already open stream for this part, used for the first attempt only
+     */
+    private void fetchPart(String bucket, String key, String eTag, int part, long size,
+                           FileChannel channel, InputStream initial) {
+        long start = part * partSize;
+        long end = Math.min(start + partSize, size) - 1;
+
+        for (int attempt = 1; ; attempt++) {
+            InputStream in = attempt == 1 ? initial : null;
+            try {
+                if (in == null) {
+                    in = s3Client.getObject(rangeRequest(bucket, key, start, end, eTag));
+                }
+                long written = writeAt(in, channel, start);
+                if (written != end - start + 1) {
+                    throw new IOException("Part " + part + " of " + key + " was truncated: "
+                            + written + " of " + (end - start + 1) + " bytes");
+                }
+                return;
+            } catch (IOException | SdkException e) {
+                // What is left of a failed part is not needed: drop the connection instead of draining it.
+                if (in instanceof Abortable abortable) {
+                    abortable.abort();
+                }
+                if (attempt >= maxAttempts || !retryable(e)) {
+                    throw new CompletionException(e);
+                }
+                logger.warn("Retrying part {} of {} (attempt {} of {}): {}",
+                        part, key, attempt + 1, maxAttempts, e.getMessage());
+                transferMetrics.downloadPartRetried();
+                backOff(attempt);
+            } finally {
+                closeQuietly(in);
+            }
+        }
+    }
+
+    private long writeAt(InputStream in, FileChannel channel, long position) throws IOException {
+        byte[] buffer = downloadBufferPool.acquire();
+        try {
+            long written = 0;
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, n);
+                while (chunk.hasRemaining()) {
+                    written += channel.write(chunk, position + written);
+                }
+            }
+            return written;
+        } finally {
+            downloadBufferPool.release(buffer);
+        }
+    }
+
+    private static boolean retryable(Exception e) {
+        // A changed ETag (412) will not fix itself; everything else is worth another try.
+        return !(e instanceof S3Exception s3Exception) || s3Exception.statusCode() != 412;
+    }
+
+    private static void backOff(int attempt) {
+        try {
+            Thread.sleep(100L << Math.min(attempt - 1, 5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CompletionException(new InterruptedIOException("Interrupted while retrying a part"));
+        }
+    }
+
+    private static GetObjectRequest rangeRequest(String bucket, String key, long start, long end, String ifMatch) {
+        return GetObjectRequest.builder()
+                .bucket(bucket)
+                .key(key)
+                .range("bytes=" + start + "-" + end)
+                .ifMatch(ifMatch)
+                .build();
+    }
+
+    /** Extracts the object size from a {@code Content-Range} such as {@code bytes 0-99/1234}. */
+    static long totalSize(String contentRange, Long contentLength) {
+        if (contentRange == null) {
+            return contentLength;
+        }
+        return Long.parseLong(contentRange.substring(contentRange.lastIndexOf('/') + 1).trim());
+    }
+
+    private static ObjectDownload whole(ResponseInputStream<GetObjectResponse> s3Object) {
+        GetObjectResponse response = s3Object.response();
+        return whole(s3Object, response, response.contentLength());
+    }
+
+    private static ObjectDownload whole(InputStream body, GetObjectResponse head, long size) {
+        return new ObjectDownload(body, size, head.contentType(), head.eTag(), head.lastModified(), null,
+                StoredEncoding.from(head.metadata()));
+    }
+
+    private static void closeQuietly(InputStream stream) {
+        if (stream == null) {
+            return;
+        }
+        try {
+            stream.close();
+        } catch (IOException ignored) {
+            // the part has been written or is being retried
+        }
+    }
+}
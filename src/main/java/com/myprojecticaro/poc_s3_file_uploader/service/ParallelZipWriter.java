@@ -0,0 +1,476 @@
+package com.myprojecticaro.poc_s3_file_uploader.service;
+
+import com.myprojecticaro.poc_s3_file_uploader.io.CompressedFormats;
+import com.myprojecticaro.poc_s3_file_uploader.io.CountingOutputStream;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a ZIP archive whose entries are compressed in parallel on a {@link ForkJoinPool}.
+ * <p>
+ * Every entry is cut into {@code chunkSize} chunks that are deflated independently,
+ * so even a single large file keeps all cores busy. Each chunk is primed with the
+ * last 32KB of the previous one and ends with a sync flush, which lets the compressed
+ * chunks be concatenated into one regular deflate stream, the same technique used by
+ * {@code pigz}. The calling thread reads the files, keeps the CRC-32 and writes the
+ * compressed chunks back in order; at most {@code maxChunksInFlight} chunks are held
+ * in memory at once.
+ * </p>
+ *
+ * <p>
+ * Entries whose content is already compressed (JPEG, PNG, MP4, ZIP, ...) are stored
+ * as-is: deflating them again costs CPU and gains nothing. Their CRC-32 is computed
+ * on the pool up front, so the local header can carry it and no data descriptor is
+ * needed, which keeps the archive readable by {@link java.util.zip.ZipInputStream}.
+ * </p>
+ *
+ * <p>
+ * ZIP64 records are written when an entry, the archive or the entry count exceeds
+ * the limits of the classic format. A deflated entry's sizes are only known once it
+ * is written, so whether it uses ZIP64 is decided up front from its input size, with
+ * headroom for deflate expansion, and its data descriptor follows that decision.
+ * </p>
+ *
+ * @author Icaro
+ * @version 1.0
+ */
+public class ParallelZipWriter {
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int DATA_DESCRIPTOR_SIGNATURE = 0x08074b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06064b50;
+    private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    /** Room left for deflate to expand incompressible input before ZIP64 is required. */
+    private static final long DEFLATE_HEADROOM = ZIP64_MAGIC >> 8;
+    private static final int ZIP64_MAGIC_COUNT = 0xFFFF;
+    private static final int VERSION_DEFAULT = 20;
+    private static final int VERSION_ZIP64 = 45;
+
+    private static final int FLAG_DATA_DESCRIPTOR = 0x0008;
+    private static final int FLAG_UTF8 = 0x0800;
+    private static final int METHOD_STORED = 0;
+    private static final int METHOD_DEFLATED = 8;
+
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+
+    private final ForkJoinPool pool;
+    private final int level;
+    private final int chunkSize;
+    private final int maxChunksInFlight;
+
+    /**
+     * @param pool              the pool that compresses chunks and computes CRCs
+     * @param level             deflate level, 0-9
+     * @param chunkSize         bytes of input compressed per task
+     * @param maxChunksInFlight chunks that may be queued or compressing at once
+     */
+    public ParallelZipWriter(ForkJoinPool pool, int level, int chunkSize, int maxChunksInFlight) {
+        if (chunkSize < DICTIONARY_SIZE) {
+            throw new IllegalArgumentException("chunkSize must be at least " + DICTIONARY_SIZE);
+        }
+        this.pool = pool;
+        this.level = level;
+        this.chunkSize = chunkSize;
+        this.maxChunksInFlight = Math.max(1, maxChunksInFlight);
+    }
+
+    /**
+     * Writes the files as a ZIP archive to the given stream. The stream is not closed.
+     *
+     * @param files the files to archive, in order
+     * @param out   destination of the archive
+     * @throws IOException if reading a file or writing the archive fails
+     */
+    public void write(MultipartFile[] files, OutputStream out) throws IOException {
+        CountingOutputStream zipOut = new CountingOutputStream(out);
+        int[] dosDateTime = dosDateTime(LocalDateTime.now());
+
+        List<ForkJoinTask<Long>> storedCrcs = new ArrayList<>(files.length);
+        for (MultipartFile file : files) {
+            storedCrcs.add(isStoredAsIs(file) ? pool.submit(() -> crcOf(file)) : null);
+        }
+
+        List<CentralEntry> entries = new ArrayList<>(files.length);
+        try {
+            for (int i = 0; i < files.length; i++) {
+                MultipartFile file = files[i];
+                byte[] name = String.valueOf(file.getOriginalFilename()).getBytes(StandardCharsets.UTF_8);
+                long offset = zipOut.count();
+                CentralEntry entry = storedCrcs.get(i) != null
+                        ? writeStored(file, name, join(storedCrcs.get(i)), offset, dosDateTime, zipOut)
+                        : writeDeflated(file, name, offset, dosDateTime, zipOut);
+                entries.add(entry);
+            }
+        } finally {
+            storedCrcs.forEach(task -> {
+                if (task != null) {
+                    task.cancel(false);
+                }
+            });
+        }
+        writeCentralDirectory(entries, zipOut);
+        zipOut.flush();
+    }
+
+    private CentralEntry writeStored(MultipartFile file, byte[] name, long crc, long offset,
+                                     int[] dosDateTime, OutputStream out) throws IOException {
+        long size = file.getSize();
+        boolean zip64 = needsZip64(size);
+        CentralEntry entry = new CentralEntry(name, FLAG_UTF8, METHOD_STORED, dosDateTime, offset);
+        entry.crc = crc;
+        entry.compressedSize = size;
+        entry.size = size;
+
+        writeLocalHeader(entry, zip64, out);
+        long copied;
+        try (InputStream in = file.getInputStream()) {
+            copied = in.transferTo(out);
+        }
+        if (copied != size) {
+            throw new IOException("Size of " + file.getOriginalFilename() + " changed while zipping");
+        }
+        return entry;
+    }
+
+    private CentralEntry writeDeflated(MultipartFile file, byte[] name, long offset,
+                                       int[] dosDateTime, OutputStream out) throws IOException {
+        boolean zip64 = needsZip64(file.getSize() + DEFLATE_HEADROOM);
+        CentralEntry entry = new CentralEntry(name, FLAG_UTF8 | FLAG_DATA_DESCRIPTOR, METHOD_DEFLATED, dosDateTime, offset);
+        writeLocalHeader(entry, zip64, out);
+
+        CRC32 crc = new CRC32();
+        Deque<ForkJoinTask<byte[]>> pending = new ArrayDeque<>();
+        long size = 0;
+        long compressedSize = 0;
+        try (InputStream in = file.getInputStream()) {
+            byte[] chunk = in.readNBytes(chunkSize);
+            byte[] dictionary = null;
+            while (true) {
+                byte[] next = chunk.length == chunkSize ? in.readNBytes(chunkSize) : new byte[0];
+                boolean last = next.length == 0;
+                crc.update(chunk);
+                size += chunk.length;
+
+                if (pending.size() >= maxChunksInFlight) {
+                    compressedSize += writeCompressed(pending.removeFirst(), out);
+                }
+                byte[] input = chunk;
+                byte[] primer = dictionary;
+                pending.addLast(pool.submit(() -> deflate(input, primer, last)));
+
+                if (last) {
+                    break;
+                }
+                dictionary = Arrays.copyOfRange(chunk, chunk.length - DICTIONARY_SIZE, chunk.length);
+                chunk = next;
+            }
+            while (!pending.isEmpty()) {
+                compressedSize += writeCompressed(pending.removeFirst(), out);
+            }
+        } finally {
+            pending.forEach(task -> task.cancel(false));
+        }
+
+        entry.crc = crc.getValue();
+        entry.compressedSize = compressedSize;
+        entry.size = size;
+        if (!zip64 && (needsZip64(size) || needsZip64(compressedSize))) {
+            throw new IOException("Entry " + file.getOriginalFilename() + " outgrew its local header: "
+                    + size + " bytes deflated to " + compressedSize);
+        }
+        writeDataDescriptor(entry, zip64, out);
+        return entry;
+    }
+
+    /**
+     * Deflates one chunk into raw deflate data. Non-final chunks end with a sync flush
+     * on a byte boundary so the next chunk's output can follow directly.
+     */
+    private byte[] deflate(byte[] input, byte[] dictionary, boolean last) {
+        Deflater deflater = new Deflater(level, true);
+        try {
+            if (dictionary != null) {
+                deflater.setDictionary(dictionary);
+            }
+            deflater.setInput(input);
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(input.length / 2 + 64);
+            byte[] buffer = new byte[64 * 1024];
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    int n = deflater.deflate(buffer);
+                    compressed.write(buffer, 0, n);
+                }
+            } else {
+                int n;
+                do {
+                    n = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                    compressed.write(buffer, 0, n);
+                } while (n == buffer.length);
+            }
+            return compressed.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private long writeCompressed(ForkJoinTask<byte[]> task, OutputStream out) throws IOException {
+        byte[] compressed = join(task);
+        out.write(compressed);
+        return compressed.length;
+    }
+
+    private void writeLocalHeader(CentralEntry entry, boolean zip64, OutputStream out) throws IOException {
+        boolean descriptor = (entry.flags & FLAG_DATA_DESCRIPTOR) != 0;
+        LittleEndian header = new LittleEndian(30 + entry.name.length + 20);
+        header.int32(LOCAL_HEADER_SIGNATURE);
+        header.int16(zip64 ? VERSION_ZIP64 : VERSION_DEFAULT);
+        header.int16(entry.flags);
+        header.int16(entry.method);
+        header.int16(entry.dosTime);
+        header.int16(entry.dosDate);
+        header.int32(descriptor ? 0 : (int) entry.crc);
+        if (zip64) {
+            header.int32((int) ZIP64_MAGIC);
+            header.int32((int) ZIP64_MAGIC);
+        } else {
+            header.int32(descriptor ? 0 : (int) entry.compressedSize);
+            header.int32(descriptor ? 0 : (int) entry.size);
+        }
+        header.int16(entry.name.length);
+        header.int16(zip64 ? 20 : 0);
+        header.bytes(entry.name);
+        if (zip64) {
+            header.int16(ZIP64_EXTRA_ID);
+            header.int16(16);
+            header.int64(descriptor ? 0 : entry.size);
+            header.int64(descriptor ? 0 : entry.compressedSize);
+        }
+        header.writeTo(out);
+    }
+
+    /**
+     * Writes the sizes after a deflated entry, in the format its local header announced:
+     * readers expect 8-byte sizes exactly when that header carries a ZIP64 extra field.
+     */
+    private void writeDataDescriptor(CentralEntry entry, boolean zip64, OutputStream out) throws IOException {
+        LittleEndian descriptor = new LittleEndian(24);
+        descriptor.int32(DATA_DESCRIPTOR_SIGNATURE);
+        descriptor.int32((int) entry.crc);
+        if (zip64) {
+            descriptor.int64(entry.compressedSize);
+            descriptor.int64(entry.size);
+        } else {
+            descriptor.int32((int) entry.compressedSize);
+            descriptor.int32((int) entry.size);
+        }
+        descriptor.writeTo(out);
+    }
+
+    /**
+     * The one test for a size or offset that does not fit the classic format. A value
+     * equal to {@code 0xFFFFFFFF} counts, since that value marks a field as moved to ZIP64.
+     */
+    private static boolean needsZip64(long value) {
+        return value >= ZIP64_MAGIC;
+    }
+
+    private void writeCentralDirectory(List<CentralEntry> entries, CountingOutputStream out) throws IOException {
+        long start = out.count();
+        for (CentralEntry entry : entries) {
+            boolean sizeZip64 = needsZip64(entry.size) || needsZip64(entry.compressedSize);
+            boolean offsetZip64 = needsZip64(entry.offset);
+            int extraLength = (sizeZip64 ? 16 : 0) + (offsetZip64 ? 8 : 0);
+            int version = extraLength > 0 ? VERSION_ZIP64 : VERSION_DEFAULT;
+
+            LittleEndian header = new LittleEndian(46 + entry.name.length + 4 + extraLength);
+            header.int32(CENTRAL_HEADER_SIGNATURE);
+            header.int16(version);
+            header.int16(version);
+            header.int16(entry.flags);
+            header.int16(entry.method);
+            header.int16(entry.dosTime);
+            header.int16(entry.dosDate);
+            header.int32((int) entry.crc);
+            header.int32((int) (sizeZip64 ? ZIP64_MAGIC : entry.compressedSize));
+            header.int32((int) (sizeZip64 ? ZIP64_MAGIC : entry.size));
+            header.int16(entry.name.length);
+            header.int16(extraLength > 0 ? extraLength + 4 : 0);
+            header.int16(0);                                    // comment length
+            header.int16(0);                                    // disk number start
+            header.int16(0);                                    // internal attributes
+            header.int32(0);                                    // external attributes
+            header.int32((int) (offsetZip64 ? ZIP64_MAGIC : entry.offset));
+            header.bytes(entry.name);
+            if (extraLength > 0) {
+                header.int16(ZIP64_EXTRA_ID);
+                header.int16(extraLength);
+                if (sizeZip64) {
+                    header.int64(entry.size);
+                    header.int64(entry.compressedSize);
+                }
+                if (offsetZip64) {
+                    header.int64(entry.offset);
+                }
+            }
+            header.writeTo(out);
+        }
+        long size = out.count() - start;
+
+        boolean zip64 = entries.size() >= ZIP64_MAGIC_COUNT || needsZip64(start) || needsZip64(size);
+        if (zip64) {
+            long recordOffset = out.count();
+            LittleEndian record = new LittleEndian(56 + 20);
+            record.int32(ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE);
+            record.int64(44);                                   // size of the rest of the record
+            record.int16(VERSION_ZIP64);
+            record.int16(VERSION_ZIP64);
+            record.int32(0);                                    // this disk
+            record.int32(0);                                    // disk with the central directory
+            record.int64(entries.size());
+            record.int64(entries.size());
+            record.int64(size);
+            record.int64(start);
+            record.int32(ZIP64_LOCATOR_SIGNATURE);
+            record.int32(0);                                    // disk with the ZIP64 record
+            record.int64(recordOffset);
+            record.int32(1);                                    // total disks
+            record.writeTo(out);
+        }
+
+        LittleEndian end = new LittleEndian(22);
+        end.int32(END_OF_CENTRAL_DIRECTORY_SIGNATURE);
+        end.int16(0);                                           // this disk
+        end.int16(0);                                           // disk with the central directory
+        end.int16(zip64 ? ZIP64_MAGIC_COUNT : entries.size());
+        end.int16(zip64 ? ZIP64_MAGIC_COUNT : entries.size());
+        end.int32((int) (zip64 ? ZIP64_MAGIC : size));
+        end.int32((int) (zip64 ? ZIP64_MAGIC : start));
+        end.int16(0);                                           // comment length
+        end.writeTo(out);
+    }
+
+    private static boolean isStoredAsIs(MultipartFile file) throws IOException {
+        if (CompressedFormats.isCompressedType(file.getContentType())) {
+            return true;
+        }
+        try (InputStream in = file.getInputStream()) {
+            byte[] header = in.readNBytes(CompressedFormats.HEADER_LENGTH);
+            return CompressedFormats.hasCompressedSignature(header, header.length);
+        }
+    }
+
+    private static long crcOf(MultipartFile file) {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = file.getInputStream()) {
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                crc.update(buffer, 0, n);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return crc.getValue();
+    }
+
+    private static <T> T join(ForkJoinTask<T> task) throws IOException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while compressing");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException unchecked) {
+                throw unchecked.getCause();
+            }
+            throw new IOException("Compression failed", cause);
+        }
+    }
+
+    private static int[] dosDateTime(LocalDateTime time) {
+        int dosTime = (time.getHour() << 11) | (time.getMinute() << 5) | (time.getSecond() >> 1);
+        int dosDate = ((Math.max(time.getYear(), 1980) - 1980) << 9) | (time.getMonthValue() << 5) | time.getDayOfMonth();
+        return new int[]{dosDate, dosTime};
+    }
+
+    /** What the central directory needs to know about an entry once it has been written. */
+    private static final class CentralEntry {
+        final byte[] name;
+        final int flags;
+        final int method;
+        final int dosDate;
+        final int dosTime;
+        final long offset;
+        long crc;
+        long compressedSize;
+        long size;
+
+        CentralEntry(byte[] name, int flags, int method, int[] dosDateTime, long offset) {
+            this.name = name;
+            this.flags = flags;
+            this.method = method;
+            this.dosDate = dosDateTime[0];
+            this.dosTime = dosDateTime[1];
+            this.offset = offset;
+        }
+    }
+
+    /** Small little-endian record builder for ZIP headers. */
+    private static final class LittleEndian {
+        private final byte[] bytes;
+        private int position;
+
+        LittleEndian(int capacity) {
+            this.bytes = new byte[capacity];
+        }
+
+        void int16(int value) {
+            bytes[position++] = (byte) value;
+            bytes[position++] = (byte) (value >>> 8);
+        }
+
+        void int32(int value) {
+            int16(value);
+            int16(value >>> 16);
+        }
+
+        void int64(long value) {
+            int32((int) value);
+            int32((int) (value >>> 32));
+        }
+
+        void bytes(byte[] value) {
+            System.arraycopy(value, 0, bytes, position, value.length);
+            position += value.length;
+        }
+
+        void writeTo(OutputStream out) throws IOException {
+            out.write(bytes, 0, position);
+        }
+    }
+}
@@ -0,0 +1,410 @@
+package com.myprojecticaro.poc_s3_file_uploader.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.myprojecticaro.poc_s3_file_uploader.io.ContentCodec;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompletedMultipartUpload;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+import software.amazon.awssdk.services.s3.presigner.model.PresignedGetObjectRequest;
+import software.amazon.awssdk.services.s3.presigner.model.PresignedPutObjectRequest;
+import software.amazon.awssdk.services.s3.presigner.model.PresignedUploadPartRequest;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * Issues presigned S3 URLs, so file content travels between clients and S3 directly.
+ * <p>
+ * The application still names the object and applies the {@link AntivirusService}
+ * file name rules, but the bytes no longer go through this JVM: a client asks for a
+ * URL, then {@code PUT}s or {@code GET}s the content against S3 itself. Large files
+ * get one presigned {@code UploadPart} URL per part of a multipart upload created
+ * here, so they can be sent in parallel and retried part by part. A final
+ * {@link #complete(String, String, List)} call stores the object and lets the rest of
+ * the application know about it.
+ * </p>
+ *
+ * <p>
+ * URLs are valid for {@code ttl}. Download URLs are cached per key and reused for
+ * half of that, so a hot key is signed once per window rather than on every request,
+ * and a URL handed out always has at least half of its lifetime left.
+ * </p>
+ *
+ * <p>
+ * Objects stored compressed by {@link StorageCompression} are signed with a
+ * {@code response-content-encoding} override for their codec, so S3 labels the bytes
+ * the way the application download would. Clients that do not accept the codec get
+ * no URL and are left to the application download, which decodes on the fly.
+ * </p>
+ *
+ * <p>
+ * Content scanning needs the bytes, so presigned uploads are only content-scanned
+ * when the {@link QuarantineService} is enabled: the URLs then point at the quarantine
+ * prefix and completing the upload queues its scan. With content scanning on and
+ * quarantine off, no upload URL is issued at all.
+ * </p>
+ *
+ * <p>
+ * Every upload presigned here is remembered with its multipart upload id for twice
+ * {@code ttl}, and only a {@link #complete(String, String, List)} or
+ * {@link #abort(String, String)} naming that exact pair is accepted, so a client
+ * cannot announce or discard an object it was not given.
+ * </p>
+ *
+ * <p><strong>Configuration:</strong>
+ * <pre>
+ * aws:
+ *   s3:
+ *     presign:
+ *       ttl: 15m
+ *       part-size: 8388608
+ *       max-cached-urls: 100000
+ * </pre>
+ * </p>
+ *
+ * @author Icaro
+ * @version 1.0
+ */
+@Service
+public class PresignedUrlService {
+
+    /** Most parts a multipart upload may have. */
+    private static final int MAX_PARTS = 10_000;
+
+    private static final long MEBIBYTE = 1024 * 1024;
+
+    /**
+     * A presigned single-request upload.
+     *
+     * @param key         the object key the file is stored under once completed
+     * @param url         where to {@code PUT} the content
+     * @param contentType the {@code Content-Type} the request must carry, as it is part of the signature
+     * @param expiresAt   when the URL stops working
+     */
+    public record PresignedUpload(String key, String url, String contentType, Instant expiresAt) {
+    }
+
+    /**
+     * A presigned multipart upload.
+     *
+     * @param key       the object key the file is stored under once completed
+     * @param uploadId  the S3 multipart upload id, needed to complete or abort it
+     * @param partSize  the size of every part but the last
+     * @param parts     one URL per part, to {@code PUT} that part's bytes
+     * @param expiresAt when the URLs stop working
+     */
+    public record PresignedMultipartUpload(String key, String uploadId, long partSize, List<PresignedPart> parts,
+                                           Instant expiresAt) {
+    }
+
+    /**
+     * @param partNumber the part number, from 1
+     * @param url        where to {@code PUT} the part
+     */
+    public record PresignedPart(int partNumber, String url) {
+    }
+
+    /**
+     * A part uploaded by the client.
+     *
+     * @param partNumber the part number, from 1
+     * @param eTag       the {@code ETag} S3 returned for it
+     */
+    public record UploadedPart(int partNumber, String eTag) {
+    }
+
+    /**
+     * The client's report that it has finished uploading to presigned URLs.
+     *
+     * @param key      the key returned when the upload was presigned
+     * @param uploadId the multipart upload id, or {@code null} for a single {@code PUT}
+     * @param parts    the parts of a multipart upload with their ETags
+     */
+    public record Completion(String key, String uploadId, List<UploadedPart> parts) {
+    }
+
+    /**
+     * A presigned download.
+     *
+     * @param url       where to {@code GET} the content
+     * @param expiresAt when the URL stops working
+     */
+    public record PresignedDownload(String url, Instant expiresAt) {
+    }
+
+    /** A cached download URL with the codec the object is stored with, or {@code null}. */
+    private record SignedDownload(PresignedDownload download, ContentCodec codec) {
+    }
+
+    /** An upload handed out and not yet completed, with its multipart upload id or {@code null}. */
+    private record IssuedUpload(String uploadId) {
+    }
+
+    private final S3Presigner presigner;
+    private final S3Client s3Client;
+    private final AntivirusService antivirusService;
+    private final QuarantineService quarantineService;
+    private final ApplicationEventPublisher eventPublisher;
+    private final Duration ttl;
+    private final long partSize;
+    private final Cache<String, SignedDownload> downloads;
+    private final Cache<String, IssuedUpload> issuedUploads;
+
+    @Value("${aws.s3.bucket-name}")
+    private String bucketName;
+
+    public PresignedUrlService(S3Presigner presigner,
+                               S3Client s3Client,
+                               AntivirusService antivirusService,
+                               QuarantineService quarantineService,
+                               ApplicationEventPublisher eventPublisher,
+                               @Value("${aws.s3.presign.ttl:15m}") Duration ttl,
+                               @Value("${aws.s3.presign.part-size:8388608}") long partSize,
+                               @Value("${aws.s3.presign.max-cached-urls:100000}") long maxCachedUrls) {
+        this.presigner = presigner;
+        this.s3Client = s3Client;
+        this.antivirusService = antivirusService;
+        this.quarantineService = quarantineService;
+        this.eventPublisher = eventPublisher;
+        this.ttl = ttl;
+        this.partSize = partSize;
+        this.downloads = Caffeine.newBuilder()
+                .maximumSize(maxCachedUrls)
+                .expireAfterWrite(ttl.dividedBy(2))
+                .build();
+        this.issuedUploads = Caffeine.newBuilder()
+                .maximumSize(maxCachedUrls)
+                .expireAfterWrite(ttl.multipliedBy(2))
+                .build();
+    }
+
+    /**
+     * Presigns a single {@code PutObject} for a new file.
+     *
+     * @param filename    the name of the file; the key is derived from it as for other uploads
+     * @param contentType the content type to store; may be {@code null}
+     * @return the URL to upload to
+     * @throws IllegalStateException if content scanning is on but quarantine is off
+     * @throws RuntimeException if the file name is rejected
+     */
+    public PresignedUpload presignUpload(String filename, String contentType) {
+        requireScannable();
+        antivirusService.scanFilename(filename);
+        String key = newKey(filename);
+        String type = contentTypeOrDefault(contentType);
+        PresignedPutObjectRequest presigned = presigner.presignPutObject(request -> request
+                .signatureDuration(ttl)
+                .putObjectRequest(PutObjectRequest.builder()
+                        .bucket(bucketName)
+                        .key(uploadKey(key))
+                        .contentType(type)
+                        .build()));
+        issuedUploads.put(key, new IssuedUpload(null));
+        return new PresignedUpload(key, presigned.url().toString(), type, presigned.expiration());
+    }
+
+    /**
+     * Starts a multipart upload and presigns one {@code UploadPart} per part.
+     *
+     * @param filename    the name of the file; the key is derived from it as for other uploads
+     * @param contentType the content type to store; may be {@code null}
+     * @param size        the total size of the file
+     * @return the upload id and the part URLs
+     * @throws IllegalStateException if content scanning is on but quarantine is off
+     * @throws RuntimeException if the file name is rejected
+     */
+    public PresignedMultipartUpload presignMultipartUpload(String filename, String contentType, long size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("Empty files are not allowed.");
+        }
+        requireScannable();
+        antivirusService.scanFilename(filename);
+        long part = partSize;
+        if (size > part * MAX_PARTS) {
+            // Larger parts keep the file within the part limit; round up to whole MiB.
+            part = ((size + MAX_PARTS - 1) / MAX_PARTS + MEBIBYTE - 1) / MEBIBYTE * MEBIBYTE;
+        }
+        int partCount = (int) ((size + part - 1) / part);
+
+        String key = newKey(filename);
+        String uploadId = s3Client.createMultipartUpload(CreateMultipartUploadRequest.builder()
+                .bucket(bucketName)
+                .key(uploadKey(key))
+                .contentType(contentTypeOrDefault(contentType))
+                .build()).uploadId();
+        issuedUploads.put(key, new IssuedUpload(uploadId));
+
+        List<PresignedPart> parts = new ArrayList<>(partCount);
+        Instant expiresAt = null;
+        for (int partNumber = 1; partNumber <= partCount; partNumber++) {
+            int number = partNumber;
+            PresignedUploadPartRequest presigned = presigner.presignUploadPart(request -> request
+                    .signatureDuration(ttl)
+                    .uploadPartRequest(UploadPartRequest.builder()
+                            .bucket(bucketName)
+                            .key(uploadKey(key))
+                            .uploadId(uploadId)
+                            .partNumber(number)
+                            .build()));
+            parts.add(new PresignedPart(number, presigned.url().toString()));
+            expiresAt = presigned.expiration();
+        }
+        return new PresignedMultipartUpload(key, uploadId, part, parts, expiresAt);
+    }
+
+    /**
+     * Records an upload the client has finished sending to a presigned URL.
+     * <p>
+     * For a multipart upload the parts are assembled first. The object is then announced
+     * to the rest of the application, or queued for its scan in quarantine mode.
+     * </p>
+     *
+     * @param key      the key returned when the upload was presigned
+     * @param uploadId the multipart upload id, or {@code null} for a single {@code PUT}
+     * @param parts    the parts of a multipart upload with their ETags
+     * @throws IOException if a quarantine job cannot be persisted
+     * @throws NoSuchElementException if no upload of {@code key} with {@code uploadId} was presigned,
+     *                                or it was already completed
+     * @throws software.amazon.awssdk.services.s3.model.NoSuchKeyException if the content was never uploaded
+     */
+    public void complete(String key, String uploadId, List<UploadedPart> parts) throws IOException {
+        requireIssued(key, uploadId);
+        String uploadKey = uploadKey(key);
+        if (uploadId != null) {
+            List<CompletedPart> completed = parts.stream()
+                    .sorted(Comparator.comparingInt(UploadedPart::partNumber))
+                    .map(part -> CompletedPart.builder().partNumber(part.partNumber()).eTag(part.eTag()).build())
+                    .toList();
+            s3Client.completeMultipartUpload(CompleteMultipartUploadRequest.builder()
+                    .bucket(bucketName)
+                    .key(uploadKey)
+                    .uploadId(uploadId)
+                    .multipartUpload(CompletedMultipartUpload.builder().parts(completed).build())
+                    .build());
+        }
+        HeadObjectResponse head = s3Client.headObject(HeadObjectRequest.builder().bucket(bucketName).key(uploadKey).build());
+        eventPublisher.publishEvent(ObjectChangedEvent.written(new FileMetadata(uploadKey, head.contentLength(),
+                head.eTag(), head.lastModified(), contentTypeOrDefault(head.contentType()))));
+        if (!uploadKey.equals(key)) {
+            quarantineService.submit(key, head.contentLength(), contentTypeOrDefault(head.contentType()), null);
+        }
+        issuedUploads.invalidate(key);
+    }
+
+    /**
+     * Abandons a presigned multipart upload and discards its parts.
+     *
+     * @param key      the key returned when the upload was presigned
+     * @param uploadId the multipart upload id
+     * @throws NoSuchElementException if no upload of {@code key} with {@code uploadId} was presigned
+     */
+    public void abort(String key, String uploadId) {
+        requireIssued(key, uploadId);
+        s3Client.abortMultipartUpload(AbortMultipartUploadRequest.builder()
+                .bucket(bucketName)
+                .key(uploadKey(key))
+                .uploadId(uploadId)
+                .build());
+        issuedUploads.invalidate(key);
+    }
+
+    /**
+     * Presigns a {@code GetObject}, reusing a URL signed for the same key earlier in the window.
+     *
+     * @param key            the object key
+     * @param acceptEncoding the client's {@code Accept-Encoding} header, or {@code null}
+     * @return the URL to download from, or empty if the object is stored compressed with a codec
+     *         the client does not accept; a missing object still gets a URL
+     */
+    public Optional<PresignedDownload> presignDownload(String key, String acceptEncoding) {
+        SignedDownload signed = downloads.get(key, this::signDownload);
+        if (signed.codec() != null && !signed.codec().isAcceptedBy(acceptEncoding)) {
+            return Optional.empty();
+        }
+        return Optional.of(signed.download());
+    }
+
+    /**
+     * Drops the cached download URL of a changed object, as it may now be stored with another encoding.
+     *
+     * @param event the change
+     */
+    @EventListener
+    public void onObjectChanged(ObjectChangedEvent event) {
+        downloads.invalidate(event.key());
+    }
+
+    private SignedDownload signDownload(String key) {
+        ContentCodec codec = storedCodec(key);
+        PresignedGetObjectRequest presigned = presigner.presignGetObject(request -> request
+                .signatureDuration(ttl)
+                .getObjectRequest(GetObjectRequest.builder()
+                        .bucket(bucketName)
+                        .key(key)
+                        .responseContentEncoding(codec != null ? codec.token() : null)
+                        .build()));
+        return new SignedDownload(new PresignedDownload(presigned.url().toString(), presigned.expiration()), codec);
+    }
+
+    private ContentCodec storedCodec(String key) {
+        try {
+            StoredEncoding encoding = StoredEncoding.from(s3Client.headObject(HeadObjectRequest.builder()
+                    .bucket(bucketName)
+                    .key(key)
+                    .build()).metadata());
+            return encoding != null ? encoding.codec() : null;
+        } catch (NoSuchKeyException e) {
+            // S3 answers the URL with its own 404.
+            return null;
+        }
+    }
+
+    /** Presigned content bypasses the inline scan, so it has to go through quarantine when content is scanned. */
+    private void requireScannable() {
+        if (antivirusService.isContentScanEnabled() && !quarantineService.isEnabled()) {
+            throw new IllegalStateException(
+                    "Presigned uploads are not content-scanned; enable app.antivirus.quarantine to allow them");
+        }
+    }
+
+    private void requireIssued(String key, String uploadId) {
+        IssuedUpload issued = key != null ? issuedUploads.getIfPresent(key) : null;
+        if (issued == null || !Objects.equals(issued.uploadId(), uploadId)) {
+            throw new NoSuchElementException("No presigned upload of " + key + " with upload id " + uploadId);
+        }
+    }
+
+    private String uploadKey(String key) {
+        return quarantineService.isEnabled() ? quarantineService.stagingKey(key) : key;
+    }
+
+    private static String newKey(String filename) {
+        return System.currentTimeMillis() + "_" + filename;
+    }
+
+    private static String contentTypeOrDefault(String contentType) {
+        return contentType != null ? contentType : "application/octet-stream";
+    }
+}
@@ -0,0 +1,543 @@
+package com.myprojecticaro.poc_s3_file_uploader.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.myprojecticaro.poc_s3_file_uploader.io.BufferPool;
+import com.myprojecticaro.poc_s3_file_uploader.io.ContentCodec;
+import com.myprojecticaro.poc_s3_file_uploader.io.MalwareDetectedException;
+import com.myprojecticaro.poc_s3_file_uploader.metrics.TransferMetrics;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompletedMultipartUpload;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CopyObjectRequest;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.UploadPartCopyRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartCopyResponse;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scans uploads after they are stored, so the upload response does not wait for the scan.
+ * <p>
+ * In this mode {@link S3Service} writes each file under the quarantine {@code prefix}
+ * and answers as soon as the {@code PutObject} completes. A job is then queued here
+ * and a pool of {@code workers} threads reads the object back through the
+ * {@link AntivirusService} content scan. A clean file is promoted to its final key
+ * with a server-side {@code CopyObject}, or with a multipart {@code UploadPartCopy}
+ * when it is over the 5 GiB a single copy accepts; an infected one is deleted. Either
+ * way the quarantined copy is removed, and the outcome can be queried with {@link #status(String)}.
+ * Scan throughput is set by {@code workers}, independently of the request threads.
+ * </p>
+ *
+ * <p>
+ * Each job is a small properties file in {@code queue-dir}, written before the upload
+ * is acknowledged and updated atomically (write, fsync, rename) as it moves from
+ * {@code PENDING} to {@code CLEAN}. Jobs still on disk at startup are resumed, so a
+ * restart loses no scan and never rescans a file already found clean. A job that
+ * keeps failing is retried with an exponential back-off up to {@code max-attempts}
+ * times, then left on disk for the next start.
+ * </p>
+ *
+ * <p><strong>Configuration:</strong>
+ * <pre>
+ * app:
+ *   antivirus:
+ *     quarantine:
+ *       enabled: false
+ *       prefix: quarantine/
+ *       workers: 4
+ *       queue-dir: ${java.io.tmpdir}/poc-s3-file-uploader/quarantine
+ *       max-attempts: 10
+ *       retry-delay: 5s
+ * </pre>
+ * </p>
+ *
+ * @author Icaro
+ * @version 1.0
+ */
+@Service
+public class QuarantineService {
+
+    private static final Logger logger = LoggerFactory.getLogger(QuarantineService.class);
+
+    private static final String JOB_SUFFIX = ".job";
+
+    private static final Duration MAX_RETRY_DELAY = Duration.ofMinutes(5);
+
+    /** The largest object a single {@code CopyObject} accepts. */
+    static final long MAX_COPY_SIZE = 5L * 1024 * 1024 * 1024;
+
+    /** The most parts a multipart upload may have. */
+    private static final int MAX_PARTS = 10_000;
+
+    /** Where a file is in the pipeline. */
+    public enum State {
+        /** Stored under the quarantine prefix, waiting for or undergoing the scan. */
+        PENDING,
+        /** Scanned clean and available under its final key. */
+        CLEAN,
+        /** Rejected by the scan and deleted. */
+        INFECTED,
+        /** Could not be processed; retried at the next start if the job is still on disk. */
+        FAILED
+    }
+
+    /**
+     * The scan status of an upload.
+     *
+     * @param key    the final object key
+     * @param state  where the file is in the pipeline
+     * @param detail the signature found, or the reason for a failure
+     */
+    public record ScanStatus(String key, State state, String detail) {
+    }
+
+    /**
+     * A queued scan, as persisted in {@code queue-dir}.
+     *
+     * @param id          the job file name, without suffix
+     * @param stagingKey  where the file was uploaded
+     * @param key         where it is promoted once clean
+     * @param size        the length of the content as uploaded
+     * @param contentType the content type
+     * @param digest      the hex SHA-256 of the content, or {@code null} if not computed
+     * @param codec       the {@link ContentCodec#token()} the file is stored with, or {@code null} if uncompressed
+     * @param state       {@code PENDING} until the scan passes, then {@code CLEAN}
+     * @param attempts    failed processing attempts so far
+     */
+    record Job(String id, String stagingKey, String key, long size, String contentType,
+               String digest, String codec, State state, int attempts) {
+
+        Job withState(State state) {
+            return new Job(id, stagingKey, key, size, contentType, digest, codec, state, attempts);
+        }
+
+        Job failedAttempt() {
+            return new Job(id, stagingKey, key, size, contentType, digest, codec, state, attempts + 1);
+        }
+
+        StoredEncoding encoding() {
+            return codec != null ? new StoredEncoding(ContentCodec.of(codec), size) : null;
+        }
+
+        Properties toProperties() {
+            Properties properties = new Properties();
+            properties.setProperty("staging-key", stagingKey);
+            properties.setProperty("key", key);
+            properties.setProperty("size", Long.toString(size));
+            properties.setProperty("content-type", contentType);
+            if (digest != null) {
+                properties.setProperty("digest", digest);
+            }
+            if (codec != null) {
+                properties.setProperty("codec", codec);
+            }
+            properties.setProperty("state", state.name());
+            properties.setProperty("attempts", Integer.toString(attempts));
+            return properties;
+        }
+
+        static Job fromProperties(String id, Properties properties) {
+            return new Job(id,
+                    properties.getProperty("staging-key"),
+                    properties.getProperty("key"),
+                    Long.parseLong(properties.getProperty("size")),
+                    properties.getProperty("content-type"),
+                    properties.getProperty("digest"),
+                    properties.getProperty("codec"),
+                    State.valueOf(properties.getProperty("state")),
+                    Integer.parseInt(properties.getProperty("attempts", "0")));
+        }
+    }
+
+    private final S3Client s3Client;
+    private final AntivirusService antivirusService;
+    private final BufferPool downloadBufferPool;
+    private final ContentHashIndex contentHashIndex;
+    private final TransferMetrics transferMetrics;
+    private final ApplicationEventPublisher eventPublisher;
+    private final boolean enabled;
+    private final String prefix;
+    private final Path queueDir;
+    private final ScheduledThreadPoolExecutor workers;
+    /** Jobs not finished yet, by final key. */
+    private final Map<String, Job> pending = new ConcurrentHashMap<>();
+    /** Outcomes of recently finished jobs, by final key. */
+    private final Cache<String, ScanStatus> finished = Caffeine.newBuilder().maximumSize(100_000).build();
+
+    @Value("${aws.s3.bucket-name}")
+    private String bucketName;
+
+    @Value("${app.antivirus.quarantine.max-attempts:10}")
+    private int maxAttempts = 10;
+
+    @Value("${app.antivirus.quarantine.retry-delay:5s}")
+    private Duration retryDelay = Duration.ofSeconds(5);
+
+    /** Objects larger than this are promoted part by part; lowered in tests. */
+    private long multipartCopyThreshold = MAX_COPY_SIZE;
+
+    /** The smallest part of a multipart promotion; raised when the object needs more than 10 000 parts. */
+    private long copyPartSize = 512L * 1024 * 1024;
+
+    public QuarantineService(S3Client s3Client,
+                             AntivirusService antivirusService,
+                             @Qualifier("downloadBufferPool") BufferPool downloadBufferPool,
+                             ContentHashIndex contentHashIndex,
+                             TransferMetrics transferMetrics,
+                             ApplicationEventPublisher eventPublisher,
+                             @Value("${app.antivirus.quarantine.enabled:false}") boolean enabled,
+                             @Value("${app.antivirus.quarantine.prefix:quarantine/}") String prefix,
+                             @Value("${app.antivirus.quarantine.workers:4}") int workers,
+                             @Value("${app.antivirus.quarantine.queue-dir:${java.io.tmpdir}/poc-s3-file-uploader/quarantine}") Path queueDir) {
+        this.s3Client = s3Client;
+        this.antivirusService = antivirusService;
+        this.downloadBufferPool = downloadBufferPool;
+        this.contentHashIndex = contentHashIndex;
+        this.transferMetrics = transferMetrics;
+        this.eventPublisher = eventPublisher;
+        this.enabled = enabled;
+        this.prefix = prefix;
+        this.queueDir = queueDir;
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("quarantine-scan-");
+        threadFactory.setDaemon(true);
+        this.workers = new ScheduledThreadPoolExecutor(Math.max(1, workers), threadFactory);
+        if (enabled) {
+            try {
+                Files.createDirectories(queueDir);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot create the quarantine queue directory " + queueDir, e);
+            }
+        }
+    }
+
+    /** @return {@code true} if uploads are scanned after being stored instead of inline */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /** @return the key a file destined for {@code key} is uploaded to while it awaits its scan */
+    public String stagingKey(String key) {
+        return prefix + key;
+    }
+
+    /**
+     * Queues the scan of a file just uploaded to {@link #stagingKey(String)}.
+     * <p>
+     * The job is on disk when this method returns, so it survives a restart.
+     * </p>
+     *
+     * @param key         the final key
+     * @param size        the content length
+     * @param contentType the content type
+     * @param digest      the SHA-256 of the content, recorded in the {@link ContentHashIndex}
+     *                    once the file is promoted; may be {@code null}
+     * @throws IOException if the job cannot be persisted
+     */
+    public void submit(String key, long size, String contentType, byte[] digest) throws IOException {
+        submit(key, size, contentType, digest, null);
+    }
+
+    /**
+     * Queues the scan of a file just uploaded to {@link #stagingKey(String)} compressed by
+     * {@link StorageCompression}; the scan reads the decompressed content.
+     *
+     * @param key         the final key
+     * @param size        the length of the original content
+     * @param contentType the content type
+     * @param digest      the SHA-256 of the original content; may be {@code null}
+     * @param encoding    how the file is stored, or {@code null} if uncompressed
+     * @throws IOException if the job cannot be persisted
+     */
+    public void submit(String key, long size, String contentType, byte[] digest, StoredEncoding encoding)
+            throws IOException {
+        Job job = new Job(UUID.randomUUID().toString(), stagingKey(key), key, size, contentType,
+                digest != null ? HexFormat.of().formatHex(digest) : null,
+                encoding != null ? encoding.codec().token() : null, State.PENDING, 0);
+        persist(job);
+        pending.put(key, job);
+        workers.execute(() -> process(job));
+    }
+
+    /**
+     * @param key the final key of an upload
+     * @return its scan status, or empty if the key was never queued or finished long ago
+     */
+    public Optional<ScanStatus> status(String key) {
+        Job job = pending.get(key);
+        if (job != null) {
+            return Optional.of(new ScanStatus(key, job.attempts() >= maxAttempts ? State.FAILED : State.PENDING, null));
+        }
+        return Optional.ofNullable(finished.getIfPresent(key));
+    }
+
+    /** @return the number of jobs not finished yet */
+    public int backlog() {
+        return pending.size();
+    }
+
+    /** Resumes the jobs left on disk by a previous run. */
+    @EventListener(ApplicationReadyEvent.class)
+    public void resume() {
+        if (!enabled) {
+            return;
+        }
+        int resumed = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(queueDir, "*" + JOB_SUFFIX)) {
+            for (Path file : files) {
+                Job job;
+                try {
+                    job = load(file);
+                } catch (IOException | RuntimeException e) {
+                    logger.error("Skipping unreadable quarantine job {}", file, e);
+                    continue;
+                }
+                Job retry = new Job(job.id(), job.stagingKey(), job.key(), job.size(), job.contentType(),
+                        job.digest(), job.codec(), job.state(), 0);
+                pending.put(retry.key(), retry);
+                workers.execute(() -> process(retry));
+                resumed++;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read the quarantine queue directory " + queueDir, e);
+        }
+        if (resumed > 0) {
+            logger.info("Resumed {} quarantine scans from {}", resumed, queueDir);
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        // Jobs in progress stay on disk and are resumed at the next start.
+        workers.shutdownNow();
+    }
+
+    private void process(Job job) {
+        try {
+            if (job.state() == State.PENDING) {
+                String signature;
+                try {
+                    signature = scan(job);
+                } catch (NoSuchKeyException e) {
+                    finish(job, State.FAILED, "quarantined object no longer exists");
+                    return;
+                }
+                if (signature != null) {
+                    delete(job.stagingKey());
+                    logger.warn("Quarantined upload {} is infected ({}), deleted", job.key(), signature);
+                    finish(job, State.INFECTED, signature);
+                    return;
+                }
+                job = job.withState(State.CLEAN);
+                persist(job);
+                pending.put(job.key(), job);
+            }
+            promote(job);
+        } catch (IOException | RuntimeException e) {
+            retry(job, e);
+        }
+    }
+
+    /** @return the signature found, or {@code null} if the object is clean */
+    private String scan(Job job) throws IOException {
+        GetObjectRequest request = GetObjectRequest.builder().bucket(bucketName).key(job.stagingKey()).build();
+        byte[] buffer = downloadBufferPool.acquire();
+        try (ResponseInputStream<GetObjectResponse> object = s3Client.getObject(request)) {
+            StoredEncoding encoding = StoredEncoding.from(object.response().metadata());
+            InputStream stored = encoding != null ? encoding.codec().decoding(object) : object;
+            InputStream content = antivirusService.scanning(stored, job.key(),
+                    transferMetrics.recorder(TransferMetrics.Operation.UPLOAD, TransferMetrics.Phase.SCAN));
+            try {
+                while (content.read(buffer) != -1) {
+                    // the scan happens as the content is read
+                }
+                return null;
+            } catch (MalwareDetectedException e) {
+                // No point reading the rest of an infected object.
+                object.abort();
+                return e.signature();
+            }
+        } finally {
+            downloadBufferPool.release(buffer);
+        }
+    }
+
+    private void promote(Job job) throws IOException {
+        String eTag;
+        try {
+            HeadObjectResponse staged = s3Client.headObject(
+                    HeadObjectRequest.builder().bucket(bucketName).key(job.stagingKey()).build());
+            eTag = staged.contentLength() > multipartCopyThreshold
+                    ? copyInParts(job, staged)
+                    : s3Client.copyObject(CopyObjectRequest.builder()
+                            .sourceBucket(bucketName)
+                            .sourceKey(job.stagingKey())
+                            .destinationBucket(bucketName)
+                            .destinationKey(job.key())
+                            .build()).copyObjectResult().eTag();
+        } catch (NoSuchKeyException e) {
+            // A previous run may have promoted the file and crashed before removing the job.
+            if (exists(job.key())) {
+                finish(job, State.CLEAN, null);
+            } else {
+                finish(job, State.FAILED, "quarantined object no longer exists");
+            }
+            return;
+        }
+        eventPublisher.publishEvent(ObjectChangedEvent.written(
+                new FileMetadata(job.key(), job.size(), eTag, Instant.now(), job.contentType())));
+        if (job.digest() != null) {
+            contentHashIndex.record(HexFormat.of().parseHex(job.digest()), job.key(), eTag, job.size(), job.encoding());
+        }
+        delete(job.stagingKey());
+        finish(job, State.CLEAN, null);
+    }
+
+    /**
+     * Copies the staged object to its final key with {@code UploadPartCopy}, keeping its
+     * content type, encoding and user metadata as a {@code CopyObject} would.
+     *
+     * @return the ETag of the promoted object
+     */
+    private String copyInParts(Job job, HeadObjectResponse staged) {
+        long size = staged.contentLength();
+        long partSize = Math.max(copyPartSize, (size + MAX_PARTS - 1) / MAX_PARTS);
+        String uploadId = s3Client.createMultipartUpload(CreateMultipartUploadRequest.builder()
+                .bucket(bucketName)
+                .key(job.key())
+                .contentType(staged.contentType())
+                .contentEncoding(staged.contentEncoding())
+                .metadata(staged.metadata())
+                .build()).uploadId();
+        try {
+            List<CompletedPart> parts = new ArrayList<>();
+            for (long offset = 0; offset < size; offset += partSize) {
+                int partNumber = parts.size() + 1;
+                UploadPartCopyResponse part = s3Client.uploadPartCopy(UploadPartCopyRequest.builder()
+                        .sourceBucket(bucketName)
+                        .sourceKey(job.stagingKey())
+                        .copySourceIfMatch(staged.eTag())
+                        .copySourceRange("bytes=" + offset + "-" + (Math.min(offset + partSize, size) - 1))
+                        .destinationBucket(bucketName)
+                        .destinationKey(job.key())
+                        .uploadId(uploadId)
+                        .partNumber(partNumber)
+                        .build());
+                parts.add(CompletedPart.builder().partNumber(partNumber).eTag(part.copyPartResult().eTag()).build());
+            }
+            return s3Client.completeMultipartUpload(CompleteMultipartUploadRequest.builder()
+                    .bucket(bucketName)
+                    .key(job.key())
+                    .uploadId(uploadId)
+                    .multipartUpload(CompletedMultipartUpload.builder().parts(parts).build())
+                    .build()).eTag();
+        } catch (RuntimeException e) {
+            try {
+                s3Client.abortMultipartUpload(AbortMultipartUploadRequest.builder()
+                        .bucket(bucketName).key(job.key()).uploadId(uploadId).build());
+            } catch (RuntimeException abortFailure) {
+                e.addSuppressed(abortFailure);
+            }
+            throw e;
+        }
+    }
+
+    private boolean exists(String key) {
+        try {
+            s3Client.headObject(HeadObjectRequest.builder().bucket(bucketName).key(key).build());
+            return true;
+        } catch (NoSuchKeyException e) {
+            return false;
+        }
+    }
+
+    private void delete(String key) {
+        s3Client.deleteObject(DeleteObjectRequest.builder().bucket(bucketName).key(key).build());
+        eventPublisher.publishEvent(ObjectChangedEvent.deleted(key));
+    }
+
+    private void finish(Job job, State state, String detail) throws IOException {
+        Files.deleteIfExists(jobFile(job.id()));
+        finished.put(job.key(), new ScanStatus(job.key(), state, detail));
+        pending.remove(job.key());
+    }
+
+    private void retry(Job job, Exception error) {
+        Job next = job.failedAttempt();
+        pending.put(next.key(), next);
+        try {
+            persist(next);
+        } catch (IOException e) {
+            logger.warn("Could not record the failed attempt of quarantine job {}", next.id(), e);
+        }
+        if (next.attempts() >= maxAttempts) {
+            logger.error("Giving up on the scan of {} after {} attempts; it is retried at the next start",
+                    next.key(), next.attempts(), error);
+            return;
+        }
+        long delay = Math.min(retryDelay.toMillis() << Math.min(next.attempts() - 1, 20), MAX_RETRY_DELAY.toMillis());
+        logger.warn("Scan of {} failed (attempt {}), retrying in {} ms", next.key(), next.attempts(), delay, error);
+        workers.schedule(() -> process(next), delay, TimeUnit.MILLISECONDS);
+    }
+
+    private Path jobFile(String id) {
+        return queueDir.resolve(id + JOB_SUFFIX);
+    }
+
+    /** Writes the job so that a crash leaves either the previous or the new version on disk. */
+    private void persist(Job job) throws IOException {
+        Path temporary = queueDir.resolve(job.id() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temporary.toFile())) {
+            job.toProperties().store(out, null);
+            out.getFD().sync();
+        }
+        Files.move(temporary, jobFile(job.id()), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static Job load(Path file) throws IOException {
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(file)) {
+            properties.load(in);
+        }
+        String name = file.getFileName().toString();
+        return Job.fromProperties(name.substring(0, name.length() - JOB_SUFFIX.length()), properties);
+    }
+}
@@ -0,0 +1,619 @@
+package com.myprojecticaro.poc_s3_file_uploader.service;
+
+import com.myprojecticaro.poc_s3_file_uploader.io.MalwareDetectedException;
+import com.myprojecticaro.poc_s3_file_uploader.metrics.TransferMetrics;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CompletedMultipartUpload;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resumable uploads in the style of the tus protocol, backed by S3 multipart uploads.
+ * <p>
+ * A session is created with the total length of the file and maps to one
+ * {@code CreateMultipartUpload}. The file is then sent in chunks, each written at an
+ * offset: every complete part-size slice of a chunk is streamed straight into an
+ * {@code UploadPart}, so nothing is buffered on this side. A client that loses its
+ * connection asks for the current offset and sends only what is missing; the
+ * interrupted part, which S3 never stored, is simply sent again. Chunks starting at
+ * different part boundaries can be sent in parallel to go faster. When the last part
+ * arrives the upload is completed and the file appears under its key.
+ * </p>
+ *
+ * <p>
+ * Session state lives in {@code session-dir}: the session itself, written once, and
+ * an append-only log with the ETag of every part received, flushed to disk before the
+ * chunk is acknowledged. Sessions survive a restart of the application, and sessions
+ * idle for longer than {@code expire-after} are aborted so their parts do not linger
+ * in the bucket.
+ * </p>
+ *
+ * <p>
+ * File names go through the {@link AntivirusService} rules when the session is created.
+ * Each part is content-scanned as it streams; a signature that spans two parts is only
+ * caught with the {@link QuarantineService} enabled, in which case the completed file
+ * is stored under the quarantine prefix and scanned as a whole instead.
+ * </p>
+ *
+ * <p><strong>Configuration:</strong>
+ * <pre>
+ * aws:
+ *   s3:
+ *     upload:
+ *       resumable:
+ *         part-size: 8388608     # chunks start at multiples of this (S3 minimum is 5MB)
+ *         session-dir: ${java.io.tmpdir}/poc-s3-file-uploader/uploads
+ *         expire-after: 24h
+ * </pre>
+ * </p>
+ *
+ * @author Icaro
+ * @version 1.0
+ */
+@Service
+public class ResumableUploadService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ResumableUploadService.class);
+
+    /** Most parts a multipart upload may have. */
+    private static final int MAX_PARTS = 10_000;
+
+    private static final long MEBIBYTE = 1024 * 1024;
+
+    private static final String SESSION_SUFFIX = ".session";
+
+    private static final String PARTS_SUFFIX = ".parts";
+
+    /**
+     * Where a resumable upload stands.
+     *
+     * @param id        the session id
+     * @param key       the object key the file is stored under
+     * @param length    the total length of the file
+     * @param offset    bytes received without gaps from the start of the file
+     * @param partSize  chunks must start at a multiple of this
+     * @param completed whether the file has been stored
+     */
+    public record UploadStatus(String id, String key, long length, long offset, long partSize, boolean completed) {
+    }
+
+    private final S3Client s3Client;
+    private final AntivirusService antivirusService;
+    private final QuarantineService quarantineService;
+    private final TransferMetrics transferMetrics;
+    private final ApplicationEventPublisher eventPublisher;
+    private final Path sessionDir;
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService maintenance;
+
+    @Value("${aws.s3.bucket-name}")
+    private String bucketName;
+
+    @Value("${aws.s3.upload.resumable.part-size:8388608}")
+    private long partSize = 8 * MEBIBYTE;
+
+    @Value("${aws.s3.upload.resumable.expire-after:24h}")
+    private Duration expireAfter = Duration.ofHours(24);
+
+    public ResumableUploadService(S3Client s3Client,
+                                  AntivirusService antivirusService,
+                                  QuarantineService quarantineService,
+                                  TransferMetrics transferMetrics,
+                                  ApplicationEventPublisher eventPublisher,
+                                  @Value("${aws.s3.upload.resumable.session-dir:${java.io.tmpdir}/poc-s3-file-uploader/uploads}") Path sessionDir) {
+        this.s3Client = s3Client;
+        this.antivirusService = antivirusService;
+        this.quarantineService = quarantineService;
+        this.transferMetrics = transferMetrics;
+        this.eventPublisher = eventPublisher;
+        this.sessionDir = sessionDir;
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("resumable-upload-");
+        threadFactory.setDaemon(true);
+        this.maintenance = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        load();
+    }
+
+    /** Starts the periodic expiry of abandoned sessions once the application is up. */
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        long period = Math.max(1, Math.min(expireAfter.toMinutes() / 4, 60));
+        maintenance.scheduleWithFixedDelay(this::expire, period, period, TimeUnit.MINUTES);
+    }
+
+    @PreDestroy
+    public void stop() {
+        maintenance.shutdownNow();
+    }
+
+    /**
+     * Creates an upload session.
+     *
+     * @param filename    the name of the file; the key is derived from it as for other uploads
+     * @param contentType the content type stored with the object; may be {@code null}
+     * @param length      the total length of the file
+     * @return the new session, at offset 0
+     * @throws IOException if the session cannot be persisted
+     */
+    public UploadStatus create(String filename, String contentType, long length) throws IOException {
+        if (length <= 0) {
+            throw new IllegalArgumentException("Empty files are not allowed.");
+        }
+        antivirusService.scanFilename(filename);
+
+        long size = partSize;
+        if (length > size * MAX_PARTS) {
+            // Larger parts keep the file within the part limit; round up to whole MiB.
+            size = ((length + MAX_PARTS - 1) / MAX_PARTS + MEBIBYTE - 1) / MEBIBYTE * MEBIBYTE;
+        }
+        String key = System.currentTimeMillis() + "_" + filename;
+        String uploadKey = quarantineService.isEnabled() ? quarantineService.stagingKey(key) : key;
+        String type = contentType != null ? contentType : "application/octet-stream";
+        String uploadId = s3Client.createMultipartUpload(CreateMultipartUploadRequest.builder()
+                .bucket(bucketName)
+                .key(uploadKey)
+                .contentType(type)
+                .build()).uploadId();
+
+        Session session = new Session(UUID.randomUUID().toString(), filename, key, uploadKey, type, uploadId, length, size);
+        try {
+            Files.createDirectories(sessionDir);
+            persist(session);
+        } catch (IOException | RuntimeException e) {
+            abortQuietly(session);
+            throw e;
+        }
+        sessions.put(session.id, session);
+        return session.status();
+    }
+
+    /**
+     * @param id the session id
+     * @return where the upload stands, or empty if the session is unknown or expired
+     */
+    public Optional<UploadStatus> status(String id) {
+        Session session = sessions.get(id);
+        return session != null ? Optional.of(session.status()) : Optional.empty();
+    }
+
+    /**
+     * Writes a chunk of the file.
+     * <p>
+     * The chunk must start at a multiple of the part size. Each complete part it holds
+     * is uploaded as it is read; a trailing piece shorter than a part (other than the
+     * last part of the file) cannot be stored on its own and is discarded, which the
+     * returned offset reflects. If the client stops sending in the middle of a part,
+     * the parts before it are kept.
+     * </p>
+     *
+     * @param id     the session id
+     * @param offset where the chunk starts in the file
+     * @param body   the chunk content
+     * @param length the chunk length if the client declared it, or {@code -1}
+     * @return the offset up to which this chunk was stored
+     * @throws NoSuchElementException   if the session is unknown or expired
+     * @throws IllegalStateException    if the offset is not at a part boundary, or a part
+     *                                  of the chunk is being written by another request
+     * @throws MalwareDetectedException if the content scan rejects the chunk; the session is aborted
+     * @throws IOException              if the session state cannot be persisted
+     */
+    public long write(String id, long offset, InputStream body, long length) throws IOException {
+        Session session = sessions.get(id);
+        if (session == null || session.completed) {
+            throw new NoSuchElementException("No upload in progress with id " + id);
+        }
+        session.touch();
+        if (offset == session.length && session.isFull()) {
+            // A retry after a failed completion.
+            complete(session);
+            return offset;
+        }
+        if (offset < 0 || offset >= session.length || offset % session.partSize != 0) {
+            throw new IllegalStateException("Upload-Offset must be a multiple of " + session.partSize
+                    + " below " + session.length);
+        }
+
+        PushbackInputStream in = new PushbackInputStream(body, 1);
+        long position = offset;
+        long remaining = length >= 0 ? length : Long.MAX_VALUE;
+        while (position < session.length) {
+            int part = (int) (position / session.partSize) + 1;
+            long partLength = Math.min(session.partSize, session.length - position);
+            if (remaining < partLength) {
+                in.transferTo(OutputStream.nullOutputStream());
+                break;
+            }
+            int next = in.read();
+            if (next < 0) {
+                break;
+            }
+            in.unread(next);
+            if (!session.begin(part)) {
+                throw new IllegalStateException("Part " + part + " is already being written");
+            }
+            PartInputStream partBody = new PartInputStream(in, partLength);
+            try {
+                InputStream content = quarantineService.isEnabled()
+                        ? partBody
+                        : antivirusService.scanning(partBody, session.filename, position,
+                                transferMetrics.recorder(TransferMetrics.Operation.LARGE_UPLOAD, TransferMetrics.Phase.SCAN));
+                String eTag = s3Client.uploadPart(UploadPartRequest.builder()
+                                .bucket(bucketName)
+                                .key(session.uploadKey)
+                                .uploadId(session.uploadId)
+                                .partNumber(part)
+                                .contentLength(partLength)
+                                .build(),
+                        SchedulingS3Client.singleUse(content, partLength)).eTag();
+                received(session, part, eTag);
+            } catch (SdkException e) {
+                MalwareDetectedException rejected = MalwareDetectedException.in(e);
+                if (rejected != null) {
+                    cancel(id);
+                    throw rejected;
+                }
+                if (partBody.truncated()) {
+                    logger.info("Chunk of upload {} ended in part {}, {} bytes stored", id, part, position);
+                    break;
+                }
+                throw e;
+            } finally {
+                session.end(part);
+            }
+            position += partLength;
+            remaining -= partLength;
+        }
+
+        if (session.isFull()) {
+            complete(session);
+        }
+        return position;
+    }
+
+    /**
+     * Aborts an upload and discards the parts received.
+     *
+     * @param id the session id
+     * @return {@code false} if the session is unknown
+     */
+    public boolean cancel(String id) {
+        Session session = sessions.remove(id);
+        if (session == null) {
+            return false;
+        }
+        if (!session.completed) {
+            abortQuietly(session);
+        }
+        deleteFiles(session);
+        return true;
+    }
+
+    /** Aborts sessions idle for longer than {@code expire-after} and forgets completed ones. */
+    void expire() {
+        long cutoff = System.currentTimeMillis() - expireAfter.toMillis();
+        for (Session session : sessions.values()) {
+            if (session.lastActivity < cutoff && session.inProgressCount() == 0) {
+                logger.info("Expiring upload session {} for {}", session.id, session.key);
+                cancel(session.id);
+            }
+        }
+    }
+
+    private void complete(Session session) throws IOException {
+        if (!session.startCompletion()) {
+            return;
+        }
+        CompleteMultipartUploadResponse response;
+        try {
+            response = s3Client.completeMultipartUpload(CompleteMultipartUploadRequest.builder()
+                    .bucket(bucketName)
+                    .key(session.uploadKey)
+                    .uploadId(session.uploadId)
+                    .multipartUpload(CompletedMultipartUpload.builder().parts(session.completedParts()).build())
+                    .build());
+        } catch (RuntimeException e) {
+            session.completionFailed();
+            throw e;
+        }
+        session.completed = true;
+        eventPublisher.publishEvent(ObjectChangedEvent.written(
+                new FileMetadata(session.uploadKey, session.length, response.eTag(), Instant.now(), session.contentType)));
+        if (!session.uploadKey.equals(session.key)) {
+            quarantineService.submit(session.key, session.length, session.contentType, null);
+        }
+        deleteFiles(session);
+    }
+
+    private void received(Session session, int part, String eTag) throws IOException {
+        synchronized (session) {
+            try (FileChannel log = FileChannel.open(partsFile(session.id),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                log.write(ByteBuffer.wrap((part + " " + eTag + "\n").getBytes(StandardCharsets.UTF_8)));
+                log.force(false);
+            }
+            session.parts.put(part, eTag);
+        }
+    }
+
+    private void abortQuietly(Session session) {
+        try {
+            s3Client.abortMultipartUpload(AbortMultipartUploadRequest.builder()
+                    .bucket(bucketName)
+                    .key(session.uploadKey)
+                    .uploadId(session.uploadId)
+                    .build());
+        } catch (SdkException e) {
+            logger.warn("Could not abort the multipart upload of {}", session.key, e);
+        }
+    }
+
+    private void deleteFiles(Session session) {
+        try {
+            Files.deleteIfExists(sessionFile(session.id));
+            Files.deleteIfExists(partsFile(session.id));
+        } catch (IOException e) {
+            logger.warn("Could not delete the files of upload session {}", session.id, e);
+        }
+    }
+
+    private Path sessionFile(String id) {
+        return sessionDir.resolve(id + SESSION_SUFFIX);
+    }
+
+    private Path partsFile(String id) {
+        return sessionDir.resolve(id + PARTS_SUFFIX);
+    }
+
+    private void persist(Session session) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("filename", session.filename);
+        properties.setProperty("key", session.key);
+        properties.setProperty("upload-key", session.uploadKey);
+        properties.setProperty("content-type", session.contentType);
+        properties.setProperty("upload-id", session.uploadId);
+        properties.setProperty("length", Long.toString(session.length));
+        properties.setProperty("part-size", Long.toString(session.partSize));
+        Path temporary = sessionDir.resolve(session.id + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temporary.toFile())) {
+            properties.store(out, null);
+            out.getFD().sync();
+        }
+        Files.move(temporary, sessionFile(session.id), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /** Reloads the sessions left by a previous run. */
+    private void load() {
+        if (!Files.isDirectory(sessionDir)) {
+            return;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(sessionDir, "*" + SESSION_SUFFIX)) {
+            for (Path file : files) {
+                try {
+                    Session session = load(file);
+                    sessions.put(session.id, session);
+                } catch (IOException | RuntimeException e) {
+                    logger.error("Skipping unreadable upload session {}", file, e);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read the upload session directory " + sessionDir, e);
+        }
+        if (!sessions.isEmpty()) {
+            logger.info("Restored {} resumable upload sessions from {}", sessions.size(), sessionDir);
+        }
+    }
+
+    private Session load(Path file) throws IOException {
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(file)) {
+            properties.load(in);
+        }
+        String name = file.getFileName().toString();
+        Session session = new Session(name.substring(0, name.length() - SESSION_SUFFIX.length()),
+                properties.getProperty("filename"),
+                properties.getProperty("key"),
+                properties.getProperty("upload-key"),
+                properties.getProperty("content-type"),
+                properties.getProperty("upload-id"),
+                Long.parseLong(properties.getProperty("length")),
+                Long.parseLong(properties.getProperty("part-size")));
+        Path parts = partsFile(session.id);
+        if (Files.exists(parts)) {
+            try (BufferedReader reader = Files.newBufferedReader(parts, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    int space = line.indexOf(' ');
+                    // A line cut short by a crash has no ETag; that part is simply sent again.
+                    if (space > 0 && space < line.length() - 1) {
+                        session.parts.put(Integer.parseInt(line.substring(0, space)), line.substring(space + 1));
+                    }
+                }
+            }
+            session.lastActivity = Files.getLastModifiedTime(parts).toMillis();
+        } else {
+            session.lastActivity = Files.getLastModifiedTime(file).toMillis();
+        }
+        return session;
+    }
+
+    /** An upload session. Part bookkeeping is guarded by the session's monitor. */
+    private static final class Session {
+        final String id;
+        final String filename;
+        final String key;
+        final String uploadKey;
+        final String contentType;
+        final String uploadId;
+        final long length;
+        final long partSize;
+        final int partCount;
+        final NavigableMap<Integer, String> parts = new TreeMap<>();
+        private final Set<Integer> inProgress = new HashSet<>();
+        private boolean completing;
+        volatile boolean completed;
+        volatile long lastActivity = System.currentTimeMillis();
+
+        Session(String id, String filename, String key, String uploadKey, String contentType, String uploadId,
+                long length, long partSize) {
+            this.id = id;
+            this.filename = filename;
+            this.key = key;
+            this.uploadKey = uploadKey;
+            this.contentType = contentType;
+            this.uploadId = uploadId;
+            this.length = length;
+            this.partSize = partSize;
+            this.partCount = (int) ((length + partSize - 1) / partSize);
+        }
+
+        void touch() {
+            lastActivity = System.currentTimeMillis();
+        }
+
+        synchronized boolean begin(int part) {
+            return !completing && inProgress.add(part);
+        }
+
+        synchronized void end(int part) {
+            inProgress.remove(part);
+            touch();
+        }
+
+        synchronized int inProgressCount() {
+            return inProgress.size();
+        }
+
+        synchronized boolean isFull() {
+            return parts.size() == partCount;
+        }
+
+        /** @return {@code true} for the one caller that should complete the upload */
+        synchronized boolean startCompletion() {
+            if (completing || completed || parts.size() != partCount || !inProgress.isEmpty()) {
+                return false;
+            }
+            completing = true;
+            return true;
+        }
+
+        synchronized void completionFailed() {
+            completing = false;
+        }
+
+        synchronized List<CompletedPart> completedParts() {
+            List<CompletedPart> completedParts = new ArrayList<>(parts.size());
+            parts.forEach((number, eTag) -> completedParts.add(CompletedPart.builder().partNumber(number).eTag(eTag).build()));
+            return completedParts;
+        }
+
+        synchronized UploadStatus status() {
+            long offset = 0;
+            int expected = 1;
+            for (int part : parts.keySet()) {
+                if (part != expected) {
+                    break;
+                }
+                offset = Math.min(length, offset + partSize);
+                expected++;
+            }
+            return new UploadStatus(id, key, length, completed ? length : offset, partSize, completed);
+        }
+    }
+
+    /**
+     * Exactly {@code length} bytes of the chunk, for one {@code UploadPart}. Ending early
+     * fails the part upload, so S3 never stores a short part.
+     */
+    private static final class PartInputStream extends FilterInputStream {
+        private long remaining;
+        private boolean truncated;
+
+        PartInputStream(InputStream in, long length) {
+            super(in);
+            this.remaining = length;
+        }
+
+        boolean truncated() {
+            return truncated;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            int n = read(one, 0, 1);
+            return n == 1 ? one[0] & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining == 0) {
+                return -1;
+            }
+            int n = in.read(b, off, (int) Math.min(len, remaining));
+            if (n < 0) {
+                truncated = true;
+                throw new EOFException(remaining + " bytes of the part were never received");
+            }
+            remaining -= n;
+            return n;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() {
+            // The request body belongs to the caller.
+        }
+    }
+}
@@ -0,0 +1,628 @@
+package com.myprojecticaro.poc_s3_file_uploader.service;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import com.myprojecticaro.poc_s3_file_uploader.io.MalwareDetectedException;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.core.exception.SdkServiceException;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Admission control, throttle handling and hedging for S3 requests.
+ * <p>
+ * S3 scales request rates per key prefix, and answers a burst beyond what a prefix
+ * currently sustains with {@code 503 SlowDown}. The SDK's retry policy retries those
+ * blindly, so a burst turns into a storm of retries. This scheduler instead keeps a
+ * concurrency limit per prefix (the key up to its last {@code /}) and adjusts it the
+ * way TCP adjusts its congestion window: every request that is not throttled raises
+ * the limit by {@code 1/limit}, about one per round of requests, and a throttle
+ * halves it (at most once per {@code decrease-interval}, since a burst is throttled
+ * many times over). Throttled and other transient failures are retried here, after
+ * a jittered exponential backoff, so the SDK client behind it is built without
+ * retries of its own.
+ * </p>
+ *
+ * <p>
+ * Reads are hedged: the time until a GET returns its headers is tracked, and a GET
+ * still waiting after the current p95 of that time (but at least {@code min-delay})
+ * is sent a second time. The first response wins and the other request is cancelled
+ * (its thread is interrupted, which closes the socket of a virtual thread, and its
+ * stream is aborted if it arrives anyway). A hedge takes a slot of the prefix limit
+ * only if one is free right away, and hedges are capped at {@code budget} of all
+ * GETs, so hedging does not add load when S3 is already pushing back.
+ * </p>
+ *
+ * <p>
+ * Requests of the {@code S3AsyncClient} made by {@link S3Service} (single-file async
+ * uploads with their dedup {@code HEAD}/{@code CopyObject}, async downloads and
+ * deletes) go through {@link #executeAsync}: they take a slot of their prefix and feed
+ * its limit and the throttle counter, but are neither retried nor hedged here. That
+ * client keeps the SDK's own retry policy, as the {@code S3TransferManager} built on
+ * it (the {@code /upload/large} multipart path) is not scheduled at all.
+ * </p>
+ *
+ * <p><strong>Configuration:</strong>
+ * <pre>
+ * aws:
+ *   s3:
+ *     scheduler:
+ *       enabled: false
+ *       initial-limit: 64
+ *       min-limit: 4
+ *       max-limit: 1024
+ *       decrease-interval: 100ms
+ *       max-wait: 10s
+ *       max-attempts: 5
+ *       backoff: 50ms
+ *       max-backoff: 5s
+ *       hedge:
+ *         enabled: true
+ *         min-delay: 10ms
+ *         budget: 0.05
+ * </pre>
+ * </p>
+ *
+ * @author Icaro
+ * @version 1.0
+ */
+@Component
+public class S3RequestScheduler {
+
+    private static final Logger logger = LoggerFactory.getLogger(S3RequestScheduler.class);
+
+    /** Recent GET latencies the p95 is taken from. */
+    private static final int LATENCY_WINDOW = 1024;
+
+    /** GETs observed before hedging starts, so a cold p95 does not trigger it. */
+    private static final int MIN_LATENCY_SAMPLES = 100;
+
+    /** Hedge tokens that can be saved up during quiet periods. */
+    private static final double MAX_HEDGE_TOKENS = 10;
+
+    /**
+     * Counters of the scheduler since startup.
+     *
+     * @param throttled    requests S3 answered with a throttling error
+     * @param retried      requests sent again after a throttle or transient failure
+     * @param hedged       GETs sent a second time
+     * @param hedgesWon    hedged GETs where the second request answered first
+     * @param lowestLimit  the lowest current concurrency limit over all prefixes
+     */
+    public record Stats(long throttled, long retried, long hedged, long hedgesWon, int lowestLimit) {
+    }
+
+    private final boolean enabled;
+    private final double initialLimit;
+    private final int minLimit;
+    private final int maxLimit;
+    private final long decreaseIntervalNanos;
+    private final long maxWaitNanos;
+    private final int maxAttempts;
+    private final long backoffMillis;
+    private final long maxBackoffMillis;
+    private final boolean hedging;
+    private final long minHedgeDelayNanos;
+    private final double hedgeBudget;
+
+    private final LoadingCache<String, PrefixLimit> limits;
+    private final LatencyWindow getLatencies = new LatencyWindow();
+    private final ExecutorService hedgeExecutor;
+    private final LongAdder throttled = new LongAdder();
+    private final LongAdder retried = new LongAdder();
+    private final LongAdder hedged = new LongAdder();
+    private final LongAdder hedgesWon = new LongAdder();
+    private double hedgeTokens;
+
+    public S3RequestScheduler(@Value("${aws.s3.scheduler.enabled:false}") boolean enabled,
+                              @Value("${aws.s3.scheduler.initial-limit:64}") int initialLimit,
+                              @Value("${aws.s3.scheduler.min-limit:4}") int minLimit,
+                              @Value("${aws.s3.scheduler.max-limit:1024}") int maxLimit,
+                              @Value("${aws.s3.scheduler.decrease-interval:100ms}") Duration decreaseInterval,
+                              @Value("${aws.s3.scheduler.max-wait:10s}") Duration maxWait,
+                              @Value("${aws.s3.scheduler.max-attempts:5}") int maxAttempts,
+                              @Value("${aws.s3.scheduler.backoff:50ms}") Duration backoff,
+                              @Value("${aws.s3.scheduler.max-backoff:5s}") Duration maxBackoff,
+                              @Value("${aws.s3.scheduler.hedge.enabled:true}") boolean hedging,
+                              @Value("${aws.s3.scheduler.hedge.min-delay:10ms}") Duration minHedgeDelay,
+                              @Value("${aws.s3.scheduler.hedge.budget:0.05}") double hedgeBudget) {
+        this.enabled = enabled;
+        this.initialLimit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.decreaseIntervalNanos = decreaseInterval.toNanos();
+        this.maxWaitNanos = maxWait.toNanos();
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.backoffMillis = backoff.toMillis();
+        this.maxBackoffMillis = maxBackoff.toMillis();
+        this.hedging = enabled && hedging;
+        this.minHedgeDelayNanos = minHedgeDelay.toNanos();
+        this.hedgeBudget = hedgeBudget;
+        this.limits = Caffeine.newBuilder()
+                .maximumSize(10_000)
+                .build(prefix -> new PrefixLimit(this.initialLimit));
+        this.hedgeExecutor = this.hedging
+                ? Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("s3-hedge-", 0).factory())
+                : null;
+    }
+
+    /** @return {@code true} if S3 requests go through this scheduler */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Runs an S3 request under the concurrency limit of its key's prefix, retrying it
+     * if it is throttled or fails transiently.
+     *
+     * @param key  the object key (or listing prefix) the request is about
+     * @param call sends the request
+     * @return the response
+     * @throws SdkClientException if no slot frees up within {@code max-wait}
+     */
+    public <T> T execute(String key, Supplier<T> call) {
+        return run(key, call, null, maxAttempts);
+    }
+
+    /**
+     * Like {@link #execute(String, Supplier)}, for a request that cannot be sent again,
+     * such as one whose body is read from a stream only once: it is admitted and
+     * counted the same way, but never retried.
+     *
+     * @param key  the object key the request is about
+     * @param call sends the request
+     * @return the response
+     * @throws SdkClientException if no slot frees up within {@code max-wait}
+     */
+    public <T> T executeOnce(String key, Supplier<T> call) {
+        return run(key, call, null, 1);
+    }
+
+    /**
+     * Runs a request of the async client under the concurrency limit of its key's
+     * prefix. The slot is taken on the calling thread, waiting for it if needed, and
+     * given back when the response completes; throttles lower the limit as for
+     * {@link #execute(String, Supplier)}, but the request is not retried here.
+     *
+     * @param key  the object key the request is about
+     * @param call sends the request
+     * @return the response future, failed with an {@link SdkClientException} if no slot
+     *         frees up within {@code max-wait}
+     */
+    public <T> CompletableFuture<T> executeAsync(String key, Supplier<CompletableFuture<T>> call) {
+        if (!enabled) {
+            return call.get();
+        }
+        PrefixLimit limit = limits.get(prefix(key));
+        try {
+            limit.acquire(maxWaitNanos);
+        } catch (SdkClientException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        CompletableFuture<T> response;
+        try {
+            response = call.get();
+        } catch (RuntimeException e) {
+            limit.release();
+            throw e;
+        }
+        return response.whenComplete((result, error) -> {
+            try {
+                Throwable cause = error instanceof CompletionException && error.getCause() != null
+                        ? error.getCause()
+                        : error;
+                if (isThrottle(cause)) {
+                    throttled.increment();
+                    limit.onThrottle();
+                } else if (cause == null || cause instanceof SdkServiceException) {
+                    limit.onResponse();
+                }
+            } finally {
+                limit.release();
+            }
+        });
+    }
+
+    /**
+     * Like {@link #execute(String, Supplier)}, for a read that may be sent twice when it
+     * is slow.
+     *
+     * @param key     the object key
+     * @param call    sends the request; may run on another thread, and twice at once
+     * @param discard releases the response of the request that lost the race
+     * @return the first response
+     */
+    public <T> T executeHedged(String key, Supplier<T> call, Consumer<? super T> discard) {
+        return run(key, call, hedging ? discard : null, maxAttempts);
+    }
+
+    /** @return the counters since startup */
+    public Stats stats() {
+        int lowest = limits.asMap().values().stream()
+                .mapToInt(PrefixLimit::limit)
+                .min()
+                .orElse((int) initialLimit);
+        return new Stats(throttled.sum(), retried.sum(), hedged.sum(), hedgesWon.sum(), lowest);
+    }
+
+    /** @return the current concurrency limit for the prefix of {@code key} */
+    public int limit(String key) {
+        return limits.get(prefix(key)).limit();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (hedgeExecutor != null) {
+            hedgeExecutor.shutdownNow();
+        }
+    }
+
+    /** The prefix S3 partitions {@code key} under, as far as it can be told from the key. */
+    static String prefix(String key) {
+        if (key == null) {
+            return "";
+        }
+        int slash = key.lastIndexOf('/');
+        return slash >= 0 ? key.substring(0, slash + 1) : "";
+    }
+
+    private <T> T run(String key, Supplier<T> call, Consumer<? super T> discard, int maxAttempts) {
+        PrefixLimit limit = limits.get(prefix(key));
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return discard != null
+                        ? hedged(limit, call, discard)
+                        : attempt(limit, call, false);
+            } catch (RuntimeException e) {
+                if (attempt >= maxAttempts || !isRetryable(e)) {
+                    throw e;
+                }
+                retried.increment();
+                long delay = backoff(attempt);
+                logger.debug("Retrying S3 request for {} in {} ms after: {}", key, delay, e.getMessage());
+                sleep(delay);
+            }
+        }
+    }
+
+    /** Sends the request once, holding a slot of {@code limit} until it returns. */
+    private <T> T attempt(PrefixLimit limit, Supplier<T> call, boolean read) {
+        limit.acquire(maxWaitNanos);
+        return sent(limit, call, read);
+    }
+
+    /** Sends the request on a slot already taken from {@code limit}, and gives it back. */
+    private <T> T sent(PrefixLimit limit, Supplier<T> call, boolean read) {
+        long started = System.nanoTime();
+        try {
+            T response = call.get();
+            limit.onResponse();
+            if (read) {
+                getLatencies.add(System.nanoTime() - started);
+            }
+            return response;
+        } catch (SdkServiceException e) {
+            if (isThrottle(e)) {
+                throttled.increment();
+                limit.onThrottle();
+            } else {
+                limit.onResponse();
+            }
+            throw e;
+        } finally {
+            limit.release();
+        }
+    }
+
+    /** Sends a GET, and a second one if the first is slower than the p95. */
+    private <T> T hedged(PrefixLimit limit, Supplier<T> call, Consumer<? super T> discard) {
+        earnHedgeToken();
+        long delay = hedgeDelayNanos();
+        if (delay < 0) {
+            return attempt(limit, call, true);
+        }
+        limit.acquire(maxWaitNanos);
+        Attempt<T> primary = new Attempt<>(limit, call, discard);
+        hedgeExecutor.execute(primary);
+        try {
+            return primary.result.get(delay, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            Attempt<T> hedge = null;
+            if (takeHedgeToken() && limit.tryAcquire()) {
+                hedged.increment();
+                hedge = new Attempt<>(limit, call, discard);
+                hedgeExecutor.execute(hedge);
+            }
+            return hedge != null ? race(primary, hedge) : await(primary);
+        } catch (InterruptedException e) {
+            primary.cancel();
+            Thread.currentThread().interrupt();
+            throw SdkClientException.create("Interrupted while waiting for S3", e);
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        }
+    }
+
+    /** Waits for the first of two attempts to succeed, and cancels the other. */
+    private <T> T race(Attempt<T> primary, Attempt<T> hedge) {
+        CompletableFuture<Attempt<T>> winner = new CompletableFuture<>();
+        AtomicReference<Throwable> firstFailure = new AtomicReference<>();
+        for (Attempt<T> attempt : Arrays.asList(primary, hedge)) {
+            attempt.result.whenComplete((response, error) -> {
+                if (error == null) {
+                    winner.complete(attempt);
+                } else if (!firstFailure.compareAndSet(null, error)) {
+                    winner.completeExceptionally(error);
+                }
+            });
+        }
+        Attempt<T> won;
+        try {
+            won = winner.get();
+        } catch (InterruptedException e) {
+            primary.cancel();
+            hedge.cancel();
+            Thread.currentThread().interrupt();
+            throw SdkClientException.create("Interrupted while waiting for S3", e);
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        }
+        (won == primary ? hedge : primary).cancel();
+        if (won == hedge) {
+            hedgesWon.increment();
+        }
+        return won.result.join();
+    }
+
+    private static <T> T await(Attempt<T> attempt) {
+        try {
+            return attempt.result.get();
+        } catch (InterruptedException e) {
+            attempt.cancel();
+            Thread.currentThread().interrupt();
+            throw SdkClientException.create("Interrupted while waiting for S3", e);
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        }
+    }
+
+    /** @return how long to wait before hedging a GET, or {@code -1} if it should not be hedged */
+    private long hedgeDelayNanos() {
+        long p95 = getLatencies.p95();
+        return p95 < 0 ? -1 : Math.max(p95, minHedgeDelayNanos);
+    }
+
+    /** Each GET earns {@code budget} of a hedge. */
+    private synchronized void earnHedgeToken() {
+        hedgeTokens = Math.min(MAX_HEDGE_TOKENS, hedgeTokens + hedgeBudget);
+    }
+
+    /** Each hedge spends a whole one. */
+    private synchronized boolean takeHedgeToken() {
+        if (hedgeTokens >= 1) {
+            hedgeTokens--;
+            return true;
+        }
+        return false;
+    }
+
+    private long backoff(int attempt) {
+        long ceiling = Math.min(maxBackoffMillis, backoffMillis << Math.min(attempt - 1, 20));
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw SdkClientException.create("Interrupted while backing off from S3", e);
+        }
+    }
+
+    /** @return {@code true} if S3 asked to slow down */
+    static boolean isThrottle(Throwable e) {
+        return e instanceof SdkServiceException service
+                && (service.isThrottlingException() || service.statusCode() == 503);
+    }
+
+    /** @return {@code true} if sending the request again may succeed; a scan that found malware never will */
+    static boolean isRetryable(Throwable e) {
+        if (MalwareDetectedException.in(e) != null) {
+            return false;
+        }
+        if (e instanceof SdkServiceException service) {
+            return isThrottle(service) || service.statusCode() >= 500;
+        }
+        return e instanceof SdkClientException
+                && (e.getCause() instanceof IOException || e.getCause() instanceof UncheckedIOException);
+    }
+
+    private static RuntimeException unwrap(ExecutionException e) {
+        return e.getCause() instanceof RuntimeException runtime
+                ? runtime
+                : SdkClientException.create("S3 request failed", e.getCause());
+    }
+
+    /** One copy of a hedged GET, run on a virtual thread. */
+    private final class Attempt<T> implements Runnable {
+
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        private final PrefixLimit limit;
+        private final Supplier<T> call;
+        private final Consumer<? super T> discard;
+        private final AtomicBoolean cancelled = new AtomicBoolean();
+        private volatile Thread thread;
+
+        Attempt(PrefixLimit limit, Supplier<T> call, Consumer<? super T> discard) {
+            this.limit = limit;
+            this.call = call;
+            this.discard = discard;
+        }
+
+        @Override
+        public void run() {
+            thread = Thread.currentThread();
+            try {
+                T response = sent(limit, call, true);
+                if (cancelled.get() || !result.complete(response)) {
+                    discard.accept(response);
+                }
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            } finally {
+                thread = null;
+            }
+        }
+
+        void cancel() {
+            if (cancelled.compareAndSet(false, true)) {
+                Thread running = thread;
+                if (running != null) {
+                    running.interrupt();
+                }
+                result.thenAccept(discard);
+            }
+        }
+    }
+
+    /** AIMD concurrency limit of one prefix. */
+    private final class PrefixLimit {
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition available = lock.newCondition();
+        private double limit;
+        private int inFlight;
+        private long lastDecrease = System.nanoTime();
+
+        PrefixLimit(double limit) {
+            this.limit = limit;
+        }
+
+        int limit() {
+            lock.lock();
+            try {
+                return (int) limit;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void acquire(long maxWaitNanos) {
+            lock.lock();
+            try {
+                long remaining = maxWaitNanos;
+                while (inFlight >= (int) limit) {
+                    if (remaining <= 0) {
+                        throw SdkClientException.create("Timed out waiting for an S3 request slot ("
+                                + inFlight + " in flight, limit " + (int) limit + ")");
+                    }
+                    remaining = available.awaitNanos(remaining);
+                }
+                inFlight++;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw SdkClientException.create("Interrupted while waiting for an S3 request slot", e);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        boolean tryAcquire() {
+            lock.lock();
+            try {
+                if (inFlight >= (int) limit) {
+                    return false;
+                }
+                inFlight++;
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void release() {
+            lock.lock();
+            try {
+                inFlight--;
+                available.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /** Additive increase: about one more slot per round of responses. */
+        void onResponse() {
+            lock.lock();
+            try {
+                int before = (int) limit;
+                limit = Math.min(limit + 1 / limit, maxLimit);
+                if ((int) limit > before) {
+                    available.signal();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /** Multiplicative decrease, once per interval however many requests were throttled. */
+        void onThrottle() {
+            lock.lock();
+            try {
+                long now = System.nanoTime();
+                if (now - lastDecrease >= decreaseIntervalNanos) {
+                    limit = Math.max(minLimit, limit / 2);
+                    lastDecrease = now;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /** The most recent GET latencies, and their p95. */
+    private static final class LatencyWindow {
+
+        private final long[] samples = new long[LATENCY_WINDOW];
+        private long count;
+        private volatile long p95 = -1;
+
+        synchronized void add(long nanos) {
+            samples[(int) (count++ % LATENCY_WINDOW)] = nanos;
+            // Sorting a thousand samples costs microseconds; doing it every 32 GETs keeps it off the profile.
+            if (count >= MIN_LATENCY_SAMPLES && count % 32 == 0) {
+                long[] sorted = Arrays.copyOf(samples, (int) Math.min(count, LATENCY_WINDOW));
+                Arrays.sort(sorted);
+                p95 = sorted[(int) (sorted.length * 0.95)];
+            }
+        }
+
+        /** @return the p95 in nanoseconds, or {@code -1} until enough GETs were seen */
+        long p95() {
+            return p95;
+        }
+    }
+}
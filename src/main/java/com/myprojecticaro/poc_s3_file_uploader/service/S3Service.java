@@ -1,18 +1,81 @@
 package com.myprojecticaro.poc_s3_file_uploader.service;
 
+import com.myprojecticaro.poc_s3_file_uploader.io.BufferPool;
+import com.myprojecticaro.poc_s3_file_uploader.io.ContentCodec;
+import com.myprojecticaro.poc_s3_file_uploader.io.ContentWriter;
+import com.myprojecticaro.poc_s3_file_uploader.io.MalwareDetectedException;
+import com.myprojecticaro.poc_s3_file_uploader.io.PooledInputStream;
+import com.myprojecticaro.poc_s3_file_uploader.metrics.TransferMetrics;
+import com.myprojecticaro.poc_s3_file_uploader.metrics.TransferMetrics.Operation;
+import com.myprojecticaro.poc_s3_file_uploader.metrics.TransferMetrics.Phase;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.core.async.AsyncResponseTransformer;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.http.Abortable;
+import software.amazon.awssdk.http.AbortableInputStream;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
 import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.CommonPrefix;
+import software.amazon.awssdk.services.s3.model.CopyObjectRequest;
+import software.amazon.awssdk.services.s3.model.CopyObjectResponse;
+import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+import software.amazon.awssdk.services.s3.model.MetadataDirective;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
 import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectResponse;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.model.S3Object;
+import software.amazon.awssdk.transfer.s3.S3TransferManager;
+import software.amazon.awssdk.transfer.s3.model.CompletedUpload;
+import software.amazon.awssdk.transfer.s3.model.Upload;
+import software.amazon.awssdk.transfer.s3.model.UploadRequest;
 
+import java.io.BufferedInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
 
 /**
  * Service class responsible for managing file uploads to an AWS S3 bucket.
  * <p>
  * This class uses the AWS SDK v2 {@link S3Client} to upload files directly to the
- * configured S3 bucket. It automatically generates a unique key for each file by
+ * configured S3 bucket. Operations that should not block the calling thread on
+ * network I/O also have {@link CompletableFuture}-returning variants backed by the
+ * {@link S3AsyncClient}. It automatically generates a unique key for each file by
  * prefixing the original file name with the current timestamp.
  * </p>
  * <p>
@@ -31,24 +94,106 @@ import java.io.IOException;
  * </pre>
  * </p>
  *
+ * <p>
+ * The time each operation spends scanning, compressing and waiting for S3 is recorded
+ * as phases in the {@link TransferMetrics}.
+ * </p>
+ *
+ * <p>
+ * With {@code aws.s3.upload.compression.enabled}, uploads that {@link StorageCompression}
+ * selects are stored compressed and decoded again on download, so clients always see
+ * the content they uploaded.
+ * </p>
+ *
  * @author Icaro
  * @version 1.0
  */
 @Service
 public class S3Service {
 
+    private static final Logger logger = LoggerFactory.getLogger(S3Service.class);
+
+    /** Largest page ListObjectsV2 returns. */
+    private static final int MAX_PAGE_SIZE = 1000;
+
+    private static final String INDEX_TOKEN_PREFIX = "idx.";
+
     private final S3Client s3Client;
+    private final S3AsyncClient s3AsyncClient;
     private final S3TransferManager transferManager;
+    private final S3RequestScheduler requestScheduler;
     private final AntivirusService antivirusService;
-    private final String bucketName = "your-bucket-name";
-    
+    private final BufferPool uploadBufferPool;
+    private final ParallelDownloadService parallelDownloadService;
+    private final MultipartUploadService multipartUploadService;
+    private final BatchDeleteService batchDeleteService;
+    private final ExecutorService transferExecutor;
+    private final ExecutorService writerExecutor;
+    private final MetadataIndex metadataIndex;
+    private final ObjectCache objectCache;
+    private final ContentHashIndex contentHashIndex;
+    private final QuarantineService quarantineService;
+    private final StorageCompression storageCompression;
+    private final WriteBehindSpool writeBehindSpool;
+    private final TransferMetrics transferMetrics;
+    private final ApplicationEventPublisher eventPublisher;
+
     @Value("${aws.s3.bucket-name}")
     private String bucketName;
 
-    public S3Service(S3Client s3Client, S3TransferManager transferManager, AntivirusService antivirusService) {
+    @Value("${aws.region}")
+    private String region;
+
+    /**
+     * When enabled (the default), uploads are streamed into S3 through the pooled
+     * buffers instead of being copied into a single byte array first.
+     */
+    @Value("${aws.s3.upload.streaming:true}")
+    private boolean streamingUpload = true;
+
+    /** Uploads of batch requests running at the same time, across all requests. */
+    private final Semaphore batchUploadPermits;
+
+    public S3Service(S3Client s3Client,
+                     S3AsyncClient s3AsyncClient,
+                     S3TransferManager transferManager,
+                     S3RequestScheduler requestScheduler,
+                     AntivirusService antivirusService,
+                     @Qualifier("uploadBufferPool") BufferPool uploadBufferPool,
+                     ParallelDownloadService parallelDownloadService,
+                     MultipartUploadService multipartUploadService,
+                     BatchDeleteService batchDeleteService,
+                     @Qualifier("s3TransferExecutor") ExecutorService transferExecutor,
+                     @Qualifier("s3WriterExecutor") ExecutorService writerExecutor,
+                     MetadataIndex metadataIndex,
+                     ObjectCache objectCache,
+                     ContentHashIndex contentHashIndex,
+                     QuarantineService quarantineService,
+                     StorageCompression storageCompression,
+                     WriteBehindSpool writeBehindSpool,
+                     TransferMetrics transferMetrics,
+                     ApplicationEventPublisher eventPublisher,
+                     @Value("${aws.s3.upload.batch.max-in-flight:16}") int maxBatchUploadsInFlight) {
         this.s3Client = s3Client;
+        this.s3AsyncClient = s3AsyncClient;
         this.transferManager = transferManager;
+        this.requestScheduler = requestScheduler;
         this.antivirusService = antivirusService;
+        this.uploadBufferPool = uploadBufferPool;
+        this.parallelDownloadService = parallelDownloadService;
+        this.multipartUploadService = multipartUploadService;
+        this.batchDeleteService = batchDeleteService;
+        this.transferExecutor = transferExecutor;
+        this.writerExecutor = writerExecutor;
+        this.metadataIndex = metadataIndex;
+        this.objectCache = objectCache;
+        this.contentHashIndex = contentHashIndex;
+        this.quarantineService = quarantineService;
+        this.storageCompression = storageCompression;
+        this.writeBehindSpool = writeBehindSpool;
+        this.transferMetrics = transferMetrics;
+        this.eventPublisher = eventPublisher;
+        this.batchUploadPermits = new Semaphore(maxBatchUploadsInFlight, true);
     }
 
     /**
@@ -58,32 +203,536 @@ public class S3Service {
      * file name to ensure uniqueness. The uploaded file’s content type is also
      * preserved in the S3 metadata.
      * </p>
+     * <p>
+     * In streaming mode the content is read from the multipart part and copied into
+     * the S3 request through a buffer borrowed from the upload {@link BufferPool}, with
+     * the content length taken from the part itself. The heap cost of an upload is
+     * therefore one pooled buffer, whatever the size of the file.
+     * </p>
+     * <p>
+     * The content is scanned by the {@link AntivirusService} in the same pass that
+     * uploads it. A signature match fails the {@code PutObject}, so nothing is stored.
+     * </p>
+     * <p>
+     * With {@code aws.s3.upload.dedup.enabled} the part is hashed with SHA-256 before it
+     * is sent. If the {@link ContentHashIndex} already knows an object with the same
+     * content, the new key is created with a server-side {@code CopyObject} (or, in
+     * {@code reference} mode, the existing object is returned) and no content is
+     * uploaded. Otherwise the digest goes along with the {@code PutObject} so S3
+     * verifies it, and is recorded for the next upload.
+     * </p>
+     * <p>
+     * With {@code app.antivirus.quarantine.enabled} the content is not scanned inline:
+     * the file is stored under the quarantine prefix and handed to the
+     * {@link QuarantineService}, which scans it in the background and then promotes it
+     * to the returned URL or deletes it.
+     * </p>
+     * <p>
+     * When {@link StorageCompression} selects the file, its content is compressed on
+     * the way into a pipelined multipart upload, since the compressed length is not
+     * known in advance, and the codec is recorded in the object metadata.
+     * </p>
+     * <p>
+     * With {@code aws.s3.upload.write-behind.enabled} (and quarantine off) the scanned
+     * content is appended to the {@link WriteBehindSpool} instead, and the URL is
+     * returned as soon as it is on local disk; the spool puts it to S3 in the
+     * background. Spooled files are neither deduplicated nor compressed. When the spool
+     * is full, uploads go to S3 directly as above.
+     * </p>
      *
      * @param file the {@link MultipartFile} to be uploaded
-     * @return the public URL of the uploaded file
-     * @throws IOException if the file cannot be read or uploaded
+     * @return the public URL of the uploaded file; in quarantine mode the file appears there once scanned clean
+     * @throws IOException if the file cannot be read or uploaded, or the content scan rejects it
      */
     public String uploadFile(MultipartFile file) throws IOException {
 
-    antivirusService.scanFile(file);
+        antivirusService.scanFile(file);
 
-    String key = System.currentTimeMillis() + "_" + file.getOriginalFilename();
+        String key = System.currentTimeMillis() + "_" + file.getOriginalFilename();
 
-    s3Client.putObject(
-            PutObjectRequest.builder()
-                    .bucket(bucketName)
-                    .key(key)
-                    .contentType(file.getContentType())
-                    .build(),
-            software.amazon.awssdk.core.sync.RequestBody.fromBytes(file.getBytes())
-    );
-
-    return String.format("https://%s.s3.%s.amazonaws.com/%s",
-            bucketName, s3Client.region().id(), key);
-}
+        if (spools(file)) {
+            return spool(key, file);
+        }
+
+        byte[] digest = null;
+        if (contentHashIndex.isEnabled()) {
+            digest = contentHashIndex.digest(file);
+            String existing = reuseContent(key, digest, file);
+            if (existing != null) {
+                return existing;
+            }
+        }
+
+        boolean quarantined = quarantineService.isEnabled();
+        String uploadKey = quarantined ? quarantineService.stagingKey(key) : key;
+
+        ContentCodec codec = storageCompression.choose(file);
+        if (codec != null) {
+            return uploadEncoded(key, uploadKey, file, codec, digest, !quarantined);
+        }
+
+        RequestBody requestBody;
+        if (streamingUpload) {
+            requestBody = streamingBody(file, !quarantined);
+        } else {
+            byte[] content = file.getBytes();
+            if (!quarantined) {
+                long scanStarted = System.nanoTime();
+                antivirusService.scanContent(content, file.getOriginalFilename());
+                transferMetrics.record(Operation.UPLOAD, Phase.SCAN, System.nanoTime() - scanStarted);
+            }
+            requestBody = RequestBody.fromBytes(content);
+        }
+
+        PutObjectResponse response;
+        long started = System.nanoTime();
+        try {
+            response = s3Client.putObject(putRequest(uploadKey, file, digest), requestBody);
+        } catch (SdkException e) {
+            if (rejection(e) instanceof MalwareDetectedException rejected) {
+                throw rejected;
+            }
+            throw e;
+        } finally {
+            transferMetrics.record(Operation.UPLOAD, Phase.S3, System.nanoTime() - started);
+        }
+
+        return stored(key, uploadKey, file, response.eTag(), digest, null);
+    }
+
+    /**
+     * Uploads {@code file} compressed with {@code codec}.
+     * <p>
+     * The digest of the original content is kept in the metadata for the
+     * {@link ContentHashIndex}, but not sent as a checksum: S3 would check it against
+     * the compressed bytes.
+     * </p>
+     */
+    private String uploadEncoded(String key, String uploadKey, MultipartFile file, ContentCodec codec,
+                                 byte[] digest, boolean scan) throws IOException {
+        StoredEncoding encoding = new StoredEncoding(codec, file.getSize());
+        Map<String, String> metadata = new HashMap<>(encoding.toMetadata());
+        if (digest != null) {
+            metadata.put(ContentHashIndex.DIGEST_METADATA, ContentHashIndex.hex(digest));
+        }
+        MultipartUploadOutputStream upload = multipartUploadService.open(
+                bucketName, uploadKey, contentTypeOrDefault(file.getContentType()), metadata);
+        try (InputStream content = file.getInputStream()) {
+            writeEncoded(scan
+                    ? antivirusService.scanning(content, file.getOriginalFilename(),
+                            transferMetrics.recorder(Operation.UPLOAD, Phase.SCAN))
+                    : content, codec, upload);
+            closeTimed(upload, Operation.UPLOAD);
+        } catch (IOException | RuntimeException e) {
+            upload.abort();
+            throw e;
+        }
+        return stored(key, uploadKey, file, upload.eTag(), digest, encoding);
+    }
+
+    /**
+     * Compresses {@code content} into {@code upload}, leaving the upload open.
+     *
+     * @return the number of bytes before compression
+     */
+    private long writeEncoded(InputStream content, ContentCodec codec, MultipartUploadOutputStream upload)
+            throws IOException {
+        try (OutputStream encoder = storageCompression.encoding(codec, upload)) {
+            return uploadBufferPool.copy(content, encoder);
+        }
+    }
+
+    /**
+     * Completes an upload of {@code file}: announces the new object and either records
+     * its digest or, if it went to quarantine, queues its scan.
+     *
+     * @param encoding how the object was compressed, or {@code null} if it is stored as uploaded
+     * @return the public URL of the final key
+     */
+    private String stored(String key, String uploadKey, MultipartFile file, String eTag, byte[] digest,
+                          StoredEncoding encoding) throws IOException {
+        published(uploadKey, file.getSize(), eTag, file.getContentType());
+        if (!uploadKey.equals(key)) {
+            quarantineService.submit(key, file.getSize(), contentTypeOrDefault(file.getContentType()), digest, encoding);
+        } else if (digest != null) {
+            contentHashIndex.record(digest, key, eTag, file.getSize(), encoding);
+        }
+        return fileUrl(key);
+    }
+
+    /** @return {@code true} if {@code file} is to be acknowledged from the {@link WriteBehindSpool} */
+    private boolean spools(MultipartFile file) {
+        return writeBehindSpool.isEnabled()
+                && !quarantineService.isEnabled()
+                && writeBehindSpool.hasRoomFor(file.getSize());
+    }
+
+    /**
+     * Scans {@code file} into the {@link WriteBehindSpool}; a signature match fails the
+     * append, so nothing is acknowledged or uploaded.
+     */
+    private String spool(String key, MultipartFile file) throws IOException {
+        long started = System.nanoTime();
+        try (InputStream content = antivirusService.scanning(file.getInputStream(), file.getOriginalFilename(),
+                transferMetrics.recorder(Operation.UPLOAD, Phase.SCAN))) {
+            writeBehindSpool.append(key, contentTypeOrDefault(file.getContentType()), file.getSize(), content);
+        } finally {
+            transferMetrics.record(Operation.UPLOAD, Phase.SPOOL, System.nanoTime() - started);
+        }
+        return fileUrl(key);
+    }
+
+    /**
+     * Non-blocking variant of {@link #uploadFile(MultipartFile)}.
+     * <p>
+     * The part is read on the transfer executor and sent through the
+     * {@link S3AsyncClient}, so the calling thread is released immediately. As in
+     * {@link #uploadFile(MultipartFile)}, it is read through the pooled upload buffers
+     * and read again from the start when the client retries the request.
+     * </p>
+     * <p>
+     * With deduplication enabled the part is first hashed on the transfer executor,
+     * and content that is already stored is reused as in {@link #uploadFile(MultipartFile)}.
+     * </p>
+     *
+     * @param file the {@link MultipartFile} to be uploaded
+     * @return a future completed with the public URL of the uploaded file
+     */
+    public CompletableFuture<String> uploadFileAsync(MultipartFile file) {
+        try {
+            antivirusService.scanFile(file);
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        String key = System.currentTimeMillis() + "_" + file.getOriginalFilename();
+
+        if (spools(file)) {
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    return spool(key, file);
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+            }, transferExecutor);
+        }
+        if (!contentHashIndex.isEnabled()) {
+            return putFileAsync(key, file, null);
+        }
+        return CompletableFuture
+                .supplyAsync(() -> {
+                    try {
+                        return contentHashIndex.digest(file);
+                    } catch (IOException e) {
+                        throw new CompletionException(e);
+                    }
+                }, transferExecutor)
+                .thenCompose(digest -> reuseContentAsync(key, digest, file)
+                        .thenCompose(existing -> existing != null
+                                ? CompletableFuture.completedFuture(existing)
+                                : putFileAsync(key, file, digest)));
+    }
+
+    private CompletableFuture<String> putFileAsync(String key, MultipartFile file, byte[] digest) {
+        boolean quarantined = quarantineService.isEnabled();
+        String uploadKey = quarantined ? quarantineService.stagingKey(key) : key;
+        if (storageCompression.isCandidate(file.getContentType(), file.getSize())) {
+            // The compressed upload waits for its parts, which run on the transfer executor,
+            // so it must not hold one of that executor's threads itself.
+            return CompletableFuture
+                    .supplyAsync(() -> {
+                        try {
+                            ContentCodec codec = storageCompression.choose(file);
+                            return codec != null ? uploadEncoded(key, uploadKey, file, codec, digest, !quarantined) : null;
+                        } catch (IOException e) {
+                            throw new CompletionException(e);
+                        }
+                    }, writerExecutor)
+                    .thenCompose(url -> url != null
+                            ? CompletableFuture.completedFuture(url)
+                            : putObjectAsync(key, uploadKey, file, digest, quarantined));
+        }
+        return putObjectAsync(key, uploadKey, file, digest, quarantined);
+    }
+
+    private CompletableFuture<String> putObjectAsync(String key, String uploadKey, MultipartFile file,
+                                                     byte[] digest, boolean quarantined) {
+        AtomicReference<InputStream> content = new AtomicReference<>();
+        long started = System.nanoTime();
+        return requestScheduler.executeAsync(uploadKey, () -> s3AsyncClient.putObject(
+                        putRequest(uploadKey, file, digest), streamingAsyncBody(file, !quarantined, content)))
+                .whenComplete((response, error) -> {
+                    transferMetrics.record(Operation.UPLOAD, Phase.S3, System.nanoTime() - started);
+                    closeQuietly(content.getAndSet(null));
+                })
+                .thenApply(response -> {
+                    try {
+                        return stored(key, uploadKey, file, response.eTag(), digest, null);
+                    } catch (IOException e) {
+                        throw new CompletionException(e);
+                    }
+                })
+                .exceptionallyCompose(error -> CompletableFuture.failedFuture(rejection(error)));
+    }
+
+    /**
+     * Returns the {@link MalwareDetectedException} that made the SDK fail while reading
+     * an upload body, so callers see the scan result rather than a transport error.
+     */
+    private static Throwable rejection(Throwable error) {
+        MalwareDetectedException rejected = MalwareDetectedException.in(error);
+        return rejected != null ? rejected : error;
+    }
+
+    private PutObjectRequest putRequest(String key, MultipartFile file, byte[] digest) {
+        PutObjectRequest.Builder request = PutObjectRequest.builder()
+                .bucket(bucketName)
+                .key(key)
+                .contentType(file.getContentType())
+                .contentLength(file.getSize());
+        if (digest != null) {
+            request.checksumSHA256(ContentHashIndex.base64(digest))
+                    .metadata(Map.of(ContentHashIndex.DIGEST_METADATA, ContentHashIndex.hex(digest)));
+        }
+        return request.build();
+    }
+
+    /**
+     * Stores {@code key} without uploading the content again if an object with the same
+     * digest is already known: with a server-side copy in {@code copy} mode, or by
+     * returning the existing object in {@code reference} mode.
+     *
+     * @return the URL of the stored file, or {@code null} if the content has to be uploaded
+     */
+    private String reuseContent(String key, byte[] digest, MultipartFile file) {
+        ContentHashIndex.StoredContent existing = contentHashIndex.find(digest, file.getSize());
+        if (existing == null) {
+            return null;
+        }
+        try {
+            if (contentHashIndex.mode() == ContentHashIndex.Mode.REFERENCE) {
+                s3Client.headObject(HeadObjectRequest.builder().bucket(bucketName).key(existing.key()).build());
+                return fileUrl(existing.key());
+            }
+            CopyObjectResponse response = s3Client.copyObject(copyRequest(existing, key, file, digest));
+            published(key, file.getSize(), response.copyObjectResult().eTag(), file.getContentType());
+            return fileUrl(key);
+        } catch (S3Exception e) {
+            return contentNotReused(existing, digest, e);
+        }
+    }
+
+    /** Non-blocking variant of {@link #reuseContent(String, byte[], MultipartFile)}. */
+    private CompletableFuture<String> reuseContentAsync(String key, byte[] digest, MultipartFile file) {
+        ContentHashIndex.StoredContent existing = contentHashIndex.find(digest, file.getSize());
+        if (existing == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        if (contentHashIndex.mode() == ContentHashIndex.Mode.REFERENCE) {
+            return requestScheduler.executeAsync(existing.key(), () -> s3AsyncClient.headObject(
+                            HeadObjectRequest.builder().bucket(bucketName).key(existing.key()).build()))
+                    .handle((response, error) -> error == null
+                            ? fileUrl(existing.key())
+                            : contentNotReused(existing, digest, error));
+        }
+        return requestScheduler.executeAsync(key,
+                        () -> s3AsyncClient.copyObject(copyRequest(existing, key, file, digest)))
+                .handle((response, error) -> {
+                    if (error != null) {
+                        return contentNotReused(existing, digest, error);
+                    }
+                    published(key, file.getSize(), response.copyObjectResult().eTag(), file.getContentType());
+                    return fileUrl(key);
+                });
+    }
+
+    /** Falls back to a normal upload when the known copy of the content cannot be reused. */
+    private String contentNotReused(ContentHashIndex.StoredContent existing, byte[] digest, Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        if (cause instanceof S3Exception s3 && s3.statusCode() == 404) {
+            contentHashIndex.forget(digest);
+        } else {
+            logger.warn("Could not reuse {} for identical content, uploading it again", existing.key(), cause);
+        }
+        return null;
+    }
+
+    private CopyObjectRequest copyRequest(ContentHashIndex.StoredContent source, String key, MultipartFile file,
+                                          byte[] digest) {
+        // The metadata is replaced, so the encoding of a compressed source has to be carried over.
+        Map<String, String> metadata = new HashMap<>();
+        if (source.encoding() != null) {
+            metadata.putAll(source.encoding().toMetadata());
+        }
+        metadata.put(ContentHashIndex.DIGEST_METADATA, ContentHashIndex.hex(digest));
+        return CopyObjectRequest.builder()
+                .sourceBucket(bucketName)
+                .sourceKey(source.key())
+                .destinationBucket(bucketName)
+                .destinationKey(key)
+                .metadataDirective(MetadataDirective.REPLACE)
+                .contentType(contentTypeOrDefault(file.getContentType()))
+                .metadata(metadata)
+                .build();
+    }
+
+    /**
+     * Uploads several files concurrently, each one scanned and stored as by
+     * {@link #uploadFile(MultipartFile)}.
+     * <p>
+     * Each file is uploaded on a writer thread of its own, so a burst of small files costs
+     * about one S3 round trip instead of one per file. At most
+     * {@code aws.s3.upload.batch.max-in-flight} files are uploaded at once across all
+     * batches, and they all stream through the shared upload {@link BufferPool}, so a
+     * large batch waits for permits and buffers instead of exhausting memory. A file
+     * that is rejected by the scan or fails to upload does not affect the others.
+     * </p>
+     *
+     * @param files the files to upload
+     * @return one result per file, in the order of {@code files}
+     * @throws IOException if the calling thread is interrupted while waiting for a permit
+     */
+    public List<UploadResult> uploadFiles(MultipartFile[] files) throws IOException {
+        List<CompletableFuture<UploadResult>> uploads = new ArrayList<>(files.length);
+        try {
+            for (MultipartFile file : files) {
+                batchUploadPermits.acquire();
+                uploads.add(CompletableFuture
+                        .supplyAsync(() -> uploadOne(file), writerExecutor)
+                        .whenComplete((result, error) -> batchUploadPermits.release()));
+            }
+        } catch (InterruptedException e) {
+            // Uploads already started run to completion and give their permits back.
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while queuing batch uploads");
+        }
+        return uploads.stream().map(CompletableFuture::join).toList();
+    }
+
+    private UploadResult uploadOne(MultipartFile file) {
+        try {
+            return UploadResult.uploaded(file.getOriginalFilename(), uploadFile(file));
+        } catch (Exception e) {
+            logger.warn("Batch upload failed for file: {}", file.getOriginalFilename(), e);
+            return UploadResult.failed(file.getOriginalFilename(), e.getMessage());
+        }
+    }
+
+    /**
+     * Builds a {@link RequestBody} that reads the multipart part lazily.
+     * <p>
+     * A fresh stream is opened for every attempt, so SDK retries re-read the part
+     * instead of relying on mark/reset buffering. The previous attempt's stream is
+     * closed to give its pooled buffer back.
+     * </p>
+     *
+     * @param scan whether the content goes through the {@link AntivirusService} on the way
+     */
+    private RequestBody streamingBody(MultipartFile file, boolean scan) {
+        InputStream[] current = new InputStream[1];
+        return RequestBody.fromContentProvider(() -> {
+            try {
+                closeQuietly(current[0]);
+                current[0] = openUpload(file, scan);
+                return current[0];
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to open upload stream: " + file.getOriginalFilename(), e);
+            }
+        }, file.getSize(), contentTypeOrDefault(file.getContentType()));
+    }
+
+    /**
+     * Async counterpart of {@link #streamingBody(MultipartFile, boolean)}.
+     * <p>
+     * The async client subscribes to the body once per attempt, and every subscription
+     * reads the part again from the start, so retried requests resend the whole file.
+     * The stream being read is kept in {@code current}, for the caller to close once the
+     * request has finished.
+     * </p>
+     */
+    private AsyncRequestBody streamingAsyncBody(MultipartFile file, boolean scan, AtomicReference<InputStream> current) {
+        return new AsyncRequestBody() {
+            @Override
+            public Optional<Long> contentLength() {
+                return Optional.of(file.getSize());
+            }
+
+            @Override
+            public String contentType() {
+                return contentTypeOrDefault(file.getContentType());
+            }
+
+            @Override
+            public void subscribe(Subscriber<? super ByteBuffer> subscriber) {
+                InputStream content;
+                try {
+                    content = openUpload(file, scan);
+                } catch (IOException e) {
+                    subscriber.onSubscribe(new Subscription() {
+                        @Override
+                        public void request(long n) {
+                        }
+
+                        @Override
+                        public void cancel() {
+                        }
+                    });
+                    subscriber.onError(e);
+                    return;
+                }
+                closeQuietly(current.getAndSet(content));
+                AsyncRequestBody.fromInputStream(content, file.getSize(), transferExecutor).subscribe(subscriber);
+            }
+        };
+    }
+
+    /** Opens the content of {@code file} behind a pooled read-ahead buffer, scanned if {@code scan} is set. */
+    private InputStream openUpload(MultipartFile file, boolean scan) throws IOException {
+        InputStream content = file.getInputStream();
+        return new PooledInputStream(scan
+                ? antivirusService.scanning(content, file.getOriginalFilename(),
+                        transferMetrics.recorder(Operation.UPLOAD, Phase.SCAN))
+                : content, uploadBufferPool);
+    }
+
+    private static String contentTypeOrDefault(String contentType) {
+        return contentType != null ? contentType : "application/octet-stream";
+    }
+
+    private static void closeQuietly(InputStream stream) {
+        if (stream == null) {
+            return;
+        }
+        try {
+            stream.close();
+        } catch (IOException ignored) {
+            // the stream has already been consumed or abandoned by the SDK
+        }
+    }
+
+    /** Announces a completed write so the {@link MetadataIndex} and other listeners stay in sync. */
+    private void published(String key, long size, String eTag, String contentType) {
+        eventPublisher.publishEvent(ObjectChangedEvent.written(
+                new FileMetadata(key, size, eTag, Instant.now(), contentTypeOrDefault(contentType))));
+    }
+
+    /**
+     * Builds the public URL of an object stored in the configured bucket.
+     *
+     * @param key the object key
+     * @return the virtual-hosted style URL of the object
+     */
+    public String fileUrl(String key) {
+        return String.format("https://%s.s3.%s.amazonaws.com/%s", bucketName, region, key);
+    }
 
     /**
      * Lists all files in the S3 bucket.
+     * <p>
+     * Every page of the listing is fetched, so buckets with more than 1000 keys are
+     * listed completely. Prefer {@link #listFiles(String, String, String, int)} or
+     * {@link #streamFiles(String, String, int, ListingPageHandler)} for large buckets.
+     * </p>
      *
      * @return List of filenames
      */
@@ -92,32 +741,368 @@ public class S3Service {
                 .bucket(bucketName)
                 .build();
 
-        ListObjectsV2Response listRes = s3Client.listObjectsV2(listReq);
-
-        return listRes.contents().stream()
+        return s3Client.listObjectsV2Paginator(listReq).contents().stream()
                 .map(S3Object::key)
                 .collect(Collectors.toList());
     }
 
     /**
-     * Downloads a file from S3 by its filename.
+     * Lists one page of the files in the S3 bucket.
+     *
+     * @param prefix            only keys starting with this prefix are listed; may be {@code null}
+     * @param delimiter         rolls keys up into common prefixes at this character, e.g. {@code /}; may be {@code null}
+     * @param continuationToken the {@link FileListing#nextContinuationToken()} of the previous page, or {@code null}
+     * @param pageSize          maximum number of files and common prefixes on the page, at most 1000
+     * @return the requested page
+     */
+    public FileListing listFiles(String prefix, String delimiter, String continuationToken, int pageSize) {
+        boolean indexToken = continuationToken != null && continuationToken.startsWith(INDEX_TOKEN_PREFIX);
+        String startAfter = indexToken ? decodeIndexToken(continuationToken) : null;
+        if (metadataIndex.isReady() && (continuationToken == null || indexToken)) {
+            FileListing page = metadataIndex.list(prefix, delimiter, startAfter,
+                    Math.max(1, Math.min(pageSize, MAX_PAGE_SIZE)));
+            return page.truncated()
+                    ? new FileListing(page.files(), page.commonPrefixes(), indexToken(page.nextContinuationToken()), true)
+                    : page;
+        }
+
+        ListObjectsV2Request listReq = listRequest(prefix, delimiter, pageSize).toBuilder()
+                .continuationToken(indexToken ? null : continuationToken)
+                .startAfter(startAfter)
+                .build();
+
+        long started = System.nanoTime();
+        try {
+            return toListing(s3Client.listObjectsV2(listReq));
+        } finally {
+            transferMetrics.record(Operation.LIST, Phase.S3, System.nanoTime() - started);
+        }
+    }
+
+    /**
+     * Looks up the metadata of a single file.
+     * <p>
+     * Answered from the {@link MetadataIndex} when it knows the key; a key it does not
+     * know (or whose content type it has not seen yet) is checked with a
+     * {@code HeadObject} and the result is remembered. Files still waiting in the
+     * {@link WriteBehindSpool} are answered from it.
+     * </p>
+     * <p>
+     * The size of a compressed file is its original length. Files compressed as they
+     * streamed in record no original length, and report a size of {@code -1}.
+     * </p>
+     *
+     * @param filename the key (file name) in the bucket
+     * @return the file metadata, or empty if there is no such file
+     */
+    public Optional<FileMetadata> statFile(String filename) {
+        Optional<FileMetadata> spooled = writeBehindSpool.stat(filename);
+        if (spooled.isPresent()) {
+            return spooled;
+        }
+        Optional<FileMetadata> indexed = metadataIndex.stat(filename);
+        if (indexed.isPresent() && indexed.get().contentType() != null) {
+            return indexed;
+        }
+        try {
+            HeadObjectResponse head = s3Client.headObject(HeadObjectRequest.builder()
+                    .bucket(bucketName)
+                    .key(filename)
+                    .build());
+            StoredEncoding encoding = StoredEncoding.from(head.metadata());
+            long size = encoding != null ? encoding.decodedLength() : head.contentLength();
+            FileMetadata metadata = new FileMetadata(filename, size, head.eTag(), head.lastModified(), head.contentType());
+            eventPublisher.publishEvent(ObjectChangedEvent.written(metadata));
+            return Optional.of(metadata);
+        } catch (NoSuchKeyException e) {
+            return Optional.empty();
+        }
+    }
+
+    /** Continuation tokens handed out for index pages; S3's own tokens never contain a dot. */
+    private static String indexToken(String startAfter) {
+        return INDEX_TOKEN_PREFIX + Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(startAfter.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String decodeIndexToken(String token) {
+        try {
+            return new String(Base64.getUrlDecoder().decode(token.substring(INDEX_TOKEN_PREFIX.length())),
+                    StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid continuation token", e);
+        }
+    }
+
+    /**
+     * Walks every page of a listing, handing each to {@code handler} as soon as it arrives.
+     * <p>
+     * Pages are fetched through the SDK paginator, one page ahead on the transfer
+     * executor, so the next request to S3 is in flight while the caller writes out the
+     * current page. At most two pages are held in memory however large the bucket is.
+     * </p>
+     *
+     * @param prefix    only keys starting with this prefix are listed; may be {@code null}
+     * @param delimiter rolls keys up into common prefixes at this character; may be {@code null}
+     * @param pageSize  number of keys requested per page, at most 1000
+     * @param handler   receives the pages in order
+     * @throws IOException if the handler fails
+     */
+    public void streamFiles(String prefix, String delimiter, int pageSize, ListingPageHandler handler) throws IOException {
+        Iterator<ListObjectsV2Response> pages = s3Client
+                .listObjectsV2Paginator(listRequest(prefix, delimiter, pageSize))
+                .iterator();
+
+        CompletableFuture<ListObjectsV2Response> next = fetchPage(pages);
+        try {
+            ListObjectsV2Response page;
+            while ((page = next.join()) != null) {
+                next = fetchPage(pages);
+                handler.accept(toListing(page));
+            }
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException cause ? cause : e;
+        }
+    }
+
+    /** Receives the pages of {@link #streamFiles(String, String, int, ListingPageHandler)}. */
+    @FunctionalInterface
+    public interface ListingPageHandler {
+
+        /**
+         * @param page the next page of the listing
+         * @throws IOException if the page cannot be written out
+         */
+        void accept(FileListing page) throws IOException;
+    }
+
+    private CompletableFuture<ListObjectsV2Response> fetchPage(Iterator<ListObjectsV2Response> pages) {
+        // hasNext() is what issues the ListObjectsV2 call, so it runs off the caller's thread.
+        return CompletableFuture.supplyAsync(() -> {
+            long started = System.nanoTime();
+            try {
+                return pages.hasNext() ? pages.next() : null;
+            } finally {
+                transferMetrics.record(Operation.LIST, Phase.S3, System.nanoTime() - started);
+            }
+        }, transferExecutor);
+    }
+
+    private ListObjectsV2Request listRequest(String prefix, String delimiter, int pageSize) {
+        return ListObjectsV2Request.builder()
+                .bucket(bucketName)
+                .prefix(prefix)
+                .delimiter(delimiter)
+                .maxKeys(Math.max(1, Math.min(pageSize, MAX_PAGE_SIZE)))
+                .build();
+    }
+
+    private static FileListing toListing(ListObjectsV2Response response) {
+        List<FileSummary> files = response.contents().stream()
+                .map(object -> new FileSummary(object.key(), object.size(), object.eTag(), object.lastModified()))
+                .toList();
+        List<String> commonPrefixes = response.commonPrefixes().stream()
+                .map(CommonPrefix::prefix)
+                .toList();
+        boolean truncated = Boolean.TRUE.equals(response.isTruncated());
+        return new FileListing(files, commonPrefixes, truncated ? response.nextContinuationToken() : null, truncated);
+    }
+
+    /**
+     * Opens a streaming download of a file from S3.
+     * <p>
+     * Nothing is buffered: the returned {@link ObjectDownload} wraps the S3 response
+     * stream so the caller can copy it straight to its destination. When a byte
+     * range is given it is forwarded to S3 as a ranged GET, which allows clients to
+     * resume interrupted downloads or fetch segments in parallel.
+     * </p>
+     * <p>
+     * Whole-file downloads go through the {@link ParallelDownloadService}, which fetches
+     * objects above its size threshold as concurrent ranged GETs into a local file.
+     * </p>
+     * <p>
+     * When the {@link ObjectCache} is enabled, small whole-file downloads are served from
+     * its off-heap copy and revalidated against S3 by ETag.
+     * </p>
+     * <p>
+     * Files stored compressed by {@link StorageCompression} are decompressed as they are
+     * read; see {@link #downloadFile(String, String, String)} to hand them over encoded.
+     * </p>
      *
      * @param filename The key (file name) in the bucket
-     * @return File content as bytes
+     * @param range    an HTTP byte range such as {@code bytes=0-1023}, or {@code null} for the whole file
+     * @return the open download; must be closed by the caller
+     * @throws software.amazon.awssdk.services.s3.model.NoSuchKeyException if the file does not exist
+     * @throws S3Exception if S3 rejects the request (e.g. with 416 for an unsatisfiable range)
+     * @throws IOException if a parallel download cannot be staged locally
+     */
+    public ObjectDownload downloadFile(String filename, String range) throws IOException {
+        return downloadFile(filename, range, null);
+    }
+
+    /**
+     * Opens a streaming download of a file from S3, like {@link #downloadFile(String, String)},
+     * letting a compressed file through as it is stored when the client can decode it.
+     * <p>
+     * If the file was stored compressed with a codec listed in {@code acceptEncoding}, the
+     * returned download is {@link ObjectDownload#isEncoded() encoded}: its body is the
+     * compressed bytes, to be sent with that {@code Content-Encoding}, which saves the
+     * decompression and most of the egress. Otherwise the body is decompressed on the
+     * fly and its length is the original one, or {@code -1} if that was not recorded.
+     * </p>
+     * <p>
+     * Byte ranges address the original content, which the compressed bytes do not map
+     * to, so a ranged request for a compressed file is answered with the whole file, as
+     * RFC 9110 allows. So is a ranged request for a file still waiting in the
+     * {@link WriteBehindSpool}, which is read from local disk.
+     * </p>
+     *
+     * @param filename       The key (file name) in the bucket
+     * @param range          an HTTP byte range, or {@code null} for the whole file
+     * @param acceptEncoding the client's {@code Accept-Encoding} header, or {@code null}
+     * @return the open download; must be closed by the caller
+     * @throws software.amazon.awssdk.services.s3.model.NoSuchKeyException if the file does not exist
+     * @throws S3Exception if S3 rejects the request (e.g. with 416 for an unsatisfiable range)
+     * @throws IOException if a parallel download cannot be staged locally or decompression cannot start
      */
-    public byte[] downloadFile(String filename) {
+    public ObjectDownload downloadFile(String filename, String range, String acceptEncoding) throws IOException {
+        ObjectDownload spooled = writeBehindSpool.open(filename);
+        if (spooled != null) {
+            return spooled;
+        }
+        ObjectDownload download = openDownload(filename, range);
+        if (download.isEncoded() && download.isPartial()) {
+            download.abort();
+            download = openDownload(filename, null);
+        }
+        return download.isEncoded() ? decoded(download, acceptEncoding) : download;
+    }
+
+    /**
+     * Returns an encoded download as it is if the client accepts its codec, otherwise
+     * with a decompressing body.
+     */
+    private static ObjectDownload decoded(ObjectDownload download, String acceptEncoding) throws IOException {
+        StoredEncoding encoding = download.encoding();
+        if (encoding.codec().isAcceptedBy(acceptEncoding)) {
+            return download;
+        }
+        InputStream body;
+        try {
+            body = encoding.codec().decoding(download.body());
+        } catch (IOException | RuntimeException e) {
+            download.abort();
+            throw e;
+        }
+        if (download.body() instanceof Abortable source) {
+            // Aborting the decoded download must still abort the S3 response under it.
+            body = AbortableInputStream.create(body, source);
+        }
+        return new ObjectDownload(body, encoding.decodedLength(), download.contentType(), download.eTag(),
+                download.lastModified(), null);
+    }
+
+    private ObjectDownload openDownload(String filename, String range) throws IOException {
+        if (range == null && objectCache.isEnabled()) {
+            return objectCache.download(filename, ifNoneMatch -> ifNoneMatch == null
+                    ? fetchFile(filename, null)
+                    : getObject(filename, null, ifNoneMatch));
+        }
+        return fetchFile(filename, range);
+    }
+
+    /** Opens the download from S3, timed up to the response headers (or the whole file, when fetched in parallel). */
+    private ObjectDownload fetchFile(String filename, String range) throws IOException {
+        long started = System.nanoTime();
+        try {
+            return fetchFromS3(filename, range);
+        } finally {
+            transferMetrics.record(Operation.DOWNLOAD, Phase.S3, System.nanoTime() - started);
+        }
+    }
+
+    private ObjectDownload fetchFromS3(String filename, String range) throws IOException {
+        if (range == null && parallelDownloadService.isEnabled()) {
+            return parallelDownloadService.download(bucketName, filename);
+        }
+        return getObject(filename, range, null);
+    }
+
+    private ObjectDownload getObject(String filename, String range, String ifNoneMatch) {
         GetObjectRequest getObjectRequest = GetObjectRequest.builder()
                 .bucket(bucketName)
                 .key(filename)
+                .range(range)
+                .ifNoneMatch(ifNoneMatch)
                 .build();
 
         ResponseInputStream<GetObjectResponse> s3Object = s3Client.getObject(getObjectRequest);
+        GetObjectResponse response = s3Object.response();
 
-        try {
-            return s3Object.readAllBytes();
-        } catch (IOException e) {
-            throw new RuntimeException("Failed to download file: " + filename, e);
+        return new ObjectDownload(
+                s3Object,
+                response.contentLength(),
+                response.contentType(),
+                response.eTag(),
+                response.lastModified(),
+                response.contentRange(),
+                StoredEncoding.from(response.metadata())
+        );
+    }
+
+    /**
+     * Non-blocking variant of {@link #downloadFile(String, String)} using a single GET.
+     * <p>
+     * The future completes as soon as the response headers arrive; the body is then
+     * read as a stream while the async client keeps receiving it. A compressed file is
+     * decompressed as it is read.
+     * </p>
+     *
+     * @param filename The key (file name) in the bucket
+     * @param range    an HTTP byte range, or {@code null} for the whole file
+     * @return a future completed with the open download
+     */
+    public CompletableFuture<ObjectDownload> downloadFileAsync(String filename, String range) {
+        ObjectDownload spooled = writeBehindSpool.open(filename);
+        if (spooled != null) {
+            return CompletableFuture.completedFuture(spooled);
         }
+        GetObjectRequest getObjectRequest = GetObjectRequest.builder()
+                .bucket(bucketName)
+                .key(filename)
+                .range(range)
+                .build();
+
+        return requestScheduler.executeAsync(filename, () -> s3AsyncClient.getObject(
+                        getObjectRequest, AsyncResponseTransformer.toBlockingInputStream()))
+                .thenCompose(s3Object -> {
+                    GetObjectResponse response = s3Object.response();
+                    StoredEncoding encoding = StoredEncoding.from(response.metadata());
+                    ObjectDownload download = new ObjectDownload(
+                            s3Object,
+                            response.contentLength(),
+                            response.contentType(),
+                            response.eTag(),
+                            response.lastModified(),
+                            response.contentRange(),
+                            encoding
+                    );
+                    if (encoding == null) {
+                        return CompletableFuture.completedFuture(download);
+                    }
+                    if (download.isPartial()) {
+                        download.abort();
+                        return downloadFileAsync(filename, null);
+                    }
+                    // Decompression starts by reading the body, which must not block the SDK's completion thread.
+                    return CompletableFuture.supplyAsync(() -> {
+                        try {
+                            return decoded(download, null);
+                        } catch (IOException e) {
+                            throw new CompletionException(e);
+                        }
+                    }, transferExecutor);
+                });
     }
 
      /**
@@ -136,10 +1121,80 @@ public class S3Service {
                 .key(filename)
                 .build();
 
-        s3Client.deleteObject(deleteRequest);
+        long started = System.nanoTime();
+        try {
+            s3Client.deleteObject(deleteRequest);
+        } finally {
+            transferMetrics.record(Operation.DELETE, Phase.S3, System.nanoTime() - started);
+        }
+        eventPublisher.publishEvent(ObjectChangedEvent.deleted(filename));
+    }
+
+    /**
+     * Non-blocking variant of {@link #deleteFile(String)}.
+     *
+     * @param filename the name of the file (S3 object key) to delete
+     * @return a future completed once S3 has deleted the object
+     */
+    public CompletableFuture<Void> deleteFileAsync(String filename) {
+        DeleteObjectRequest deleteRequest = DeleteObjectRequest.builder()
+                .bucket(bucketName)
+                .key(filename)
+                .build();
+
+        long started = System.nanoTime();
+        return requestScheduler.executeAsync(filename, () -> s3AsyncClient.deleteObject(deleteRequest))
+                .whenComplete((response, error) ->
+                        transferMetrics.record(Operation.DELETE, Phase.S3, System.nanoTime() - started))
+                .thenApply(response -> {
+                    eventPublisher.publishEvent(ObjectChangedEvent.deleted(filename));
+                    return null;
+                });
+    }
+
+    /**
+     * Deletes a list of files with batched {@code DeleteObjects} requests.
+     *
+     * <p>Keys are sent up to 1000 per request, several requests at a time, and the
+     * outcome of each key is handed to {@code handler} batch by batch as S3 answers.</p>
+     *
+     * @param filenames the keys to delete
+     * @param handler   receives the per-key results
+     * @return how many keys were deleted and how many failed
+     * @throws IOException if the handler fails
+     */
+    public BatchDeleteService.DeleteSummary deleteFiles(Iterable<String> filenames,
+                                                        BatchDeleteService.DeleteResultHandler handler) throws IOException {
+        return batchDeleteService.delete(bucketName, filenames.iterator(), handler);
+    }
+
+    /**
+     * Deletes every file under a prefix.
+     *
+     * <p>The listing is consumed page by page while the previous pages are being deleted,
+     * so the first deletes start after a single {@code ListObjectsV2} round trip and the
+     * key set is never held in memory.</p>
+     *
+     * @param prefix  the key prefix; must not be blank, so the whole bucket cannot be emptied by mistake
+     * @param handler receives the per-key results
+     * @return how many keys were deleted and how many failed
+     * @throws IOException if the handler fails
+     * @throws IllegalArgumentException if {@code prefix} is blank
+     */
+    public BatchDeleteService.DeleteSummary deleteFilesByPrefix(String prefix,
+                                                                BatchDeleteService.DeleteResultHandler handler) throws IOException {
+        if (prefix == null || prefix.isBlank()) {
+            throw new IllegalArgumentException("A prefix is required to delete by prefix");
+        }
+        Iterator<String> keys = s3Client.listObjectsV2Paginator(listRequest(prefix, null, MAX_PAGE_SIZE))
+                .contents()
+                .stream()
+                .map(S3Object::key)
+                .iterator();
+        return batchDeleteService.delete(bucketName, keys, handler);
     }
 
-      /**
+    /**
      * Uploads a large file (5GB+) using S3 multipart upload via TransferManager.
      *
      * @param file the multipart file to upload
@@ -150,16 +1205,105 @@ public class S3Service {
 
         String key = System.currentTimeMillis() + "_" + file.getOriginalFilename();
 
-        UploadFileRequest uploadRequest = UploadFileRequest.builder()
-                .putObjectRequest(p -> p.bucket(bucketName).key(key))
-                .source(file.getResource())
-                .build();
+        CompletedUpload completed;
+        try (InputStream content = file.getInputStream()) {
+            UploadRequest uploadRequest = UploadRequest.builder()
+                    .putObjectRequest(p -> p.bucket(bucketName).key(key).contentType(file.getContentType()))
+                    .requestBody(AsyncRequestBody.fromInputStream(
+                            antivirusService.scanning(content, file.getOriginalFilename(),
+                                    transferMetrics.recorder(Operation.LARGE_UPLOAD, Phase.SCAN)),
+                            file.getSize(), transferExecutor))
+                    .build();
+
+            long started = System.nanoTime();
+            Upload upload = transferManager.upload(uploadRequest);
+            try {
+                completed = upload.completionFuture().join(); // Wait for completion
+            } finally {
+                transferMetrics.record(Operation.LARGE_UPLOAD, Phase.S3, System.nanoTime() - started);
+            }
+        }
+        published(key, file.getSize(), completed.response().eTag(), file.getContentType());
+
+        return fileUrl(key);
+    }
+
+    /**
+     * Uploads a large file from a raw request body as a pipelined multipart upload.
+     * <p>
+     * Unlike {@link #uploadLargeFile(MultipartFile)}, nothing is staged on local disk:
+     * the body is cut into parts as it arrives and each full part is sent with
+     * {@code UploadPart} while the following bytes are still being received. The time
+     * to complete is therefore close to the slower of the client upload and the S3
+     * upload rather than their sum, and memory stays within the part buffer budget.
+     * </p>
+     * <p>
+     * The body is scanned by the {@link AntivirusService} as it is read. A signature
+     * match fails the read, and the multipart upload is aborted with only the parts
+     * sent so far to discard.
+     * </p>
+     * <p>
+     * If {@link StorageCompression} selects the body from its first bytes, the parts
+     * carry the compressed content instead.
+     * </p>
+     *
+     * @param filename    the original file name, used to build the key
+     * @param contentType the content type stored with the object, or {@code null}
+     * @param body        the request body; not closed by this method
+     * @return the S3 URL of the uploaded file
+     * @throws IOException if the body cannot be read or the upload fails
+     */
+    public String uploadLargeFile(String filename, String contentType, InputStream body) throws IOException {
+        return uploadStream(System.currentTimeMillis() + "_" + filename, filename, contentType, body,
+                Operation.LARGE_UPLOAD);
+    }
+
+    /**
+     * Uploads an entry of an archive being extracted under exactly {@code key}, as a
+     * pipelined multipart upload like {@link #uploadLargeFile(String, String, InputStream)}:
+     * held to the file name rules first, scanned as it is read, compressed if
+     * {@link StorageCompression} selects it, and held in memory only one part at a time.
+     *
+     * @param key         the object key
+     * @param contentType the content type stored with the object, or {@code null}
+     * @param body        the entry content; not closed by this method
+     * @return the public URL of the object
+     * @throws IOException if the body cannot be read, the scan rejects it or the upload fails
+     * @throws RuntimeException if the file name is rejected
+     */
+    public String uploadEntry(String key, String contentType, InputStream body) throws IOException {
+        antivirusService.scanFilename(key);
+        return uploadStream(key, key, contentType, body, Operation.EXTRACT);
+    }
 
-        FileUpload upload = transferManager.uploadFile(uploadRequest);
+    private String uploadStream(String key, String filename, String contentType, InputStream body,
+                                Operation operation) throws IOException {
+        // The length is not known up front, so the recorded encoding has no decoded length.
+        ContentCodec codec = null;
+        if (storageCompression.isCandidate(contentType, -1)) {
+            BufferedInputStream probed = new BufferedInputStream(body, storageCompression.probeSize());
+            probed.mark(storageCompression.probeSize());
+            byte[] sample = probed.readNBytes(storageCompression.probeSize());
+            probed.reset();
+            codec = storageCompression.choose(filename, sample, sample.length);
+            body = probed;
+        }
 
-        upload.completionFuture().join(); // Wait for completion
+        MultipartUploadOutputStream upload = multipartUploadService.open(bucketName, key, contentTypeOrDefault(contentType),
+                codec != null ? new StoredEncoding(codec, -1).toMetadata() : Map.of());
+        long size;
+        try {
+            InputStream content = antivirusService.scanning(body, filename,
+                    transferMetrics.recorder(operation, Phase.SCAN));
+            size = codec != null ? writeEncoded(content, codec, upload) : upload.writeFrom(content);
+            closeTimed(upload, operation);
+        } catch (IOException | RuntimeException e) {
+            upload.abort();
+            throw e;
+        }
+        published(key, size, upload.eTag(), contentType);
 
-        return "https://" + bucketName + ".s3.amazonaws.com/" + key;
+        return fileUrl(key);
     }
 
      /**
@@ -183,19 +1327,71 @@ public class S3Service {
      * </pre>
      */
     public String uploadZip(byte[] zipBytes, String zipName) {
-        s3Client.putObject(
-                PutObjectRequest.builder()
-                        .bucket(bucketName)
-                        .key(zipName)
-                        .contentType("application/zip")
-                        .build(),
-                software.amazon.awssdk.core.sync.RequestBody.fromBytes(zipBytes)
-        );
-    
-        return String.format("https://%s.s3.%s.amazonaws.com/%s",
-                bucketName,
-                s3Client.region().id(),
-                zipName
-        );
+        long started = System.nanoTime();
+        PutObjectResponse response;
+        try {
+            response = s3Client.putObject(
+                    PutObjectRequest.builder()
+                            .bucket(bucketName)
+                            .key(zipName)
+                            .contentType("application/zip")
+                            .build(),
+                    RequestBody.fromBytes(zipBytes)
+            );
+        } finally {
+            transferMetrics.record(Operation.ZIP, Phase.S3, System.nanoTime() - started);
+        }
+
+        published(zipName, zipBytes.length, response.eTag(), "application/zip");
+        return fileUrl(zipName);
+    }
+
+    /**
+     * Uploads a ZIP archive to S3 while it is being generated.
+     * <p>
+     * The writer produces the archive straight into a pipelined multipart upload:
+     * each time a part buffer fills up it is sent to S3 while compression of the
+     * following entries continues. Memory is bounded by part size times the parts
+     * in flight, regardless of how many or how large the zipped files are.
+     * </p>
+     *
+     * <p><b>Example:</b></p>
+     * <pre>
+     * String url = s3Service.uploadZip("documents_2024.zip", out -&gt; zipService.zipFiles(files, out));
+     * </pre>
+     *
+     * @param zipName the name (key) under which the ZIP file will be stored in the S3 bucket
+     * @param writer  writes the archive to the stream it is given
+     * @return the public URL of the uploaded ZIP file in S3
+     * @throws IOException if the archive cannot be written or the upload fails
+     */
+    public String uploadZip(String zipName, ContentWriter writer) throws IOException {
+        MultipartUploadOutputStream upload = multipartUploadService.open(
+                bucketName, zipName, "application/zip", Map.of());
+        try {
+            long started = System.nanoTime();
+            writer.writeTo(upload);
+            transferMetrics.record(Operation.ZIP, Phase.COMPRESS, System.nanoTime() - started);
+            closeTimed(upload, Operation.ZIP);
+        } catch (IOException | RuntimeException e) {
+            upload.abort();
+            throw e;
+        }
+        published(zipName, upload.bytesWritten(), upload.eTag(), "application/zip");
+
+        return fileUrl(zipName);
+    }
+
+    /**
+     * Completes a pipelined multipart upload, recording the wait for the parts still in
+     * flight and the {@code CompleteMultipartUpload} as the S3 phase.
+     */
+    private void closeTimed(MultipartUploadOutputStream upload, Operation operation) throws IOException {
+        long started = System.nanoTime();
+        try {
+            upload.close();
+        } finally {
+            transferMetrics.record(operation, Phase.S3, System.nanoTime() - started);
+        }
     }
 }
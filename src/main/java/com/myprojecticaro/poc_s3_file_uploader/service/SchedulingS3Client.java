@@ -0,0 +1,197 @@
+package com.myprojecticaro.poc_s3_file_uploader.service;
+
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.core.sync.ResponseTransformer;
+import software.amazon.awssdk.http.AbortableInputStream;
+import software.amazon.awssdk.http.ContentStreamProvider;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.S3ServiceClientConfiguration;
+import software.amazon.awssdk.services.s3.S3Utilities;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CopyObjectRequest;
+import software.amazon.awssdk.services.s3.model.CopyObjectResponse;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectResponse;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsResponse;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectResponse;
+import software.amazon.awssdk.services.s3.model.UploadPartCopyRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartCopyResponse;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartResponse;
+
+import java.io.InputStream;
+
+/**
+ * {@link S3Client} that sends the requests this application makes through an
+ * {@link S3RequestScheduler}.
+ * <p>
+ * Every service keeps using a plain {@code S3Client}; this wrapper is what the bean
+ * is when the scheduler is enabled. GETs are hedged; the other requests are only
+ * admitted and retried. Paginators are built on {@link #listObjectsV2}, so each page
+ * request is scheduled too. Operations the application does not use are not
+ * overridden and fail like the {@code S3Client} defaults do.
+ * </p>
+ *
+ * <p>
+ * A body built with {@link #singleUse(InputStream, long)} reads a stream that cannot
+ * be rewound, so the request carrying it is sent once and its failure is left to the
+ * caller.
+ * </p>
+ *
+ * @author Icaro
+ * @version 1.0
+ */
+public class SchedulingS3Client implements S3Client {
+
+    private final S3Client delegate;
+    private final S3RequestScheduler scheduler;
+
+    public SchedulingS3Client(S3Client delegate, S3RequestScheduler scheduler) {
+        this.delegate = delegate;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * A body read from {@code content} as {@link RequestBody#fromInputStream} reads it,
+     * marked so that the scheduler does not send it again after a failure.
+     *
+     * @param content       the stream, read once; not closed
+     * @param contentLength how many bytes of it to send
+     * @return the request body
+     */
+    public static RequestBody singleUse(InputStream content, long contentLength) {
+        RequestBody body = RequestBody.fromInputStream(content, contentLength);
+        return RequestBody.fromContentProvider(new SingleUseContent(body.contentStreamProvider()),
+                contentLength, "application/octet-stream");
+    }
+
+    /**
+     * Hedges the request for the response headers, then hands the winning stream to
+     * {@code transformer}; the losing stream is aborted.
+     */
+    @Override
+    public <ReturnT> ReturnT getObject(GetObjectRequest request,
+                                       ResponseTransformer<GetObjectResponse, ReturnT> transformer) {
+        ResponseInputStream<GetObjectResponse> object = scheduler.executeHedged(request.key(),
+                () -> delegate.getObject(request, ResponseTransformer.toInputStream()),
+                ResponseInputStream::abort);
+        try {
+            return transformer.transform(object.response(), AbortableInputStream.create(object));
+        } catch (Exception e) {
+            object.abort();
+            throw e instanceof RuntimeException runtime
+                    ? runtime
+                    : SdkClientException.create("Response transformation failed", e);
+        }
+    }
+
+    @Override
+    public HeadObjectResponse headObject(HeadObjectRequest request) {
+        return scheduler.execute(request.key(), () -> delegate.headObject(request));
+    }
+
+    @Override
+    public PutObjectResponse putObject(PutObjectRequest request, RequestBody body) {
+        return isSingleUse(body)
+                ? scheduler.executeOnce(request.key(), () -> delegate.putObject(request, body))
+                : scheduler.execute(request.key(), () -> delegate.putObject(request, body));
+    }
+
+    @Override
+    public CopyObjectResponse copyObject(CopyObjectRequest request) {
+        return scheduler.execute(request.destinationKey(), () -> delegate.copyObject(request));
+    }
+
+    @Override
+    public DeleteObjectResponse deleteObject(DeleteObjectRequest request) {
+        return scheduler.execute(request.key(), () -> delegate.deleteObject(request));
+    }
+
+    @Override
+    public DeleteObjectsResponse deleteObjects(DeleteObjectsRequest request) {
+        String key = request.delete().hasObjects() && !request.delete().objects().isEmpty()
+                ? request.delete().objects().get(0).key()
+                : null;
+        return scheduler.execute(key, () -> delegate.deleteObjects(request));
+    }
+
+    @Override
+    public ListObjectsV2Response listObjectsV2(ListObjectsV2Request request) {
+        return scheduler.execute(request.prefix(), () -> delegate.listObjectsV2(request));
+    }
+
+    @Override
+    public CreateMultipartUploadResponse createMultipartUpload(CreateMultipartUploadRequest request) {
+        return scheduler.execute(request.key(), () -> delegate.createMultipartUpload(request));
+    }
+
+    @Override
+    public UploadPartResponse uploadPart(UploadPartRequest request, RequestBody body) {
+        return isSingleUse(body)
+                ? scheduler.executeOnce(request.key(), () -> delegate.uploadPart(request, body))
+                : scheduler.execute(request.key(), () -> delegate.uploadPart(request, body));
+    }
+
+    @Override
+    public UploadPartCopyResponse uploadPartCopy(UploadPartCopyRequest request) {
+        return scheduler.execute(request.destinationKey(), () -> delegate.uploadPartCopy(request));
+    }
+
+    @Override
+    public CompleteMultipartUploadResponse completeMultipartUpload(CompleteMultipartUploadRequest request) {
+        return scheduler.execute(request.key(), () -> delegate.completeMultipartUpload(request));
+    }
+
+    @Override
+    public AbortMultipartUploadResponse abortMultipartUpload(AbortMultipartUploadRequest request) {
+        return scheduler.execute(request.key(), () -> delegate.abortMultipartUpload(request));
+    }
+
+    @Override
+    public S3Utilities utilities() {
+        return delegate.utilities();
+    }
+
+    @Override
+    public S3ServiceClientConfiguration serviceClientConfiguration() {
+        return delegate.serviceClientConfiguration();
+    }
+
+    @Override
+    public String serviceName() {
+        return delegate.serviceName();
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+
+    private static boolean isSingleUse(RequestBody body) {
+        return body.contentStreamProvider() instanceof SingleUseContent;
+    }
+
+    /** Marks the content of a {@link #singleUse(InputStream, long)} body. */
+    private record SingleUseContent(ContentStreamProvider content) implements ContentStreamProvider {
+
+        @Override
+        public InputStream newStream() {
+            return content.newStream();
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package com.myprojecticaro.poc_s3_file_uploader.service;
+
+import com.myprojecticaro.poc_s3_file_uploader.io.CompressedFormats;
+import com.myprojecticaro.poc_s3_file_uploader.io.ContentCodec;
+import com.myprojecticaro.poc_s3_file_uploader.io.CountingOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Decides which uploads are stored compressed, and with which {@link ContentCodec}.
+ * <p>
+ * A file is compressed when it is at least {@code min-size} bytes, its content type
+ * matches one of {@code content-types} (a trailing {@code *} matches a whole family
+ * such as {@code text/*}), and it is not already in a compressed format according to
+ * {@link CompressedFormats}, by type or by magic bytes. The decision is then made on
+ * the content itself: the first {@code probe-size} bytes are compressed, and the file
+ * is stored as uploaded unless the probe shrinks to {@code max-ratio} of its size or
+ * less. JSON that happens to be a base64 blob, or a CSV of random identifiers, is
+ * therefore not compressed for nothing.
+ * </p>
+ *
+ * <p>
+ * The codec and the original length are recorded in the object's user metadata as a
+ * {@link StoredEncoding}. {@link S3Service} decodes such objects as it streams them
+ * to clients, or passes the compressed bytes through to clients that accept the
+ * codec as a {@code Content-Encoding}. Objects stored before compression was enabled,
+ * or by other writers, are served unchanged.
+ * </p>
+ *
+ * <p><strong>Configuration:</strong>
+ * <pre>
+ * aws:
+ *   s3:
+ *     upload:
+ *       compression:
+ *         enabled: false
+ *         codec: zstd          # zstd or gzip
+ *         level: 0             # 0 uses the codec's default (zstd 3, gzip 6)
+ *         min-size: 1024
+ *         probe-size: 65536
+ *         max-ratio: 0.9       # compress only if the probe shrinks to 90% or less
+ *         content-types: text/*,application/json,application/xml,...
+ * </pre>
+ * </p>
+ *
+ * @author Icaro
+ * @version 1.0
+ */
+@Component
+public class StorageCompression {
+
+    private static final Logger logger = LoggerFactory.getLogger(StorageCompression.class);
+
+    private final boolean enabled;
+    private final ContentCodec codec;
+    private final int level;
+    private final long minSize;
+    private final int probeSize;
+    private final double maxRatio;
+    private final List<String> contentTypes;
+
+    public StorageCompression(@Value("${aws.s3.upload.compression.enabled:false}") boolean enabled,
+                              @Value("${aws.s3.upload.compression.codec:zstd}") String codec,
+                              @Value("${aws.s3.upload.compression.level:0}") int level,
+                              @Value("${aws.s3.upload.compression.min-size:1024}") long minSize,
+                              @Value("${aws.s3.upload.compression.probe-size:65536}") int probeSize,
+                              @Value("${aws.s3.upload.compression.max-ratio:0.9}") double maxRatio,
+                              @Value("${aws.s3.upload.compression.content-types:text/*,application/json,"
+                                      + "application/x-ndjson,application/xml,application/javascript,application/csv,"
+                                      + "application/yaml,application/x-yaml,application/sql,image/svg+xml,image/bmp,"
+                                      + "image/tiff,application/x-tar}") String[] contentTypes) {
+        this.enabled = enabled;
+        this.codec = ContentCodec.of(codec);
+        this.level = level;
+        this.minSize = minSize;
+        this.probeSize = probeSize;
+        this.maxRatio = maxRatio;
+        this.contentTypes = Arrays.stream(contentTypes)
+                .map(type -> type.trim().toLowerCase(Locale.ROOT))
+                .filter(type -> !type.isEmpty())
+                .toList();
+    }
+
+    /** @return {@code true} if uploads may be stored compressed */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Chooses how to store an uploaded file.
+     *
+     * @param file the upload; its first bytes are read again for the probe
+     * @return the codec to store it with, or {@code null} to store it as uploaded
+     * @throws IOException if the probe cannot read the file
+     */
+    public ContentCodec choose(MultipartFile file) throws IOException {
+        if (!isCandidate(file.getContentType(), file.getSize())) {
+            return null;
+        }
+        byte[] sample;
+        try (InputStream in = file.getInputStream()) {
+            sample = in.readNBytes(probeSize);
+        }
+        return choose(file.getOriginalFilename(), sample, sample.length);
+    }
+
+    /**
+     * Tells whether content of this type and size is worth probing at all.
+     *
+     * @param contentType the declared content type; may be {@code null}
+     * @param size        the content length, or {@code -1} if unknown
+     * @return {@code false} if the content is stored as uploaded whatever it contains
+     */
+    public boolean isCandidate(String contentType, long size) {
+        return enabled
+                && (size < 0 || size >= minSize)
+                && contentType != null
+                && !CompressedFormats.isCompressedType(contentType)
+                && matchesContentType(contentType);
+    }
+
+    /**
+     * Chooses how to store content from a sample of its first bytes.
+     *
+     * @param filename the file name, for logging
+     * @param sample   the first bytes of the content
+     * @param length   number of valid bytes in {@code sample}
+     * @return the codec to store it with, or {@code null} to store it as uploaded
+     * @throws IOException if the probe fails
+     */
+    public ContentCodec choose(String filename, byte[] sample, int length) throws IOException {
+        if (length == 0 || CompressedFormats.hasCompressedSignature(sample, length)) {
+            return null;
+        }
+        CountingOutputStream compressed = new CountingOutputStream(OutputStream.nullOutputStream());
+        try (OutputStream probe = codec.encoding(compressed, level)) {
+            probe.write(sample, 0, Math.min(length, probeSize));
+        }
+        double ratio = (double) compressed.count() / Math.min(length, probeSize);
+        logger.debug("Compression probe of {}: {} bytes to {} ({})", filename, length, compressed.count(),
+                ratio <= maxRatio ? codec.token() : "stored as uploaded");
+        return ratio <= maxRatio ? codec : null;
+    }
+
+    /**
+     * Wraps the destination of an upload so the content is compressed on the way.
+     *
+     * @param codec the codec returned by {@code choose}
+     * @param out   where the stored bytes go; left open when the returned stream is closed
+     * @return the compressing stream
+     * @throws IOException if the compressor cannot be set up
+     */
+    public OutputStream encoding(ContentCodec codec, OutputStream out) throws IOException {
+        return codec.encoding(out, level);
+    }
+
+    /** @return the number of leading bytes {@code choose} looks at */
+    public int probeSize() {
+        return probeSize;
+    }
+
+    private boolean matchesContentType(String contentType) {
+        String type = contentType.toLowerCase(Locale.ROOT);
+        int parameters = type.indexOf(';');
+        if (parameters >= 0) {
+            type = type.substring(0, parameters);
+        }
+        type = type.trim();
+        for (String pattern : contentTypes) {
+            if (pattern.endsWith("*") ? type.startsWith(pattern.substring(0, pattern.length() - 1)) : type.equals(pattern)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
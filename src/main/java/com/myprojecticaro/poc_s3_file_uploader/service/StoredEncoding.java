@@ -0,0 +1,44 @@
+package com.myprojecticaro.poc_s3_file_uploader.service;
+
+import com.myprojecticaro.poc_s3_file_uploader.io.ContentCodec;
+
+import java.util.Map;
+
+/**
+ * How an object compressed by {@link StorageCompression} is stored, as recorded in its
+ * user metadata.
+ *
+ * @param codec         the codec the stored bytes are compressed with
+ * @param decodedLength the length of the original content, or {@code -1} if unknown
+ *
+ * @author Icaro
+ * @version 1.0
+ */
+public record StoredEncoding(ContentCodec codec, long decodedLength) {
+
+    /** User metadata holding the {@link ContentCodec#token()} of a compressed object. */
+    public static final String CODEC_METADATA = "content-codec";
+
+    /** User metadata holding the length of the original content of a compressed object. */
+    public static final String DECODED_LENGTH_METADATA = "decoded-length";
+
+    /**
+     * @param metadata the user metadata of an object; may be {@code null}
+     * @return the encoding recorded in it, or {@code null} if the object is stored as uploaded
+     */
+    public static StoredEncoding from(Map<String, String> metadata) {
+        String codec = metadata != null ? metadata.get(CODEC_METADATA) : null;
+        if (codec == null) {
+            return null;
+        }
+        String length = metadata.get(DECODED_LENGTH_METADATA);
+        return new StoredEncoding(ContentCodec.of(codec), length != null ? Long.parseLong(length) : -1);
+    }
+
+    /** @return the user metadata entries that record this encoding */
+    public Map<String, String> toMetadata() {
+        return decodedLength >= 0
+                ? Map.of(CODEC_METADATA, codec.token(), DECODED_LENGTH_METADATA, Long.toString(decodedLength))
+                : Map.of(CODEC_METADATA, codec.token());
+    }
+}
@@ -0,0 +1,23 @@
+package com.myprojecticaro.poc_s3_file_uploader.service;
+
+/**
+ * Outcome of uploading a single file of a batch.
+ *
+ * @param filename the original file name
+ * @param uploaded {@code true} if the file was stored
+ * @param url      the public URL of the stored file, when it was uploaded
+ * @param error    why the file was rejected or failed, otherwise {@code null}
+ *
+ * @author Icaro
+ * @version 1.0
+ */
+public record UploadResult(String filename, boolean uploaded, String url, String error) {
+
+    public static UploadResult uploaded(String filename, String url) {
+        return new UploadResult(filename, true, url, null);
+    }
+
+    public static UploadResult failed(String filename, String error) {
+        return new UploadResult(filename, false, null, error);
+    }
+}
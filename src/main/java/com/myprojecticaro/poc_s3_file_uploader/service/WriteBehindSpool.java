@@ -0,0 +1,794 @@
+package com.myprojecticaro.poc_s3_file_uploader.service;
+
+import com.myprojecticaro.poc_s3_file_uploader.io.BufferPool;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32C;
+
+/**
+ * Durable local write-behind spool: uploads are acknowledged once they are on local
+ * disk, and copied to S3 in the background.
+ * <p>
+ * Uploads are appended to segment files of {@code segment-size} bytes in {@code dir},
+ * preallocated when they are created. Each record is framed by a fixed header (record
+ * type, id and lengths), the key and content type, the content, and a CRC32C of all
+ * of it. Space for a record is reserved and its header written under a lock, then the
+ * content is copied in without it, so concurrent uploads write side by side; the
+ * channel is forced to disk before {@link #append} returns, and with it every record
+ * before it. Up to {@code max-bytes} of content can wait in the spool; beyond that
+ * {@link #hasRoomFor(long)} is {@code false} and uploads go straight to S3 again. The
+ * same goes for a single upload over 5 GiB, which one {@code PutObject} cannot store.
+ * </p>
+ *
+ * <p>
+ * A drainer takes up to {@code batch-size} waiting records at a time and puts them to
+ * S3 with {@code parallelism} concurrent {@code PutObject} calls, reading the content
+ * straight from the segment. A failed upload is retried after an exponential backoff
+ * of up to {@code max-backoff}, for as long as it takes. Uploaded records are marked
+ * with a small drained record appended to the spool (not forced: after a crash, a
+ * record whose mark was lost is simply uploaded again), and once every upload in the
+ * oldest segments is drained those segments are deleted. A record superseded by a
+ * later upload of its key is not uploaded, and one whose key is deleted while it is
+ * being uploaded is deleted from S3 again.
+ * </p>
+ *
+ * <p>
+ * On startup the segments are read back in order. A record with a bad CRC, left by a
+ * crash in the middle of an append that was never acknowledged, is skipped, and the
+ * records not marked as drained are queued again. Until a record is drained,
+ * {@link #open(String)} and {@link #stat(String)} serve the key from the spool.
+ * </p>
+ *
+ * <p><strong>Configuration:</strong>
+ * <pre>
+ * aws:
+ *   s3:
+ *     upload:
+ *       write-behind:
+ *         enabled: false
+ *         dir: ${java.io.tmpdir}/poc-s3-file-uploader/spool
+ *         segment-size: 268435456
+ *         max-bytes: 10737418240
+ *         batch-size: 32
+ *         parallelism: 8
+ *         max-backoff: 1m
+ * </pre>
+ * </p>
+ *
+ * @author Icaro
+ * @version 1.0
+ */
+@Service
+public class WriteBehindSpool {
+
+    private static final Logger logger = LoggerFactory.getLogger(WriteBehindSpool.class);
+
+    private static final int MAGIC = 0x53504F4C;
+    private static final byte UPLOAD = 1;
+    private static final byte DRAINED = 2;
+    /** magic, type, id, header length, content length. */
+    private static final int FRAME_SIZE = 4 + 1 + 8 + 4 + 8;
+    private static final int CRC_SIZE = 4;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".spool";
+    private static final long INITIAL_BACKOFF_MILLIS = 100;
+    /** The largest object a single {@code PutObject} can store. */
+    static final long MAX_PUT_SIZE = 5L * 1024 * 1024 * 1024;
+
+    private final S3Client s3Client;
+    private final BufferPool bufferPool;
+    private final ApplicationEventPublisher eventPublisher;
+    private final boolean enabled;
+    private final Path dir;
+    private final long segmentSize;
+    private final long maxBytes;
+    private final int batchSize;
+    private final int parallelism;
+    private final long maxBackoffMillis;
+
+    /** Guards the segment list, space reservations and live counts. */
+    private final Object lock = new Object();
+    /** Segments by sequence number, oldest first. */
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+    private Segment active;
+    private long nextId;
+
+    /** Records waiting to be drained, by key. */
+    private final Map<String, Entry> pending = new ConcurrentHashMap<>();
+    private final DelayQueue<Drain> queue = new DelayQueue<>();
+    private final AtomicLong spooledBytes = new AtomicLong();
+    private ExecutorService drainer;
+    private ExecutorService uploads;
+    private volatile boolean running;
+
+    @Value("${aws.s3.bucket-name}")
+    private String bucketName;
+
+    public WriteBehindSpool(S3Client s3Client,
+                            @Qualifier("uploadBufferPool") BufferPool bufferPool,
+                            ApplicationEventPublisher eventPublisher,
+                            @Value("${aws.s3.upload.write-behind.enabled:false}") boolean enabled,
+                            @Value("${aws.s3.upload.write-behind.dir:${java.io.tmpdir}/poc-s3-file-uploader/spool}") Path dir,
+                            @Value("${aws.s3.upload.write-behind.segment-size:268435456}") long segmentSize,
+                            @Value("${aws.s3.upload.write-behind.max-bytes:10737418240}") long maxBytes,
+                            @Value("${aws.s3.upload.write-behind.batch-size:32}") int batchSize,
+                            @Value("${aws.s3.upload.write-behind.parallelism:8}") int parallelism,
+                            @Value("${aws.s3.upload.write-behind.max-backoff:1m}") Duration maxBackoff) {
+        this.s3Client = s3Client;
+        this.bufferPool = bufferPool;
+        this.eventPublisher = eventPublisher;
+        this.enabled = enabled;
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        this.maxBytes = maxBytes;
+        this.batchSize = Math.max(1, batchSize);
+        this.parallelism = Math.max(1, parallelism);
+        this.maxBackoffMillis = maxBackoff.toMillis();
+        if (enabled) {
+            try {
+                Files.createDirectories(dir);
+                recover();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot open the write-behind spool in " + dir, e);
+            }
+        }
+    }
+
+    /** A spooled upload; {@code discarded} holds whether it was superseded and whether its key was deleted. */
+    private record Entry(long id, String key, String contentType, long size, Segment segment,
+                         long contentOffset, Instant spooledAt, boolean[] discarded) {
+
+        Entry(long id, String key, String contentType, long size, Segment segment, long contentOffset, Instant spooledAt) {
+            this(id, key, contentType, size, segment, contentOffset, spooledAt, new boolean[2]);
+        }
+
+        /** @return {@code true} if the upload was superseded or its key deleted */
+        boolean isDiscarded() {
+            synchronized (discarded) {
+                return discarded[0] || discarded[1];
+            }
+        }
+
+        /** @return {@code true} if the key was deleted after this upload */
+        boolean isDeleted() {
+            synchronized (discarded) {
+                return discarded[1];
+            }
+        }
+
+        /** A later upload of the key replaces this one. */
+        void supersede() {
+            synchronized (discarded) {
+                discarded[0] = true;
+            }
+        }
+
+        /** The key was deleted. */
+        void delete() {
+            synchronized (discarded) {
+                discarded[1] = true;
+            }
+        }
+    }
+
+    /** One segment file; {@code live} counts its uploads not drained yet, {@code readers} its open downloads. */
+    private static final class Segment {
+
+        final long sequence;
+        final Path path;
+        final FileChannel channel;
+        final long capacity;
+        long position;
+        int live;
+        int readers;
+
+        Segment(long sequence, Path path, FileChannel channel, long capacity, long position) {
+            this.sequence = sequence;
+            this.path = path;
+            this.channel = channel;
+            this.capacity = capacity;
+            this.position = position;
+        }
+    }
+
+    /** An entry in the drain queue, due at {@code dueAt} (nanoTime). */
+    private record Drain(Entry entry, int attempts, long dueAt) implements Delayed {
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(dueAt - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(dueAt, ((Drain) other).dueAt);
+        }
+    }
+
+    /** @return {@code true} if uploads may be acknowledged from the spool */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return {@code true} if an upload of {@code size} bytes fits within {@code max-bytes}
+     *         and can be drained with a single {@code PutObject}
+     */
+    public boolean hasRoomFor(long size) {
+        return enabled && size >= 0 && size <= MAX_PUT_SIZE && spooledBytes.get() + size <= maxBytes;
+    }
+
+    /** @return the number of uploads waiting to be drained */
+    public int backlog() {
+        return pending.size();
+    }
+
+    /** @return the bytes of content waiting to be drained */
+    public long backlogBytes() {
+        return spooledBytes.get();
+    }
+
+    /**
+     * Appends an upload to the spool and queues it for S3.
+     *
+     * @param key         the object key it is uploaded to
+     * @param contentType the content type stored with the object
+     * @param size        the exact content length
+     * @param content     the content; read to the end but not closed
+     * @throws IOException if the content cannot be read or the spool cannot be written;
+     *                     nothing is acknowledged or uploaded then
+     */
+    public void append(String key, String contentType, long size, InputStream content) throws IOException {
+        byte[] header = header(key, contentType);
+        long length = FRAME_SIZE + header.length + size + CRC_SIZE;
+        Segment segment;
+        long position;
+        long id;
+        ByteBuffer frame;
+        synchronized (lock) {
+            if (active == null || active.capacity - active.position < length) {
+                rollOver(length);
+            }
+            segment = active;
+            position = segment.position;
+            segment.position += length;
+            segment.live++;
+            id = nextId++;
+            frame = frame(UPLOAD, id, header.length, size);
+            writeFully(segment.channel, frame, position);
+        }
+
+        boolean written = false;
+        try {
+            CRC32C crc = new CRC32C();
+            crc.update(frame.rewind().position(4));
+            crc.update(header);
+            writeFully(segment.channel, ByteBuffer.wrap(header), position + FRAME_SIZE);
+            long contentOffset = position + FRAME_SIZE + header.length;
+            long copied = copy(content, segment.channel, contentOffset, size, crc);
+            if (copied != size) {
+                throw new IOException("Expected " + size + " bytes of " + key + " but got " + copied);
+            }
+            writeFully(segment.channel, ByteBuffer.allocate(CRC_SIZE).putInt(0, (int) crc.getValue()),
+                    contentOffset + size);
+            segment.channel.force(false);
+            written = true;
+
+            Entry entry = new Entry(id, key, contentType, size, segment, contentOffset, Instant.now());
+            spooledBytes.addAndGet(size);
+            Entry previous = pending.put(key, entry);
+            if (previous != null) {
+                previous.supersede();
+            }
+            queue.add(new Drain(entry, 0, 0));
+        } finally {
+            if (!written) {
+                // The record stays on disk with a bad CRC and is skipped on recovery.
+                synchronized (lock) {
+                    segment.live--;
+                }
+            }
+        }
+    }
+
+    /**
+     * Opens a download of an upload that is still in the spool.
+     *
+     * @param key the object key
+     * @return the download, or {@code null} if the key is not waiting in the spool
+     */
+    public ObjectDownload open(String key) {
+        Entry entry = pending.get(key);
+        if (entry == null || entry.isDiscarded()) {
+            return null;
+        }
+        synchronized (lock) {
+            if (!segments.containsKey(entry.segment().sequence)) {
+                return null;
+            }
+            entry.segment().readers++;
+        }
+        InputStream body = new RegionInputStream(entry.segment().channel, entry.contentOffset(), entry.size()) {
+            @Override
+            public void close() {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                synchronized (lock) {
+                    entry.segment().readers--;
+                }
+                deleteDrainedSegments();
+            }
+        };
+        return new ObjectDownload(body, entry.size(), entry.contentType(), null, entry.spooledAt(), null);
+    }
+
+    /**
+     * @param key the object key
+     * @return the metadata of the upload if it is still in the spool
+     */
+    public Optional<FileMetadata> stat(String key) {
+        Entry entry = pending.get(key);
+        if (entry == null || entry.isDiscarded()) {
+            return Optional.empty();
+        }
+        return Optional.of(new FileMetadata(key, entry.size(), null, entry.spooledAt(), entry.contentType()));
+    }
+
+    /** Starts draining the spool, including what a previous run left in it. */
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled || running) {
+            return;
+        }
+        running = true;
+        CustomizableThreadFactory uploadThreads = new CustomizableThreadFactory("spool-upload-");
+        uploadThreads.setDaemon(true);
+        uploads = Executors.newFixedThreadPool(parallelism, uploadThreads);
+        CustomizableThreadFactory drainerThread = new CustomizableThreadFactory("spool-drain-");
+        drainerThread.setDaemon(true);
+        drainer = Executors.newSingleThreadExecutor(drainerThread);
+        drainer.execute(this::drainLoop);
+        if (!pending.isEmpty()) {
+            logger.info("Draining {} uploads ({} bytes) left in the spool {}", pending.size(), spooledBytes.get(), dir);
+        }
+    }
+
+    /**
+     * Drops a spooled upload whose key was deleted, so it is not uploaded afterwards.
+     *
+     * @param event the change
+     */
+    @EventListener
+    public void onObjectChanged(ObjectChangedEvent event) {
+        if (!event.isDeletion()) {
+            return;
+        }
+        Entry entry = pending.get(event.key());
+        if (entry != null) {
+            entry.delete();
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        // What is not drained yet stays in the segments and is drained at the next start.
+        running = false;
+        if (drainer != null) {
+            drainer.shutdownNow();
+            uploads.shutdownNow();
+        }
+    }
+
+    private void drainLoop() {
+        while (running) {
+            List<Drain> batch = new ArrayList<>(batchSize);
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            queue.drainTo(batch, batchSize - 1);
+
+            List<Future<?>> results = new ArrayList<>(batch.size());
+            for (Drain drain : batch) {
+                results.add(uploads.submit(() -> {
+                    upload(drain.entry());
+                    return null;
+                }));
+            }
+            List<Entry> drained = new ArrayList<>(batch.size());
+            for (int i = 0; i < batch.size(); i++) {
+                Drain drain = batch.get(i);
+                try {
+                    results.get(i).get();
+                    drained.add(drain.entry());
+                } catch (ExecutionException e) {
+                    retry(drain, e.getCause());
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+            try {
+                markDrained(drained);
+            } catch (IOException e) {
+                // The uploads are done; without their marks they are only uploaded again after a restart.
+                logger.warn("Cannot mark {} drained uploads in the spool", drained.size(), e);
+            }
+        }
+    }
+
+    private void upload(Entry entry) {
+        if (entry.isDiscarded()) {
+            return;
+        }
+        PutObjectRequest request = PutObjectRequest.builder()
+                .bucket(bucketName)
+                .key(entry.key())
+                .contentType(entry.contentType())
+                .contentLength(entry.size())
+                .build();
+        PutObjectResponse response = s3Client.putObject(request, RequestBody.fromContentProvider(
+                () -> new RegionInputStream(entry.segment().channel, entry.contentOffset(), entry.size()),
+                entry.size(), entry.contentType()));
+        if (entry.isDeleted()) {
+            // Deleted while it was being uploaded: do not let the upload bring it back.
+            s3Client.deleteObject(DeleteObjectRequest.builder().bucket(bucketName).key(entry.key()).build());
+            return;
+        }
+        if (entry.isDiscarded()) {
+            // Superseded while it was being uploaded: the later upload is stored and announced instead.
+            return;
+        }
+        eventPublisher.publishEvent(ObjectChangedEvent.written(
+                new FileMetadata(entry.key(), entry.size(), response.eTag(), Instant.now(), entry.contentType())));
+    }
+
+    private void retry(Drain drain, Throwable error) {
+        int attempts = drain.attempts() + 1;
+        long ceiling = Math.min(maxBackoffMillis, INITIAL_BACKOFF_MILLIS << Math.min(attempts - 1, 20));
+        long delay = ceiling / 2 + ThreadLocalRandom.current().nextLong(ceiling / 2 + 1);
+        logger.warn("Upload of spooled {} failed (attempt {}), retrying in {} ms: {}",
+                drain.entry().key(), attempts, delay, error.getMessage());
+        queue.add(new Drain(drain.entry(), attempts, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay)));
+    }
+
+    /** Appends the drained marks of a batch in one write, then releases the entries. */
+    private void markDrained(List<Entry> entries) throws IOException {
+        if (entries.isEmpty()) {
+            return;
+        }
+        ByteBuffer marks = ByteBuffer.allocate(entries.size() * (FRAME_SIZE + CRC_SIZE));
+        for (Entry entry : entries) {
+            ByteBuffer frame = frame(DRAINED, entry.id(), 0, 0);
+            CRC32C crc = new CRC32C();
+            crc.update(frame.duplicate().position(4));
+            marks.put(frame).putInt((int) crc.getValue());
+        }
+        marks.flip();
+        try {
+            synchronized (lock) {
+                if (active == null || active.capacity - active.position < marks.remaining()) {
+                    rollOver(marks.remaining());
+                }
+                long position = active.position;
+                active.position += marks.remaining();
+                writeFully(active.channel, marks, position);
+            }
+        } finally {
+            synchronized (lock) {
+                for (Entry entry : entries) {
+                    if (pending.remove(entry.key(), entry) || entry.isDiscarded()) {
+                        spooledBytes.addAndGet(-entry.size());
+                    }
+                    entry.segment().live--;
+                }
+            }
+            deleteDrainedSegments();
+        }
+    }
+
+    /**
+     * Deletes the oldest segments while nothing in them is waiting or being read.
+     * Segments go strictly in order, so a drained mark is never deleted before the
+     * upload it refers to.
+     */
+    private void deleteDrainedSegments() {
+        synchronized (lock) {
+            while (!segments.isEmpty()) {
+                Segment oldest = segments.firstEntry().getValue();
+                if (oldest == active || oldest.live > 0 || oldest.readers > 0) {
+                    return;
+                }
+                segments.pollFirstEntry();
+                try {
+                    oldest.channel.close();
+                    Files.deleteIfExists(oldest.path);
+                } catch (IOException e) {
+                    logger.warn("Cannot delete drained spool segment {}", oldest.path, e);
+                }
+            }
+        }
+    }
+
+    /** Starts a new segment big enough for {@code length} bytes; the caller holds the lock. */
+    private void rollOver(long length) throws IOException {
+        long sequence = segments.isEmpty() ? 0 : segments.lastKey() + 1;
+        long capacity = Math.max(segmentSize, length);
+        Path path = dir.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, sequence, SEGMENT_SUFFIX));
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        // Preallocate, so appends do not grow the file and its metadata on every record.
+        channel.write(ByteBuffer.allocate(1), capacity - 1);
+        channel.force(true);
+        try (FileChannel directory = FileChannel.open(dir, StandardOpenOption.READ)) {
+            directory.force(true);
+        } catch (IOException e) {
+            // Not every platform can sync a directory; the file itself is already durable.
+        }
+        Segment previous = active;
+        active = new Segment(sequence, path, channel, capacity, 0);
+        segments.put(sequence, active);
+        if (previous != null && previous.live == 0 && previous.readers == 0) {
+            deleteDrainedSegments();
+        }
+    }
+
+    /** Rebuilds the queue from the segments left by a previous run. */
+    private void recover() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            stream.forEach(files::add);
+        }
+        files.sort(null);
+
+        Map<Long, Entry> uploaded = new HashMap<>();
+        Set<Long> drained = new HashSet<>();
+        int corrupt = 0;
+        for (Path path : files) {
+            String name = path.getFileName().toString();
+            long sequence = Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            Segment segment = new Segment(sequence, path, channel, channel.size(), 0);
+            segments.put(sequence, segment);
+            corrupt += scan(segment, uploaded, drained);
+        }
+
+        List<Entry> waiting = new ArrayList<>(uploaded.values());
+        waiting.sort((a, b) -> Long.compare(a.id(), b.id()));
+        for (Entry entry : waiting) {
+            nextId = Math.max(nextId, entry.id() + 1);
+            if (drained.contains(entry.id())) {
+                continue;
+            }
+            Entry previous = pending.put(entry.key(), entry);
+            if (previous != null) {
+                // Superseded by a later upload of the same key before it was drained.
+                previous.segment().live--;
+                spooledBytes.addAndGet(-previous.size());
+            }
+            entry.segment().live++;
+            spooledBytes.addAndGet(entry.size());
+        }
+        for (Entry entry : pending.values()) {
+            queue.add(new Drain(entry, 0, 0));
+        }
+        for (long id : drained) {
+            nextId = Math.max(nextId, id + 1);
+        }
+        if (corrupt > 0) {
+            logger.warn("Skipped {} incomplete records in the spool {}", corrupt, dir);
+        }
+        if (!files.isEmpty()) {
+            logger.info("Recovered {} undrained uploads ({} bytes) from {} spool segments",
+                    pending.size(), spooledBytes.get(), files.size());
+        }
+        // Appends go to a fresh segment; the recovered ones are only read and deleted.
+        deleteDrainedSegments();
+    }
+
+    /**
+     * Reads the records of a segment up to the end of what was written.
+     *
+     * @return the number of records skipped because their CRC does not match
+     */
+    private static int scan(Segment segment, Map<Long, Entry> uploaded, Set<Long> drained) throws IOException {
+        FileChannel channel = segment.channel;
+        long size = channel.size();
+        long position = 0;
+        int corrupt = 0;
+        ByteBuffer frame = ByteBuffer.allocate(FRAME_SIZE);
+        while (position + FRAME_SIZE + CRC_SIZE <= size) {
+            frame.clear();
+            readFully(channel, frame, position);
+            frame.flip();
+            if (frame.getInt() != MAGIC) {
+                break;
+            }
+            byte type = frame.get();
+            long id = frame.getLong();
+            int headerLength = frame.getInt();
+            long contentLength = frame.getLong();
+            long length = FRAME_SIZE + (long) headerLength + contentLength + CRC_SIZE;
+            if (headerLength < 0 || contentLength < 0 || position + length > size) {
+                break;
+            }
+
+            CRC32C crc = new CRC32C();
+            crc.update(frame.rewind().position(4));
+            byte[] header = new byte[headerLength];
+            readFully(channel, ByteBuffer.wrap(header), position + FRAME_SIZE);
+            crc.update(header);
+            long contentOffset = position + FRAME_SIZE + headerLength;
+            try (InputStream content = new RegionInputStream(channel, contentOffset, contentLength)) {
+                byte[] buffer = new byte[64 * 1024];
+                int n;
+                while ((n = content.read(buffer)) != -1) {
+                    crc.update(buffer, 0, n);
+                }
+            }
+            ByteBuffer stored = ByteBuffer.allocate(CRC_SIZE);
+            readFully(channel, stored, contentOffset + contentLength);
+            if (stored.getInt(0) != (int) crc.getValue()) {
+                corrupt++;
+            } else if (type == UPLOAD) {
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(header));
+                String key = in.readUTF();
+                String contentType = in.readUTF();
+                Instant spooledAt = Files.getLastModifiedTime(segment.path).toInstant();
+                uploaded.put(id, new Entry(id, key, contentType.isEmpty() ? null : contentType, contentLength,
+                        segment, contentOffset, spooledAt));
+            } else if (type == DRAINED) {
+                drained.add(id);
+            }
+            position += length;
+        }
+        segment.position = position;
+        return corrupt;
+    }
+
+    private static byte[] header(String key, String contentType) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeUTF(key);
+            out.writeUTF(contentType != null ? contentType : "");
+        }
+        return bytes.toByteArray();
+    }
+
+    private static ByteBuffer frame(byte type, long id, int headerLength, long contentLength) {
+        return ByteBuffer.allocate(FRAME_SIZE)
+                .putInt(MAGIC)
+                .put(type)
+                .putLong(id)
+                .putInt(headerLength)
+                .putLong(contentLength)
+                .flip();
+    }
+
+    /** Copies {@code content} into the channel at {@code position} through a pooled buffer. */
+    private long copy(InputStream content, FileChannel channel, long position, long limit, CRC32C crc)
+            throws IOException {
+        byte[] buffer = bufferPool.acquire();
+        try {
+            long copied = 0;
+            int n;
+            while ((n = content.read(buffer)) != -1) {
+                if (copied + n > limit) {
+                    throw new IOException("Content is longer than the declared " + limit + " bytes");
+                }
+                crc.update(buffer, 0, n);
+                writeFully(channel, ByteBuffer.wrap(buffer, 0, n), position + copied);
+                copied += n;
+            }
+            return copied;
+        } finally {
+            bufferPool.release(buffer);
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        ByteBuffer source = buffer.duplicate();
+        while (source.hasRemaining()) {
+            position += channel.write(source, position);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position);
+            if (n < 0) {
+                throw new EOFException();
+            }
+            position += n;
+        }
+    }
+
+    /** Reads a region of a segment with positional reads, so any number can read one channel at once. */
+    private static class RegionInputStream extends InputStream {
+
+        private final FileChannel channel;
+        private long position;
+        private final long end;
+        protected boolean closed;
+
+        RegionInputStream(FileChannel channel, long offset, long length) {
+            this.channel = channel;
+            this.position = offset;
+            this.end = offset + length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (position >= end) {
+                return -1;
+            }
+            int n = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, end - position)), position);
+            if (n < 0) {
+                throw new EOFException("Spool segment ends before the record");
+            }
+            position += n;
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, end - position);
+        }
+    }
+}
@@ -0,0 +1,495 @@
+package com.myprojecticaro.poc_s3_file_uploader.service;
+
+import com.myprojecticaro.poc_s3_file_uploader.io.ArchiveLimitException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.zip.CRC32;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * Extracts a ZIP archive into S3, one object per entry: the inverse of
+ * {@link ZipService}.
+ * <p>
+ * The archive is read from a stream by a {@link ZipStreamReader} on the calling
+ * thread. The stored bytes of each entry are staged, in memory up to
+ * {@code memory-threshold} bytes and in a temporary file beyond that, and handed to
+ * a writer thread, which inflates the entry, checks its CRC and uploads it with
+ * {@link S3Service#uploadEntry} under {@code prefix + entry name}. Up to
+ * {@code max-in-flight} entries of an archive are inflated and uploaded at once while
+ * the caller keeps reading it, so memory is bounded by that many staged entries plus
+ * the part buffers of the uploads, whatever the size of the archive; across all
+ * archives, at most {@code max-concurrent-entries} are uploaded at once. Writers wait
+ * for the parts they hand to the transfer executor, so they run on virtual threads of
+ * their own rather than on that executor. Entries written
+ * with a data descriptor (as by {@link java.util.zip.ZipOutputStream}) do not carry
+ * their compressed size up front; those are inflated while they are read, and only
+ * their upload runs in parallel. Results are handed back on the calling thread, in
+ * completion order.
+ * </p>
+ *
+ * <p>
+ * Decompression bombs are stopped before they are inflated where the local header
+ * declares the sizes, and while they are inflated otherwise: an archive may hold at
+ * most {@code max-entries} entries and {@code max-total-size} bytes of content, and an
+ * entry over 1 MiB may not expand more than {@code max-ratio} times. An entry that
+ * inflates to more than its header declares fails. Exceeding a limit, or a malformed
+ * archive, stops the extraction; the entries read before it are still stored.
+ * Directories are skipped, and entries that are encrypted, use a method other than
+ * stored or deflated, whose name climbs out of the prefix ({@code ..}), or whose name
+ * the {@link AntivirusService} file name rules reject fail without stopping the others.
+ * </p>
+ *
+ * <p><strong>Configuration:</strong>
+ * <pre>
+ * aws:
+ *   s3:
+ *     upload:
+ *       zip:
+ *         extract:
+ *           max-in-flight: 8
+ *           max-concurrent-entries: 32
+ *           memory-threshold: 1048576
+ *           staging-dir: ${java.io.tmpdir}/poc-s3-file-uploader/extract
+ *           max-entries: 10000
+ *           max-total-size: 10737418240
+ *           max-ratio: 100
+ * </pre>
+ * </p>
+ *
+ * @author Icaro
+ * @version 1.0
+ */
+@Service
+public class ZipExtractionService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ZipExtractionService.class);
+
+    /** Entries up to this size are not held to {@code max-ratio}: small text compresses very well too. */
+    private static final long RATIO_MIN_SIZE = 1024 * 1024;
+
+    private static final int INFLATER_BUFFER_SIZE = 64 * 1024;
+
+    private final S3Service s3Service;
+    private final ExecutorService writerExecutor;
+    private final Semaphore uploads;
+
+    @Value("${aws.s3.upload.zip.extract.max-in-flight:8}")
+    private int maxInFlight = 8;
+
+    @Value("${aws.s3.upload.zip.extract.memory-threshold:1048576}")
+    private int memoryThreshold = 1024 * 1024;
+
+    @Value("${aws.s3.upload.zip.extract.staging-dir:${java.io.tmpdir}/poc-s3-file-uploader/extract}")
+    private Path stagingDir = Path.of(System.getProperty("java.io.tmpdir"), "poc-s3-file-uploader", "extract");
+
+    @Value("${aws.s3.upload.zip.extract.max-entries:10000}")
+    private int maxEntries = 10_000;
+
+    @Value("${aws.s3.upload.zip.extract.max-total-size:10737418240}")
+    private long maxTotalSize = 10L * 1024 * 1024 * 1024;
+
+    @Value("${aws.s3.upload.zip.extract.max-ratio:100}")
+    private int maxRatio = 100;
+
+    public ZipExtractionService(S3Service s3Service,
+                                @Qualifier("s3WriterExecutor") ExecutorService writerExecutor,
+                                @Value("${aws.s3.upload.zip.extract.max-concurrent-entries:32}") int maxConcurrentEntries) {
+        this.s3Service = s3Service;
+        this.writerExecutor = writerExecutor;
+        this.uploads = new Semaphore(maxConcurrentEntries);
+    }
+
+    /** Receives the results of {@link #extract(InputStream, String, ExtractionResultHandler)} one entry at a time. */
+    @FunctionalInterface
+    public interface ExtractionResultHandler {
+
+        /**
+         * @param result the outcome of an entry
+         * @throws IOException if the result cannot be written out
+         */
+        void accept(ExtractionResult result) throws IOException;
+    }
+
+    /**
+     * Totals of an extraction.
+     *
+     * @param extracted entries stored
+     * @param failed    entries that could not be stored
+     * @param error     why the archive could not be read to its end, or {@code null} if it was
+     */
+    public record ExtractionSummary(long extracted, long failed, String error) {
+    }
+
+    /**
+     * Extracts every entry of the archive to S3.
+     *
+     * @param archive the ZIP archive; read on the calling thread and not closed
+     * @param prefix  prepended to every entry name to build its key
+     * @param handler receives the outcome of each entry as it completes
+     * @return how many entries were stored and how many failed
+     * @throws IOException if the archive cannot be received, the handler fails or the thread is interrupted;
+     *                     a malformed archive is reported in the summary instead
+     */
+    public ExtractionSummary extract(InputStream archive, String prefix, ExtractionResultHandler handler)
+            throws IOException {
+        ZipStreamReader reader = new ZipStreamReader(archive);
+        CompletionService<ExtractionResult> entries = new ExecutorCompletionService<>(writerExecutor);
+        Map<Future<ExtractionResult>, Staging> running = new HashMap<>();
+        long[] counts = new long[2];
+        String error = null;
+        try {
+            try {
+                int count = 0;
+                long total = 0;
+                ZipStreamReader.LocalEntry entry;
+                while ((entry = reader.next()) != null) {
+                    if (++count > maxEntries) {
+                        throw new ArchiveLimitException("The archive has more than " + maxEntries + " entries");
+                    }
+                    String key = entryKey(prefix, entry.name());
+                    String unsupported = unsupported(entry);
+                    if (unsupported != null) {
+                        if (entry.hasDataDescriptor()) {
+                            throw new ZipException(unsupported + ", and " + entry.name() + " cannot be skipped");
+                        }
+                        reader.skip(entry);
+                        handle(ExtractionResult.failed(entry.name(), key, entry.size(), unsupported), handler, counts);
+                        continue;
+                    }
+
+                    Staging staged = new Staging(stagingDir, memoryThreshold);
+                    try {
+                        if (entry.hasDataDescriptor()) {
+                            entry = reader.inflate(entry, new InflationLimit(staged, entry, reader, maxTotalSize - total));
+                        } else {
+                            checkDeclared(entry, maxTotalSize - total);
+                            reader.copyStored(entry, staged);
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        staged.close();
+                        throw e;
+                    }
+                    total += entry.size();
+                    if (entry.isDirectory() || key == null) {
+                        staged.close();
+                        if (!entry.isDirectory()) {
+                            handle(ExtractionResult.failed(entry.name(), null, entry.size(),
+                                    "The entry name is not a valid key"), handler, counts);
+                        }
+                        continue;
+                    }
+
+                    if (running.size() >= maxInFlight) {
+                        complete(entries.take(), running, handler, counts);
+                    }
+                    ZipStreamReader.LocalEntry submitted = entry;
+                    running.put(entries.submit(() -> extractEntry(submitted, key, staged)), staged);
+                    for (Future<ExtractionResult> done = entries.poll(); done != null; done = entries.poll()) {
+                        complete(done, running, handler, counts);
+                    }
+                }
+            } catch (ZipException | EOFException e) {
+                error = e.getMessage();
+                logger.warn("Stopped extracting an archive to {}: {}", prefix, error);
+            }
+            while (!running.isEmpty()) {
+                complete(entries.take(), running, handler, counts);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while extracting an archive");
+        } finally {
+            // Entries that never started are not going to clean up after themselves.
+            running.forEach((future, staged) -> {
+                future.cancel(true);
+                staged.close();
+            });
+        }
+        return new ExtractionSummary(counts[0], counts[1], error);
+    }
+
+    private ExtractionResult extractEntry(ZipStreamReader.LocalEntry entry, String key, Staging staged) {
+        try {
+            uploads.acquire();
+        } catch (InterruptedException e) {
+            staged.close();
+            Thread.currentThread().interrupt();
+            return ExtractionResult.failed(entry.name(), key, entry.size(), "Interrupted before the upload started");
+        }
+        try {
+            return store(entry, key, staged);
+        } finally {
+            uploads.release();
+        }
+    }
+
+    private ExtractionResult store(ZipStreamReader.LocalEntry entry, String key, Staging staged) {
+        // An entry with a data descriptor was inflated and checked while it was read.
+        Inflater inflater = !entry.hasDataDescriptor() && entry.method() == ZipStreamReader.METHOD_DEFLATED
+                ? new Inflater(true)
+                : null;
+        try (staged;
+             InputStream content = inflater != null
+                     ? new VerifiedContent(entry, new InflaterInputStream(
+                             // A raw inflater may need one byte past the end of the deflate data.
+                             new SequenceInputStream(staged.open(), new ByteArrayInputStream(new byte[1])),
+                             inflater, INFLATER_BUFFER_SIZE))
+                     : entry.hasDataDescriptor() ? staged.open() : new VerifiedContent(entry, staged.open())) {
+            String url = s3Service.uploadEntry(key, contentType(entry.name()), content);
+            return ExtractionResult.extracted(entry.name(), key, entry.size(), url);
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Failed to extract {} to {}: {}", entry.name(), key, e.getMessage());
+            return ExtractionResult.failed(entry.name(), key, entry.size(), e.getMessage());
+        } finally {
+            if (inflater != null) {
+                inflater.end();
+            }
+        }
+    }
+
+    private void complete(Future<ExtractionResult> done, Map<Future<ExtractionResult>, Staging> running,
+                          ExtractionResultHandler handler, long[] counts) throws IOException, InterruptedException {
+        running.remove(done);
+        ExtractionResult result;
+        try {
+            result = done.get();
+        } catch (ExecutionException e) {
+            // extractEntry reports failures as results, so anything else is a bug.
+            throw e.getCause() instanceof RuntimeException cause ? cause : new IllegalStateException(e.getCause());
+        }
+        handle(result, handler, counts);
+    }
+
+    private static void handle(ExtractionResult result, ExtractionResultHandler handler, long[] counts)
+            throws IOException {
+        counts[result.extracted() ? 0 : 1]++;
+        handler.accept(result);
+    }
+
+    private static String unsupported(ZipStreamReader.LocalEntry entry) {
+        if (entry.isEncrypted()) {
+            return "Encrypted entries are not supported";
+        }
+        if (entry.method() != ZipStreamReader.METHOD_STORED && entry.method() != ZipStreamReader.METHOD_DEFLATED) {
+            return "Compression method " + entry.method() + " is not supported";
+        }
+        if (entry.method() == ZipStreamReader.METHOD_STORED && entry.hasDataDescriptor()) {
+            return "Stored entries with a data descriptor cannot be streamed";
+        }
+        return null;
+    }
+
+    /** Checks the sizes a local header declares; the content is later held to them. */
+    private void checkDeclared(ZipStreamReader.LocalEntry entry, long remaining) throws ArchiveLimitException {
+        if (entry.size() > remaining) {
+            throw new ArchiveLimitException("The archive expands to more than " + maxTotalSize + " bytes");
+        }
+        if (entry.size() > RATIO_MIN_SIZE && entry.size() / Math.max(1, entry.compressedSize()) >= maxRatio) {
+            throw new ArchiveLimitException("Entry " + entry.name() + " expands more than " + maxRatio + " times");
+        }
+    }
+
+    /**
+     * Builds the key of an entry: its name below {@code prefix}, with empty and
+     * {@code .} segments dropped.
+     *
+     * @return the key, or {@code null} if the name has a {@code ..} segment or no segment at all
+     */
+    static String entryKey(String prefix, String name) {
+        StringBuilder key = new StringBuilder(prefix);
+        for (String segment : name.replace('\\', '/').split("/")) {
+            if (segment.isEmpty() || segment.equals(".")) {
+                continue;
+            }
+            if (segment.equals("..")) {
+                return null;
+            }
+            if (key.length() > prefix.length()) {
+                key.append('/');
+            }
+            key.append(segment);
+        }
+        return key.length() > prefix.length() ? key.toString() : null;
+    }
+
+    private static String contentType(String name) {
+        return MediaTypeFactory.getMediaType(name).map(MediaType::toString).orElse(null);
+    }
+
+    /** Holds inflation in the reader to the remaining total size and to the maximum ratio. */
+    private final class InflationLimit extends FilterOutputStream {
+
+        private final ZipStreamReader.LocalEntry entry;
+        private final ZipStreamReader reader;
+        private final long start;
+        private final long remaining;
+        private long written;
+
+        InflationLimit(OutputStream out, ZipStreamReader.LocalEntry entry, ZipStreamReader reader, long remaining) {
+            super(out);
+            this.entry = entry;
+            this.reader = reader;
+            this.start = reader.bytesRead();
+            this.remaining = remaining;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            written += len;
+            if (written > remaining) {
+                throw new ArchiveLimitException("The archive expands to more than " + maxTotalSize + " bytes");
+            }
+            if (written > RATIO_MIN_SIZE && written / Math.max(1, reader.bytesRead() - start) >= maxRatio) {
+                throw new ArchiveLimitException("Entry " + entry.name() + " expands more than " + maxRatio + " times");
+            }
+            out.write(b, off, len);
+        }
+    }
+
+    /** Holds the content of an entry to the size and CRC-32 of its local header. */
+    private static final class VerifiedContent extends FilterInputStream {
+
+        private final ZipStreamReader.LocalEntry entry;
+        private final CRC32 crc = new CRC32();
+        private long count;
+
+        VerifiedContent(ZipStreamReader.LocalEntry entry, InputStream in) {
+            super(in);
+            this.entry = entry;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            if (n > 0) {
+                count += n;
+                if (count > entry.size()) {
+                    throw new ArchiveLimitException("Entry " + entry.name() + " is larger than its header declares");
+                }
+                crc.update(b, off, n);
+            } else if (n < 0 && (count != entry.size() || crc.getValue() != entry.crc())) {
+                throw new ZipException("Entry " + entry.name() + " does not match its CRC-32 or size");
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            throw new IOException("Entry content cannot be skipped");
+        }
+    }
+
+    /**
+     * The stored bytes of one entry: in memory up to {@code threshold} bytes, then in a
+     * temporary file. Closing it discards them.
+     */
+    private static final class Staging extends OutputStream {
+
+        private final Path dir;
+        private final int threshold;
+        private Buffer memory = new Buffer();
+        private Path file;
+        private OutputStream fileOut;
+        private boolean closed;
+
+        Staging(Path dir, int threshold) {
+            this.dir = dir;
+            this.threshold = threshold;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (file == null && memory.size() + len > threshold) {
+                Files.createDirectories(dir);
+                file = Files.createTempFile(dir, "entry-", ".tmp");
+                fileOut = new BufferedOutputStream(Files.newOutputStream(file), INFLATER_BUFFER_SIZE);
+                memory.writeTo(fileOut);
+                memory = null;
+            }
+            if (file != null) {
+                fileOut.write(b, off, len);
+            } else {
+                memory.write(b, off, len);
+            }
+        }
+
+        /** @return the staged bytes; no more may be written */
+        InputStream open() throws IOException {
+            if (file == null) {
+                return memory.open();
+            }
+            fileOut.close();
+            return Files.newInputStream(file);
+        }
+
+        @Override
+        public synchronized void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            memory = null;
+            if (file != null) {
+                try {
+                    fileOut.close();
+                    Files.deleteIfExists(file);
+                } catch (IOException e) {
+                    logger.warn("Cannot delete staged entry {}", file, e);
+                }
+            }
+        }
+
+        /** Hands its bytes over without copying them. */
+        private static final class Buffer extends ByteArrayOutputStream {
+
+            InputStream open() {
+                return new ByteArrayInputStream(buf, 0, count);
+            }
+        }
+    }
+}
@@ -1,19 +1,56 @@
 package com.myprojecticaro.poc_s3_file_uploader.service;
 
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ForkJoinPool;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
 /**
  * Service responsible for compressing multiple uploaded files into a single ZIP file.
+ * <p>
+ * The streaming variant deflates entries in parallel by default (see
+ * {@link ParallelZipWriter}); already-compressed files are stored without recompression.
+ * </p>
+ *
+ * <p><strong>Configuration:</strong>
+ * <pre>
+ * aws:
+ *   s3:
+ *     upload:
+ *       zip:
+ *         parallel: true          # false falls back to a single-threaded ZipOutputStream
+ *         parallelism: 0          # compression workers; 0 uses every available core
+ *         compression-level: 6
+ *         chunk-size: 1048576     # bytes of input deflated per task
+ * </pre>
+ * </p>
  */
 @Service
 public class ZipService {
 
+    private final ForkJoinPool compressionPool;
+
+    @Value("${aws.s3.upload.zip.parallel:true}")
+    private boolean parallel = true;
+
+    @Value("${aws.s3.upload.zip.compression-level:6}")
+    private int compressionLevel = 6;
+
+    @Value("${aws.s3.upload.zip.chunk-size:1048576}")
+    private int chunkSize = 1024 * 1024;
+
+    public ZipService(@Qualifier("zipCompressionPool") ForkJoinPool compressionPool) {
+        this.compressionPool = compressionPool;
+    }
+
     /**
      * Compresses the provided MultipartFile array into a single in-memory ZIP file.
      *
@@ -35,5 +72,52 @@ public class ZipService {
         zipOut.close();
         return baos.toByteArray();
     }
-}
 
+    /**
+     * Compresses the provided MultipartFile array into a ZIP archive written to the given stream.
+     * <p>
+     * Entries are copied from each part's input stream, so neither the files nor the
+     * archive are ever held in memory. The stream is finished but not closed, leaving
+     * the caller free to complete (or abort) whatever is behind it.
+     * </p>
+     *
+     * <p>
+     * With {@code aws.s3.upload.zip.parallel} enabled, chunks of every entry are
+     * compressed concurrently and at most two chunks per worker are buffered.
+     * </p>
+     *
+     * @param files array of files to be zipped
+     * @param out   destination of the ZIP archive
+     * @throws IOException if an error occurs while reading the files or writing the ZIP
+     */
+    public void zipFiles(MultipartFile[] files, OutputStream out) throws IOException {
+        if (parallel) {
+            new ParallelZipWriter(compressionPool, compressionLevel, chunkSize,
+                    2 * compressionPool.getParallelism()).write(files, out);
+        } else {
+            zipFilesSerially(files, out);
+        }
+    }
+
+    /**
+     * Single-threaded counterpart of {@link #zipFiles(MultipartFile[], OutputStream)}.
+     *
+     * @param files array of files to be zipped
+     * @param out   destination of the ZIP archive
+     * @throws IOException if an error occurs while reading the files or writing the ZIP
+     */
+    public void zipFilesSerially(MultipartFile[] files, OutputStream out) throws IOException {
+        ZipOutputStream zipOut = new ZipOutputStream(out);
+
+        for (MultipartFile file : files) {
+            ZipEntry zipEntry = new ZipEntry(file.getOriginalFilename());
+            zipOut.putNextEntry(zipEntry);
+            try (InputStream in = file.getInputStream()) {
+                in.transferTo(zipOut);
+            }
+            zipOut.closeEntry();
+        }
+
+        zipOut.finish();
+    }
+}
@@ -0,0 +1,276 @@
+package com.myprojecticaro.poc_s3_file_uploader.service;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Reads the entries of a ZIP archive from a stream, front to back, by their local headers.
+ * <p>
+ * Unlike {@link java.util.zip.ZipInputStream}, the entry data is handed over as it is
+ * stored: {@link #copyStored} copies the compressed bytes of an entry whose sizes are
+ * in its local header, so they can be inflated elsewhere while the next entries are
+ * read. Only entries written with a data descriptor ({@link LocalEntry#hasDataDescriptor()}),
+ * whose compressed size is not known until their end, have to be inflated here with
+ * {@link #inflate}. The central directory is not needed and not read: {@link #next()}
+ * stops at the first record that is not a local header.
+ * </p>
+ *
+ * @author Icaro
+ * @version 1.0
+ * @see ParallelZipWriter
+ */
+public class ZipStreamReader {
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int DATA_DESCRIPTOR_SIGNATURE = 0x08074b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+
+    private static final int FLAG_ENCRYPTED = 0x0001;
+    private static final int FLAG_DATA_DESCRIPTOR = 0x0008;
+    static final int METHOD_STORED = 0;
+    static final int METHOD_DEFLATED = 8;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final PushbackInputStream in;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private boolean started;
+    private long bytesRead;
+
+    /**
+     * @param in the archive; read up to the central directory and not closed
+     */
+    public ZipStreamReader(InputStream in) {
+        this.in = new PushbackInputStream(in, BUFFER_SIZE);
+    }
+
+    /** @return the bytes of the archive consumed so far */
+    public long bytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * An entry as described by its local header, or by its data descriptor once read.
+     *
+     * @param name           the entry name
+     * @param method         {@link #METHOD_STORED}, {@link #METHOD_DEFLATED} or another, unsupported, method
+     * @param flags          the general purpose flags
+     * @param crc            the CRC-32 of the content; 0 until the data descriptor is read
+     * @param compressedSize the stored size; -1 until the data descriptor is read
+     * @param size           the content size; -1 until the data descriptor is read
+     * @param zip64          {@code true} if the local header has a ZIP64 extra field
+     */
+    public record LocalEntry(String name, int method, int flags, long crc, long compressedSize, long size,
+                             boolean zip64) {
+
+        public boolean isDirectory() {
+            return name.endsWith("/");
+        }
+
+        public boolean isEncrypted() {
+            return (flags & FLAG_ENCRYPTED) != 0;
+        }
+
+        public boolean hasDataDescriptor() {
+            return (flags & FLAG_DATA_DESCRIPTOR) != 0;
+        }
+    }
+
+    /**
+     * Reads the next local header. The data of the previous entry must have been
+     * consumed with {@link #copyStored}, {@link #skip} or {@link #inflate}.
+     *
+     * @return the entry, or {@code null} once the central directory is reached
+     * @throws ZipException if the stream is not a ZIP archive
+     * @throws EOFException if the archive ends in the middle of a header
+     */
+    public LocalEntry next() throws IOException {
+        int first = in.read();
+        if (first < 0) {
+            if (!started) {
+                throw new ZipException("Not a ZIP archive: the body is empty");
+            }
+            return null;
+        }
+        in.unread(first);
+        int signature = readInt();
+        if (signature != LOCAL_HEADER_SIGNATURE) {
+            if (!started && signature != END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+                throw new ZipException("Not a ZIP archive");
+            }
+            return null;
+        }
+        started = true;
+
+        readShort(); // version needed
+        int flags = readShort();
+        int method = readShort();
+        readInt(); // modification time and date
+        long crc = readInt() & 0xFFFFFFFFL;
+        long compressedSize = readInt() & 0xFFFFFFFFL;
+        long size = readInt() & 0xFFFFFFFFL;
+        int nameLength = readShort();
+        int extraLength = readShort();
+        String name = new String(readBytes(nameLength), StandardCharsets.UTF_8);
+        byte[] extra = readBytes(extraLength);
+
+        boolean zip64 = false;
+        for (int i = 0; i + 4 <= extra.length; ) {
+            int id = (extra[i] & 0xFF) | (extra[i + 1] & 0xFF) << 8;
+            int length = (extra[i + 2] & 0xFF) | (extra[i + 3] & 0xFF) << 8;
+            if (id == ZIP64_EXTRA_ID) {
+                zip64 = true;
+                int field = i + 4;
+                if (size == ZIP64_MAGIC && field + 8 <= extra.length) {
+                    size = longAt(extra, field);
+                    field += 8;
+                }
+                if (compressedSize == ZIP64_MAGIC && field + 8 <= extra.length) {
+                    compressedSize = longAt(extra, field);
+                }
+            }
+            i += 4 + length;
+        }
+
+        if ((flags & FLAG_DATA_DESCRIPTOR) != 0) {
+            return new LocalEntry(name, method, flags, 0, -1, -1, zip64);
+        }
+        return new LocalEntry(name, method, flags, crc, compressedSize, size, zip64);
+    }
+
+    /**
+     * Copies the stored bytes of an entry whose sizes are in its local header.
+     *
+     * @param entry the entry just returned by {@link #next()}
+     * @param out   receives {@link LocalEntry#compressedSize()} bytes
+     */
+    public void copyStored(LocalEntry entry, OutputStream out) throws IOException {
+        long remaining = entry.compressedSize();
+        while (remaining > 0) {
+            int n = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (n < 0) {
+                throw new EOFException("Archive ends inside entry " + entry.name());
+            }
+            bytesRead += n;
+            out.write(buffer, 0, n);
+            remaining -= n;
+        }
+    }
+
+    /**
+     * Skips the data of an entry whose sizes are in its local header.
+     *
+     * @param entry the entry just returned by {@link #next()}
+     */
+    public void skip(LocalEntry entry) throws IOException {
+        copyStored(entry, OutputStream.nullOutputStream());
+    }
+
+    /**
+     * Inflates a deflated entry written with a data descriptor, then reads the
+     * descriptor and checks the content against it.
+     *
+     * @param entry the entry just returned by {@link #next()}
+     * @param out   receives the inflated content
+     * @return the entry with the CRC and sizes of its data descriptor
+     * @throws ZipException if the data is not valid deflate data or does not match the descriptor
+     */
+    public LocalEntry inflate(LocalEntry entry, OutputStream out) throws IOException {
+        Inflater inflater = new Inflater(true);
+        CRC32 crc = new CRC32();
+        byte[] inflated = new byte[BUFFER_SIZE];
+        try {
+            int available = 0;
+            while (!inflater.finished()) {
+                if (inflater.needsInput()) {
+                    available = in.read(buffer);
+                    if (available < 0) {
+                        throw new EOFException("Archive ends inside entry " + entry.name());
+                    }
+                    bytesRead += available;
+                    inflater.setInput(buffer, 0, available);
+                }
+                int n;
+                try {
+                    n = inflater.inflate(inflated);
+                } catch (DataFormatException e) {
+                    throw new ZipException("Entry " + entry.name() + " is corrupt: " + e.getMessage());
+                }
+                if (n == 0 && inflater.needsDictionary()) {
+                    throw new ZipException("Entry " + entry.name() + " needs a preset dictionary");
+                }
+                crc.update(inflated, 0, n);
+                out.write(inflated, 0, n);
+            }
+            // What the inflater did not use belongs to the data descriptor and the next entry.
+            int remaining = inflater.getRemaining();
+            if (remaining > 0) {
+                in.unread(buffer, available - remaining, remaining);
+                bytesRead -= remaining;
+            }
+
+            long compressedSize = inflater.getBytesRead();
+            long size = inflater.getBytesWritten();
+            LocalEntry described = readDataDescriptor(entry);
+            if (described.crc() != crc.getValue() || described.compressedSize() != compressedSize
+                    || described.size() != size) {
+                throw new ZipException("Entry " + entry.name() + " does not match its data descriptor");
+            }
+            return described;
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private LocalEntry readDataDescriptor(LocalEntry entry) throws IOException {
+        long crc = readInt() & 0xFFFFFFFFL;
+        if (crc == DATA_DESCRIPTOR_SIGNATURE) {
+            // The signature is optional; when present the CRC follows it.
+            crc = readInt() & 0xFFFFFFFFL;
+        }
+        long compressedSize = entry.zip64() ? readLong() : readInt() & 0xFFFFFFFFL;
+        long size = entry.zip64() ? readLong() : readInt() & 0xFFFFFFFFL;
+        return new LocalEntry(entry.name(), entry.method(), entry.flags(), crc, compressedSize, size, entry.zip64());
+    }
+
+    private int readShort() throws IOException {
+        byte[] b = readBytes(2);
+        return (b[0] & 0xFF) | (b[1] & 0xFF) << 8;
+    }
+
+    private int readInt() throws IOException {
+        byte[] b = readBytes(4);
+        return (b[0] & 0xFF) | (b[1] & 0xFF) << 8 | (b[2] & 0xFF) << 16 | (b[3] & 0xFF) << 24;
+    }
+
+    private long readLong() throws IOException {
+        return longAt(readBytes(8), 0);
+    }
+
+    private byte[] readBytes(int length) throws IOException {
+        byte[] bytes = in.readNBytes(length);
+        if (bytes.length < length) {
+            throw new EOFException("Archive ends inside a header");
+        }
+        bytesRead += length;
+        return bytes;
+    }
+
+    private static long longAt(byte[] b, int offset) {
+        long value = 0;
+        for (int i = 7; i >= 0; i--) {
+            value = value << 8 | (b[offset + i] & 0xFF);
+        }
+        return value;
+    }
+}
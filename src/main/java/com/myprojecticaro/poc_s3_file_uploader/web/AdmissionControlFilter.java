@@ -0,0 +1,141 @@
+package com.myprojecticaro.poc_s3_file_uploader.web;
+
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Semaphore-based admission controller for the {@code /files} API.
+ * <p>
+ * With platform threads, the Tomcat worker pool implicitly caps how many requests
+ * run at once. With virtual threads there is no such cap, so this filter makes the
+ * limit explicit: at most {@code max-concurrent-requests} file requests are in
+ * progress at any time. Further requests wait up to {@code max-wait} for a permit
+ * and are then rejected with <strong>503 Service Unavailable</strong> and a
+ * {@code Retry-After} header, instead of piling up until memory runs out.
+ * </p>
+ *
+ * <p>
+ * A permit is held until the request really finishes, including asynchronous
+ * handlers that return a {@code CompletableFuture} or stream their response body.
+ * </p>
+ *
+ * <p><strong>Configuration:</strong>
+ * <pre>
+ * app:
+ *   admission:
+ *     enabled: true
+ *     max-concurrent-requests: 1024
+ *     max-wait: 2s
+ * </pre>
+ * </p>
+ *
+ * @author Icaro
+ * @version 1.0
+ */
+@Component
+public class AdmissionControlFilter extends OncePerRequestFilter {
+
+    private static final Logger logger = LoggerFactory.getLogger(AdmissionControlFilter.class);
+
+    private final boolean enabled;
+    private final int maxConcurrentRequests;
+    private final Semaphore permits;
+    private final long maxWaitMillis;
+
+    public AdmissionControlFilter(@Value("${app.admission.enabled:true}") boolean enabled,
+                                  @Value("${app.admission.max-concurrent-requests:1024}") int maxConcurrentRequests,
+                                  @Value("${app.admission.max-wait:2s}") Duration maxWait) {
+        this.enabled = enabled;
+        this.maxConcurrentRequests = maxConcurrentRequests;
+        this.permits = new Semaphore(maxConcurrentRequests, true);
+        this.maxWaitMillis = maxWait.toMillis();
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !enabled || !request.getServletPath().startsWith("/files");
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        if (!acquire()) {
+            logger.warn("Rejecting {} {}: too many concurrent requests", request.getMethod(), request.getRequestURI());
+            response.setHeader(HttpHeaders.RETRY_AFTER, "1");
+            response.sendError(HttpStatus.SERVICE_UNAVAILABLE.value(), "Too many concurrent requests");
+            return;
+        }
+
+        AtomicBoolean released = new AtomicBoolean();
+        Runnable release = () -> {
+            if (released.compareAndSet(false, true)) {
+                permits.release();
+            }
+        };
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            if (request.isAsyncStarted()) {
+                request.getAsyncContext().addListener(new ReleasingListener(release));
+            } else {
+                release.run();
+            }
+        }
+    }
+
+    /** @return the number of requests currently admitted */
+    public int inFlight() {
+        return maxConcurrentRequests - permits.availablePermits();
+    }
+
+    private boolean acquire() {
+        try {
+            return permits.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /** Releases the permit once an asynchronous request completes, fails or times out. */
+    private record ReleasingListener(Runnable release) implements AsyncListener {
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            release.run();
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            release.run();
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            release.run();
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+            // Re-register for the next async cycle so the permit is still released.
+            event.getAsyncContext().addListener(this);
+        }
+    }
+}
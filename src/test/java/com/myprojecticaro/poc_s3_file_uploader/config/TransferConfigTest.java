@@ -0,0 +1,34 @@
+package com.myprojecticaro.poc_s3_file_uploader.config;
+
+import com.myprojecticaro.poc_s3_file_uploader.io.BufferPool;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class TransferConfigTest {
+
+    @Test
+    void partsSmallerThanTheS3MinimumAreRejectedAtStartup() {
+        TransferConfig config = config(1024 * 1024);
+
+        assertThatThrownBy(config::partBufferPool)
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("aws.s3.upload.multipart.part-size must be at least 5242880 bytes");
+    }
+
+    @Test
+    void thePartBufferPoolHoldsTheBudgetInParts() {
+        BufferPool pool = config(TransferConfig.MIN_PART_SIZE).partBufferPool();
+
+        assertThat(pool.acquire()).hasSize(TransferConfig.MIN_PART_SIZE);
+    }
+
+    private static TransferConfig config(int partSize) {
+        TransferConfig config = new TransferConfig();
+        ReflectionTestUtils.setField(config, "partSize", partSize);
+        ReflectionTestUtils.setField(config, "partBufferBudget", 4L * TransferConfig.MIN_PART_SIZE);
+        return config;
+    }
+}
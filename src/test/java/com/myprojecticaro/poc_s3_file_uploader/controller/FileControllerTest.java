@@ -0,0 +1,127 @@
+package com.myprojecticaro.poc_s3_file_uploader.controller;
+
+import com.myprojecticaro.poc_s3_file_uploader.io.BufferPool;
+import com.myprojecticaro.poc_s3_file_uploader.metrics.TransferMetrics;
+import com.myprojecticaro.poc_s3_file_uploader.service.ParallelDownloadService;
+import com.myprojecticaro.poc_s3_file_uploader.service.S3Service;
+import com.myprojecticaro.poc_s3_file_uploader.support.InMemoryS3Client;
+import com.myprojecticaro.poc_s3_file_uploader.support.S3ServiceFixture;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class FileControllerTest {
+
+    private static final byte[] CONTENT = new byte[200_000];
+
+    static {
+        new Random(3).nextBytes(CONTENT);
+    }
+
+    private final InMemoryS3Client s3Client = new InMemoryS3Client();
+    private final ExecutorService executor = Executors.newFixedThreadPool(2);
+    private FileController controller;
+
+    @BeforeEach
+    void setUp() {
+        BufferPool bufferPool = new BufferPool(16 * 1024, 8);
+        ParallelDownloadService parallelDownloadService = new ParallelDownloadService(s3Client, executor, bufferPool);
+        ReflectionTestUtils.setField(parallelDownloadService, "enabled", false);
+        S3Service s3Service = S3ServiceFixture.on(s3Client)
+                .bufferPool(bufferPool)
+                .parallelDownloads(parallelDownloadService)
+                .executor(executor)
+                .build();
+        controller = new FileController(s3Service, null, null, new BufferPool(16 * 1024, 8), null,
+                S3ServiceFixture.disabledCache(), null, null, null, TransferMetrics.disabled());
+        s3Client.putObject("photo.bin", CONTENT, "application/octet-stream");
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void theWholeFileIsStreamedWithItsHeaders() throws Exception {
+        ResponseEntity<StreamingResponseBody> response = controller.downloadFile("photo.bin", null, null);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(response.getHeaders().getContentLength()).isEqualTo(CONTENT.length);
+        assertThat(response.getHeaders().getETag()).isEqualTo(s3Client.object("photo.bin").eTag());
+        assertThat(response.getHeaders().getFirst(HttpHeaders.ACCEPT_RANGES)).isEqualTo("bytes");
+        assertThat(body(response)).isEqualTo(CONTENT);
+        assertThat(s3Client.abortedGets()).isZero();
+    }
+
+    @Test
+    void aByteRangeIsAnsweredWithPartialContent() throws Exception {
+        ResponseEntity<StreamingResponseBody> response = controller.downloadFile("photo.bin", "bytes=10-19", null);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.PARTIAL_CONTENT);
+        assertThat(response.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE))
+                .isEqualTo("bytes 10-19/" + CONTENT.length);
+        assertThat(response.getHeaders().getContentLength()).isEqualTo(10);
+        assertThat(body(response)).isEqualTo(Arrays.copyOfRange(CONTENT, 10, 20));
+    }
+
+    @Test
+    void aRangePastTheEndIsNotSatisfiable() {
+        ResponseEntity<StreamingResponseBody> response =
+                controller.downloadFile("photo.bin", "bytes=" + CONTENT.length + "-", null);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE);
+        assertThat(response.getBody()).isNull();
+    }
+
+    @Test
+    void aMissingFileIsNotFound() {
+        ResponseEntity<StreamingResponseBody> response = controller.downloadFile("missing.bin", null, null);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND);
+        assertThat(response.getBody()).isNull();
+    }
+
+    @Test
+    void aClientThatGoesAwayAbortsTheS3Response() {
+        ResponseEntity<StreamingResponseBody> response = controller.downloadFile("photo.bin", null, null);
+        OutputStream disconnected = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("Broken pipe");
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                throw new IOException("Broken pipe");
+            }
+        };
+
+        assertThatThrownBy(() -> response.getBody().writeTo(disconnected))
+                .isInstanceOf(IOException.class)
+                .hasMessage("Broken pipe");
+        assertThat(s3Client.abortedGets()).isEqualTo(1);
+    }
+
+    private static byte[] body(ResponseEntity<StreamingResponseBody> response) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        response.getBody().writeTo(out);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,7 @@
+package com.myprojecticaro.poc_s3_file_uploader.load;
+
+import org.springframework.test.context.TestPropertySource;
+
+@TestPropertySource(properties = "spring.threads.virtual.enabled=false")
+class PlatformThreadsSlowUploadLoadTest extends SlowUploadLoadTest {
+}
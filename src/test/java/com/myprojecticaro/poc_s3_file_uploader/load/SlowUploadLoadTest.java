@@ -0,0 +1,125 @@
+package com.myprojecticaro.poc_s3_file_uploader.load;
+
+import com.myprojecticaro.poc_s3_file_uploader.support.InMemoryS3TestConfiguration;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.context.annotation.Import;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Load-test harness: many concurrent clients upload small files slowly, as mobile
+ * clients on poor networks do. Each request occupies its handling thread while the
+ * body trickles in, so with platform threads throughput is capped by the Tomcat
+ * worker pool, while with virtual threads it is capped only by the admission limit.
+ * <p>
+ * Run with {@code ./gradlew loadTest} and compare the reported requests per second
+ * of the two subclasses.
+ * </p>
+ */
+@Tag("load")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "server.tomcat.threads.max=200",
+        "server.tomcat.max-connections=10000",
+        "app.admission.max-concurrent-requests=2000",
+        "app.admission.max-wait=30s"
+})
+@Import(InMemoryS3TestConfiguration.class)
+abstract class SlowUploadLoadTest {
+
+    private static final int CLIENTS = 1000;
+    private static final int FILE_SIZE = 16 * 1024;
+    private static final int CHUNKS = 8;
+    private static final Duration CHUNK_DELAY = Duration.ofMillis(125);
+    private static final String BOUNDARY = "load-test-boundary";
+
+    @LocalServerPort
+    private int port;
+
+    @Test
+    void concurrentSlowUploads() throws Exception {
+        try (ExecutorService clientThreads = Executors.newVirtualThreadPerTaskExecutor()) {
+            HttpClient client = HttpClient.newBuilder().executor(clientThreads).build();
+
+            long started = System.nanoTime();
+            List<CompletableFuture<HttpResponse<String>>> responses = new ArrayList<>(CLIENTS);
+            for (int i = 0; i < CLIENTS; i++) {
+                responses.add(client.sendAsync(uploadRequest("file-" + i + ".bin"), HttpResponse.BodyHandlers.ofString()));
+            }
+            CompletableFuture.allOf(responses.toArray(CompletableFuture[]::new)).join();
+            double seconds = (System.nanoTime() - started) / 1e9;
+
+            long succeeded = responses.stream().filter(r -> r.join().statusCode() == 200).count();
+            System.out.printf("%s: %d/%d uploads in %.2f s (%.0f req/s)%n",
+                    getClass().getSimpleName(), succeeded, CLIENTS, seconds, CLIENTS / seconds);
+            assertThat(succeeded).isEqualTo(CLIENTS);
+        }
+    }
+
+    private HttpRequest uploadRequest(String filename) {
+        byte[] head = ("--" + BOUNDARY + "\r\n"
+                + "Content-Disposition: form-data; name=\"file\"; filename=\"" + filename + "\"\r\n"
+                + "Content-Type: application/octet-stream\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+        byte[] tail = ("\r\n--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+        byte[] body = new byte[head.length + FILE_SIZE + tail.length];
+        System.arraycopy(head, 0, body, 0, head.length);
+        System.arraycopy(tail, 0, body, head.length + FILE_SIZE, tail.length);
+
+        return HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/files/upload"))
+                .header("Content-Type", "multipart/form-data; boundary=" + BOUNDARY)
+                .timeout(Duration.ofMinutes(2))
+                .POST(HttpRequest.BodyPublishers.fromPublisher(
+                        HttpRequest.BodyPublishers.ofInputStream(() -> new SlowInputStream(body)), body.length))
+                .build();
+    }
+
+    /** Delivers the body in {@link #CHUNKS} pieces with a pause before each one. */
+    private static final class SlowInputStream extends InputStream {
+
+        private final ByteArrayInputStream in;
+        private final int chunkSize;
+
+        SlowInputStream(byte[] body) {
+            this.in = new ByteArrayInputStream(body);
+            this.chunkSize = (body.length + CHUNKS - 1) / CHUNKS;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (in.available() == 0) {
+                return -1;
+            }
+            try {
+                Thread.sleep(CHUNK_DELAY.toMillis());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+            return in.read(b, off, Math.min(len, chunkSize));
+        }
+    }
+}
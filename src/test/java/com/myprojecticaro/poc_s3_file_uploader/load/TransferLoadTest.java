@@ -0,0 +1,189 @@
+package com.myprojecticaro.poc_s3_file_uploader.load;
+
+import com.myprojecticaro.poc_s3_file_uploader.support.InMemoryS3Client;
+import com.myprojecticaro.poc_s3_file_uploader.support.InMemoryS3TestConfiguration;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.context.annotation.Import;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * End-to-end load test: concurrent clients upload and download files through
+ * {@code FileController} while the in-memory S3 stand-in answers with the latency and
+ * per-stream bandwidth of a remote bucket.
+ * <p>
+ * Each client alternates a multipart {@code POST /files/upload} with a
+ * {@code GET /files/{name}} of a pre-loaded object. The test prints requests per
+ * second, MB/s, p50/p99/max latency per operation and the heap allocated per request,
+ * and writes the same numbers as JSON to {@code build/reports/load} so runs can be
+ * compared offline. Run with {@code ./gradlew loadTest}.
+ * </p>
+ */
+@Tag("load")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "spring.threads.virtual.enabled=true",
+        "app.admission.max-concurrent-requests=1024",
+        "app.admission.max-wait=30s",
+        "test.s3.latency=20ms",
+        "test.s3.bandwidth-per-stream=52428800",
+        "test.s3.retain-content=false"
+})
+@Import(InMemoryS3TestConfiguration.class)
+class TransferLoadTest {
+
+    private static final int CLIENTS = 64;
+    private static final int ROUNDS = 25;
+    private static final int UPLOAD_SIZE = 256 * 1024;
+    private static final int DOWNLOAD_SIZE = 1024 * 1024;
+    private static final int DOWNLOAD_OBJECTS = 16;
+    private static final String BOUNDARY = "load-test-boundary";
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private InMemoryS3Client s3Client;
+
+    @Test
+    void concurrentUploadsAndDownloads() throws Exception {
+        byte[] content = new byte[DOWNLOAD_SIZE];
+        new Random(42).nextBytes(content);
+        for (int i = 0; i < DOWNLOAD_OBJECTS; i++) {
+            // Stored directly, so the objects keep their content although uploads do not.
+            s3Client.putObject("download-" + i + ".bin", content, "application/octet-stream");
+        }
+        byte[] uploadBody = multipartBody(UPLOAD_SIZE);
+
+        long[] uploadNanos = new long[CLIENTS * ROUNDS];
+        long[] downloadNanos = new long[CLIENTS * ROUNDS];
+        AtomicLong downloadedBytes = new AtomicLong();
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+        try (ExecutorService clientThreads = Executors.newVirtualThreadPerTaskExecutor()) {
+            HttpClient client = HttpClient.newBuilder().executor(clientThreads).build();
+
+            long allocatedBefore = threads.getTotalThreadAllocatedBytes();
+            long started = System.nanoTime();
+            List<Future<?>> clients = new ArrayList<>(CLIENTS);
+            for (int c = 0; c < CLIENTS; c++) {
+                int clientId = c;
+                clients.add(clientThreads.submit(() -> {
+                    for (int round = 0; round < ROUNDS; round++) {
+                        int slot = clientId * ROUNDS + round;
+                        uploadNanos[slot] = timed(client, uploadRequest(uploadBody), null);
+                        downloadNanos[slot] = timed(client,
+                                downloadRequest("download-" + (slot % DOWNLOAD_OBJECTS) + ".bin"), downloadedBytes);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> running : clients) {
+                running.get();
+            }
+            double seconds = (System.nanoTime() - started) / 1e9;
+            long allocated = threads.getTotalThreadAllocatedBytes() - allocatedBefore;
+
+            int requests = uploadNanos.length + downloadNanos.length;
+            double megabytes = ((double) uploadNanos.length * UPLOAD_SIZE + downloadedBytes.get()) / (1024 * 1024);
+            String report = String.format(Locale.ROOT, """
+                    {"clients": %d, "requests": %d, "seconds": %.3f, "requestsPerSecond": %.1f, "mbPerSecond": %.1f,
+                     "allocatedMbPerSecond": %.1f, "allocatedKbPerRequest": %.1f,
+                     "upload": %s,
+                     "download": %s}
+                    """, CLIENTS, requests, seconds, requests / seconds, megabytes / seconds,
+                    allocated / seconds / (1024 * 1024), allocated / 1024.0 / requests,
+                    latencies(uploadNanos), latencies(downloadNanos));
+            System.out.print(report);
+            writeReport(report);
+
+            assertThat(downloadedBytes.get()).isEqualTo((long) downloadNanos.length * DOWNLOAD_SIZE);
+        }
+    }
+
+    /** Sends a request, fails on a non-200 answer and returns its latency in nanoseconds. */
+    private static long timed(HttpClient client, HttpRequest request, AtomicLong bodyBytes) throws Exception {
+        long started = System.nanoTime();
+        HttpResponse<byte[]> response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+        long elapsed = System.nanoTime() - started;
+        assertThat(response.statusCode()).as("%s %s", request.method(), request.uri()).isEqualTo(200);
+        if (bodyBytes != null) {
+            bodyBytes.addAndGet(response.body().length);
+        }
+        return elapsed;
+    }
+
+    private static String latencies(long[] nanos) {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        return String.format(Locale.ROOT, "{\"p50Ms\": %.2f, \"p99Ms\": %.2f, \"maxMs\": %.2f}",
+                percentile(sorted, 0.50), percentile(sorted, 0.99), sorted[sorted.length - 1] / 1e6);
+    }
+
+    private static double percentile(long[] sorted, double percentile) {
+        int index = (int) Math.ceil(percentile * sorted.length) - 1;
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+
+    private void writeReport(String report) throws IOException {
+        String dir = System.getProperty("load.reportDir");
+        if (dir != null) {
+            Path file = Path.of(dir, getClass().getSimpleName() + ".json");
+            Files.createDirectories(file.getParent());
+            Files.writeString(file, report);
+        }
+    }
+
+    private HttpRequest uploadRequest(byte[] body) {
+        return HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/files/upload"))
+                .header("Content-Type", "multipart/form-data; boundary=" + BOUNDARY)
+                .timeout(Duration.ofMinutes(2))
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body))
+                .build();
+    }
+
+    private HttpRequest downloadRequest(String filename) {
+        return HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/files/" + filename))
+                .timeout(Duration.ofMinutes(2))
+                .GET()
+                .build();
+    }
+
+    private static byte[] multipartBody(int fileSize) {
+        byte[] head = ("--" + BOUNDARY + "\r\n"
+                + "Content-Disposition: form-data; name=\"file\"; filename=\"load.bin\"\r\n"
+                + "Content-Type: application/octet-stream\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+        byte[] tail = ("\r\n--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+        byte[] file = new byte[fileSize];
+        new Random(7).nextBytes(file);
+        byte[] body = new byte[head.length + fileSize + tail.length];
+        System.arraycopy(head, 0, body, 0, head.length);
+        System.arraycopy(file, 0, body, head.length, fileSize);
+        System.arraycopy(tail, 0, body, head.length + fileSize, tail.length);
+        return body;
+    }
+}
@@ -0,0 +1,51 @@
+package com.myprojecticaro.poc_s3_file_uploader.metrics;
+
+import com.myprojecticaro.poc_s3_file_uploader.io.TimedInputStream;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.OutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TransferMetricsTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final TransferMetrics metrics = new TransferMetrics(registry);
+
+    @Test
+    void transfersAreTimedByOutcomeWithBytesAndActiveCount() throws Exception {
+        long first = metrics.started(TransferMetrics.Operation.DOWNLOAD);
+        long second = metrics.started(TransferMetrics.Operation.DOWNLOAD);
+        assertThat(registry.get("uploader.transfer.active").tag("operation", "download").gauge().value()).isEqualTo(2);
+
+        Thread.sleep(5);
+        metrics.completed(TransferMetrics.Operation.DOWNLOAD, first, 4096, null);
+        metrics.completed(TransferMetrics.Operation.DOWNLOAD, second, 0, new RuntimeException("boom"));
+
+        assertThat(registry.get("uploader.transfer.active").tag("operation", "download").gauge().value()).isZero();
+        assertThat(registry.get("uploader.transfer").tags("operation", "download", "outcome", "success").timer().count())
+                .isEqualTo(1);
+        assertThat(registry.get("uploader.transfer").tags("operation", "download", "outcome", "error").timer().count())
+                .isEqualTo(1);
+        assertThat(registry.get("uploader.transfer.bytes").tag("operation", "download").counter().count())
+                .isEqualTo(4096);
+        assertThat(registry.get("uploader.transfer.throughput").tag("operation", "download").summary().count())
+                .isEqualTo(1);
+    }
+
+    @Test
+    void receivedBodiesReportTheirReadTimeOnceAtTheEnd() throws Exception {
+        TimedInputStream body = metrics.receiving(new ByteArrayInputStream(new byte[10_000]),
+                TransferMetrics.Operation.LARGE_UPLOAD);
+        body.transferTo(OutputStream.nullOutputStream());
+        body.close();
+
+        Timer receive = registry.get("uploader.transfer.phase")
+                .tags("operation", "large-upload", "phase", "receive").timer();
+        assertThat(body.bytesRead()).isEqualTo(10_000);
+        assertThat(receive.count()).isEqualTo(1);
+    }
+}
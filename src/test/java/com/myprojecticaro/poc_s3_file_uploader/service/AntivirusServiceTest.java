@@ -0,0 +1,99 @@
+package com.myprojecticaro.poc_s3_file_uploader.service;
+
+import com.myprojecticaro.poc_s3_file_uploader.io.BufferPool;
+import com.myprojecticaro.poc_s3_file_uploader.io.MalwareDetectedException;
+import com.myprojecticaro.poc_s3_file_uploader.support.InMemoryS3Client;
+import com.myprojecticaro.poc_s3_file_uploader.support.S3ServiceFixture;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.mock.web.MockMultipartFile;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HexFormat;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class AntivirusServiceTest {
+
+    /** The EICAR test string, kept as hex so this source file is not flagged itself. */
+    private static final byte[] EICAR = HexFormat.of().parseHex("58354f2150254041505b345c505a58353428505e2937434329377d24");
+
+    private final InMemoryS3Client s3Client = new InMemoryS3Client();
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+    private final BufferPool bufferPool = new BufferPool(64 * 1024, 8);
+    private S3Service s3Service;
+
+    @BeforeEach
+    void setUp() {
+        MultipartUploadService multipartUploadService = new MultipartUploadService(s3Client, executor, bufferPool);
+        s3Service = S3ServiceFixture.on(s3Client)
+                .bufferPool(bufferPool)
+                .multipartUploads(multipartUploadService)
+                .executor(executor)
+                .build();
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void signatureInTheMiddleOfAStreamAbortsTheMultipartUpload() {
+        byte[] data = new byte[1024 * 1024];
+        System.arraycopy(EICAR, 0, data, 700 * 1024 - 5, EICAR.length);
+
+        assertThatThrownBy(() -> s3Service.uploadLargeFile("report.pdf", "application/pdf", new ByteArrayInputStream(data)))
+                .isInstanceOf(MalwareDetectedException.class)
+                .hasMessageContaining("Eicar-Test-Signature");
+
+        assertThat(s3Client.objects()).isEmpty();
+        assertThat(s3Client.openMultipartUploads()).isZero();
+        assertThat(bufferPool.inUse()).isZero();
+    }
+
+    @Test
+    void disguisedExecutablesAreRejected() {
+        byte[] data = new byte[4096];
+        data[0] = 'M';
+        data[1] = 'Z';
+        MockMultipartFile file = new MockMultipartFile("file", "holiday.png", "image/png", data);
+
+        assertThatThrownBy(() -> s3Service.uploadFile(file))
+                .isInstanceOf(MalwareDetectedException.class)
+                .hasMessageContaining("executable content");
+        assertThat(s3Client.objects()).isEmpty();
+    }
+
+    @Test
+    void cleanContentIsUploaded() throws Exception {
+        byte[] data = "quarterly numbers, nothing to see here".getBytes();
+
+        String url = s3Service.uploadFile(new MockMultipartFile("file", "report.txt", "text/plain", data));
+
+        assertThat(s3Client.object(url.substring(url.lastIndexOf('/') + 1)).data()).isEqualTo(data);
+    }
+
+    @Test
+    void signaturesCanBeLoadedFromAFile(@TempDir Path dir) throws Exception {
+        Path signatures = dir.resolve("signatures.txt");
+        Files.writeString(signatures, "# custom set\nInternal-Marker " + HexFormat.of().formatHex("DO-NOT-SHIP".getBytes()) + "\n");
+        AntivirusService antivirus = new AntivirusService(true, false, new FileSystemResource(signatures));
+
+        try (InputStream in = antivirus.scanning(new ByteArrayInputStream("build DO-NOT-SHIP".getBytes()), "notes.txt")) {
+            assertThatThrownBy(in::readAllBytes).hasMessageContaining("Internal-Marker");
+        }
+        try (InputStream in = antivirus.scanning(new ByteArrayInputStream(EICAR), "eicar.txt")) {
+            assertThat(in.readAllBytes()).isEqualTo(EICAR);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.myprojecticaro.poc_s3_file_uploader.service;
+
+import com.myprojecticaro.poc_s3_file_uploader.support.InMemoryS3Client;
+import com.myprojecticaro.poc_s3_file_uploader.support.S3ServiceFixture;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class BatchDeleteServiceTest {
+
+    private final InMemoryS3Client s3Client = new InMemoryS3Client();
+    private final ExecutorService executor = Executors.newFixedThreadPool(8);
+    private final List<ObjectChangedEvent> events = new ArrayList<>();
+    private BatchDeleteService batchDeleteService;
+    private S3Service s3Service;
+
+    @BeforeEach
+    void setUp() {
+        for (int i = 0; i < 4500; i++) {
+            s3Client.putObject(String.format("tmp/%05d.bin", i), new byte[1], "application/octet-stream");
+        }
+        s3Client.putObject("keep/report.pdf", new byte[1], "application/pdf");
+
+        batchDeleteService = new BatchDeleteService(s3Client, executor, event -> {
+            synchronized (events) {
+                events.add((ObjectChangedEvent) event);
+            }
+        });
+        ReflectionTestUtils.setField(batchDeleteService, "keysPerSecond", 0);
+        s3Service = S3ServiceFixture.on(s3Client).batchDeletes(batchDeleteService).executor(executor).build();
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void keysAreDeletedInConcurrentBatchesOfAThousand() throws Exception {
+        s3Client.withLatency(Duration.ofMillis(50));
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < 4500; i++) {
+            keys.add(String.format("tmp/%05d.bin", i));
+        }
+        List<DeleteResult> results = new ArrayList<>();
+
+        BatchDeleteService.DeleteSummary summary = s3Service.deleteFiles(keys, results::addAll);
+
+        assertThat(summary).isEqualTo(new BatchDeleteService.DeleteSummary(4500, 0));
+        assertThat(s3Client.deleteRequests()).isEqualTo(5);
+        assertThat(s3Client.maxConcurrentDeletes()).isBetween(2, 4);
+        assertThat(results).extracting(DeleteResult::key).containsExactlyInAnyOrderElementsOf(keys);
+        assertThat(s3Client.objects()).containsOnlyKeys("keep/report.pdf");
+        assertThat(events).hasSize(4500).allMatch(ObjectChangedEvent::isDeletion);
+    }
+
+    @Test
+    void keysS3RefusesToDeleteAreReportedOneByOne() throws Exception {
+        s3Client.protect("tmp/00007.bin");
+        List<DeleteResult> results = new ArrayList<>();
+
+        BatchDeleteService.DeleteSummary summary = s3Service.deleteFiles(
+                List.of("tmp/00006.bin", "tmp/00007.bin", "missing.bin"), results::addAll);
+
+        assertThat(summary).isEqualTo(new BatchDeleteService.DeleteSummary(2, 1));
+        assertThat(results).containsExactly(
+                DeleteResult.deleted("tmp/00006.bin"),
+                DeleteResult.failed("tmp/00007.bin", "AccessDenied", "Access Denied"),
+                DeleteResult.deleted("missing.bin"));
+        assertThat(s3Client.object("tmp/00007.bin")).isNotNull();
+    }
+
+    @Test
+    void prefixDeletesListAndDeleteTogether() throws Exception {
+        List<Integer> batchSizes = new ArrayList<>();
+
+        BatchDeleteService.DeleteSummary summary = s3Service.deleteFilesByPrefix("tmp/",
+                results -> batchSizes.add(results.size()));
+
+        assertThat(summary.deleted()).isEqualTo(4500);
+        assertThat(batchSizes).containsExactlyInAnyOrder(1000, 1000, 1000, 1000, 500);
+        assertThat(s3Client.listRequests()).isEqualTo(5);
+        assertThat(s3Client.objects()).containsOnlyKeys("keep/report.pdf");
+    }
+
+    @Test
+    void prefixDeletesRequireAPrefix() {
+        assertThatThrownBy(() -> s3Service.deleteFilesByPrefix(" ", results -> { }))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThat(s3Client.deleteRequests()).isZero();
+    }
+
+    @Test
+    void batchesAreStartedNoFasterThanTheRateLimit() throws Exception {
+        ReflectionTestUtils.setField(batchDeleteService, "batchSize", 100);
+        ReflectionTestUtils.setField(batchDeleteService, "keysPerSecond", 1000);
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < 400; i++) {
+            keys.add(String.format("tmp/%05d.bin", i));
+        }
+
+        long start = System.nanoTime();
+        s3Service.deleteFiles(keys, results -> { });
+
+        // The first batch starts at once, the other three wait 100ms each.
+        assertThat(Duration.ofNanos(System.nanoTime() - start)).isGreaterThanOrEqualTo(Duration.ofMillis(280));
+        assertThat(s3Client.deleteRequests()).isEqualTo(4);
+    }
+}
@@ -0,0 +1,116 @@
+package com.myprojecticaro.poc_s3_file_uploader.service;
+
+import com.myprojecticaro.poc_s3_file_uploader.io.BufferPool;
+import com.myprojecticaro.poc_s3_file_uploader.support.InMemoryS3AsyncClient;
+import com.myprojecticaro.poc_s3_file_uploader.support.InMemoryS3Client;
+import com.myprojecticaro.poc_s3_file_uploader.support.S3ServiceFixture;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockMultipartFile;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ContentHashIndexTest {
+
+    private static final byte[] ARTIFACT = "build output that CI uploads on every run".getBytes();
+
+    private final InMemoryS3Client s3Client = new InMemoryS3Client();
+    private final ExecutorService executor = Executors.newFixedThreadPool(2);
+    private final BufferPool bufferPool = new BufferPool(4096, 2);
+    private final List<ContentHashIndex> indexes = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void identicalContentIsCopiedInsteadOfUploaded() throws Exception {
+        S3Service s3Service = service(ContentHashIndex.Mode.COPY);
+
+        String first = s3Service.uploadFile(artifact("app.jar"));
+        String second = s3Service.uploadFile(artifact("app-copy.jar"));
+
+        assertThat(second).isNotEqualTo(first);
+        assertThat(s3Client.putRequests()).isEqualTo(1);
+        assertThat(s3Client.copyRequests()).isEqualTo(1);
+        InMemoryS3Client.StoredObject copy = s3Client.object(key(second));
+        assertThat(copy.data()).isEqualTo(ARTIFACT);
+        assertThat(copy.metadata()).containsKey(ContentHashIndex.DIGEST_METADATA);
+        assertThat(copy.metadata()).isEqualTo(s3Client.object(key(first)).metadata());
+    }
+
+    @Test
+    void referenceModeReturnsTheExistingObject() throws Exception {
+        S3Service s3Service = service(ContentHashIndex.Mode.REFERENCE);
+
+        String first = s3Service.uploadFile(artifact("app.jar"));
+        String second = s3Service.uploadFileAsync(artifact("app.jar")).join();
+
+        assertThat(second).isEqualTo(first);
+        assertThat(s3Client.objects()).hasSize(1);
+        assertThat(s3Client.putRequests()).isEqualTo(1);
+    }
+
+    @Test
+    void differentContentIsUploaded() throws Exception {
+        S3Service s3Service = service(ContentHashIndex.Mode.COPY);
+
+        s3Service.uploadFile(artifact("app.jar"));
+        s3Service.uploadFile(new MockMultipartFile("file", "app.jar", "application/java-archive", "other".getBytes()));
+
+        assertThat(s3Client.putRequests()).isEqualTo(2);
+        assertThat(s3Client.copyRequests()).isZero();
+    }
+
+    @Test
+    void deletedSourcesAreForgotten() throws Exception {
+        S3Service s3Service = service(ContentHashIndex.Mode.COPY);
+        String first = s3Service.uploadFile(artifact("app.jar"));
+
+        s3Service.deleteFile(key(first));
+        s3Service.uploadFileAsync(artifact("app.jar")).join();
+
+        assertThat(s3Client.putRequests()).isEqualTo(2);
+        assertThat(s3Client.copyRequests()).isZero();
+    }
+
+    @Test
+    void sourcesRemovedBehindTheIndexFallBackToAnUpload() throws Exception {
+        S3Service s3Service = service(ContentHashIndex.Mode.COPY);
+        String first = s3Service.uploadFile(artifact("app.jar"));
+        s3Client.objects().remove(key(first));
+
+        String second = s3Service.uploadFile(artifact("app.jar"));
+        s3Service.uploadFile(artifact("app.jar"));
+
+        assertThat(s3Client.object(key(second)).data()).isEqualTo(ARTIFACT);
+        assertThat(s3Client.putRequests()).isEqualTo(2);
+        assertThat(s3Client.copyRequests()).isEqualTo(2);
+    }
+
+    private S3Service service(ContentHashIndex.Mode mode) {
+        ContentHashIndex index = new ContentHashIndex(true, mode, 1000, bufferPool);
+        indexes.add(index);
+        return S3ServiceFixture.on(s3Client)
+                .asyncClient(new InMemoryS3AsyncClient(s3Client))
+                .bufferPool(bufferPool)
+                .executor(executor)
+                .contentHashIndex(index)
+                .events(event -> indexes.forEach(listener -> listener.onObjectChanged((ObjectChangedEvent) event)))
+                .build();
+    }
+
+    private static MockMultipartFile artifact(String filename) {
+        return new MockMultipartFile("file", filename, "application/java-archive", ARTIFACT);
+    }
+
+    private static String key(String url) {
+        return url.substring(url.lastIndexOf('/') + 1);
+    }
+}
@@ -0,0 +1,125 @@
+package com.myprojecticaro.poc_s3_file_uploader.service;
+
+import com.myprojecticaro.poc_s3_file_uploader.support.InMemoryS3Client;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MetadataIndexTest {
+
+    private final InMemoryS3Client s3Client = new InMemoryS3Client();
+    private MetadataIndex index;
+
+    @BeforeEach
+    void setUp() {
+        for (int i = 0; i < 3000; i++) {
+            s3Client.putObject(String.format("photos/%05d.jpg", i), new byte[i % 7], "image/jpeg");
+        }
+        s3Client.putObject("docs/2025/plan.pdf", new byte[10], "application/pdf");
+        s3Client.putObject("docs/readme.txt", new byte[4], "text/plain");
+
+        index = new MetadataIndex(s3Client);
+        ReflectionTestUtils.setField(index, "bucketName", "test-bucket");
+    }
+
+    @AfterEach
+    void tearDown() {
+        index.stop();
+    }
+
+    @Test
+    void rebuildLoadsTheWholeBucket() {
+        assertThat(index.isReady()).isFalse();
+
+        index.rebuild();
+
+        assertThat(index.isReady()).isTrue();
+        assertThat(index.size()).isEqualTo(3002);
+        FileMetadata stat = index.stat("photos/00013.jpg").orElseThrow();
+        assertThat(stat.size()).isEqualTo(13 % 7);
+        assertThat(stat.eTag()).isEqualTo(s3Client.object("photos/00013.jpg").eTag());
+        assertThat(index.stat("photos/99999.jpg")).isEmpty();
+    }
+
+    @Test
+    void listingsAreServedFromMemory() {
+        index.rebuild();
+        int listRequests = s3Client.listRequests();
+
+        List<String> keys = new ArrayList<>();
+        String token = null;
+        do {
+            FileListing page = index.list("photos/", null, token, 700);
+            page.files().forEach(file -> keys.add(file.key()));
+            token = page.nextContinuationToken();
+        } while (token != null);
+
+        assertThat(keys).hasSize(3000).isSorted().doesNotHaveDuplicates();
+        assertThat(s3Client.listRequests()).isEqualTo(listRequests);
+
+        FileListing docs = index.list("docs/", "/", null, 1000);
+        assertThat(docs.commonPrefixes()).containsExactly("docs/2025/");
+        assertThat(docs.files()).extracting(FileSummary::key).containsExactly("docs/readme.txt");
+    }
+
+    @Test
+    void writesAndDeletesShadowTheSnapshotUntilCompaction() {
+        index.rebuild();
+
+        index.onObjectChanged(ObjectChangedEvent.written(
+                new FileMetadata("docs/new.txt", 42, "\"abc\"", Instant.now(), "text/plain")));
+        index.onObjectChanged(ObjectChangedEvent.deleted("docs/readme.txt"));
+
+        assertThat(index.stat("docs/new.txt")).map(FileMetadata::contentType).contains("text/plain");
+        assertThat(index.stat("docs/readme.txt")).isEmpty();
+        assertThat(index.list("docs/", "/", null, 1000).files())
+                .extracting(FileSummary::key).containsExactly("docs/new.txt");
+
+        index.compact();
+
+        assertThat(index.size()).isEqualTo(3002);
+        assertThat(index.stat("docs/new.txt")).map(FileMetadata::size).contains(42L);
+        assertThat(index.stat("docs/readme.txt")).isEmpty();
+    }
+
+    @Test
+    void rebuildKeepsContentTypesLearnedFromWrites() {
+        index.rebuild();
+        String eTag = s3Client.object("docs/readme.txt").eTag();
+        index.onObjectChanged(ObjectChangedEvent.written(
+                new FileMetadata("docs/readme.txt", 4, eTag, Instant.now(), "text/plain")));
+
+        index.rebuild();
+
+        assertThat(index.stat("docs/readme.txt")).map(FileMetadata::contentType).contains("text/plain");
+        assertThat(index.stat("photos/00001.jpg")).map(FileMetadata::contentType).isEmpty();
+    }
+
+    @Test
+    void rebuildKeepsTheDecodedSizeOfCompressedObjects() {
+        s3Client.putObject("logs/app.log", new byte[300], "text/plain");
+        s3Client.putObject("logs/old.log", new byte[200], "text/plain");
+        index.rebuild();
+        // What S3Service publishes for objects it stored compressed: the decoded size, not the stored one.
+        index.onObjectChanged(ObjectChangedEvent.written(new FileMetadata("logs/app.log", 12_000,
+                s3Client.object("logs/app.log").eTag(), Instant.now(), "text/plain")));
+        index.onObjectChanged(ObjectChangedEvent.written(new FileMetadata("logs/old.log", 8_000,
+                s3Client.object("logs/old.log").eTag(), Instant.now(), "text/plain")));
+        s3Client.putObject("logs/old.log", new byte[250], "text/plain");
+
+        index.rebuild();
+
+        assertThat(index.stat("logs/app.log")).map(FileMetadata::size).contains(12_000L);
+        assertThat(index.stat("logs/app.log")).map(FileMetadata::contentType).contains("text/plain");
+        // Rewritten behind the index's back: the listed size stands until a HEAD learns the real one.
+        assertThat(index.stat("logs/old.log")).map(FileMetadata::size).contains(250L);
+        assertThat(index.stat("logs/old.log")).map(FileMetadata::contentType).isEmpty();
+    }
+}
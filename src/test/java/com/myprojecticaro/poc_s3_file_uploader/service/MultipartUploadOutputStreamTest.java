@@ -0,0 +1,99 @@
+package com.myprojecticaro.poc_s3_file_uploader.service;
+
+import com.myprojecticaro.poc_s3_file_uploader.io.BufferPool;
+import com.myprojecticaro.poc_s3_file_uploader.metrics.TransferMetrics;
+import com.myprojecticaro.poc_s3_file_uploader.support.InMemoryS3Client;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class MultipartUploadOutputStreamTest {
+
+    private static final int PART_SIZE = 64 * 1024;
+
+    private final InMemoryS3Client s3Client = new InMemoryS3Client();
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+    private final BufferPool partPool = new BufferPool(PART_SIZE, 3);
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void streamIsUploadedAsOrderedParts() throws Exception {
+        byte[] data = new byte[10 * PART_SIZE + 17];
+        new Random(7).nextBytes(data);
+
+        MultipartUploadOutputStream out = open("big.bin");
+        out.writeFrom(new ByteArrayInputStream(data));
+        out.close();
+
+        assertThat(s3Client.object("big.bin").data()).isEqualTo(data);
+        assertThat(s3Client.object("big.bin").contentType()).isEqualTo("application/octet-stream");
+        assertThat(s3Client.openMultipartUploads()).isZero();
+        assertThat(partPool.inUse()).isZero();
+    }
+
+    @Test
+    void contentSmallerThanOnePartUsesASinglePut() throws Exception {
+        MultipartUploadOutputStream out = open("small.txt");
+        out.write("hello".getBytes());
+        out.close();
+
+        assertThat(s3Client.object("small.txt").data()).isEqualTo("hello".getBytes());
+        assertThat(s3Client.openMultipartUploads()).isZero();
+        assertThat(partPool.inUse()).isZero();
+    }
+
+    @Test
+    void abortDiscardsTheMultipartUpload() throws Exception {
+        MultipartUploadOutputStream out = open("aborted.bin");
+        out.write(new byte[3 * PART_SIZE]);
+        out.abort();
+
+        assertThat(s3Client.object("aborted.bin")).isNull();
+        assertThat(s3Client.openMultipartUploads()).isZero();
+    }
+
+    @Test
+    void serverErrorsOnAPartAreRetried() throws Exception {
+        s3Client.failUploadParts(503, 1);
+
+        MultipartUploadOutputStream out = open("retried.bin");
+        out.writeFrom(new ByteArrayInputStream(new byte[PART_SIZE + 1]));
+        out.close();
+
+        assertThat(s3Client.object("retried.bin").size()).isEqualTo(PART_SIZE + 1);
+        assertThat(s3Client.uploadPartRequests()).isEqualTo(3);
+    }
+
+    @Test
+    void clientErrorsOnAPartFailTheUploadWithoutARetry() {
+        s3Client.failUploadParts(403, 1);
+
+        assertThatThrownBy(() -> {
+            MultipartUploadOutputStream out = open("denied.bin");
+            out.writeFrom(new ByteArrayInputStream(new byte[PART_SIZE + 1]));
+            out.close();
+        }).isInstanceOf(IOException.class);
+
+        assertThat(s3Client.object("denied.bin")).isNull();
+        assertThat(s3Client.openMultipartUploads()).isZero();
+        assertThat(partPool.inUse()).isZero();
+    }
+
+    private MultipartUploadOutputStream open(String key) {
+        return new MultipartUploadOutputStream(s3Client, executor, partPool, 2, 3,
+                "bucket", key, "application/octet-stream", Map.of(), TransferMetrics.disabled());
+    }
+}
@@ -0,0 +1,170 @@
+package com.myprojecticaro.poc_s3_file_uploader.service;
+
+import com.myprojecticaro.poc_s3_file_uploader.support.InMemoryS3Client;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ObjectCacheTest {
+
+    private final InMemoryS3Client s3Client = new InMemoryS3Client();
+
+    @Test
+    void repeatedDownloadsAreServedFromTheCache() throws IOException {
+        ObjectCache cache = new ObjectCache(true, 1 << 20, 64 * 1024, 4096, Duration.ofMinutes(5));
+        byte[] data = bytes(10_000);
+        s3Client.putObject("thumb.jpg", data, "image/jpeg");
+
+        assertThat(read(cache.download("thumb.jpg", fetch("thumb.jpg")))).isEqualTo(data);
+        assertThat(read(cache.download("thumb.jpg", fetch("thumb.jpg")))).isEqualTo(data);
+
+        assertThat(s3Client.getRequests()).isEqualTo(1);
+        ObjectCache.Stats stats = cache.stats();
+        assertThat(stats.hits()).isEqualTo(1);
+        assertThat(stats.misses()).isEqualTo(1);
+        assertThat(stats.entries()).isEqualTo(1);
+        assertThat(stats.usedBytes()).isEqualTo(3 * 4096);
+    }
+
+    @Test
+    void staleEntriesAreRevalidatedWithTheirETag() throws IOException {
+        ObjectCache cache = new ObjectCache(true, 1 << 20, 64 * 1024, 4096, Duration.ZERO);
+        byte[] data = bytes(5_000);
+        s3Client.putObject("thumb.jpg", data, "image/jpeg");
+
+        read(cache.download("thumb.jpg", fetch("thumb.jpg")));
+        ObjectDownload revalidated = cache.download("thumb.jpg", fetch("thumb.jpg"));
+
+        assertThat(revalidated.eTag()).isEqualTo(s3Client.object("thumb.jpg").eTag());
+        assertThat(read(revalidated)).isEqualTo(data);
+        assertThat(cache.stats().revalidations()).isEqualTo(1);
+
+        byte[] changed = bytes(6_000);
+        s3Client.putObject("thumb.jpg", changed, "image/jpeg");
+        assertThat(read(cache.download("thumb.jpg", fetch("thumb.jpg")))).isEqualTo(changed);
+        assertThat(cache.stats().revalidations()).isEqualTo(1);
+        assertThat(cache.stats().entries()).isEqualTo(1);
+    }
+
+    @Test
+    void changesPublishedByTheServiceInvalidateTheEntry() throws IOException {
+        ObjectCache cache = new ObjectCache(true, 1 << 20, 64 * 1024, 4096, Duration.ofMinutes(5));
+        s3Client.putObject("thumb.jpg", bytes(100), "image/jpeg");
+        read(cache.download("thumb.jpg", fetch("thumb.jpg")));
+
+        cache.onObjectChanged(ObjectChangedEvent.deleted("thumb.jpg"));
+
+        assertThat(cache.stats().entries()).isZero();
+        assertThat(cache.stats().usedBytes()).isZero();
+    }
+
+    @Test
+    void largeObjectsAreNotCached() throws IOException {
+        ObjectCache cache = new ObjectCache(true, 1 << 20, 1024, 4096, Duration.ofMinutes(5));
+        byte[] data = bytes(2048);
+        s3Client.putObject("video.mp4", data, "video/mp4");
+
+        assertThat(read(cache.download("video.mp4", fetch("video.mp4")))).isEqualTo(data);
+        assertThat(read(cache.download("video.mp4", fetch("video.mp4")))).isEqualTo(data);
+
+        assertThat(s3Client.getRequests()).isEqualTo(2);
+        assertThat(cache.stats().entries()).isZero();
+    }
+
+    @Test
+    void evictedEntriesKeepTheirBlocksUntilTheReaderIsDone() throws IOException {
+        ObjectCache cache = new ObjectCache(true, 8192, 8192, 4096, Duration.ofMinutes(5));
+        byte[] first = bytes(8000);
+        s3Client.putObject("a.jpg", first, "image/jpeg");
+        s3Client.putObject("b.jpg", bytes(8000), "image/jpeg");
+        read(cache.download("a.jpg", fetch("a.jpg")));
+
+        ObjectDownload reading = cache.download("a.jpg", fetch("a.jpg"));
+        cache.onObjectChanged(ObjectChangedEvent.deleted("a.jpg"));
+        read(cache.download("b.jpg", fetch("b.jpg")));
+
+        assertThat(cache.stats().entries()).isZero();
+        assertThat(read(reading)).isEqualTo(first);
+        assertThat(cache.stats().usedBytes()).isZero();
+    }
+
+    @Test
+    void responsesAreReadIntoTheArenaWithoutAHeapCopy() throws IOException {
+        ObjectCache cache = new ObjectCache(true, 8 << 20, 4 << 20, 16384, Duration.ofMinutes(5));
+        byte[] data = bytes(2 << 20);
+        s3Client.putObject("warmup.bin", bytes(1000), "application/octet-stream");
+        s3Client.putObject("big.bin", data, "application/octet-stream");
+        read(cache.download("warmup.bin", fetch("warmup.bin")));
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long before = threads.getCurrentThreadAllocatedBytes();
+        ObjectDownload download = cache.download("big.bin", fetch("big.bin"));
+        long allocated = threads.getCurrentThreadAllocatedBytes() - before;
+
+        assertThat(allocated).isLessThan(256 * 1024);
+        assertThat(read(download)).isEqualTo(data);
+        assertThat(cache.stats().entries()).isEqualTo(2);
+    }
+
+    @Test
+    void responsesTheArenaHasNoRoomForArePassedThrough() throws IOException {
+        ObjectCache cache = new ObjectCache(true, 4096, 8192, 4096, Duration.ofMinutes(5));
+        byte[] data = bytes(8000);
+        s3Client.putObject("a.jpg", data, "image/jpeg");
+
+        assertThat(read(cache.download("a.jpg", fetch("a.jpg")))).isEqualTo(data);
+
+        assertThat(cache.stats().entries()).isZero();
+        assertThat(cache.stats().usedBytes()).isZero();
+        assertThat(s3Client.abortedGets()).isZero();
+    }
+
+    @Test
+    void truncatedResponsesAreNotCached() {
+        ObjectCache cache = new ObjectCache(true, 1 << 20, 64 * 1024, 4096, Duration.ofMinutes(5));
+        s3Client.putObject("thumb.jpg", bytes(10_000), "image/jpeg");
+
+        assertThatThrownBy(() -> cache.download("thumb.jpg", ifNoneMatch -> {
+            ObjectDownload full = fetch("thumb.jpg").fetch(ifNoneMatch);
+            return new ObjectDownload(full.body(), 20_000, full.contentType(), full.eTag(), full.lastModified(), null);
+        })).isInstanceOf(IOException.class).hasMessage("Truncated response for thumb.jpg");
+
+        assertThat(cache.stats().entries()).isZero();
+        assertThat(cache.stats().usedBytes()).isZero();
+    }
+
+    private ObjectCache.ConditionalFetch fetch(String key) {
+        return ifNoneMatch -> {
+            ResponseInputStream<GetObjectResponse> response = s3Client.getObject(GetObjectRequest.builder()
+                    .bucket("test-bucket")
+                    .key(key)
+                    .ifNoneMatch(ifNoneMatch)
+                    .build());
+            GetObjectResponse meta = response.response();
+            return new ObjectDownload(response, meta.contentLength(), meta.contentType(), meta.eTag(),
+                    meta.lastModified(), meta.contentRange());
+        };
+    }
+
+    private static byte[] bytes(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (i * 31 + length);
+        }
+        return data;
+    }
+
+    private static byte[] read(ObjectDownload download) throws IOException {
+        try (download) {
+            return download.body().readAllBytes();
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.myprojecticaro.poc_s3_file_uploader.service;
+
+import com.myprojecticaro.poc_s3_file_uploader.io.BufferPool;
+import com.myprojecticaro.poc_s3_file_uploader.support.InMemoryS3Client;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ParallelDownloadServiceTest {
+
+    private static final int PART_SIZE = 256 * 1024;
+
+    private final InMemoryS3Client s3Client = new InMemoryS3Client();
+    private final ExecutorService executor = Executors.newFixedThreadPool(8);
+    private ParallelDownloadService service;
+
+    @BeforeEach
+    void setUp() {
+        service = new ParallelDownloadService(s3Client, executor, new BufferPool(16 * 1024, 16));
+        ReflectionTestUtils.setField(service, "partSize", (long) PART_SIZE);
+        ReflectionTestUtils.setField(service, "threshold", 1024L * 1024);
+        ReflectionTestUtils.setField(service, "parallelism", 4);
+        ReflectionTestUtils.setField(service, "maxAttempts", 3);
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void largeObjectIsReassembledFromConcurrentRanges() throws Exception {
+        byte[] data = randomBytes(3 * 1024 * 1024 + 123);
+        s3Client.putObject("big.bin", data, "application/octet-stream");
+
+        try (ObjectDownload download = service.download("bucket", "big.bin")) {
+            assertThat(download.contentLength()).isEqualTo(data.length);
+            assertThat(download.isPartial()).isFalse();
+            assertThat(download.body().readAllBytes()).isEqualTo(data);
+        }
+        assertThat(s3Client.getRequests()).isEqualTo((data.length + PART_SIZE - 1) / PART_SIZE);
+        assertThat(service.stagedBytes()).isZero();
+    }
+
+    @Test
+    void downloadsOverTheStagingBudgetAreStreamedFromS3() throws Exception {
+        ReflectionTestUtils.setField(service, "maxStagedBytes", 4L * 1024 * 1024);
+        byte[] data = randomBytes(3 * 1024 * 1024);
+        s3Client.putObject("big.bin", data, "application/octet-stream");
+
+        try (ObjectDownload staged = service.download("bucket", "big.bin")) {
+            assertThat(service.stagedBytes()).isEqualTo(data.length);
+            int getsBefore = s3Client.getRequests();
+
+            try (ObjectDownload streamed = service.download("bucket", "big.bin")) {
+                assertThat(s3Client.getRequests() - getsBefore).isEqualTo(2);
+                assertThat(streamed.body().readAllBytes()).isEqualTo(data);
+            }
+            assertThat(staged.body().readAllBytes()).isEqualTo(data);
+        }
+        assertThat(service.stagedBytes()).isZero();
+    }
+
+    @Test
+    void failedPartsAreRetried() throws Exception {
+        byte[] data = randomBytes(2 * 1024 * 1024);
+        s3Client.putObject("retry.bin", data, "application/octet-stream");
+        s3Client.failRange("bytes=" + PART_SIZE + "-" + (2 * PART_SIZE - 1), 2);
+
+        try (ObjectDownload download = service.download("bucket", "retry.bin")) {
+            assertThat(download.body().readAllBytes()).isEqualTo(data);
+        }
+        assertThat(s3Client.getRequests()).isEqualTo(data.length / PART_SIZE + 2);
+    }
+
+    @Test
+    void smallObjectIsServedByTheFirstRangedGet() throws Exception {
+        byte[] data = randomBytes(1000);
+        s3Client.putObject("small.txt", data, "text/plain");
+
+        try (ObjectDownload download = service.download("bucket", "small.txt")) {
+            assertThat(download.contentLength()).isEqualTo(1000);
+            assertThat(download.contentType()).isEqualTo("text/plain");
+            assertThat(download.body().readAllBytes()).isEqualTo(data);
+        }
+        assertThat(s3Client.getRequests()).isEqualTo(1);
+    }
+
+    @Test
+    void totalSizeIsReadFromContentRange() {
+        assertThat(ParallelDownloadService.totalSize("bytes 0-99/1234", 100L)).isEqualTo(1234);
+        assertThat(ParallelDownloadService.totalSize(null, 100L)).isEqualTo(100);
+    }
+
+    private static byte[] randomBytes(int size) {
+        byte[] data = new byte[size];
+        new Random(42).nextBytes(data);
+        return data;
+    }
+}
@@ -0,0 +1,165 @@
+package com.myprojecticaro.poc_s3_file_uploader.service;
+
+import com.myprojecticaro.poc_s3_file_uploader.io.ContentCodec;
+import com.myprojecticaro.poc_s3_file_uploader.support.InMemoryS3Client;
+import com.myprojecticaro.poc_s3_file_uploader.support.S3ServiceFixture;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.test.util.ReflectionTestUtils;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class PresignedUrlServiceTest {
+
+    private final InMemoryS3Client s3Client = new InMemoryS3Client();
+    private final S3Presigner presigner = S3Presigner.builder()
+            .region(Region.US_EAST_1)
+            .credentialsProvider(StaticCredentialsProvider.create(AwsBasicCredentials.create("AKIDEXAMPLE", "secret")))
+            .build();
+    private final List<Object> events = new ArrayList<>();
+    /** File names only: with content scanning on, presigned uploads need quarantine. */
+    private final PresignedUrlService service = presignedUrls(
+            new AntivirusService(false, true, new ClassPathResource("antivirus/signatures.txt")));
+
+
+    @AfterEach
+    void tearDown() {
+        presigner.close();
+    }
+
+    @Test
+    void downloadUrlsAreSignedOncePerWindow() {
+        s3Client.putObject("report.pdf", new byte[10], "application/pdf");
+        PresignedUrlService.PresignedDownload first = service.presignDownload("report.pdf", null).orElseThrow();
+        PresignedUrlService.PresignedDownload again = service.presignDownload("report.pdf", null).orElseThrow();
+        PresignedUrlService.PresignedDownload other = service.presignDownload("other.pdf", null).orElseThrow();
+
+        assertThat(again).isSameAs(first);
+        assertThat(other.url()).isNotEqualTo(first.url());
+        assertThat(first.url()).contains("test-bucket", "report.pdf", "X-Amz-Expires=900", "X-Amz-Signature=")
+                .doesNotContain("response-content-encoding");
+    }
+
+    @Test
+    void compressedFilesAreSignedWithTheirContentEncoding() {
+        storeCompressed("notes.txt", ContentCodec.GZIP);
+
+        PresignedUrlService.PresignedDownload download = service.presignDownload("notes.txt", "gzip, deflate")
+                .orElseThrow();
+
+        assertThat(download.url()).contains("response-content-encoding=gzip");
+        assertThat(service.presignDownload("notes.txt", "identity")).isEmpty();
+        assertThat(service.presignDownload("notes.txt", null)).isEmpty();
+    }
+
+    @Test
+    void aRewrittenFileIsSignedAgain() {
+        storeCompressed("notes.txt", ContentCodec.ZSTD);
+        assertThat(service.presignDownload("notes.txt", "gzip")).isEmpty();
+
+        s3Client.putObject("notes.txt", "plain".getBytes(), "text/plain");
+        service.onObjectChanged(ObjectChangedEvent.deleted("notes.txt"));
+
+        assertThat(service.presignDownload("notes.txt", "gzip")).hasValueSatisfying(download ->
+                assertThat(download.url()).doesNotContain("response-content-encoding"));
+    }
+
+    @Test
+    void largeFilesGetOneUrlPerPart() throws Exception {
+        PresignedUrlService.PresignedMultipartUpload upload =
+                service.presignMultipartUpload("disk.img", "application/octet-stream", 2500);
+
+        assertThat(upload.partSize()).isEqualTo(1024);
+        assertThat(upload.parts()).extracting(PresignedUrlService.PresignedPart::partNumber).containsExactly(1, 2, 3);
+        assertThat(upload.parts().get(1).url()).contains("partNumber=2", "uploadId=" + upload.uploadId());
+
+        // What the client does with the part URLs, straight against S3.
+        byte[] content = new byte[2500];
+        Arrays.fill(content, (byte) 'x');
+        List<PresignedUrlService.UploadedPart> parts = new ArrayList<>();
+        for (PresignedUrlService.PresignedPart part : upload.parts()) {
+            int from = (part.partNumber() - 1) * 1024;
+            byte[] bytes = Arrays.copyOfRange(content, from, Math.min(content.length, from + 1024));
+            String eTag = s3Client.uploadPart(UploadPartRequest.builder()
+                    .bucket("test-bucket").key(upload.key()).uploadId(upload.uploadId()).partNumber(part.partNumber())
+                    .build(), RequestBody.fromBytes(bytes)).eTag();
+            parts.add(new PresignedUrlService.UploadedPart(part.partNumber(), eTag));
+        }
+        service.complete(upload.key(), upload.uploadId(), parts.reversed());
+
+        assertThat(s3Client.object(upload.key()).data()).isEqualTo(content);
+        assertThat(events).singleElement()
+                .isInstanceOfSatisfying(ObjectChangedEvent.class, event -> assertThat(event.key()).isEqualTo(upload.key()));
+    }
+
+    @Test
+    void onlyTheIssuedKeyAndUploadIdCanBeCompleted() throws Exception {
+        PresignedUrlService.PresignedMultipartUpload upload =
+                service.presignMultipartUpload("disk.img", "application/octet-stream", 2500);
+        PresignedUrlService.PresignedMultipartUpload other =
+                service.presignMultipartUpload("other.img", "application/octet-stream", 2500);
+
+        assertThatThrownBy(() -> service.complete(upload.key(), other.uploadId(), List.of()))
+                .isInstanceOf(NoSuchElementException.class);
+        assertThatThrownBy(() -> service.complete("1_someone-elses.img", null, List.of()))
+                .isInstanceOf(NoSuchElementException.class);
+        assertThatThrownBy(() -> service.abort(other.key(), upload.uploadId()))
+                .isInstanceOf(NoSuchElementException.class);
+        assertThat(s3Client.openMultipartUploads()).isEqualTo(2);
+
+        service.abort(upload.key(), upload.uploadId());
+        assertThatThrownBy(() -> service.abort(upload.key(), upload.uploadId()))
+                .isInstanceOf(NoSuchElementException.class);
+        assertThat(s3Client.openMultipartUploads()).isEqualTo(1);
+        assertThat(events).isEmpty();
+    }
+
+    @Test
+    void uploadsAreNotPresignedWhenTheirContentWouldGoUnscanned() {
+        PresignedUrlService scanning = presignedUrls(new AntivirusService());
+
+        assertThatThrownBy(() -> scanning.presignUpload("photo.jpg", "image/jpeg"))
+                .isInstanceOf(IllegalStateException.class);
+        assertThatThrownBy(() -> scanning.presignMultipartUpload("disk.img", null, 4096))
+                .isInstanceOf(IllegalStateException.class);
+        assertThat(s3Client.openMultipartUploads()).isZero();
+    }
+
+    @Test
+    void fileNameRulesApplyBeforeSigning() {
+        assertThatThrownBy(() -> service.presignMultipartUpload("setup.exe", null, 4096))
+                .hasMessageContaining("Executable files are not allowed");
+        assertThat(s3Client.openMultipartUploads()).isZero();
+    }
+
+    private PresignedUrlService presignedUrls(AntivirusService antivirusService) {
+        PresignedUrlService presignedUrls = new PresignedUrlService(presigner, s3Client, antivirusService,
+                S3ServiceFixture.disabledQuarantine(), events::add, Duration.ofMinutes(15), 1024, 1000);
+        ReflectionTestUtils.setField(presignedUrls, "bucketName", "test-bucket");
+        return presignedUrls;
+    }
+
+    private void storeCompressed(String key, ContentCodec codec) {
+        s3Client.putObject(PutObjectRequest.builder()
+                .bucket("test-bucket")
+                .key(key)
+                .contentType("text/plain")
+                .metadata(new StoredEncoding(codec, 5).toMetadata())
+                .build(), RequestBody.fromBytes(new byte[3]));
+    }
+}
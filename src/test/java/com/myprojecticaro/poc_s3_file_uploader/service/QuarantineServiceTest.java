@@ -0,0 +1,138 @@
+package com.myprojecticaro.poc_s3_file_uploader.service;
+
+import com.myprojecticaro.poc_s3_file_uploader.io.BufferPool;
+import com.myprojecticaro.poc_s3_file_uploader.metrics.TransferMetrics;
+import com.myprojecticaro.poc_s3_file_uploader.support.InMemoryS3Client;
+import com.myprojecticaro.poc_s3_file_uploader.support.S3ServiceFixture;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class QuarantineServiceTest {
+
+    /** The EICAR test string, kept as hex so this source file is not flagged itself. */
+    private static final byte[] EICAR = HexFormat.of().parseHex("58354f2150254041505b345c505a58353428505e2937434329377d24");
+
+    private final InMemoryS3Client s3Client = new InMemoryS3Client();
+    private final BufferPool bufferPool = new BufferPool(4096, 4);
+    private final List<QuarantineService> services = new ArrayList<>();
+
+    @TempDir
+    Path queueDir;
+
+    @AfterEach
+    void tearDown() {
+        services.forEach(QuarantineService::stop);
+    }
+
+    @Test
+    void cleanUploadsArePromotedAfterTheScan() throws Exception {
+        QuarantineService quarantine = quarantine();
+        byte[] data = "quarterly numbers, nothing to see here".getBytes();
+
+        String url = s3Service(quarantine).uploadFile(new MockMultipartFile("file", "report.txt", "text/plain", data));
+        String key = url.substring(url.lastIndexOf('/') + 1);
+
+        assertThat(awaitScan(quarantine, key).state()).isEqualTo(QuarantineService.State.CLEAN);
+        assertThat(s3Client.object(key).data()).isEqualTo(data);
+        assertThat(s3Client.object(key).contentType()).isEqualTo("text/plain");
+        assertThat(s3Client.objects()).containsOnlyKeys(key);
+        assertThat(jobFiles()).isEmpty();
+    }
+
+    @Test
+    void infectedUploadsAreDeleted() throws Exception {
+        QuarantineService quarantine = quarantine();
+
+        String url = s3Service(quarantine).uploadFile(new MockMultipartFile("file", "notes.txt", "text/plain", EICAR));
+        String key = url.substring(url.lastIndexOf('/') + 1);
+
+        QuarantineService.ScanStatus status = awaitScan(quarantine, key);
+        assertThat(status.state()).isEqualTo(QuarantineService.State.INFECTED);
+        assertThat(status.detail()).isEqualTo("Eicar-Test-Signature");
+        assertThat(s3Client.objects()).isEmpty();
+        assertThat(bufferPool.inUse()).isZero();
+    }
+
+    @Test
+    void uploadsTooLargeForOneCopyArePromotedInParts() throws Exception {
+        QuarantineService quarantine = quarantine();
+        ReflectionTestUtils.setField(quarantine, "multipartCopyThreshold", 16L);
+        ReflectionTestUtils.setField(quarantine, "copyPartSize", 10L);
+        byte[] data = "forty-two bytes of a very large upload....".getBytes();
+
+        String url = s3Service(quarantine).uploadFile(new MockMultipartFile("file", "video.bin", "video/mp4", data));
+        String key = url.substring(url.lastIndexOf('/') + 1);
+
+        assertThat(awaitScan(quarantine, key).state()).isEqualTo(QuarantineService.State.CLEAN);
+        assertThat(s3Client.object(key).data()).isEqualTo(data);
+        assertThat(s3Client.object(key).contentType()).isEqualTo("video/mp4");
+        assertThat(s3Client.uploadPartCopyRequests()).isEqualTo(5);
+        assertThat(s3Client.copyRequests()).isZero();
+        assertThat(s3Client.openMultipartUploads()).isZero();
+        assertThat(s3Client.objects()).containsOnlyKeys(key);
+    }
+
+    @Test
+    void jobsLeftOnDiskAreResumedAtStartup() throws Exception {
+        byte[] data = "uploaded just before the restart".getBytes();
+        s3Client.putObject("quarantine/42_report.txt", data, "text/plain");
+        QuarantineService.Job job = new QuarantineService.Job("interrupted", "quarantine/42_report.txt",
+                "42_report.txt", data.length, "text/plain", null, null, QuarantineService.State.PENDING, 0);
+        try (OutputStream out = Files.newOutputStream(queueDir.resolve("interrupted.job"))) {
+            job.toProperties().store(out, null);
+        }
+
+        QuarantineService quarantine = quarantine();
+        quarantine.resume();
+
+        assertThat(awaitScan(quarantine, "42_report.txt").state()).isEqualTo(QuarantineService.State.CLEAN);
+        assertThat(s3Client.objects()).containsOnlyKeys("42_report.txt");
+        assertThat(jobFiles()).isEmpty();
+    }
+
+    private QuarantineService quarantine() {
+        QuarantineService quarantine = new QuarantineService(s3Client, new AntivirusService(), bufferPool,
+                S3ServiceFixture.disabledIndex(), TransferMetrics.disabled(), event -> { }, true, "quarantine/", 2,
+                queueDir);
+        ReflectionTestUtils.setField(quarantine, "bucketName", "test-bucket");
+        ReflectionTestUtils.setField(quarantine, "retryDelay", Duration.ofMillis(10));
+        services.add(quarantine);
+        return quarantine;
+    }
+
+    private S3Service s3Service(QuarantineService quarantine) {
+        return S3ServiceFixture.on(s3Client).bufferPool(bufferPool).quarantine(quarantine).build();
+    }
+
+    private static QuarantineService.ScanStatus awaitScan(QuarantineService quarantine, String key) throws InterruptedException {
+        long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+        while (System.nanoTime() < deadline) {
+            QuarantineService.ScanStatus status = quarantine.status(key).orElseThrow();
+            if (status.state() != QuarantineService.State.PENDING) {
+                return status;
+            }
+            Thread.sleep(10);
+        }
+        throw new AssertionError("Scan of " + key + " did not finish");
+    }
+
+    private List<Path> jobFiles() throws Exception {
+        try (Stream<Path> files = Files.list(queueDir)) {
+            return files.toList();
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.myprojecticaro.poc_s3_file_uploader.service;
+
+import com.myprojecticaro.poc_s3_file_uploader.metrics.TransferMetrics;
+import com.myprojecticaro.poc_s3_file_uploader.support.InMemoryS3Client;
+import com.myprojecticaro.poc_s3_file_uploader.support.S3ServiceFixture;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ResumableUploadServiceTest {
+
+    private static final int PART_SIZE = 1024;
+
+    private final InMemoryS3Client s3Client = new InMemoryS3Client();
+    private final List<ResumableUploadService> services = new ArrayList<>();
+    private final byte[] file = new byte[3000];
+
+    @TempDir
+    Path sessionDir;
+
+    ResumableUploadServiceTest() {
+        new Random(17).nextBytes(file);
+        file[0] = 0; // never an executable header
+    }
+
+    @AfterEach
+    void tearDown() {
+        services.forEach(ResumableUploadService::stop);
+    }
+
+    @Test
+    void aDroppedChunkResumesFromTheLastCompletePart() throws Exception {
+        ResumableUploadService uploads = service();
+        ResumableUploadService.UploadStatus upload = uploads.create("disk.img", "application/octet-stream", file.length);
+
+        // The connection drops 1500 bytes in: the part in flight is lost, the first one is kept.
+        long stored = uploads.write(upload.id(), 0, new ByteArrayInputStream(file, 0, 1500), -1);
+        assertThat(stored).isEqualTo(PART_SIZE);
+        assertThat(uploads.status(upload.id()).orElseThrow().offset()).isEqualTo(PART_SIZE);
+
+        stored = uploads.write(upload.id(), PART_SIZE, new ByteArrayInputStream(file, PART_SIZE, file.length - PART_SIZE),
+                file.length - PART_SIZE);
+
+        assertThat(stored).isEqualTo(file.length);
+        assertThat(uploads.status(upload.id()).orElseThrow().completed()).isTrue();
+        assertThat(s3Client.object(upload.key()).data()).isEqualTo(file);
+        assertThat(s3Client.openMultipartUploads()).isZero();
+    }
+
+    @Test
+    void chunksMayArriveInAnyOrder() throws Exception {
+        ResumableUploadService uploads = service();
+        ResumableUploadService.UploadStatus upload = uploads.create("disk.img", null, file.length);
+
+        uploads.write(upload.id(), 2 * PART_SIZE, chunk(2 * PART_SIZE, file.length), file.length - 2 * PART_SIZE);
+        assertThat(uploads.status(upload.id()).orElseThrow().offset()).isZero();
+        uploads.write(upload.id(), 0, chunk(0, PART_SIZE), PART_SIZE);
+        assertThat(uploads.status(upload.id()).orElseThrow().offset()).isEqualTo(PART_SIZE);
+        uploads.write(upload.id(), PART_SIZE, chunk(PART_SIZE, 2 * PART_SIZE), PART_SIZE);
+
+        assertThat(s3Client.object(upload.key()).data()).isEqualTo(file);
+    }
+
+    @Test
+    void sessionsSurviveARestart() throws Exception {
+        ResumableUploadService before = service();
+        ResumableUploadService.UploadStatus upload = before.create("disk.img", null, file.length);
+        before.write(upload.id(), 0, chunk(0, 2 * PART_SIZE), 2 * PART_SIZE);
+
+        ResumableUploadService after = service();
+        assertThat(after.status(upload.id()).orElseThrow().offset()).isEqualTo(2 * PART_SIZE);
+        after.write(upload.id(), 2 * PART_SIZE, chunk(2 * PART_SIZE, file.length), file.length - 2 * PART_SIZE);
+
+        assertThat(s3Client.object(upload.key()).data()).isEqualTo(file);
+    }
+
+    @Test
+    void chunksMustStartAtAPartBoundary() throws Exception {
+        ResumableUploadService uploads = service();
+        ResumableUploadService.UploadStatus upload = uploads.create("disk.img", null, file.length);
+
+        assertThatThrownBy(() -> uploads.write(upload.id(), 100, chunk(100, 200), 100))
+                .isInstanceOf(IllegalStateException.class);
+        assertThat(uploads.cancel(upload.id())).isTrue();
+        assertThat(s3Client.openMultipartUploads()).isZero();
+    }
+
+    private ByteArrayInputStream chunk(int from, int to) {
+        return new ByteArrayInputStream(file, from, to - from);
+    }
+
+    private ResumableUploadService service() {
+        ResumableUploadService service = new ResumableUploadService(s3Client, new AntivirusService(),
+                S3ServiceFixture.disabledQuarantine(), TransferMetrics.disabled(), event -> { }, sessionDir);
+        ReflectionTestUtils.setField(service, "bucketName", "test-bucket");
+        ReflectionTestUtils.setField(service, "partSize", (long) PART_SIZE);
+        services.add(service);
+        return service;
+    }
+}
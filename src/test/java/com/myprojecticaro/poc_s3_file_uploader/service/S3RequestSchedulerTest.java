@@ -0,0 +1,201 @@
+package com.myprojecticaro.poc_s3_file_uploader.service;
+
+import com.myprojecticaro.poc_s3_file_uploader.io.MalwareDetectedException;
+import com.myprojecticaro.poc_s3_file_uploader.support.InMemoryS3Client;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class S3RequestSchedulerTest {
+
+    private final ExecutorService clients = Executors.newFixedThreadPool(32);
+    private S3RequestScheduler scheduler;
+
+    @AfterEach
+    void tearDown() {
+        clients.shutdownNow();
+        if (scheduler != null) {
+            scheduler.shutdown();
+        }
+    }
+
+    private static S3RequestScheduler scheduler(boolean hedging, double hedgeBudget) {
+        return new S3RequestScheduler(true, 64, 1, 1024, Duration.ofMillis(2), Duration.ofSeconds(10), 20,
+                Duration.ofMillis(5), Duration.ofMillis(100), hedging, Duration.ofMillis(1), hedgeBudget);
+    }
+
+    @Test
+    void theLimitBacksOffToWhatThePrefixSustainsAndThrottledRequestsAreRetried() throws Exception {
+        InMemoryS3Client s3Client = new InMemoryS3Client()
+                .withLatency(Duration.ofMillis(5))
+                .withSlowDownAbove(8);
+        s3Client.putObject("reports/a.csv", new byte[16], "text/csv");
+        scheduler = scheduler(false, 0);
+        SchedulingS3Client client = new SchedulingS3Client(s3Client, scheduler);
+
+        List<Future<?>> requests = new ArrayList<>();
+        for (int i = 0; i < 640; i++) {
+            requests.add(clients.submit(() ->
+                    client.headObject(HeadObjectRequest.builder().bucket("bucket").key("reports/a.csv").build())));
+        }
+        for (Future<?> request : requests) {
+            request.get();
+        }
+
+        assertThat(scheduler.limit("reports/b.csv")).isLessThanOrEqualTo(16);
+        assertThat(scheduler.limit("other.csv")).isEqualTo(64);
+        assertThat(scheduler.stats().throttled()).isPositive().isEqualTo(s3Client.throttledRequests());
+        assertThat(s3Client.throttledRequests()).isLessThan(640 / 4);
+    }
+
+    @Test
+    void slowGetsAreHedgedAndTheTailComesDown() throws Exception {
+        InMemoryS3Client s3Client = new InMemoryS3Client()
+                .withLatency(Duration.ofMillis(2))
+                .withLatencySpikes(0.03, Duration.ofMillis(300));
+        byte[] data = "hedged".getBytes();
+        s3Client.putObject("images/icon.png", data, "image/png");
+        scheduler = scheduler(true, 0.2);
+        SchedulingS3Client client = new SchedulingS3Client(s3Client, scheduler);
+
+        long[] latencies = new long[300];
+        for (int i = -150; i < latencies.length; i++) {
+            long started = System.nanoTime();
+            try (ResponseInputStream<GetObjectResponse> object = client.getObject(
+                    GetObjectRequest.builder().bucket("bucket").key("images/icon.png").build())) {
+                assertThat(object.readAllBytes()).isEqualTo(data);
+            }
+            if (i >= 0) {
+                latencies[i] = System.nanoTime() - started;
+            }
+        }
+        Arrays.sort(latencies);
+
+        assertThat(Duration.ofNanos(latencies[latencies.length * 99 / 100])).isLessThan(Duration.ofMillis(150));
+        assertThat(scheduler.stats().hedged()).isPositive();
+        assertThat(scheduler.stats().hedgesWon()).isPositive();
+        assertThat(s3Client.getRequests()).isLessThan(450 + 450 / 5 + 1);
+    }
+
+    @Test
+    void clientErrorsAreNeitherRetriedNorHedged() {
+        InMemoryS3Client s3Client = new InMemoryS3Client();
+        scheduler = scheduler(true, 1);
+        SchedulingS3Client client = new SchedulingS3Client(s3Client, scheduler);
+
+        assertThatThrownBy(() -> client.getObject(GetObjectRequest.builder().bucket("bucket").key("missing").build()))
+                .isInstanceOf(NoSuchKeyException.class);
+        assertThat(s3Client.getRequests()).isEqualTo(1);
+        assertThat(scheduler.stats().retried()).isZero();
+    }
+
+    @Test
+    void detectedMalwareIsNotRetried() {
+        scheduler = scheduler(false, 0);
+        AtomicInteger attempts = new AtomicInteger();
+
+        assertThatThrownBy(() -> scheduler.execute("uploads/setup.bin", () -> {
+            attempts.incrementAndGet();
+            throw SdkClientException.create("Unable to execute HTTP request",
+                    new MalwareDetectedException("setup.bin", "PE executable"));
+        })).isInstanceOf(SdkClientException.class);
+        assertThat(attempts).hasValue(1);
+
+        String response = scheduler.execute("uploads/a.bin", () -> {
+            if (attempts.incrementAndGet() < 4) {
+                throw SdkClientException.create("Unable to execute HTTP request", new IOException("Connection reset"));
+            }
+            return "ok";
+        });
+        assertThat(response).isEqualTo("ok");
+        assertThat(scheduler.stats().retried()).isEqualTo(2);
+    }
+
+    @Test
+    void bodiesThatCannotBeReadAgainAreSentOnce() {
+        InMemoryS3Client s3Client = new InMemoryS3Client();
+        scheduler = scheduler(false, 0);
+        SchedulingS3Client client = new SchedulingS3Client(s3Client, scheduler);
+        InputStream dropped = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new IOException("Connection reset by client");
+            }
+        };
+
+        assertThatThrownBy(() -> client.putObject(PutObjectRequest.builder().bucket("bucket").key("uploads/a.bin").build(),
+                SchedulingS3Client.singleUse(dropped, 1024))).isInstanceOf(SdkClientException.class);
+        assertThat(s3Client.putRequests()).isEqualTo(1);
+        assertThat(scheduler.stats().retried()).isZero();
+
+        byte[] data = "replayable".getBytes();
+        client.putObject(PutObjectRequest.builder().bucket("bucket").key("uploads/b.bin").build(),
+                RequestBody.fromBytes(data));
+        assertThat(s3Client.object("uploads/b.bin").data()).isEqualTo(data);
+    }
+
+    @Test
+    void asyncRequestsHoldTheirSlotUntilTheyComplete() {
+        scheduler = new S3RequestScheduler(true, 1, 1, 1, Duration.ofMillis(2), Duration.ofMillis(50), 5,
+                Duration.ofMillis(5), Duration.ofMillis(100), false, Duration.ofMillis(1), 0);
+        CompletableFuture<String> first = new CompletableFuture<>();
+
+        CompletableFuture<String> running = scheduler.executeAsync("uploads/a.bin", () -> first);
+        CompletableFuture<String> waiting = scheduler.executeAsync("uploads/b.bin",
+                () -> CompletableFuture.completedFuture("b"));
+
+        assertThat(waiting).isCompletedExceptionally();
+        first.complete("a");
+        assertThat(running).isCompletedWithValue("a");
+        assertThat(scheduler.executeAsync("uploads/c.bin", () -> CompletableFuture.completedFuture("c")))
+                .isCompletedWithValue("c");
+    }
+
+    @Test
+    void asyncThrottlesLowerTheLimitWithoutBeingRetried() throws Exception {
+        scheduler = scheduler(false, 0);
+        AtomicInteger attempts = new AtomicInteger();
+        scheduler.executeAsync("uploads/a.bin", () -> CompletableFuture.completedFuture("ok")).join();
+        Thread.sleep(5);
+
+        CompletableFuture<Object> throttled = scheduler.executeAsync("uploads/a.bin", () -> {
+            attempts.incrementAndGet();
+            return CompletableFuture.failedFuture(S3Exception.builder().statusCode(503).message("SlowDown").build());
+        });
+
+        assertThat(throttled).isCompletedExceptionally();
+        assertThat(attempts).hasValue(1);
+        assertThat(scheduler.stats().throttled()).isEqualTo(1);
+        assertThat(scheduler.limit("uploads/b.bin")).isEqualTo(32);
+    }
+
+    @Test
+    void keysArePartitionedByTheirLastSlash() {
+        assertThat(S3RequestScheduler.prefix("reports/2026/10/a.csv")).isEqualTo("reports/2026/10/");
+        assertThat(S3RequestScheduler.prefix("1700000000000_a.csv")).isEmpty();
+        assertThat(S3RequestScheduler.prefix(null)).isEmpty();
+    }
+}
@@ -0,0 +1,112 @@
+package com.myprojecticaro.poc_s3_file_uploader.service;
+
+import com.myprojecticaro.poc_s3_file_uploader.io.BufferPool;
+import com.myprojecticaro.poc_s3_file_uploader.support.InMemoryS3AsyncClient;
+import com.myprojecticaro.poc_s3_file_uploader.support.InMemoryS3Client;
+import com.myprojecticaro.poc_s3_file_uploader.support.S3ServiceFixture;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockMultipartFile;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class S3ServiceAsyncTest {
+
+    private final InMemoryS3Client s3Client = new InMemoryS3Client();
+    private final InMemoryS3AsyncClient s3AsyncClient = new InMemoryS3AsyncClient(s3Client);
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+    private final BufferPool bufferPool = new BufferPool(16 * 1024, 4);
+    private S3Service s3Service;
+
+    @BeforeEach
+    void setUp() {
+        s3Service = S3ServiceFixture.on(s3Client)
+                .asyncClient(s3AsyncClient)
+                .bufferPool(bufferPool)
+                .executor(executor)
+                .build();
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void uploadsAreStreamedThroughTheAsyncClient() {
+        byte[] data = letters(100_000);
+
+        String url = s3Service.uploadFileAsync(new MockMultipartFile("file", "a.bin", "application/octet-stream", data))
+                .join();
+
+        String key = url.substring(url.lastIndexOf('/') + 1);
+        assertThat(key).endsWith("_a.bin");
+        assertThat(s3Client.object(key).data()).isEqualTo(data);
+        assertThat(s3AsyncClient.putAttempts()).isEqualTo(1);
+        assertThat(bufferPool.inUse()).isZero();
+    }
+
+    @Test
+    void retriedUploadsSendTheWholeFileAgain() {
+        byte[] data = letters(100_000);
+        s3AsyncClient.failPutAttempts(2);
+
+        String url = s3Service.uploadFileAsync(new MockMultipartFile("file", "retry.bin", "application/octet-stream", data))
+                .join();
+
+        assertThat(s3AsyncClient.putAttempts()).isEqualTo(3);
+        assertThat(s3Client.object(url.substring(url.lastIndexOf('/') + 1)).data()).isEqualTo(data);
+        assertThat(bufferPool.inUse()).isZero();
+    }
+
+    @Test
+    void downloadsAreReadFromTheAsyncClient() throws Exception {
+        byte[] data = letters(50_000);
+        s3Client.putObject("photo.bin", data, "image/png");
+
+        try (ObjectDownload download = s3Service.downloadFileAsync("photo.bin", null).join()) {
+            assertThat(download.contentLength()).isEqualTo(data.length);
+            assertThat(download.contentType()).isEqualTo("image/png");
+            assertThat(download.body().readAllBytes()).isEqualTo(data);
+        }
+        try (ObjectDownload download = s3Service.downloadFileAsync("photo.bin", "bytes=100-199").join()) {
+            assertThat(download.isPartial()).isTrue();
+            assertThat(download.body().readAllBytes()).isEqualTo(Arrays.copyOfRange(data, 100, 200));
+        }
+    }
+
+    @Test
+    void missingFilesFailTheAsyncDownload() {
+        assertThatThrownBy(() -> s3Service.downloadFileAsync("missing.bin", null).join())
+                .isInstanceOf(CompletionException.class)
+                .hasCauseInstanceOf(NoSuchKeyException.class);
+    }
+
+    @Test
+    void deletesGoThroughTheAsyncClient() {
+        s3Client.putObject("old.txt", "old".getBytes(), "text/plain");
+
+        s3Service.deleteFileAsync("old.txt").join();
+
+        assertThat(s3Client.objects()).doesNotContainKey("old.txt");
+    }
+
+    private static byte[] letters(int size) {
+        byte[] data = new byte[size];
+        Random random = new Random(5);
+        for (int i = 0; i < size; i++) {
+            // Printable, so no executable signature can turn up by chance.
+            data[i] = (byte) ('a' + random.nextInt(26));
+        }
+        return data;
+    }
+}
@@ -0,0 +1,79 @@
+package com.myprojecticaro.poc_s3_file_uploader.service;
+
+import com.myprojecticaro.poc_s3_file_uploader.io.BufferPool;
+import com.myprojecticaro.poc_s3_file_uploader.support.InMemoryS3Client;
+import com.myprojecticaro.poc_s3_file_uploader.support.S3ServiceFixture;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class S3ServiceBatchUploadTest {
+
+    private final InMemoryS3Client s3Client = new InMemoryS3Client().withLatency(Duration.ofMillis(100));
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final BufferPool bufferPool = new BufferPool(16 * 1024, 8);
+    private S3Service s3Service;
+
+    @BeforeEach
+    void setUp() {
+        s3Service = S3ServiceFixture.on(s3Client)
+                .bufferPool(bufferPool)
+                .executor(executor)
+                .maxBatchUploadsInFlight(8)
+                .build();
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void filesAreUploadedConcurrentlyUpToTheLimit() throws Exception {
+        MultipartFile[] files = new MultipartFile[32];
+        for (int i = 0; i < files.length; i++) {
+            files[i] = new MockMultipartFile("files", "photo-" + i + ".jpg", "image/jpeg", new byte[1024 + i]);
+        }
+
+        long start = System.nanoTime();
+        List<UploadResult> results = s3Service.uploadFiles(files);
+        Duration elapsed = Duration.ofNanos(System.nanoTime() - start);
+
+        assertThat(results).hasSize(32).allMatch(UploadResult::uploaded);
+        for (int i = 0; i < files.length; i++) {
+            assertThat(results.get(i).filename()).isEqualTo("photo-" + i + ".jpg");
+        }
+        assertThat(s3Client.objects()).hasSize(32);
+        assertThat(s3Client.maxConcurrentPuts()).isEqualTo(8);
+        // Four waves of eight 100ms uploads, against 3.2s one after another.
+        assertThat(elapsed).isLessThan(Duration.ofMillis(1600));
+        assertThat(bufferPool.inUse()).isZero();
+    }
+
+    @Test
+    void rejectedFilesDoNotStopTheOthers() throws Exception {
+        MultipartFile[] files = {
+                new MockMultipartFile("files", "a.txt", "text/plain", "a".getBytes()),
+                new MockMultipartFile("files", "virus.txt", "text/plain", "x".getBytes()),
+                new MockMultipartFile("files", "empty.txt", "text/plain", new byte[0]),
+                new MockMultipartFile("files", "b.txt", "text/plain", "b".getBytes())
+        };
+
+        List<UploadResult> results = s3Service.uploadFiles(files);
+
+        assertThat(results).extracting(UploadResult::uploaded).containsExactly(true, false, false, true);
+        assertThat(results.get(0).url()).startsWith("https://test-bucket.s3.us-east-1.amazonaws.com/");
+        assertThat(results.get(1).error()).isEqualTo("Malicious file detected: virus.txt");
+        assertThat(results.get(2).error()).isEqualTo("Empty files are not allowed.");
+        assertThat(s3Client.objects()).hasSize(2);
+    }
+}
@@ -0,0 +1,155 @@
+package com.myprojecticaro.poc_s3_file_uploader.service;
+
+import com.myprojecticaro.poc_s3_file_uploader.io.BufferPool;
+import com.myprojecticaro.poc_s3_file_uploader.io.ContentCodec;
+import com.myprojecticaro.poc_s3_file_uploader.support.InMemoryS3AsyncClient;
+import com.myprojecticaro.poc_s3_file_uploader.support.InMemoryS3Client;
+import com.myprojecticaro.poc_s3_file_uploader.support.S3ServiceFixture;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class S3ServiceCompressionTest {
+
+    private static final byte[] JSON = StorageCompressionTest.json(5000);
+
+    private final InMemoryS3Client s3Client = new InMemoryS3Client();
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+    private S3Service s3Service;
+
+    @BeforeEach
+    void setUp() {
+        BufferPool bufferPool = new BufferPool(64 * 1024, 8);
+        ParallelDownloadService parallelDownloadService = new ParallelDownloadService(s3Client, executor, bufferPool);
+        ReflectionTestUtils.setField(parallelDownloadService, "enabled", false);
+        s3Service = S3ServiceFixture.on(s3Client)
+                .bufferPool(bufferPool)
+                .parallelDownloads(parallelDownloadService)
+                .multipartUploads(new MultipartUploadService(s3Client, executor, new BufferPool(5 * 1024 * 1024, 4)))
+                .executor(executor)
+                .compression(StorageCompressionTest.compression("zstd"))
+                .build();
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void compressibleUploadsAreStoredCompressedAndDecodedOnDownload() throws Exception {
+        String key = key(s3Service.uploadFile(new MockMultipartFile("file", "orders.json", "application/json", JSON)));
+
+        InMemoryS3Client.StoredObject stored = s3Client.object(key);
+        assertThat(stored.size()).isLessThan(JSON.length / 5);
+        assertThat(stored.contentType()).isEqualTo("application/json");
+        assertThat(StoredEncoding.from(stored.metadata())).isEqualTo(new StoredEncoding(ContentCodec.ZSTD, JSON.length));
+
+        try (ObjectDownload download = s3Service.downloadFile(key, null, "gzip, deflate")) {
+            assertThat(download.isEncoded()).isFalse();
+            assertThat(download.contentLength()).isEqualTo(JSON.length);
+            assertThat(download.body().readAllBytes()).isEqualTo(JSON);
+        }
+        assertThat(s3Service.statFile(key)).get().extracting(FileMetadata::size).isEqualTo((long) JSON.length);
+    }
+
+    @Test
+    void clientsAcceptingTheCodecGetTheStoredBytes() throws Exception {
+        String key = key(s3Service.uploadFile(new MockMultipartFile("file", "orders.json", "application/json", JSON)));
+
+        try (ObjectDownload download = s3Service.downloadFile(key, "bytes=0-99", "gzip, zstd")) {
+            assertThat(download.isEncoded()).isTrue();
+            assertThat(download.isPartial()).isFalse();
+            assertThat(download.body().readAllBytes()).isEqualTo(s3Client.object(key).data());
+        }
+    }
+
+    @Test
+    void rawBodiesAreProbedAndCompressedAsTheyStream() throws Exception {
+        String key = key(s3Service.uploadLargeFile("events.json", "application/json", new ByteArrayInputStream(JSON)));
+
+        assertThat(s3Client.object(key).size()).isLessThan(JSON.length / 5);
+        assertThat(read(s3Service.downloadFile(key, null))).isEqualTo(JSON);
+        // The original length is not recorded, so the stat does not pass off the stored length as it.
+        assertThat(s3Service.statFile(key)).get().extracting(FileMetadata::size).isEqualTo(-1L);
+    }
+
+    @Test
+    void incompressibleAndUntypedUploadsAreStoredAsUploaded() throws Exception {
+        byte[] bytes = new byte[JSON.length];
+        new Random(42).nextBytes(bytes);
+        String random = key(s3Service.uploadFile(new MockMultipartFile("file", "blob.json", "application/json", bytes)));
+        String binary = key(s3Service.uploadFile(
+                new MockMultipartFile("file", "orders.bin", "application/octet-stream", JSON)));
+
+        assertThat(s3Client.object(random).data()).isEqualTo(bytes);
+        assertThat(s3Client.object(binary).data()).isEqualTo(JSON);
+        assertThat(StoredEncoding.from(s3Client.object(random).metadata())).isNull();
+    }
+
+    @Test
+    void concurrentCompressedAsyncUploadsDoNotStarveTheirOwnParts() throws Exception {
+        // Fewer transfer threads than uploads, and small parts, so every upload needs the pool.
+        ExecutorService transfers = Executors.newFixedThreadPool(2);
+        try {
+            S3Service service = S3ServiceFixture.on(s3Client)
+                    .asyncClient(new InMemoryS3AsyncClient(s3Client))
+                    .bufferPool(new BufferPool(16 * 1024, 8))
+                    .multipartUploads(new MultipartUploadService(s3Client, transfers, new BufferPool(16 * 1024, 8)))
+                    .executor(transfers)
+                    .compression(StorageCompressionTest.compression("zstd"))
+                    .build();
+            byte[] lines = numberLines(512 * 1024);
+
+            List<CompletableFuture<String>> uploads = new ArrayList<>();
+            for (int i = 0; i < 6; i++) {
+                uploads.add(service.uploadFileAsync(new MockMultipartFile("file", "lines" + i + ".txt", "text/plain", lines)));
+            }
+            CompletableFuture.allOf(uploads.toArray(CompletableFuture[]::new)).get(30, TimeUnit.SECONDS);
+
+            for (CompletableFuture<String> upload : uploads) {
+                InMemoryS3Client.StoredObject stored = s3Client.object(key(upload.join()));
+                assertThat(StoredEncoding.from(stored.metadata())).isNotNull();
+                assertThat(stored.size()).isGreaterThan(4 * 16 * 1024);
+            }
+        } finally {
+            transfers.shutdownNow();
+        }
+    }
+
+    /** Text that compresses, but not so well that it fits in a single part. */
+    private static byte[] numberLines(int length) {
+        StringBuilder text = new StringBuilder(length);
+        Random random = new Random(9);
+        while (text.length() < length) {
+            text.append(random.nextInt(1_000_000)).append(',').append(random.nextInt(1_000_000)).append('\n');
+        }
+        return text.substring(0, length).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String key(String url) {
+        return url.substring(url.lastIndexOf('/') + 1);
+    }
+
+    private static byte[] read(ObjectDownload download) throws IOException {
+        try (download; InputStream body = download.body()) {
+            return body.readAllBytes();
+        }
+    }
+}
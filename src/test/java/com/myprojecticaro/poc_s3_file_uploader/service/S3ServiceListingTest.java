@@ -0,0 +1,81 @@
+package com.myprojecticaro.poc_s3_file_uploader.service;
+
+import com.myprojecticaro.poc_s3_file_uploader.support.InMemoryS3Client;
+import com.myprojecticaro.poc_s3_file_uploader.support.S3ServiceFixture;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class S3ServiceListingTest {
+
+    private final InMemoryS3Client s3Client = new InMemoryS3Client();
+    private final ExecutorService executor = Executors.newFixedThreadPool(2);
+    private S3Service s3Service;
+
+    @BeforeEach
+    void setUp() {
+        for (int i = 0; i < 2500; i++) {
+            s3Client.putObject(String.format("logs/%04d.log", i), new byte[1], "text/plain");
+        }
+        s3Client.putObject("reports/2025/q1.csv", new byte[3], "text/csv");
+        s3Client.putObject("reports/2025/q2.csv", new byte[3], "text/csv");
+        s3Client.putObject("reports/summary.pdf", new byte[5], "application/pdf");
+
+        s3Service = S3ServiceFixture.on(s3Client).executor(executor).build();
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void listFilesNoLongerStopsAtTheFirstThousandKeys() {
+        assertThat(s3Service.listFiles()).hasSize(2503);
+    }
+
+    @Test
+    void pagesFollowTheContinuationToken() {
+        FileListing first = s3Service.listFiles("logs/", null, null, 1000);
+        FileListing second = s3Service.listFiles("logs/", null, first.nextContinuationToken(), 1000);
+        FileListing third = s3Service.listFiles("logs/", null, second.nextContinuationToken(), 1000);
+
+        assertThat(first.truncated()).isTrue();
+        assertThat(first.files()).hasSize(1000);
+        assertThat(second.files().get(0).key()).isEqualTo("logs/1000.log");
+        assertThat(third.files()).hasSize(500);
+        assertThat(third.truncated()).isFalse();
+        assertThat(third.nextContinuationToken()).isNull();
+    }
+
+    @Test
+    void delimiterRollsKeysUpIntoCommonPrefixes() {
+        FileListing listing = s3Service.listFiles("reports/", "/", null, 1000);
+
+        assertThat(listing.commonPrefixes()).containsExactly("reports/2025/");
+        assertThat(listing.files()).extracting(FileSummary::key).containsExactly("reports/summary.pdf");
+        assertThat(listing.files().get(0).size()).isEqualTo(5);
+    }
+
+    @Test
+    void streamingWalksEveryPageInOrder() throws Exception {
+        List<String> keys = new ArrayList<>();
+        List<Integer> pageSizes = new ArrayList<>();
+
+        s3Service.streamFiles("logs/", null, 300, page -> {
+            pageSizes.add(page.files().size());
+            page.files().forEach(file -> keys.add(file.key()));
+        });
+
+        assertThat(keys).hasSize(2500).isSorted();
+        assertThat(pageSizes).hasSize(9).allMatch(size -> size <= 300);
+        assertThat(s3Client.listRequests()).isEqualTo(9);
+    }
+}
@@ -0,0 +1,60 @@
+package com.myprojecticaro.poc_s3_file_uploader.service;
+
+import com.myprojecticaro.poc_s3_file_uploader.io.BufferPool;
+import com.myprojecticaro.poc_s3_file_uploader.support.InMemoryS3Client;
+import com.myprojecticaro.poc_s3_file_uploader.support.S3ServiceFixture;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.lang.management.ManagementFactory;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class S3ServiceStreamingUploadTest {
+
+    private static final int FILE_SIZE = 64 * 1024 * 1024;
+
+    private InMemoryS3Client s3Client;
+    private BufferPool bufferPool;
+    private S3Service s3Service;
+
+    @BeforeEach
+    void setUp() {
+        s3Client = new InMemoryS3Client(false);
+        bufferPool = new BufferPool(64 * 1024, 4);
+        s3Service = S3ServiceFixture.on(s3Client).bufferPool(bufferPool).build();
+    }
+
+    @Test
+    void streamingUploadAllocatesFarLessThanTheFileSize() throws Exception {
+        MockMultipartFile file = new MockMultipartFile("file", "big.bin", "application/octet-stream", new byte[FILE_SIZE]);
+
+        // Warm up the code path so class loading and SDK initialisation are not measured.
+        s3Service.uploadFile(new MockMultipartFile("file", "warmup.bin", "application/octet-stream", new byte[1024]));
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long before = threads.getCurrentThreadAllocatedBytes();
+        String url = s3Service.uploadFile(file);
+        long allocated = threads.getCurrentThreadAllocatedBytes() - before;
+
+        assertThat(url).startsWith("https://test-bucket.s3.us-east-1.amazonaws.com/");
+        String key = url.substring(url.lastIndexOf('/') + 1);
+        assertThat(s3Client.object(key).size()).isEqualTo(FILE_SIZE);
+        assertThat(allocated).isLessThan(4L * 1024 * 1024);
+        assertThat(bufferPool.inUse()).isZero();
+    }
+
+    @Test
+    void bufferedModeStillUploadsTheWholeFile() throws Exception {
+        ReflectionTestUtils.setField(s3Service, "streamingUpload", false);
+        MockMultipartFile file = new MockMultipartFile("file", "small.txt", "text/plain", "hello".getBytes());
+
+        String url = s3Service.uploadFile(file);
+
+        String key = url.substring(url.lastIndexOf('/') + 1);
+        assertThat(s3Client.object(key).size()).isEqualTo(5);
+        assertThat(s3Client.object(key).contentType()).isEqualTo("text/plain");
+    }
+}
@@ -0,0 +1,125 @@
+package com.myprojecticaro.poc_s3_file_uploader.service;
+
+import com.myprojecticaro.poc_s3_file_uploader.io.BufferPool;
+import com.myprojecticaro.poc_s3_file_uploader.support.InMemoryS3Client;
+import com.myprojecticaro.poc_s3_file_uploader.support.S3ServiceFixture;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class S3ServiceZipUploadTest {
+
+    private static final int PART_SIZE = 5 * 1024 * 1024;
+
+    private final InMemoryS3Client s3Client = new InMemoryS3Client();
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+    private final ForkJoinPool compressionPool = new ForkJoinPool(2);
+    private final BufferPool partBufferPool = new BufferPool(PART_SIZE, 3);
+    private ZipService zipService;
+    private S3Service s3Service;
+
+    @BeforeEach
+    void setUp() {
+        zipService = new ZipService(compressionPool);
+        s3Service = S3ServiceFixture.on(s3Client)
+                .bufferPool(new BufferPool(64 * 1024, 4))
+                .multipartUploads(new MultipartUploadService(s3Client, executor, partBufferPool))
+                .executor(executor)
+                .build();
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+        compressionPool.shutdownNow();
+    }
+
+    @Test
+    void theArchiveIsUploadedInPartsWhileItIsWritten() throws Exception {
+        MultipartFile[] files = {
+                file("a.bin", 6 * 1024 * 1024, 1),
+                file("b.bin", 5 * 1024 * 1024, 2),
+                file("c.txt", 0, 3)
+        };
+
+        String url = s3Service.uploadZip("bundle.zip", out -> zipService.zipFiles(files, out));
+
+        assertThat(url).endsWith("/bundle.zip");
+        InMemoryS3Client.StoredObject stored = s3Client.object("bundle.zip");
+        assertThat(stored.contentType()).isEqualTo("application/zip");
+        assertThat(s3Client.uploadPartRequests()).isEqualTo((int) ((stored.size() + PART_SIZE - 1) / PART_SIZE));
+        assertThat(s3Client.uploadPartRequests()).isGreaterThanOrEqualTo(3);
+        assertEntries(stored.data(), files);
+        assertThat(partBufferPool.inUse()).isZero();
+    }
+
+    @Test
+    void theSerialWriterProducesTheSameEntries() throws Exception {
+        ReflectionTestUtils.setField(zipService, "parallel", false);
+        MultipartFile[] files = {file("a.bin", 6 * 1024 * 1024, 1), file("b.txt", 1000, 2)};
+
+        s3Service.uploadZip("serial.zip", out -> zipService.zipFiles(files, out));
+
+        assertThat(s3Client.uploadPartRequests()).isEqualTo(2);
+        assertEntries(s3Client.object("serial.zip").data(), files);
+    }
+
+    @Test
+    void aFailingWriterAbortsTheUpload() {
+        byte[] chunk = new byte[PART_SIZE + 1];
+
+        assertThatThrownBy(() -> s3Service.uploadZip("broken.zip", out -> {
+            out.write(chunk);
+            throw new IOException("Source file went away");
+        })).isInstanceOf(IOException.class).hasMessage("Source file went away");
+
+        // The full part may be aborted before it is sent, but nothing is left behind either way.
+        assertThat(s3Client.uploadPartRequests()).isLessThanOrEqualTo(1);
+        assertThat(s3Client.openMultipartUploads()).isZero();
+        assertThat(s3Client.objects()).doesNotContainKey("broken.zip");
+    }
+
+    private static MultipartFile file(String name, int size, long seed) {
+        byte[] content = new byte[size];
+        new Random(seed).nextBytes(content);
+        return new MockMultipartFile("files", name, "application/octet-stream", content);
+    }
+
+    private static void assertEntries(byte[] zip, MultipartFile[] files) throws IOException {
+        Map<String, byte[]> entries = unzip(zip);
+        assertThat(entries.keySet()).containsExactly(
+                Arrays.stream(files).map(MultipartFile::getOriginalFilename).toArray(String[]::new));
+        for (MultipartFile file : files) {
+            assertThat(entries.get(file.getOriginalFilename())).isEqualTo(file.getBytes());
+        }
+    }
+
+    private static Map<String, byte[]> unzip(byte[] zip) throws IOException {
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(zip))) {
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                entries.put(entry.getName(), in.readAllBytes());
+            }
+        }
+        return entries;
+    }
+}
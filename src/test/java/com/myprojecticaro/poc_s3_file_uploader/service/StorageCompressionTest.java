@@ -0,0 +1,104 @@
+package com.myprojecticaro.poc_s3_file_uploader.service;
+
+import com.myprojecticaro.poc_s3_file_uploader.io.ContentCodec;
+import com.myprojecticaro.poc_s3_file_uploader.support.S3ServiceFixture;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockMultipartFile;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StorageCompressionTest {
+
+    private final StorageCompression compression = compression("zstd");
+
+    static StorageCompression compression(String codec) {
+        return new StorageCompression(true, codec, 0, 1024, 65536, 0.9,
+                new String[]{"text/*", "application/json"});
+    }
+
+    static byte[] json(int records) {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < records; i++) {
+            json.append("{\"id\":").append(i).append(",\"status\":\"active\",\"region\":\"us-east-1\"},");
+        }
+        return json.append("{}]").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void compressibleContentOfACompressibleTypeIsSelected() throws Exception {
+        assertThat(compression.choose(new MockMultipartFile("file", "orders.json", "application/json", json(1000))))
+                .isEqualTo(ContentCodec.ZSTD);
+        assertThat(compression("gzip").choose(new MockMultipartFile("file", "orders.csv", "text/csv; charset=utf-8",
+                json(1000)))).isEqualTo(ContentCodec.GZIP);
+    }
+
+    @Test
+    void theProbeSkipsContentThatDoesNotShrink() throws Exception {
+        byte[] random = new byte[100_000];
+        new Random(42).nextBytes(random);
+
+        assertThat(compression.choose(new MockMultipartFile("file", "blob.json", "application/json", random))).isNull();
+    }
+
+    @Test
+    void otherTypesSmallFilesAndCompressedFormatsAreStoredAsUploaded() throws Exception {
+        byte[] gzipMagic = json(1000);
+        gzipMagic[0] = 0x1F;
+        gzipMagic[1] = (byte) 0x8B;
+
+        assertThat(compression.choose(new MockMultipartFile("file", "a.bin", "application/octet-stream", json(1000))))
+                .isNull();
+        assertThat(compression.choose(new MockMultipartFile("file", "a.json", "application/json", json(2)))).isNull();
+        assertThat(compression.choose(new MockMultipartFile("file", "a.json", "application/json", gzipMagic))).isNull();
+        assertThat(S3ServiceFixture.disabledCompression().choose(new MockMultipartFile("file", "a.json", "application/json", json(1000))))
+                .isNull();
+    }
+
+    @Test
+    void codecsRoundTripAndLeaveTheDestinationOpen() throws Exception {
+        for (ContentCodec codec : ContentCodec.values()) {
+            ByteArrayOutputStream stored = new ByteArrayOutputStream();
+            boolean[] closed = new boolean[1];
+            OutputStream destination = new OutputStream() {
+                @Override
+                public void write(int b) {
+                    stored.write(b);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) {
+                    stored.write(b, off, len);
+                }
+
+                @Override
+                public void close() {
+                    closed[0] = true;
+                }
+            };
+            try (OutputStream encoder = codec.encoding(destination, 0)) {
+                encoder.write(json(1000));
+            }
+            try (InputStream decoded = codec.decoding(new ByteArrayInputStream(stored.toByteArray()))) {
+                assertThat(decoded.readAllBytes()).isEqualTo(json(1000));
+            }
+            assertThat(closed[0]).isFalse();
+            assertThat(stored.size()).isLessThan(json(1000).length / 5);
+        }
+    }
+
+    @Test
+    void acceptEncodingIsMatchedByTokenAndQuality() {
+        assertThat(ContentCodec.ZSTD.isAcceptedBy("gzip, deflate, br, zstd")).isTrue();
+        assertThat(ContentCodec.GZIP.isAcceptedBy("GZIP;q=0.5")).isTrue();
+        assertThat(ContentCodec.GZIP.isAcceptedBy("*")).isTrue();
+        assertThat(ContentCodec.ZSTD.isAcceptedBy("gzip, zstd;q=0")).isFalse();
+        assertThat(ContentCodec.ZSTD.isAcceptedBy(null)).isFalse();
+    }
+}
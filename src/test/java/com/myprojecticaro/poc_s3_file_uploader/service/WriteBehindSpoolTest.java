@@ -0,0 +1,198 @@
+package com.myprojecticaro.poc_s3_file_uploader.service;
+
+import com.myprojecticaro.poc_s3_file_uploader.io.BufferPool;
+import com.myprojecticaro.poc_s3_file_uploader.support.InMemoryS3Client;
+import com.myprojecticaro.poc_s3_file_uploader.support.S3ServiceFixture;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class WriteBehindSpoolTest {
+
+    private final InMemoryS3Client s3Client = new InMemoryS3Client();
+    private final BufferPool bufferPool = new BufferPool(4096, 4);
+    private final List<WriteBehindSpool> spools = new ArrayList<>();
+
+    @TempDir
+    Path spoolDir;
+
+    @AfterEach
+    void tearDown() {
+        spools.forEach(WriteBehindSpool::stop);
+    }
+
+    @Test
+    void uploadsAreServedFromTheSpoolUntilTheyAreDrainedToS3() throws Exception {
+        WriteBehindSpool spool = spool(8192);
+        S3Service s3Service = s3Service(spool);
+        byte[] data = new byte[6000];
+        Arrays.fill(data, (byte) 'a');
+
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            String url = s3Service.uploadFile(new MockMultipartFile("file", i + ".txt", "text/plain", data));
+            keys.add(url.substring(url.lastIndexOf('/') + 1));
+        }
+
+        assertThat(s3Client.objects()).isEmpty();
+        assertThat(spool.backlog()).isEqualTo(3);
+        assertThat(s3Service.statFile(keys.get(0)).orElseThrow().size()).isEqualTo(data.length);
+        try (ObjectDownload download = s3Service.downloadFile(keys.get(0), "bytes=0-9")) {
+            assertThat(download.contentType()).isEqualTo("text/plain");
+            assertThat(download.body().readAllBytes()).isEqualTo(data);
+        }
+
+        spool.start();
+
+        // Each upload filled a segment of its own; only the one still being appended to is kept.
+        await(() -> spool.backlog() == 0 && segmentCount() == 1);
+        assertThat(s3Client.objects()).containsOnlyKeys(keys);
+        assertThat(s3Client.object(keys.get(2)).data()).isEqualTo(data);
+        assertThat(spool.backlogBytes()).isZero();
+        assertThat(bufferPool.inUse()).isZero();
+    }
+
+    @Test
+    void uploadsLeftInTheSpoolAreDrainedAfterARestartAndTornRecordsAreSkipped() throws Exception {
+        WriteBehindSpool crashed = spool(1 << 20);
+        crashed.append("1_kept.txt", "text/plain", 13, new ByteArrayInputStream("kept content!".getBytes()));
+        crashed.append("2_torn.txt", "text/plain", 13, new ByteArrayInputStream("torn content!".getBytes()));
+        crashed.stop();
+        corrupt("torn content!");
+
+        WriteBehindSpool restarted = spool(1 << 20);
+        assertThat(restarted.backlog()).isEqualTo(1);
+        assertThat(restarted.stat("2_torn.txt")).isEmpty();
+        restarted.start();
+
+        await(() -> restarted.backlog() == 0);
+        assertThat(s3Client.objects()).containsOnlyKeys("1_kept.txt");
+        assertThat(s3Client.object("1_kept.txt").data()).isEqualTo("kept content!".getBytes());
+    }
+
+    @Test
+    void failedUploadsAreRetriedUntilS3TakesThem() throws Exception {
+        WriteBehindSpool spool = spool(1 << 20);
+        s3Client.withSlowDownAbove(0);
+        spool.append("1_report.csv", "text/csv", 5, new ByteArrayInputStream("a,b,c".getBytes()));
+        spool.start();
+
+        await(() -> s3Client.throttledRequests() >= 3);
+        assertThat(spool.backlog()).isEqualTo(1);
+        s3Client.withSlowDownAbove(Integer.MAX_VALUE);
+
+        await(() -> spool.backlog() == 0);
+        assertThat(s3Client.object("1_report.csv").data()).isEqualTo("a,b,c".getBytes());
+    }
+
+    @Test
+    void filesDeletedBeforeTheyAreDrainedAreNeverUploaded() throws Exception {
+        WriteBehindSpool spool = spool(1 << 20);
+        spool.append("1_draft.txt", "text/plain", 5, new ByteArrayInputStream("draft".getBytes()));
+        spool.append("2_final.txt", "text/plain", 5, new ByteArrayInputStream("final".getBytes()));
+
+        spool.onObjectChanged(ObjectChangedEvent.deleted("1_draft.txt"));
+        assertThat(spool.open("1_draft.txt")).isNull();
+        spool.start();
+
+        await(() -> spool.backlog() == 0);
+        assertThat(s3Client.objects()).containsOnlyKeys("2_final.txt");
+    }
+
+    @Test
+    void anUploadSupersededWhileItIsDrainedDoesNotDeleteTheKey() throws Exception {
+        WriteBehindSpool spool = spool(1 << 20);
+        s3Client.withLatency(Duration.ofMillis(200));
+        spool.start();
+        spool.append("1_notes.txt", "text/plain", 5, new ByteArrayInputStream("first".getBytes()));
+        await(() -> s3Client.putRequests() == 1);
+
+        spool.append("1_notes.txt", "text/plain", 6, new ByteArrayInputStream("second".getBytes()));
+
+        await(() -> spool.backlog() == 0 && s3Client.putRequests() == 2);
+        assertThat(s3Client.deleteRequests()).isZero();
+        assertThat(s3Client.object("1_notes.txt").data()).isEqualTo("second".getBytes());
+    }
+
+    @Test
+    void uploadsTooLargeForOnePutAreNotSpooled() {
+        WriteBehindSpool spool = spool(1 << 20, 4 * WriteBehindSpool.MAX_PUT_SIZE);
+
+        assertThat(spool.hasRoomFor(WriteBehindSpool.MAX_PUT_SIZE)).isTrue();
+        assertThat(spool.hasRoomFor(WriteBehindSpool.MAX_PUT_SIZE + 1)).isFalse();
+    }
+
+    private WriteBehindSpool spool(long segmentSize) {
+        return spool(segmentSize, 1 << 20);
+    }
+
+    private WriteBehindSpool spool(long segmentSize, long maxBytes) {
+        WriteBehindSpool spool = new WriteBehindSpool(s3Client, bufferPool, event -> { }, true, spoolDir,
+                segmentSize, maxBytes, 4, 2, Duration.ofMillis(20));
+        ReflectionTestUtils.setField(spool, "bucketName", "test-bucket");
+        spools.add(spool);
+        return spool;
+    }
+
+    private S3Service s3Service(WriteBehindSpool spool) {
+        return S3ServiceFixture.on(s3Client).bufferPool(bufferPool).spool(spool).build();
+    }
+
+    /** Flips a byte of {@code content} where it is stored, as a crash in the middle of its append would. */
+    private void corrupt(String content) throws Exception {
+        Path segment = segments().get(0);
+        byte[] bytes = Files.readAllBytes(segment);
+        byte[] needle = content.getBytes();
+        for (int i = 0; i + needle.length <= bytes.length; i++) {
+            if (Arrays.equals(bytes, i, i + needle.length, needle, 0, needle.length)) {
+                try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+                    channel.write(ByteBuffer.wrap(new byte[]{0}), i + 1);
+                }
+                return;
+            }
+        }
+        throw new AssertionError(content + " is not in the spool");
+    }
+
+    private List<Path> segments() throws Exception {
+        try (Stream<Path> files = Files.list(spoolDir)) {
+            return files.sorted().toList();
+        }
+    }
+
+    private int segmentCount() {
+        try {
+            return segments().size();
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+        while (System.nanoTime() < deadline) {
+            if (condition.getAsBoolean()) {
+                return;
+            }
+            Thread.sleep(10);
+        }
+        throw new AssertionError("Condition not met within 5 seconds");
+    }
+}
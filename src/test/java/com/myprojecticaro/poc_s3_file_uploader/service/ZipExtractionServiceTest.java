@@ -0,0 +1,263 @@
+package com.myprojecticaro.poc_s3_file_uploader.service;
+
+import com.myprojecticaro.poc_s3_file_uploader.io.BufferPool;
+import com.myprojecticaro.poc_s3_file_uploader.support.InMemoryS3Client;
+import com.myprojecticaro.poc_s3_file_uploader.support.S3ServiceFixture;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ZipExtractionServiceTest {
+
+    private final InMemoryS3Client s3Client = new InMemoryS3Client();
+    private final ExecutorService executor = Executors.newFixedThreadPool(8);
+    private final ExecutorService writers = Executors.newVirtualThreadPerTaskExecutor();
+    private final List<ExtractionResult> results = new ArrayList<>();
+
+    @TempDir
+    Path stagingDir;
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+        writers.shutdownNow();
+    }
+
+    @Test
+    void entriesAreExtractedUnderThePrefixAndStreamedBackAsTheyComplete() throws Exception {
+        byte[] report = text(200_000);
+        byte[] data = new byte[50_000];
+        new Random(7).nextBytes(data);
+        byte[] readme = "read me first".getBytes();
+
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(archive)) {
+            putDeflatedWithSizes(zip, "reports/2026/q3.csv", report);
+            putStored(zip, "data.bin", data);
+            zip.putNextEntry(new ZipEntry("docs/"));
+            zip.closeEntry();
+            // No sizes set: written with a data descriptor, so it is inflated while read.
+            zip.putNextEntry(new ZipEntry("docs/README.txt"));
+            zip.write(readme);
+            zip.closeEntry();
+            zip.putNextEntry(new ZipEntry("../escape.txt"));
+            zip.write("nope".getBytes());
+            zip.closeEntry();
+        }
+
+        ZipExtractionService.ExtractionSummary summary = service()
+                .extract(new ByteArrayInputStream(archive.toByteArray()), "site/", results::add);
+
+        assertThat(summary).isEqualTo(new ZipExtractionService.ExtractionSummary(3, 1, null));
+        assertThat(s3Client.objects()).containsOnlyKeys("site/reports/2026/q3.csv", "site/data.bin", "site/docs/README.txt");
+        assertThat(s3Client.object("site/reports/2026/q3.csv").data()).isEqualTo(report);
+        assertThat(s3Client.object("site/reports/2026/q3.csv").contentType()).isEqualTo("text/csv");
+        assertThat(s3Client.object("site/data.bin").data()).isEqualTo(data);
+        assertThat(s3Client.object("site/docs/README.txt").data()).isEqualTo(readme);
+        assertThat(results).extracting(ExtractionResult::entry)
+                .containsExactlyInAnyOrder("reports/2026/q3.csv", "data.bin", "docs/README.txt", "../escape.txt");
+        assertThat(results).filteredOn(result -> !result.extracted())
+                .singleElement()
+                .satisfies(result -> assertThat(result.key()).isNull());
+        assertThat(stagedFiles()).isEmpty();
+    }
+
+    @Test
+    void zipBombsAreStoppedBeforeTheyAreInflated() throws Exception {
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(archive)) {
+            putStored(zip, "first.txt", "stored before the bomb".getBytes());
+            putDeflatedWithSizes(zip, "bomb.bin", new byte[64 * 1024 * 1024]);
+        }
+
+        ZipExtractionService.ExtractionSummary summary = service()
+                .extract(new ByteArrayInputStream(archive.toByteArray()), "x/", results::add);
+
+        assertThat(summary.error()).isEqualTo("Entry bomb.bin expands more than 100 times");
+        assertThat(summary.extracted()).isEqualTo(1);
+        assertThat(s3Client.objects()).containsOnlyKeys("x/first.txt");
+    }
+
+    @Test
+    void entriesWithoutDeclaredSizesAreHeldToTheLimitsWhileInflating() throws Exception {
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(archive)) {
+            zip.putNextEntry(new ZipEntry("bomb.bin"));
+            zip.write(new byte[64 * 1024 * 1024]);
+            zip.closeEntry();
+        }
+
+        ZipExtractionService.ExtractionSummary summary = service()
+                .extract(new ByteArrayInputStream(archive.toByteArray()), "x/", results::add);
+
+        assertThat(summary.error()).isEqualTo("Entry bomb.bin expands more than 100 times");
+        assertThat(s3Client.objects()).isEmpty();
+        assertThat(stagedFiles()).isEmpty();
+    }
+
+    @Test
+    void entriesAreHeldToTheFileNameRules() throws Exception {
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(archive)) {
+            putStored(zip, "tools/setup.exe", "MZ".getBytes());
+            putStored(zip, "notes.txt", "fine".getBytes());
+        }
+
+        ZipExtractionService.ExtractionSummary summary = service()
+                .extract(new ByteArrayInputStream(archive.toByteArray()), "x/", results::add);
+
+        assertThat(summary).isEqualTo(new ZipExtractionService.ExtractionSummary(1, 1, null));
+        assertThat(s3Client.objects()).containsOnlyKeys("x/notes.txt");
+        assertThat(s3Client.openMultipartUploads()).isZero();
+    }
+
+    @Test
+    void theTotalSizeOfTheArchiveIsCapped() throws Exception {
+        ZipExtractionService service = service();
+        ReflectionTestUtils.setField(service, "maxTotalSize", 100_000L);
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(archive)) {
+            putStored(zip, "a.txt", text(60_000));
+            putStored(zip, "b.txt", text(60_000));
+        }
+
+        ZipExtractionService.ExtractionSummary summary = service
+                .extract(new ByteArrayInputStream(archive.toByteArray()), "x/", results::add);
+
+        assertThat(summary).isEqualTo(new ZipExtractionService.ExtractionSummary(1, 0,
+                "The archive expands to more than 100000 bytes"));
+    }
+
+    @Test
+    void concurrentExtractionsDoNotStarveTheTransferExecutorOfTheirParts() throws Exception {
+        ExecutorService transfers = Executors.newFixedThreadPool(2);
+        ExecutorService callers = Executors.newFixedThreadPool(3);
+        try {
+            ZipExtractionService service = service(transfers);
+            // Two parts per entry, and more entries in flight than the transfer executor has threads.
+            byte[] content = text(5 * 1024 * 1024 + 1024);
+            ByteArrayOutputStream archive = new ByteArrayOutputStream();
+            try (ZipOutputStream zip = new ZipOutputStream(archive)) {
+                putStored(zip, "a.txt", content);
+                putStored(zip, "b.txt", content);
+            }
+
+            List<Future<ZipExtractionService.ExtractionSummary>> extractions = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                String prefix = "run" + i + "/";
+                extractions.add(callers.submit(() -> service.extract(
+                        new ByteArrayInputStream(archive.toByteArray()), prefix, result -> { })));
+            }
+
+            for (Future<ZipExtractionService.ExtractionSummary> extraction : extractions) {
+                assertThat(extraction.get(30, TimeUnit.SECONDS))
+                        .isEqualTo(new ZipExtractionService.ExtractionSummary(2, 0, null));
+            }
+            assertThat(s3Client.objects()).hasSize(6);
+            assertThat(s3Client.object("run2/b.txt").data()).isEqualTo(content);
+        } finally {
+            transfers.shutdownNow();
+            callers.shutdownNow();
+        }
+    }
+
+    @Test
+    void entryNamesAreKeptBelowThePrefix() {
+        assertThat(ZipExtractionService.entryKey("p/", "a/./b//c.txt")).isEqualTo("p/a/b/c.txt");
+        assertThat(ZipExtractionService.entryKey("p/", "/abs\\win.txt")).isEqualTo("p/abs/win.txt");
+        assertThat(ZipExtractionService.entryKey("p/", "a/../../etc/passwd")).isNull();
+        assertThat(ZipExtractionService.entryKey("p/", "./")).isNull();
+    }
+
+    private ZipExtractionService service() {
+        return service(executor);
+    }
+
+    private ZipExtractionService service(ExecutorService transfers) {
+        BufferPool bufferPool = new BufferPool(4096, 8);
+        S3Service s3Service = S3ServiceFixture.on(s3Client)
+                .bufferPool(bufferPool)
+                .multipartUploads(new MultipartUploadService(s3Client, transfers, new BufferPool(5 * 1024 * 1024, 8)))
+                .executor(transfers)
+                .build();
+
+        ZipExtractionService service = new ZipExtractionService(s3Service, writers, 4);
+        ReflectionTestUtils.setField(service, "stagingDir", stagingDir);
+        ReflectionTestUtils.setField(service, "memoryThreshold", 16 * 1024);
+        ReflectionTestUtils.setField(service, "maxInFlight", 2);
+        return service;
+    }
+
+    /** Writes a deflated entry with its sizes in the local header, as most zip tools do. */
+    private static void putDeflatedWithSizes(ZipOutputStream zip, String name, byte[] content) throws Exception {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        deflater.setInput(content);
+        deflater.finish();
+        byte[] buffer = new byte[64 * 1024];
+        long compressed = 0;
+        while (!deflater.finished()) {
+            compressed += deflater.deflate(buffer);
+        }
+        deflater.end();
+
+        ZipEntry entry = new ZipEntry(name);
+        entry.setSize(content.length);
+        entry.setCompressedSize(compressed);
+        entry.setCrc(crc(content));
+        zip.putNextEntry(entry);
+        zip.write(content);
+        zip.closeEntry();
+    }
+
+    private static void putStored(ZipOutputStream zip, String name, byte[] content) throws Exception {
+        ZipEntry entry = new ZipEntry(name);
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(content.length);
+        entry.setCompressedSize(content.length);
+        entry.setCrc(crc(content));
+        zip.putNextEntry(entry);
+        zip.write(content);
+        zip.closeEntry();
+    }
+
+    private static long crc(byte[] content) {
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        return crc.getValue();
+    }
+
+    private static byte[] text(int length) {
+        StringBuilder text = new StringBuilder(length);
+        Random random = new Random(42);
+        while (text.length() < length) {
+            text.append(random.nextInt(1_000_000)).append(',').append(random.nextInt(100)).append('\n');
+        }
+        return text.substring(0, length).getBytes();
+    }
+
+    private List<Path> stagedFiles() throws Exception {
+        try (Stream<Path> files = Files.list(stagingDir)) {
+            return files.toList();
+        }
+    }
+}
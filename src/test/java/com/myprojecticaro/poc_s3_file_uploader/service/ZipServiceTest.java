@@ -0,0 +1,105 @@
+package com.myprojecticaro.poc_s3_file_uploader.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ZipServiceTest {
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private final ForkJoinPool pool = new ForkJoinPool(4);
+
+    @AfterEach
+    void tearDown() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    void parallelArchiveIsReadableAsAStreamAndThroughTheCentralDirectory() throws Exception {
+        StringBuilder text = new StringBuilder();
+        Random random = new Random(3);
+        while (text.length() < 10 * CHUNK_SIZE) {
+            text.append("line ").append(random.nextInt(1000)).append(" of a compressible text file\n");
+        }
+        byte[] image = new byte[3 * CHUNK_SIZE];
+        random.nextBytes(image);
+        image[0] = (byte) 0xFF;
+        image[1] = (byte) 0xD8;
+        image[2] = (byte) 0xFF;
+
+        MultipartFile[] files = {
+                new MockMultipartFile("files", "notes.txt", "text/plain", text.toString().getBytes(StandardCharsets.UTF_8)),
+                new MockMultipartFile("files", "photo.bin", null, image),
+                new MockMultipartFile("files", "empty.txt", "text/plain", new byte[0]),
+                new MockMultipartFile("files", "relatório.csv", "text/csv", new byte[2 * CHUNK_SIZE])
+        };
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new ParallelZipWriter(pool, 6, CHUNK_SIZE, 3).write(files, out);
+        byte[] zip = out.toByteArray();
+
+        List<ZipEntry> entries = new ArrayList<>();
+        try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(zip))) {
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                assertThat(in.readAllBytes()).isEqualTo(files[entries.size()].getBytes());
+                entries.add(entry);
+            }
+        }
+        assertThat(entries).extracting(ZipEntry::getName)
+                .containsExactly("notes.txt", "photo.bin", "empty.txt", "relatório.csv");
+        assertThat(entries).extracting(ZipEntry::getMethod)
+                .containsExactly(ZipEntry.DEFLATED, ZipEntry.STORED, ZipEntry.DEFLATED, ZipEntry.DEFLATED);
+
+        Path file = Files.createTempFile("parallel", ".zip");
+        try {
+            Files.write(file, zip);
+            try (ZipFile zipFile = new ZipFile(file.toFile())) {
+                for (MultipartFile source : files) {
+                    ZipEntry entry = zipFile.getEntry(source.getOriginalFilename());
+                    assertThat(zipFile.getInputStream(entry).readAllBytes()).isEqualTo(source.getBytes());
+                }
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    void parallelArchiveIsNoLargerThanTheSerialOne() throws Exception {
+        StringBuilder text = new StringBuilder();
+        Random random = new Random(11);
+        while (text.length() < 4 * 1024 * 1024) {
+            text.append("line ").append(random.nextInt(1000)).append(" of a compressible text file\n");
+        }
+        MultipartFile[] files = {new MockMultipartFile("files", "lines.txt", "text/plain",
+                text.toString().getBytes(StandardCharsets.UTF_8))};
+
+        ZipService zipService = new ZipService(pool);
+        ByteArrayOutputStream serial = new ByteArrayOutputStream();
+        zipService.zipFilesSerially(files, serial);
+        ByteArrayOutputStream parallel = new ByteArrayOutputStream();
+        new ParallelZipWriter(pool, 6, CHUNK_SIZE, 8).write(files, parallel);
+
+        // Priming each chunk with the previous 32KB keeps the ratio close to a single deflate stream:
+        // what is left is one block header and sync marker per chunk.
+        assertThat((double) parallel.size()).isLessThanOrEqualTo(serial.size() * 1.01);
+    }
+}
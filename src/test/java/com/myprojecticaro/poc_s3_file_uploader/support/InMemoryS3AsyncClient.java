@@ -0,0 +1,135 @@
+package com.myprojecticaro.poc_s3_file_uploader.support;
+
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import software.amazon.awssdk.core.ResponseBytes;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.core.async.AsyncResponseTransformer;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.core.sync.ResponseTransformer;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.CopyObjectRequest;
+import software.amazon.awssdk.services.s3.model.CopyObjectResponse;
+import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectResponse;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectResponse;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Async view of an {@link InMemoryS3Client}: both clients share the same objects,
+ * so tests can mix sync and async code paths.
+ */
+public class InMemoryS3AsyncClient implements S3AsyncClient {
+
+    private final InMemoryS3Client delegate;
+    private final AtomicInteger failingPutAttempts = new AtomicInteger();
+    private final AtomicInteger putAttempts = new AtomicInteger();
+
+    public InMemoryS3AsyncClient(InMemoryS3Client delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * Makes the next {@code count} PutObject attempts fail after their body has been read,
+     * after which the request is retried, as the SDK does, by subscribing to the body again.
+     */
+    public void failPutAttempts(int count) {
+        failingPutAttempts.set(count);
+    }
+
+    /** @return PutObject attempts, retries included */
+    public int putAttempts() {
+        return putAttempts.get();
+    }
+
+    @Override
+    public CompletableFuture<PutObjectResponse> putObject(PutObjectRequest request, AsyncRequestBody body) {
+        return read(body).thenCompose(bytes -> {
+            if (failingPutAttempts.getAndUpdate(remaining -> Math.max(0, remaining - 1)) > 0) {
+                return putObject(request, body);
+            }
+            return CompletableFuture.completedFuture(delegate.putObject(request, RequestBody.fromBytes(bytes)));
+        });
+    }
+
+    private CompletableFuture<byte[]> read(AsyncRequestBody body) {
+        putAttempts.incrementAndGet();
+        CompletableFuture<byte[]> content = new CompletableFuture<>();
+        body.subscribe(new Subscriber<ByteBuffer>() {
+
+            private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+            @Override
+            public void onSubscribe(Subscription subscription) {
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(ByteBuffer buffer) {
+                byte[] chunk = new byte[buffer.remaining()];
+                buffer.get(chunk);
+                out.writeBytes(chunk);
+            }
+
+            @Override
+            public void onError(Throwable error) {
+                content.completeExceptionally(error);
+            }
+
+            @Override
+            public void onComplete() {
+                content.complete(out.toByteArray());
+            }
+        });
+        return content;
+    }
+
+    @Override
+    public <ReturnT> CompletableFuture<ReturnT> getObject(GetObjectRequest request,
+                                                          AsyncResponseTransformer<GetObjectResponse, ReturnT> transformer) {
+        CompletableFuture<ReturnT> result = transformer.prepare();
+        CompletableFuture.runAsync(() -> {
+            try {
+                ResponseBytes<GetObjectResponse> object = delegate.getObject(request, ResponseTransformer.toBytes());
+                transformer.onResponse(object.response());
+                transformer.onStream(AsyncRequestBody.fromBytes(object.asByteArrayUnsafe()));
+            } catch (RuntimeException e) {
+                transformer.exceptionOccurred(e);
+            }
+        });
+        return result;
+    }
+
+    @Override
+    public CompletableFuture<DeleteObjectResponse> deleteObject(DeleteObjectRequest request) {
+        return CompletableFuture.supplyAsync(() -> delegate.deleteObject(request));
+    }
+
+    @Override
+    public CompletableFuture<CopyObjectResponse> copyObject(CopyObjectRequest request) {
+        return CompletableFuture.supplyAsync(() -> delegate.copyObject(request));
+    }
+
+    @Override
+    public CompletableFuture<HeadObjectResponse> headObject(HeadObjectRequest request) {
+        return CompletableFuture.supplyAsync(() -> delegate.headObject(request));
+    }
+
+    @Override
+    public String serviceName() {
+        return "s3";
+    }
+
+    @Override
+    public void close() {
+    }
+}
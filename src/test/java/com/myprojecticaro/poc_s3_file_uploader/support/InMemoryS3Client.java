@@ -0,0 +1,662 @@
+package com.myprojecticaro.poc_s3_file_uploader.support;
+
+import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.core.sync.ResponseTransformer;
+import software.amazon.awssdk.http.AbortableInputStream;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CommonPrefix;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CopyObjectRequest;
+import software.amazon.awssdk.services.s3.model.CopyObjectResponse;
+import software.amazon.awssdk.services.s3.model.CopyObjectResult;
+import software.amazon.awssdk.services.s3.model.CopyPartResult;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectResponse;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsResponse;
+import software.amazon.awssdk.services.s3.model.DeletedObject;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+import software.amazon.awssdk.services.s3.model.MetadataDirective;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.ObjectIdentifier;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectResponse;
+import software.amazon.awssdk.services.s3.model.S3Error;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.model.S3Object;
+import software.amazon.awssdk.services.s3.model.UploadPartCopyRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartCopyResponse;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-process stand-in for Amazon S3 used by tests.
+ * <p>
+ * Objects live in a map keyed by object key. Request bodies are consumed through a
+ * small fixed buffer, so the fake itself adds no per-object allocation when
+ * {@code retainContent} is disabled and only sizes are recorded.
+ * </p>
+ * <p>
+ * Requests can be slowed down with a fixed per-request latency and a per-stream
+ * bandwidth cap, applied to response bodies and to upload bodies alike, which is
+ * how a real S3 connection behaves from a single TCP stream. Reads can also be made
+ * to fail a given number of times.
+ * </p>
+ * <p>
+ * To exercise request scheduling, GetObject, HeadObject and PutObject can answer
+ * {@code 503 SlowDown} while more than a given number of them are in progress, as a
+ * prefix of a real bucket does under a burst, and GetObject can stall now and then
+ * for a latency spike before answering.
+ * </p>
+ */
+public class InMemoryS3Client implements S3Client {
+
+    /** An object stored by the fake. {@code data} is {@code null} when content is not retained. */
+    public record StoredObject(byte[] data, long size, String contentType, String eTag,
+                               Instant lastModified, Map<String, String> metadata) {
+    }
+
+    private final NavigableMap<String, StoredObject> objects = new ConcurrentSkipListMap<>();
+    private final boolean retainContent;
+    private final AtomicInteger getRequests = new AtomicInteger();
+    private final AtomicInteger abortedGets = new AtomicInteger();
+    private final AtomicInteger listRequests = new AtomicInteger();
+    private final AtomicInteger deleteRequests = new AtomicInteger();
+    private final AtomicInteger putRequests = new AtomicInteger();
+    private final AtomicInteger uploadPartRequests = new AtomicInteger();
+    private final AtomicInteger copyRequests = new AtomicInteger();
+    private final AtomicInteger uploadPartCopyRequests = new AtomicInteger();
+    private final AtomicInteger concurrentPuts = new AtomicInteger();
+    private final AtomicInteger maxConcurrentPuts = new AtomicInteger();
+    private final AtomicInteger concurrentDeletes = new AtomicInteger();
+    private final AtomicInteger maxConcurrentDeletes = new AtomicInteger();
+    private final Set<String> protectedKeys = ConcurrentHashMap.newKeySet();
+    private final Map<String, AtomicInteger> failingRanges = new ConcurrentHashMap<>();
+    private final AtomicInteger failingParts = new AtomicInteger();
+    private volatile int partFailureStatus;
+    private final Map<String, MultipartUpload> multipartUploads = new ConcurrentHashMap<>();
+    private final AtomicInteger concurrentRequests = new AtomicInteger();
+    private final AtomicInteger throttledRequests = new AtomicInteger();
+    private volatile Duration latency = Duration.ZERO;
+    private volatile long bytesPerSecondPerStream;
+    private volatile int slowDownAbove = Integer.MAX_VALUE;
+    private volatile double spikeProbability;
+    private volatile Duration spike = Duration.ZERO;
+
+    public InMemoryS3Client() {
+        this(true);
+    }
+
+    public InMemoryS3Client(boolean retainContent) {
+        this.retainContent = retainContent;
+    }
+
+    public StoredObject object(String key) {
+        return objects.get(key);
+    }
+
+    public Map<String, StoredObject> objects() {
+        return objects;
+    }
+
+    /** Stores an object directly, bypassing the request path. */
+    public void putObject(String key, byte[] data, String contentType) {
+        objects.put(key, new StoredObject(data, data.length, contentType, eTag(data.length), Instant.now(), Map.of()));
+    }
+
+    /** Adds a fixed delay before every response. */
+    public InMemoryS3Client withLatency(Duration latency) {
+        this.latency = latency;
+        return this;
+    }
+
+    /** Caps the speed of each response and upload body; {@code 0} means unlimited. */
+    public InMemoryS3Client withBandwidthPerStream(long bytesPerSecond) {
+        this.bytesPerSecondPerStream = bytesPerSecond;
+        return this;
+    }
+
+    /** Answers {@code 503 SlowDown} to requests beyond {@code maxConcurrentRequests} in progress. */
+    public InMemoryS3Client withSlowDownAbove(int maxConcurrentRequests) {
+        this.slowDownAbove = maxConcurrentRequests;
+        return this;
+    }
+
+    /** Delays a random {@code probability} of GetObject calls by an extra {@code spike}. */
+    public InMemoryS3Client withLatencySpikes(double probability, Duration spike) {
+        this.spikeProbability = probability;
+        this.spike = spike;
+        return this;
+    }
+
+    /** @return the number of requests answered with {@code 503 SlowDown} */
+    public int throttledRequests() {
+        return throttledRequests.get();
+    }
+
+    /** Makes the next {@code count} GetObject calls for the given range (e.g. {@code bytes=0-99}) fail. */
+    public void failRange(String range, int count) {
+        failingRanges.put(range, new AtomicInteger(count));
+    }
+
+    /** Makes the next {@code count} UploadPart calls fail with the given HTTP status. */
+    public void failUploadParts(int status, int count) {
+        partFailureStatus = status;
+        failingParts.set(count);
+    }
+
+    public int getRequests() {
+        return getRequests.get();
+    }
+
+    /** @return GET responses that were aborted instead of read to the end or closed */
+    public int abortedGets() {
+        return abortedGets.get();
+    }
+
+    public int listRequests() {
+        return listRequests.get();
+    }
+
+    public int putRequests() {
+        return putRequests.get();
+    }
+
+    public int uploadPartRequests() {
+        return uploadPartRequests.get();
+    }
+
+    public int copyRequests() {
+        return copyRequests.get();
+    }
+
+    /** @return the number of UploadPartCopy calls */
+    public int uploadPartCopyRequests() {
+        return uploadPartCopyRequests.get();
+    }
+
+    /** @return the most PutObject calls that were in progress at the same time */
+    public int maxConcurrentPuts() {
+        return maxConcurrentPuts.get();
+    }
+
+    /** @return the number of DeleteObjects calls */
+    public int deleteRequests() {
+        return deleteRequests.get();
+    }
+
+    /** @return the most DeleteObjects calls that were in progress at the same time */
+    public int maxConcurrentDeletes() {
+        return maxConcurrentDeletes.get();
+    }
+
+    /** Makes DeleteObjects report {@code AccessDenied} for the given key and leave it in place. */
+    public void protect(String key) {
+        protectedKeys.add(key);
+    }
+
+    /** @return the number of multipart uploads created but neither completed nor aborted */
+    public int openMultipartUploads() {
+        return multipartUploads.size();
+    }
+
+    @Override
+    public DeleteObjectResponse deleteObject(DeleteObjectRequest request) {
+        objects.remove(request.key());
+        return DeleteObjectResponse.builder().build();
+    }
+
+    @Override
+    public DeleteObjectsResponse deleteObjects(DeleteObjectsRequest request) {
+        deleteRequests.incrementAndGet();
+        maxConcurrentDeletes.accumulateAndGet(concurrentDeletes.incrementAndGet(), Math::max);
+        try {
+            pause(latency);
+            if (request.delete().objects().size() > 1000) {
+                throw error(400, "The XML you provided was not well-formed or did not validate against our published schema");
+            }
+            List<DeletedObject> deleted = new ArrayList<>();
+            List<S3Error> errors = new ArrayList<>();
+            for (ObjectIdentifier object : request.delete().objects()) {
+                if (protectedKeys.contains(object.key())) {
+                    errors.add(S3Error.builder().key(object.key()).code("AccessDenied").message("Access Denied").build());
+                } else {
+                    objects.remove(object.key());
+                    deleted.add(DeletedObject.builder().key(object.key()).build());
+                }
+            }
+            return DeleteObjectsResponse.builder()
+                    .deleted(Boolean.TRUE.equals(request.delete().quiet()) ? List.of() : deleted)
+                    .errors(errors)
+                    .build();
+        } finally {
+            concurrentDeletes.decrementAndGet();
+        }
+    }
+
+    @Override
+    public CreateMultipartUploadResponse createMultipartUpload(CreateMultipartUploadRequest request) {
+        String uploadId = UUID.randomUUID().toString();
+        multipartUploads.put(uploadId, new MultipartUpload(request.key(), request.contentType(),
+                request.metadata() != null ? Map.copyOf(request.metadata()) : Map.of()));
+        return CreateMultipartUploadResponse.builder().bucket(request.bucket()).key(request.key()).uploadId(uploadId).build();
+    }
+
+    @Override
+    public UploadPartResponse uploadPart(UploadPartRequest request, RequestBody body) {
+        uploadPartRequests.incrementAndGet();
+        MultipartUpload upload = multipartUpload(request.uploadId());
+        if (failingParts.getAndUpdate(remaining -> Math.max(0, remaining - 1)) > 0) {
+            throw error(partFailureStatus, "Injected failure of part " + request.partNumber());
+        }
+        try (InputStream in = throttled(body.contentStreamProvider().newStream())) {
+            pause(latency);
+            byte[] data = in.readAllBytes();
+            String eTag = eTag(data.length);
+            upload.parts().put(request.partNumber(), new StoredObject(data, data.length, null, eTag, Instant.now(), Map.of()));
+            return UploadPartResponse.builder().eTag(eTag).build();
+        } catch (IOException e) {
+            throw SdkClientException.create("Unable to execute HTTP request: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public UploadPartCopyResponse uploadPartCopy(UploadPartCopyRequest request) {
+        uploadPartCopyRequests.incrementAndGet();
+        MultipartUpload upload = multipartUpload(request.uploadId());
+        StoredObject source = objects.get(request.sourceKey());
+        if (source == null) {
+            throw NoSuchKeyException.builder().statusCode(404).message("The specified key does not exist.").build();
+        }
+        if (request.copySourceIfMatch() != null && !request.copySourceIfMatch().equals(source.eTag())) {
+            throw error(412, "At least one of the pre-conditions you specified did not hold");
+        }
+        String[] range = request.copySourceRange().substring("bytes=".length()).split("-");
+        byte[] data = Arrays.copyOfRange(source.data(), Integer.parseInt(range[0]), Integer.parseInt(range[1]) + 1);
+        String eTag = eTag(data.length);
+        upload.parts().put(request.partNumber(), new StoredObject(data, data.length, null, eTag, Instant.now(), Map.of()));
+        return UploadPartCopyResponse.builder().copyPartResult(CopyPartResult.builder().eTag(eTag).build()).build();
+    }
+
+    @Override
+    public CompleteMultipartUploadResponse completeMultipartUpload(CompleteMultipartUploadRequest request) {
+        MultipartUpload upload = multipartUpload(request.uploadId());
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        for (CompletedPart part : request.multipartUpload().parts()) {
+            StoredObject stored = upload.parts().get(part.partNumber());
+            if (stored == null || !stored.eTag().equals(part.eTag())) {
+                throw error(400, "InvalidPart " + part.partNumber());
+            }
+            content.writeBytes(stored.data());
+        }
+        multipartUploads.remove(request.uploadId());
+        byte[] data = content.toByteArray();
+        StoredObject object = new StoredObject(retainContent ? data : null, data.length, upload.contentType(),
+                eTag(data.length), Instant.now(), upload.metadata());
+        objects.put(upload.key(), object);
+        return CompleteMultipartUploadResponse.builder().key(upload.key()).eTag(object.eTag()).build();
+    }
+
+    @Override
+    public AbortMultipartUploadResponse abortMultipartUpload(AbortMultipartUploadRequest request) {
+        multipartUploads.remove(request.uploadId());
+        return AbortMultipartUploadResponse.builder().build();
+    }
+
+    private MultipartUpload multipartUpload(String uploadId) {
+        MultipartUpload upload = multipartUploads.get(uploadId);
+        if (upload == null) {
+            throw error(404, "NoSuchUpload " + uploadId);
+        }
+        return upload;
+    }
+
+    private record MultipartUpload(String key, String contentType, Map<String, String> metadata,
+                                   Map<Integer, StoredObject> parts) {
+
+        MultipartUpload(String key, String contentType, Map<String, String> metadata) {
+            this(key, contentType, metadata, new ConcurrentSkipListMap<>());
+        }
+    }
+
+    @Override
+    public <ReturnT> ReturnT getObject(GetObjectRequest request,
+                                       ResponseTransformer<GetObjectResponse, ReturnT> transformer) {
+        admit();
+        try {
+            if (spikeProbability > 0 && ThreadLocalRandom.current().nextDouble() < spikeProbability) {
+                pause(spike);
+            }
+            return get(request, transformer);
+        } finally {
+            concurrentRequests.decrementAndGet();
+        }
+    }
+
+    private <ReturnT> ReturnT get(GetObjectRequest request, ResponseTransformer<GetObjectResponse, ReturnT> transformer) {
+        getRequests.incrementAndGet();
+        pause(latency);
+        AtomicInteger failures = request.range() != null ? failingRanges.get(request.range()) : null;
+        if (failures != null && failures.getAndDecrement() > 0) {
+            throw SdkClientException.create("Injected failure for " + request.range());
+        }
+        StoredObject stored = objects.get(request.key());
+        if (stored == null) {
+            throw NoSuchKeyException.builder().statusCode(404).message("The specified key does not exist.").build();
+        }
+        if (request.ifMatch() != null && !request.ifMatch().equals(stored.eTag())) {
+            throw error(412, "At least one of the pre-conditions you specified did not hold");
+        }
+        if (request.ifNoneMatch() != null && request.ifNoneMatch().equals(stored.eTag())) {
+            throw error(304, "Not Modified");
+        }
+
+        long start = 0;
+        long end = stored.size() - 1;
+        String contentRange = null;
+        if (request.range() != null) {
+            String spec = request.range().substring("bytes=".length());
+            int dash = spec.indexOf('-');
+            if (dash == 0) {
+                start = Math.max(0, stored.size() - Long.parseLong(spec.substring(1)));
+            } else {
+                start = Long.parseLong(spec.substring(0, dash));
+                if (dash < spec.length() - 1) {
+                    end = Math.min(end, Long.parseLong(spec.substring(dash + 1)));
+                }
+            }
+            if (start >= stored.size()) {
+                throw error(416, "The requested range is not satisfiable");
+            }
+            contentRange = "bytes " + start + "-" + end + "/" + stored.size();
+        }
+
+        GetObjectResponse response = GetObjectResponse.builder()
+                .contentLength(end - start + 1)
+                .contentRange(contentRange)
+                .contentType(stored.contentType())
+                .eTag(stored.eTag())
+                .lastModified(stored.lastModified())
+                .metadata(stored.metadata())
+                .build();
+        InputStream body = throttled(new ByteArrayInputStream(stored.data(), (int) start, (int) (end - start + 1)));
+        try {
+            return transformer.transform(response, AbortableInputStream.create(body, abortedGets::incrementAndGet));
+        } catch (Exception e) {
+            throw SdkClientException.create("Response transformation failed", e);
+        }
+    }
+
+    /**
+     * Lists keys in order. The continuation token is simply the last key (or rolled-up
+     * prefix) of the previous page, which is enough for a fake.
+     */
+    @Override
+    public ListObjectsV2Response listObjectsV2(ListObjectsV2Request request) {
+        listRequests.incrementAndGet();
+        pause(latency);
+        String prefix = request.prefix() != null ? request.prefix() : "";
+        String delimiter = request.delimiter() != null && !request.delimiter().isEmpty() ? request.delimiter() : null;
+        int maxKeys = request.maxKeys() != null ? request.maxKeys() : 1000;
+        String after = request.continuationToken() != null ? request.continuationToken() : request.startAfter();
+
+        List<S3Object> contents = new ArrayList<>();
+        List<CommonPrefix> commonPrefixes = new ArrayList<>();
+        String last = null;
+        boolean truncated = false;
+        for (Map.Entry<String, StoredObject> entry : (after != null ? objects.tailMap(after, false) : objects).entrySet()) {
+            String key = entry.getKey();
+            if (!key.startsWith(prefix)) {
+                if (key.compareTo(prefix) > 0) {
+                    break;
+                }
+                continue;
+            }
+            int rollUp = delimiter != null ? key.indexOf(delimiter, prefix.length()) : -1;
+            String commonPrefix = rollUp >= 0 ? key.substring(0, rollUp + delimiter.length()) : null;
+            if (commonPrefix != null && !commonPrefixes.isEmpty()
+                    && commonPrefixes.get(commonPrefixes.size() - 1).prefix().equals(commonPrefix)) {
+                continue;
+            }
+            if (contents.size() + commonPrefixes.size() == maxKeys) {
+                truncated = true;
+                break;
+            }
+            if (commonPrefix != null) {
+                commonPrefixes.add(CommonPrefix.builder().prefix(commonPrefix).build());
+                // Skip every remaining key under the prefix when resuming.
+                last = commonPrefix + Character.MAX_VALUE;
+            } else {
+                StoredObject stored = entry.getValue();
+                contents.add(S3Object.builder()
+                        .key(key)
+                        .size(stored.size())
+                        .eTag(stored.eTag())
+                        .lastModified(stored.lastModified())
+                        .build());
+                last = key;
+            }
+        }
+        return ListObjectsV2Response.builder()
+                .name(request.bucket())
+                .prefix(request.prefix())
+                .delimiter(request.delimiter())
+                .maxKeys(maxKeys)
+                .keyCount(contents.size() + commonPrefixes.size())
+                .contents(contents)
+                .commonPrefixes(commonPrefixes)
+                .continuationToken(request.continuationToken())
+                .isTruncated(truncated)
+                .nextContinuationToken(truncated ? last : null)
+                .build();
+    }
+
+    @Override
+    public PutObjectResponse putObject(PutObjectRequest request, RequestBody body) {
+        admit();
+        try {
+            return put(request, body);
+        } finally {
+            concurrentRequests.decrementAndGet();
+        }
+    }
+
+    private PutObjectResponse put(PutObjectRequest request, RequestBody body) {
+        putRequests.incrementAndGet();
+        maxConcurrentPuts.accumulateAndGet(concurrentPuts.incrementAndGet(), Math::max);
+        StoredObject stored;
+        try (InputStream in = throttled(body.contentStreamProvider().newStream())) {
+            pause(latency);
+            stored = store(in, request.contentType(), request.metadata());
+        } catch (IOException e) {
+            // The real client reports a body that fails to read the same way.
+            throw SdkClientException.create("Unable to execute HTTP request: " + e.getMessage(), e);
+        } finally {
+            concurrentPuts.decrementAndGet();
+        }
+        objects.put(request.key(), stored);
+        return PutObjectResponse.builder().eTag(stored.eTag()).build();
+    }
+
+    @Override
+    public CopyObjectResponse copyObject(CopyObjectRequest request) {
+        copyRequests.incrementAndGet();
+        pause(latency);
+        StoredObject source = objects.get(request.sourceKey());
+        if (source == null) {
+            throw NoSuchKeyException.builder().statusCode(404).message("The specified key does not exist.").build();
+        }
+        boolean replace = request.metadataDirective() == MetadataDirective.REPLACE;
+        StoredObject copy = new StoredObject(source.data(), source.size(),
+                replace ? request.contentType() : source.contentType(), eTag(source.size()), Instant.now(),
+                replace && request.metadata() != null ? Map.copyOf(request.metadata()) : source.metadata());
+        objects.put(request.destinationKey(), copy);
+        return CopyObjectResponse.builder()
+                .copyObjectResult(CopyObjectResult.builder().eTag(copy.eTag()).lastModified(copy.lastModified()).build())
+                .build();
+    }
+
+    @Override
+    public HeadObjectResponse headObject(HeadObjectRequest request) {
+        admit();
+        try {
+            pause(latency);
+            StoredObject stored = objects.get(request.key());
+            if (stored == null) {
+                throw NoSuchKeyException.builder().statusCode(404).message("Not Found").build();
+            }
+            return HeadObjectResponse.builder()
+                    .contentLength(stored.size())
+                    .contentType(stored.contentType())
+                    .eTag(stored.eTag())
+                    .lastModified(stored.lastModified())
+                    .metadata(stored.metadata())
+                    .build();
+        } finally {
+            concurrentRequests.decrementAndGet();
+        }
+    }
+
+    /** Counts a request in, or answers {@code 503 SlowDown} if too many are in progress; callers decrement on exit. */
+    private void admit() {
+        if (concurrentRequests.incrementAndGet() > slowDownAbove) {
+            concurrentRequests.decrementAndGet();
+            throttledRequests.incrementAndGet();
+            throw (S3Exception) S3Exception.builder()
+                    .statusCode(503)
+                    .awsErrorDetails(AwsErrorDetails.builder()
+                            .errorCode("SlowDown")
+                            .errorMessage("Please reduce your request rate.")
+                            .build())
+                    .message("Please reduce your request rate.")
+                    .build();
+        }
+    }
+
+    private StoredObject store(InputStream in, String contentType, Map<String, String> metadata) throws IOException {
+        ByteArrayOutputStream content = retainContent ? new ByteArrayOutputStream() : null;
+        byte[] chunk = new byte[8192];
+        long size = 0;
+        int n;
+        while ((n = in.read(chunk)) != -1) {
+            size += n;
+            if (content != null) {
+                content.write(chunk, 0, n);
+            }
+        }
+        byte[] data = content != null ? content.toByteArray() : null;
+        return new StoredObject(data, size, contentType, eTag(size), Instant.now(),
+                metadata != null ? Map.copyOf(metadata) : Map.of());
+    }
+
+    private static String eTag(long size) {
+        return "\"" + Long.toHexString(size) + "-" + Long.toHexString(System.nanoTime()) + "\"";
+    }
+
+    private static S3Exception error(int status, String message) {
+        return (S3Exception) S3Exception.builder().statusCode(status).message(message).build();
+    }
+
+    private InputStream throttled(InputStream in) {
+        long bytesPerSecond = bytesPerSecondPerStream;
+        return bytesPerSecond > 0 ? new ThrottledInputStream(in, bytesPerSecond) : in;
+    }
+
+    private static void pause(Duration duration) {
+        if (duration.isZero()) {
+            return;
+        }
+        try {
+            Thread.sleep(duration.toMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Limits the read speed of a stream, like a single bandwidth-bound TCP connection. */
+    private static final class ThrottledInputStream extends FilterInputStream {
+
+        private final long bytesPerSecond;
+        private final long started = System.nanoTime();
+        private long read;
+
+        ThrottledInputStream(InputStream in, long bytesPerSecond) {
+            super(in);
+            this.bytesPerSecond = bytesPerSecond;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                throttle(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, (int) Math.min(len, Math.max(1, bytesPerSecond / 100)));
+            if (n > 0) {
+                throttle(n);
+            }
+            return n;
+        }
+
+        private void throttle(int n) throws IOException {
+            read += n;
+            long dueNanos = read * 1_000_000_000L / bytesPerSecond;
+            long aheadNanos = dueNanos - (System.nanoTime() - started);
+            if (aheadNanos > 0) {
+                try {
+                    Thread.sleep(aheadNanos / 1_000_000, (int) (aheadNanos % 1_000_000));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+            }
+        }
+    }
+
+    @Override
+    public String serviceName() {
+        return "s3";
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,37 @@
+package com.myprojecticaro.poc_s3_file_uploader.support;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Primary;
+
+import java.time.Duration;
+
+/**
+ * Replaces the real S3 clients with the in-memory stand-in for application-level tests.
+ * <p>
+ * Load tests can make the stand-in behave like a remote S3 with
+ * {@code test.s3.latency} (added to every request) and
+ * {@code test.s3.bandwidth-per-stream} (bytes per second per request body), and keep
+ * memory flat with {@code test.s3.retain-content=false}.
+ * </p>
+ */
+@TestConfiguration(proxyBeanMethods = false)
+public class InMemoryS3TestConfiguration {
+
+    @Bean
+    @Primary
+    public InMemoryS3Client inMemoryS3Client(@Value("${test.s3.retain-content:true}") boolean retainContent,
+                                             @Value("${test.s3.latency:0ms}") Duration latency,
+                                             @Value("${test.s3.bandwidth-per-stream:0}") long bandwidthPerStream) {
+        return new InMemoryS3Client(retainContent)
+                .withLatency(latency)
+                .withBandwidthPerStream(bandwidthPerStream);
+    }
+
+    @Bean
+    @Primary
+    public InMemoryS3AsyncClient inMemoryS3AsyncClient(InMemoryS3Client inMemoryS3Client) {
+        return new InMemoryS3AsyncClient(inMemoryS3Client);
+    }
+}
@@ -0,0 +1,197 @@
+package com.myprojecticaro.poc_s3_file_uploader.support;
+
+import com.myprojecticaro.poc_s3_file_uploader.io.BufferPool;
+import com.myprojecticaro.poc_s3_file_uploader.metrics.TransferMetrics;
+import com.myprojecticaro.poc_s3_file_uploader.service.AntivirusService;
+import com.myprojecticaro.poc_s3_file_uploader.service.BatchDeleteService;
+import com.myprojecticaro.poc_s3_file_uploader.service.ContentHashIndex;
+import com.myprojecticaro.poc_s3_file_uploader.service.MetadataIndex;
+import com.myprojecticaro.poc_s3_file_uploader.service.MultipartUploadService;
+import com.myprojecticaro.poc_s3_file_uploader.service.ObjectCache;
+import com.myprojecticaro.poc_s3_file_uploader.service.ParallelDownloadService;
+import com.myprojecticaro.poc_s3_file_uploader.service.QuarantineService;
+import com.myprojecticaro.poc_s3_file_uploader.service.S3RequestScheduler;
+import com.myprojecticaro.poc_s3_file_uploader.service.S3Service;
+import com.myprojecticaro.poc_s3_file_uploader.service.StorageCompression;
+import com.myprojecticaro.poc_s3_file_uploader.service.WriteBehindSpool;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.test.util.ReflectionTestUtils;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.S3Client;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Builds an {@link S3Service} for tests, with every optional feature off.
+ * <p>
+ * A test sets only the collaborators it exercises; the others are either disabled
+ * (cache, dedup index, quarantine, compression, write-behind spool) or {@code null}.
+ * Writers get a virtual thread each, as with the {@code s3WriterExecutor} bean.
+ * The service uses the bucket {@code test-bucket} in {@code us-east-1}.
+ * </p>
+ * <pre>
+ * S3Service s3Service = S3ServiceFixture.on(s3Client).bufferPool(bufferPool).executor(executor).build();
+ * </pre>
+ */
+public final class S3ServiceFixture {
+
+    public static final String BUCKET = "test-bucket";
+
+    private final S3Client s3Client;
+    private S3AsyncClient s3AsyncClient;
+    private S3RequestScheduler requestScheduler = disabledScheduler();
+    private AntivirusService antivirusService = new AntivirusService();
+    private BufferPool bufferPool;
+    private ParallelDownloadService parallelDownloadService;
+    private MultipartUploadService multipartUploadService;
+    private BatchDeleteService batchDeleteService;
+    private ExecutorService executor;
+    private ExecutorService writerExecutor = Executors.newVirtualThreadPerTaskExecutor();
+    private MetadataIndex metadataIndex;
+    private ObjectCache objectCache = disabledCache();
+    private ContentHashIndex contentHashIndex = disabledIndex();
+    private QuarantineService quarantineService = disabledQuarantine();
+    private StorageCompression storageCompression = disabledCompression();
+    private WriteBehindSpool writeBehindSpool = disabledSpool();
+    private TransferMetrics transferMetrics = TransferMetrics.disabled();
+    private ApplicationEventPublisher eventPublisher = event -> { };
+    private int maxBatchUploadsInFlight = 16;
+
+    private S3ServiceFixture(S3Client s3Client) {
+        this.s3Client = s3Client;
+        this.metadataIndex = new MetadataIndex(s3Client);
+    }
+
+    public static S3ServiceFixture on(S3Client s3Client) {
+        return new S3ServiceFixture(s3Client);
+    }
+
+    public static ObjectCache disabledCache() {
+        return new ObjectCache(false, 0, 0, 16384, Duration.ZERO);
+    }
+
+    public static ContentHashIndex disabledIndex() {
+        return new ContentHashIndex(false, ContentHashIndex.Mode.COPY, 0, null);
+    }
+
+    public static QuarantineService disabledQuarantine() {
+        return new QuarantineService(null, null, null, null, TransferMetrics.disabled(), event -> { }, false,
+                "quarantine/", 1, Path.of("unused"));
+    }
+
+    public static StorageCompression disabledCompression() {
+        return new StorageCompression(false, "zstd", 0, 1024, 65536, 0.9, new String[0]);
+    }
+
+    public static S3RequestScheduler disabledScheduler() {
+        return new S3RequestScheduler(false, 64, 4, 1024, Duration.ofMillis(100), Duration.ofSeconds(10), 5,
+                Duration.ofMillis(50), Duration.ofSeconds(5), false, Duration.ofMillis(10), 0.05);
+    }
+
+    public static WriteBehindSpool disabledSpool() {
+        return new WriteBehindSpool(null, null, event -> { }, false, Path.of("unused"), 0, 0, 1, 1, Duration.ZERO);
+    }
+
+    public S3ServiceFixture asyncClient(S3AsyncClient s3AsyncClient) {
+        this.s3AsyncClient = s3AsyncClient;
+        return this;
+    }
+
+    public S3ServiceFixture scheduler(S3RequestScheduler requestScheduler) {
+        this.requestScheduler = requestScheduler;
+        return this;
+    }
+
+    public S3ServiceFixture antivirus(AntivirusService antivirusService) {
+        this.antivirusService = antivirusService;
+        return this;
+    }
+
+    public S3ServiceFixture bufferPool(BufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+        return this;
+    }
+
+    public S3ServiceFixture parallelDownloads(ParallelDownloadService parallelDownloadService) {
+        this.parallelDownloadService = parallelDownloadService;
+        return this;
+    }
+
+    public S3ServiceFixture multipartUploads(MultipartUploadService multipartUploadService) {
+        this.multipartUploadService = multipartUploadService;
+        return this;
+    }
+
+    public S3ServiceFixture batchDeletes(BatchDeleteService batchDeleteService) {
+        this.batchDeleteService = batchDeleteService;
+        return this;
+    }
+
+    public S3ServiceFixture executor(ExecutorService executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    public S3ServiceFixture writerExecutor(ExecutorService writerExecutor) {
+        this.writerExecutor = writerExecutor;
+        return this;
+    }
+
+    public S3ServiceFixture metadataIndex(MetadataIndex metadataIndex) {
+        this.metadataIndex = metadataIndex;
+        return this;
+    }
+
+    public S3ServiceFixture objectCache(ObjectCache objectCache) {
+        this.objectCache = objectCache;
+        return this;
+    }
+
+    public S3ServiceFixture contentHashIndex(ContentHashIndex contentHashIndex) {
+        this.contentHashIndex = contentHashIndex;
+        return this;
+    }
+
+    public S3ServiceFixture quarantine(QuarantineService quarantineService) {
+        this.quarantineService = quarantineService;
+        return this;
+    }
+
+    public S3ServiceFixture compression(StorageCompression storageCompression) {
+        this.storageCompression = storageCompression;
+        return this;
+    }
+
+    public S3ServiceFixture spool(WriteBehindSpool writeBehindSpool) {
+        this.writeBehindSpool = writeBehindSpool;
+        return this;
+    }
+
+    public S3ServiceFixture metrics(TransferMetrics transferMetrics) {
+        this.transferMetrics = transferMetrics;
+        return this;
+    }
+
+    public S3ServiceFixture events(ApplicationEventPublisher eventPublisher) {
+        this.eventPublisher = eventPublisher;
+        return this;
+    }
+
+    public S3ServiceFixture maxBatchUploadsInFlight(int maxBatchUploadsInFlight) {
+        this.maxBatchUploadsInFlight = maxBatchUploadsInFlight;
+        return this;
+    }
+
+    public S3Service build() {
+        S3Service s3Service = new S3Service(s3Client, s3AsyncClient, null, requestScheduler, antivirusService, bufferPool,
+                parallelDownloadService, multipartUploadService, batchDeleteService, executor, writerExecutor,
+                metadataIndex, objectCache, contentHashIndex, quarantineService, storageCompression, writeBehindSpool,
+                transferMetrics, eventPublisher, maxBatchUploadsInFlight);
+        ReflectionTestUtils.setField(s3Service, "bucketName", BUCKET);
+        ReflectionTestUtils.setField(s3Service, "region", "us-east-1");
+        return s3Service;
+    }
+}